@@ -67,7 +67,12 @@ public class DigitalLibraryApp {
         String email = com.digitallibrary.util.InputHelper.readNonEmptyString(scanner, "Email: ");
         String id = com.digitallibrary.util.IdGenerator.generate();
         com.digitallibrary.model.User u = new com.digitallibrary.model.User(id, name, email);
-        userService.register(u);
+        try {
+            userService.register(u);
+        } catch (com.digitallibrary.repository.DuplicateEmailException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
         System.out.println("Utente registrato con ID: " + id);
     }
 
@@ -185,14 +190,17 @@ public class DigitalLibraryApp {
 
     private void handleList() {
         System.out.println("--- Catalogo Libri ---");
-        List<Book> books = service.listAll();
-        if (books.isEmpty()) {
-            System.out.println("Nessun libro presente.");
-            return;
-        }
-        for (Book b : books) {
-            System.out.println(b.getFormattedInfo());
-            System.out.println("----------------------");
+        // stampa man mano che i libri vengono letti, senza caricare il catalogo intero
+        try (java.util.stream.Stream<Book> books = service.streamAll()) {
+            java.util.Iterator<Book> it = books.iterator();
+            if (!it.hasNext()) {
+                System.out.println("Nessun libro presente.");
+                return;
+            }
+            while (it.hasNext()) {
+                System.out.println(it.next().getFormattedInfo());
+                System.out.println("----------------------");
+            }
         }
     }
 
@@ -211,43 +219,91 @@ public class DigitalLibraryApp {
         System.out.println(ok ? "Eliminato." : "Non trovato.");
     }
 
-    public static void main(String[] args) {
-        // Scegli repository in base agli argomenti: --memory, --json o default CSV
+    // Valore di un'opzione nella forma --nome=valore, o null se assente
+    private static String optionValue(String[] args, String name) {
+        String prefix = name + "=";
+        for (String a : args) {
+            if (a.startsWith(prefix)) return a.substring(prefix.length());
+        }
+        return null;
+    }
+
+    /**
+     * Registra la metrica "watch.<nome>" e propaga le modifiche esterne al file:
+     * invalida le voci in cache dei record cambiati e ricostruisce il filtro di Bloom se ci sono id nuovi.
+     */
+    private static <T> void onFileChange(String name, com.digitallibrary.repository.FileSnapshot<T> snapshot,
+            java.util.function.Function<T, String> idOf, java.util.function.Consumer<String> invalidate, Runnable rebuild) {
+        com.digitallibrary.util.Metrics.register("watch." + name, snapshot::stats);
+        snapshot.addListener(change -> {
+            if (!change.isExternal() || change.isEmpty()) return;
+            for (T item : change.getUpdated()) invalidate.accept(idOf.apply(item));
+            for (String id : change.getRemovedIds()) invalidate.accept(id);
+            if (!change.getAdded().isEmpty()) rebuild.run();
+        });
+    }
+
+    /** Libri di data/books.json, letti al più una volta e solo se servono; lista vuota se il file manca. */
+    private static java.util.function.Supplier<java.util.List<Book>> seedBooks() {
+        java.nio.file.Path seedJson = java.nio.file.Paths.get(System.getProperty("user.dir"), "data", "books.json");
+        java.util.List<java.util.List<Book>> loaded = new java.util.ArrayList<>(1);
+        return () -> {
+            synchronized (loaded) {
+                if (loaded.isEmpty()) {
+                    java.util.List<Book> books = java.util.Collections.emptyList();
+                    if (java.nio.file.Files.exists(seedJson)) {
+                        try {
+                            books = new JsonBookRepository(seedJson.toString()).loadAll();
+                        } catch (Exception ex) {
+                            System.out.println("Impossibile caricare seed books: " + ex.getMessage());
+                        }
+                    }
+                    loaded.add(books);
+                }
+                return loaded.get(0);
+            }
+        };
+    }
+
+    // Fase "books": backend scelto dagli argomenti, seed, cache e filtro di Bloom
+    private static BookRepository openBooks(String[] args, java.util.function.Supplier<java.util.List<Book>> seedBooks) {
+        // Scegli repository in base agli argomenti: --memory, --compact, --mmap, --json, --sqlite o default CSV
         BookRepository repo;
-    boolean useMemory = Arrays.asList(args).contains("--memory");
-    boolean useJson = Arrays.asList(args).contains("--json");
-    boolean useSqlite = Arrays.asList(args).contains("--sqlite");
-    String csvPath = System.getProperty("user.home") + "/digitallibrary_books.csv";
-    String jsonPath = System.getProperty("user.home") + "/digitallibrary_books.json";
-    String sqlitePath = System.getProperty("user.dir") + "/data/sample_books.db";
+        boolean useMemory = Arrays.asList(args).contains("--memory");
+        boolean useCompact = Arrays.asList(args).contains("--compact");
+        boolean useJson = Arrays.asList(args).contains("--json");
+        boolean useSqlite = Arrays.asList(args).contains("--sqlite");
+        boolean useMmap = Arrays.asList(args).contains("--mmap");
+        String csvPath = System.getProperty("user.home") + "/digitallibrary_books.csv";
+        String jsonPath = System.getProperty("user.home") + "/digitallibrary_books.json";
+        String sqlitePath = System.getProperty("user.dir") + "/data/sample_books.db";
+        String mmapPath = System.getProperty("user.dir") + "/data/books.mmap";
+        String durabilityOpt = optionValue(args, "--durability");
 
         if (useMemory) {
+            // seed in-memory books from data/books.json if present; loans for the books marked
+            // as not available are created by the seed-loans phase
             InMemoryBookRepository im = new InMemoryBookRepository();
-            // seed in-memory books from data/books.json if present
-            java.nio.file.Path seedJson = java.nio.file.Paths.get(System.getProperty("user.dir"), "data", "books.json");
-            if (java.nio.file.Files.exists(seedJson)) {
-                try {
-                    JsonBookRepository loader = new JsonBookRepository(seedJson.toString());
-                    java.util.List<Book> seeded = loader.loadAll();
-                    im.saveAll(seeded);
-                    // later we'll create loans for those books marked as not available
-                    // (we'll create them after user repo and loan repo are initialized)
-                } catch (Exception ex) {
-                    System.out.println("Impossibile caricare seed books: " + ex.getMessage());
-                }
-            }
+            im.saveAll(seedBooks.get());
             repo = im;
+        } else if (useCompact) {
+            // catalogo compatto per colonne, seed da data/books.json come per --memory
+            com.digitallibrary.repository.CompactBookRepository cr = new com.digitallibrary.repository.CompactBookRepository();
+            cr.saveAll(seedBooks.get());
+            repo = cr;
+        } else if (useMmap) {
+            // catalogo off-heap: l'avvio è solo un mmap, il seed da JSON avviene sotto se vuoto
+            com.digitallibrary.repository.MappedBookRepository mr = new com.digitallibrary.repository.MappedBookRepository(mmapPath);
+            Runtime.getRuntime().addShutdownHook(new Thread(mr::close));
+            repo = mr;
         } else if (useJson) {
             repo = new JsonBookRepository(jsonPath);
         } else if (useSqlite) {
             try {
-                com.digitallibrary.repository.SqliteBookRepository srepo = new com.digitallibrary.repository.SqliteBookRepository(sqlitePath);
-                // Seed from bundled JSON if DB empty
-                java.nio.file.Path seedJson = java.nio.file.Paths.get(System.getProperty("user.dir"), "data", "books.json");
-                if (java.nio.file.Files.exists(seedJson)) {
-                    JsonBookRepository loader = new JsonBookRepository(seedJson.toString());
-                    srepo.saveAll(loader.loadAll());
-                }
+                com.digitallibrary.repository.SqliteBookRepository srepo = new com.digitallibrary.repository.SqliteBookRepository(sqlitePath,
+                    durabilityOpt != null ? com.digitallibrary.repository.Durability.parse(durabilityOpt) : null);
+                // Seed from bundled JSON, skipped while the file's checksum matches the last import
+                srepo.seedFromJson(java.nio.file.Paths.get(System.getProperty("user.dir"), "data", "books.json"));
                 repo = srepo;
             } catch (Exception e) {
                 e.printStackTrace();
@@ -262,36 +318,133 @@ public class DigitalLibraryApp {
             }
         }
 
-    BookService service = new BookService(repo);
-    DigitalLibraryApp app = new DigitalLibraryApp(service);
-    // If repository is empty and a data/books.json seed exists, load it so the web UI shows books
-    try {
-        java.nio.file.Path seedJson = java.nio.file.Paths.get(System.getProperty("user.dir"), "data", "books.json");
-        if (java.nio.file.Files.exists(seedJson) && service.listAll().isEmpty()) {
-            try {
-                JsonBookRepository loader = new JsonBookRepository(seedJson.toString());
-                java.util.List<Book> seeded = loader.loadAll();
-                if (seeded != null && !seeded.isEmpty()) {
+        // Record non validi trovati dall'ultima lettura completa del backend (metrica "load.books")
+        java.util.function.Supplier<com.digitallibrary.model.BookLoadReport> lastLoad = null;
+        if (repo instanceof JsonBookRepository) lastLoad = ((JsonBookRepository) repo)::getLastLoadReport;
+        if (repo instanceof CsvBookRepository) lastLoad = ((CsvBookRepository) repo)::getLastLoadReport;
+        if (repo instanceof com.digitallibrary.repository.SqliteBookRepository) {
+            lastLoad = ((com.digitallibrary.repository.SqliteBookRepository) repo)::getLastLoadReport;
+        }
+        if (lastLoad != null) {
+            java.util.function.Supplier<com.digitallibrary.model.BookLoadReport> last = lastLoad;
+            com.digitallibrary.util.Metrics.register("load.books", () -> {
+                com.digitallibrary.model.BookLoadReport r = last.get();
+                return r == null ? java.util.Collections.emptyMap() : r.stats();
+            });
+        }
+
+        // Ricarica incrementale (--watch): i repository su file leggono da una copia in memoria
+        // aggiornata in background quando il file viene modificato da fuori
+        boolean useWatch = Arrays.asList(args).contains("--watch");
+        com.digitallibrary.repository.FileSnapshot<Book> bookSnapshot = null;
+        if (useWatch && repo instanceof JsonBookRepository) bookSnapshot = ((JsonBookRepository) repo).watch();
+        if (useWatch && repo instanceof CsvBookRepository) bookSnapshot = ((CsvBookRepository) repo).watch();
+
+        // Cache read-through opzionale (--cache, --cache-mb=N, --cache-ttl=secondi) per i backend su file/DB
+        com.digitallibrary.repository.CachingBookRepository cachedBooks = null;
+        if (useCache(args) && !useMemory && !useCompact) {
+            com.digitallibrary.repository.CachingBookRepository cached = new com.digitallibrary.repository.CachingBookRepository(repo,
+                new com.digitallibrary.util.LruCache<>(cacheBytes(args), cacheTtl(args), com.digitallibrary.repository.CachingBookRepository::estimateSize));
+            com.digitallibrary.util.Metrics.register("cache.books", cached::stats);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("Cache libri: " + cached.stats())));
+            repo = cached;
+            cachedBooks = cached;
+        }
+
+        // Filtro di Bloom sugli id (--bloom): gli id inesistenti non arrivano allo storage
+        com.digitallibrary.repository.BloomBookRepository bloomBooks = null;
+        if (Arrays.asList(args).contains("--bloom") && !useMemory && !useCompact) {
+            bloomBooks = new com.digitallibrary.repository.BloomBookRepository(repo, BLOOM_FPP);
+            com.digitallibrary.util.Metrics.register("bloom.books", bloomBooks::stats);
+            repo = bloomBooks;
+        }
+        if (bookSnapshot != null) {
+            com.digitallibrary.repository.CachingBookRepository c = cachedBooks;
+            com.digitallibrary.repository.BloomBookRepository b = bloomBooks;
+            onFileChange("books", bookSnapshot, Book::getId, id -> { if (c != null) c.invalidate(id); }, () -> { if (b != null) b.rebuild(); });
+        }
+
+        // If repository is empty and a data/books.json seed exists, load it so the web UI shows books
+        if (!useMemory && !useCompact && !useSqlite) {
+            boolean empty;
+            try (java.util.stream.Stream<Book> all = repo.streamAll()) {
+                empty = !all.findAny().isPresent();
+            } catch (Exception e) {
+                empty = false;
+            }
+            java.util.List<Book> seeded = empty ? seedBooks.get() : java.util.Collections.emptyList();
+            if (!seeded.isEmpty()) {
+                try {
                     repo.saveAll(seeded);
                     System.out.println("Seeded repository with data/books.json (" + seeded.size() + " books)");
+                } catch (Exception ex) {
+                    System.out.println("Unable to seed books from data/books.json: " + ex.getMessage());
                 }
-            } catch (Exception ex) {
-                System.out.println("Unable to seed books from data/books.json: " + ex.getMessage());
             }
         }
-    } catch (Exception e) { /* ignore seeding errors */ }
-        // initialize user repository: prefer JSON file if present
+        return repo;
+    }
+
+    private static final double BLOOM_FPP = 0.01;
+    // intervallo tra due archiviazioni dei prestiti restituiti (--archive-after)
+    private static final long ARCHIVE_INTERVAL_MS = 60 * 60 * 1000;
+
+    private static boolean useCache(String[] args) {
+        return Arrays.asList(args).contains("--cache") || optionValue(args, "--cache-mb") != null || optionValue(args, "--cache-ttl") != null;
+    }
+
+    private static long cacheBytes(String[] args) {
+        return Long.parseLong(Optional.ofNullable(optionValue(args, "--cache-mb")).orElse("16")) * 1024 * 1024;
+    }
+
+    private static long cacheTtl(String[] args) {
+        return Long.parseLong(Optional.ofNullable(optionValue(args, "--cache-ttl")).orElse("300"));
+    }
+
+    // Fase "users": initialize user repository, prefer JSON file if present
+    private static com.digitallibrary.repository.UserRepository openUsers(String[] args) {
+        boolean useWatch = Arrays.asList(args).contains("--watch");
         com.digitallibrary.repository.UserRepository urepo;
+        com.digitallibrary.repository.FileSnapshot<com.digitallibrary.model.User> userSnapshot = null;
         java.nio.file.Path usersJson = java.nio.file.Paths.get(System.getProperty("user.dir"), "data", "users.json");
         if (java.nio.file.Files.exists(usersJson)) {
-            urepo = new com.digitallibrary.repository.JsonUserRepository(usersJson.toString());
+            com.digitallibrary.repository.JsonUserRepository jsonUsers = new com.digitallibrary.repository.JsonUserRepository(usersJson.toString());
+            if (useWatch) userSnapshot = jsonUsers.watch();
+            urepo = jsonUsers;
         } else {
             urepo = new com.digitallibrary.repository.InMemoryUserRepository();
         }
-        com.digitallibrary.service.UserService userService = new com.digitallibrary.service.UserService(urepo);
+        com.digitallibrary.repository.CachingUserRepository cachedUsers = null;
+        if (useCache(args) && urepo instanceof com.digitallibrary.repository.JsonUserRepository) {
+            cachedUsers = new com.digitallibrary.repository.CachingUserRepository(urepo,
+                new com.digitallibrary.util.LruCache<>(cacheBytes(args), cacheTtl(args), com.digitallibrary.repository.CachingUserRepository::estimateSize));
+            com.digitallibrary.util.Metrics.register("cache.users", cachedUsers::stats);
+            com.digitallibrary.repository.CachingUserRepository cu = cachedUsers;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("Cache utenti: " + cu.stats())));
+            urepo = cachedUsers;
+        }
+        com.digitallibrary.repository.BloomUserRepository bloomUsers = null;
+        boolean useBloom = Arrays.asList(args).contains("--bloom");
+        if (useBloom && urepo instanceof com.digitallibrary.repository.JsonUserRepository
+                || useBloom && urepo instanceof com.digitallibrary.repository.CachingUserRepository) {
+            bloomUsers = new com.digitallibrary.repository.BloomUserRepository(urepo, BLOOM_FPP);
+            com.digitallibrary.util.Metrics.register("bloom.users", bloomUsers::stats);
+            urepo = bloomUsers;
+        }
+        if (userSnapshot != null) {
+            com.digitallibrary.repository.CachingUserRepository c = cachedUsers;
+            com.digitallibrary.repository.BloomUserRepository b = bloomUsers;
+            onFileChange("users", userSnapshot, com.digitallibrary.model.User::getId, id -> { if (c != null) c.invalidate(id); }, () -> { if (b != null) b.rebuild(); });
+        }
+        return urepo;
+    }
 
-        // initialize loan repository: prefer JSON file if present. If running in --memory
-        // mode and users.json exists, create data/loans.json (empty array) so loans persist.
+    // Fase "loans": initialize loan repository, prefer JSON file if present. If running in --memory
+    // mode and users.json exists, create data/loans.json (empty array) so loans persist.
+    private static com.digitallibrary.repository.LoanRepository openLoans(String[] args,
+            java.util.concurrent.atomic.AtomicReference<com.digitallibrary.repository.FileSnapshot<com.digitallibrary.model.Loan>> watched) {
+        boolean useMemory = Arrays.asList(args).contains("--memory");
+        java.nio.file.Path usersJson = java.nio.file.Paths.get(System.getProperty("user.dir"), "data", "users.json");
         com.digitallibrary.repository.LoanRepository lrepo;
         java.nio.file.Path loansJson = java.nio.file.Paths.get(System.getProperty("user.dir"), "data", "loans.json");
         try {
@@ -311,51 +464,180 @@ public class DigitalLibraryApp {
             e.printStackTrace();
             lrepo = new com.digitallibrary.repository.InMemoryLoanRepository();
         }
-        com.digitallibrary.service.LoanService loanService = new com.digitallibrary.service.LoanService(lrepo);
-    // If some seeded books are not available, create corresponding loans and a seed user
-    try {
-        com.digitallibrary.model.User seedUser = null;
-        // Try to find an existing seed user by email to avoid duplicates
-        String seedEmail = "seed@example.local";
-        for (com.digitallibrary.model.User u : urepo.findAll()) {
-            if (u.getEmail() != null && u.getEmail().equalsIgnoreCase(seedEmail)) { seedUser = u; break; }
+        com.digitallibrary.repository.FileSnapshot<com.digitallibrary.model.Loan> loanSnapshot = null;
+        if (Arrays.asList(args).contains("--watch") && lrepo instanceof com.digitallibrary.repository.JsonLoanRepository) {
+            loanSnapshot = ((com.digitallibrary.repository.JsonLoanRepository) lrepo).watch();
         }
-        // Use service.listAll() to avoid casting repo implementation
-        for (Book b : service.listAll()) {
-            if (!b.isAvailable()) {
-                // ensure seed user exists
+        com.digitallibrary.repository.BloomLoanRepository bloomLoans = null;
+        if (Arrays.asList(args).contains("--bloom") && lrepo instanceof com.digitallibrary.repository.JsonLoanRepository) {
+            bloomLoans = new com.digitallibrary.repository.BloomLoanRepository(lrepo, BLOOM_FPP);
+            com.digitallibrary.util.Metrics.register("bloom.loans", bloomLoans::stats);
+            lrepo = bloomLoans;
+        }
+        if (loanSnapshot != null) {
+            watched.set(loanSnapshot);
+            com.digitallibrary.repository.BloomLoanRepository b = bloomLoans;
+            onFileChange("loans", loanSnapshot, com.digitallibrary.model.Loan::getId, id -> {}, () -> { if (b != null) b.rebuild(); });
+        }
+        return lrepo;
+    }
+
+    // Fase "reconcile": conteggio dei prestiti aperti per libro con una sola lettura dei prestiti, poi verifica
+    // parallela del catalogo. I libri non disponibili senza prestiti aperti (es. quelli marcati così in
+    // data/books.json) ricevono un prestito seed; quelli disponibili con prestiti aperti vengono corretti.
+    // Il prestito seed si crea sotto il lock del libro, dopo averlo riletto: nel frattempo può essere
+    // stato prestato o restituito dalla web UI
+    private static void reconcile(com.digitallibrary.service.AvailabilityReconciler reconciler,
+                                  BookService books,
+                                  com.digitallibrary.repository.UserRepository urepo,
+                                  com.digitallibrary.service.LoanService loanService) {
+        try {
+            try (java.util.stream.Stream<com.digitallibrary.model.Loan> all = loanService.streamAll()) {
+                reconciler.rebuild(all);
+            }
+            String seedEmail = "seed@example.local";
+            com.digitallibrary.model.User seedUser = null;
+            for (Book b : reconciler.verify(false)) {
+                if (b.isAvailable()) {
+                    reconciler.repair(b.getId());
+                    continue;
+                }
+                // ensure seed user exists, looking it up by email to avoid duplicates
+                if (seedUser == null) seedUser = urepo.findByEmail(seedEmail).orElse(null);
                 if (seedUser == null) {
                     String sid = com.digitallibrary.util.IdGenerator.generate();
                     seedUser = new com.digitallibrary.model.User(sid, "Sistema (prestiti seed)", seedEmail);
                     urepo.save(seedUser);
                 }
-                // Avoid creating duplicate loans for the same book
-                boolean already = false;
-                try {
-                    java.util.List<com.digitallibrary.model.Loan> existing = loanService.findByBookId(b.getId());
-                    if (existing != null) {
-                        for (com.digitallibrary.model.Loan exl : existing) {
-                            if (exl != null && (exl.getReturnedAt() == null || exl.getReturnedAt().toString().isEmpty())) { already = true; break; }
-                        }
-                    }
-                } catch (Exception e) { /* ignore errors checking existing loans */ }
-                if (!already) {
+                synchronized (books.lockFor(b.getId())) {
+                    Optional<Book> current = books.getBookById(b.getId());
+                    if (current.isEmpty() || current.get().isAvailable() || reconciler.openLoans(b.getId()) > 0) continue;
                     String lid = com.digitallibrary.util.IdGenerator.generate();
                     com.digitallibrary.model.Loan loan = new com.digitallibrary.model.Loan(lid, b.getId(), seedUser.getId(), java.time.LocalDateTime.now().plusDays(14));
-                    lrepo.save(loan);
+                    loanService.createLoan(loan);
                 }
             }
+        } catch (Exception ex) {
+            System.out.println("Warning during seed loan creation: " + ex.getMessage());
         }
-    } catch (Exception ex) {
-        System.out.println("Warning during seed loan creation: " + ex.getMessage());
     }
+
+    public static void main(String[] args) {
+    // Durabilità dei file dati (--durability=none|batch|always, --fsync-interval-ms=N per batch):
+    // va impostata prima di creare i repository su file
+    String durabilityOpt = optionValue(args, "--durability");
+    com.digitallibrary.repository.Durability durability = durabilityOpt != null
+        ? com.digitallibrary.repository.Durability.parse(durabilityOpt) : com.digitallibrary.repository.Durability.NONE;
+    long fsyncInterval = Long.parseLong(Optional.ofNullable(optionValue(args, "--fsync-interval-ms")).orElse("100"));
+    com.digitallibrary.repository.DurableFileWriter fileWriter = new com.digitallibrary.repository.DurableFileWriter(durability, fsyncInterval);
+    com.digitallibrary.repository.DurableFileWriter.setDefault(fileWriter);
+    com.digitallibrary.util.Metrics.register("durability", fileWriter::stats);
+    Runtime.getRuntime().addShutdownHook(new Thread(fileWriter::close));
+
+    // Avvio a fasi: libri, utenti e prestiti si caricano in parallelo; riconciliazione dei prestiti
+    // seed e warmup proseguono in background (tempi per fase nella metrica "startup")
+    Startup startup = new Startup();
+    com.digitallibrary.util.Metrics.register("startup", startup::stats);
+    java.util.function.Supplier<java.util.List<Book>> seedBooks = seedBooks();
+    Startup.Phase<BookRepository> books = startup.phase("books", () -> openBooks(args, seedBooks));
+    Startup.Phase<com.digitallibrary.repository.UserRepository> users = startup.phase("users", () -> openUsers(args));
+    java.util.concurrent.atomic.AtomicReference<com.digitallibrary.repository.FileSnapshot<com.digitallibrary.model.Loan>> watchedLoans =
+        new java.util.concurrent.atomic.AtomicReference<>();
+    Startup.Phase<com.digitallibrary.repository.LoanRepository> loans = startup.phase("loans", () -> openLoans(args, watchedLoans));
+    startup.ready();
+
+    BookRepository repo = books.get();
+    com.digitallibrary.repository.UserRepository urepo = users.get();
+    com.digitallibrary.repository.LoanRepository lrepo = loans.get();
+    BookService service = new BookService(repo);
+    com.digitallibrary.util.Metrics.register("scan", com.digitallibrary.util.ParallelScan.shared()::stats);
+    DigitalLibraryApp app = new DigitalLibraryApp(service);
+    com.digitallibrary.service.UserService userService = new com.digitallibrary.service.UserService(urepo);
+    com.digitallibrary.service.LoanService loanService = new com.digitallibrary.service.LoanService(lrepo);
+    // disponibilità derivata dai prestiti aperti, corretta a ogni evento sui prestiti; durante uno
+    // script --batch le scritture degli altri thread non si vedono, quindi solo conteggi
+    com.digitallibrary.service.AvailabilityReconciler reconciler = new com.digitallibrary.service.AvailabilityReconciler(service);
+    reconciler.setAutoRepair(!Arrays.asList(args).contains("--batch"));
+    loanService.addListener(reconciler);
+    com.digitallibrary.repository.FileSnapshot<com.digitallibrary.model.Loan> loanSnapshot = watchedLoans.get();
+    if (loanSnapshot != null) {
+        loanSnapshot.addListener(change -> {
+            if (!change.isExternal() || change.isEmpty()) return;
+            java.util.List<com.digitallibrary.model.Loan> saved = new java.util.ArrayList<>(change.getAdded());
+            saved.addAll(change.getUpdated());
+            reconciler.loansChanged(saved, change.getRemovedIds());
+        });
+    }
+    com.digitallibrary.util.Metrics.register("availability", reconciler::stats);
+    startup.background("reconcile", () -> reconcile(reconciler, service, urepo, loanService), books, users, loans);
+    // prima lettura della vista elenco della UI: page cache, JIT e pool di scansione già caldi alla prima richiesta
+    startup.background("warmup", () -> { service.listSummaries(); service.countAvailable(); }, books);
     app.setUserService(userService);
     app.setLoanService(loanService);
 
+    // Storico dei prestiti: i restituiti da più di --archive-after=<giorni> passano in background
+    // in segmenti mensili compressi sotto data/loans-archive, letti solo da /api/loans/history
+    String archiveAfter = optionValue(args, "--archive-after");
+    com.digitallibrary.service.LoanArchiver archiver = new com.digitallibrary.service.LoanArchiver(loanService,
+        new com.digitallibrary.repository.LoanArchive(java.nio.file.Paths.get(System.getProperty("user.dir"), "data", "loans-archive")),
+        java.time.Duration.ofDays(Long.parseLong(Optional.ofNullable(archiveAfter).orElse("90"))));
+    com.digitallibrary.util.Metrics.register("archive", archiver::stats);
+    // non durante --batch: lo script scrive i prestiti in un batch del proprio thread
+    if (archiveAfter != null && !Arrays.asList(args).contains("--batch")) archiver.start(ARCHIVE_INTERVAL_MS);
+
+    // Script non interattivo (--batch <file>): output bufferizzato e scritture raggruppate
+    // ogni --batch-commit=N comandi (default 1000)
+    int batchArg = Arrays.asList(args).indexOf("--batch");
+    if (batchArg >= 0) {
+        if (batchArg + 1 >= args.length) {
+            System.out.println("Uso: --batch <file>");
+            return;
+        }
+        // lo script parte dopo la riconciliazione, che scrive sugli stessi repository
+        startup.awaitAll();
+        int commitEvery = Integer.parseInt(Optional.ofNullable(optionValue(args, "--batch-commit"))
+            .orElse(String.valueOf(ScriptRunner.DEFAULT_COMMIT_EVERY)));
+        ScriptRunner runner = new ScriptRunner(service, userService, loanService,
+            com.digitallibrary.repository.WriteBatching.of(repo, urepo, lrepo), commitEvery);
+        java.io.PrintWriter out = new java.io.PrintWriter(new java.io.BufferedWriter(
+            new java.io.OutputStreamWriter(new java.io.FileOutputStream(java.io.FileDescriptor.out)), 1 << 16));
+        try (java.io.BufferedReader in = java.nio.file.Files.newBufferedReader(java.nio.file.Paths.get(args[batchArg + 1]))) {
+            runner.run(in, out);
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+        } finally {
+            out.flush();
+        }
+        return;
+    }
+
+    System.out.println(startup.summary());
+
     boolean useWeb = Arrays.asList(args).contains("--web");
     if (useWeb) {
         try {
             com.digitallibrary.web.WebServer ws = new com.digitallibrary.web.WebServer(8080, service, userService, loanService);
+            ws.setUseNio(Arrays.asList(args).contains("--nio"));
+            // --rate-limit=N richieste/s per client e rotta (burst 2N), --concurrency-limit=N massimo adattivo
+            String rateLimit = optionValue(args, "--rate-limit");
+            String concurrencyLimit = optionValue(args, "--concurrency-limit");
+            if (rateLimit != null || concurrencyLimit != null) {
+                com.digitallibrary.web.TokenBucketLimiter buckets = null;
+                if (rateLimit != null) {
+                    double rate = Double.parseDouble(rateLimit);
+                    buckets = new com.digitallibrary.web.TokenBucketLimiter(rate, Math.max(1, 2 * rate));
+                }
+                com.digitallibrary.web.AdaptiveConcurrencyLimiter adaptive = null;
+                if (concurrencyLimit != null) {
+                    int max = Integer.parseInt(concurrencyLimit);
+                    adaptive = new com.digitallibrary.web.AdaptiveConcurrencyLimiter(Math.min(max, 32), 1, max, 2.0);
+                }
+                ws.setAdmissionControl(new com.digitallibrary.web.AdmissionControl(buckets, adaptive));
+            }
+            ws.setAvailabilityReconciler(reconciler);
+            ws.setLoanArchiver(archiver);
+            ws.setBatchService(new com.digitallibrary.service.BatchService(service, userService, loanService,
+                com.digitallibrary.repository.WriteBatching.of(repo, urepo, lrepo)));
             ws.start();
             ws.blockUntilStopped();
         } catch (Exception e) {
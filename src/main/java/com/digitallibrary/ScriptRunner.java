@@ -0,0 +1,266 @@
+package com.digitallibrary;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.model.Loan;
+import com.digitallibrary.model.User;
+import com.digitallibrary.repository.WriteBatching;
+import com.digitallibrary.service.BookService;
+import com.digitallibrary.service.LoanService;
+import com.digitallibrary.service.UserService;
+import com.digitallibrary.util.IdGenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Esecuzione non interattiva di uno script di comandi (opzione --batch &lt;file&gt;).
+ * Un comando per riga, campi separati da '|'; le righe vuote e quelle che iniziano con '#' sono ignorate:
+ * <pre>
+ * add Titolo | Autore | Genere (nome o numero) | Anno | ISBN
+ * list
+ * search testo
+ * user Nome | Email
+ * loan idLibro | idUtente [| giorni]
+ * return idPrestito
+ * </pre>
+ * Un campo "$N" è sostituito con l'id prodotto dalla riga N dello script (add, user, loan).
+ * <p>
+ * Niente prompt né menù: l'output passa da un unico writer bufferizzato e le scritture sui
+ * repository che supportano {@link WriteBatching} sono rese persistenti ogni {@code commitEvery}
+ * comandi invece che a ogni comando. Un comando che fallisce stampa l'errore e lo script prosegue.
+ */
+public class ScriptRunner {
+
+    /** Comandi per scrittura su disco se non indicato diversamente. */
+    public static final int DEFAULT_COMMIT_EVERY = 1000;
+
+    private final BookService books;
+    private final UserService users;
+    private final LoanService loans;
+    private final List<WriteBatching> participants;
+    private final int commitEvery;
+
+    public ScriptRunner(BookService books, UserService users, LoanService loans,
+                        List<WriteBatching> participants, int commitEvery) {
+        if (commitEvery < 1) throw new IllegalArgumentException("commitEvery deve essere almeno 1");
+        this.books = books;
+        this.users = users;
+        this.loans = loans;
+        this.participants = participants;
+        this.commitEvery = commitEvery;
+    }
+
+    /** Esito dell'esecuzione. */
+    public static final class Summary {
+        private final long commands;
+        private final long errors;
+        private final long commits;
+        private final long nanos;
+
+        Summary(long commands, long errors, long commits, long nanos) {
+            this.commands = commands;
+            this.errors = errors;
+            this.commits = commits;
+            this.nanos = nanos;
+        }
+
+        public long getCommands() { return commands; }
+        public long getErrors() { return errors; }
+        public long getCommits() { return commits; }
+        public long getNanos() { return nanos; }
+
+        public double opsPerSecond() {
+            return nanos == 0 ? 0 : commands * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d comandi (%d errori, %d scritture) in %.1f ms: %.0f op/s",
+                commands, errors, commits, nanos / 1e6, opsPerSecond());
+        }
+    }
+
+    /** Esegue lo script riga per riga; il chiamante chiude in e out. */
+    public Summary run(BufferedReader in, PrintWriter out) throws IOException {
+        // id prodotto da ogni riga, per i riferimenti "$N" (indice = numero di riga - 1)
+        List<String> ids = new ArrayList<>();
+        long commands = 0, errors = 0, commits = 0;
+        int sinceCommit = 0;
+        long t0 = System.nanoTime();
+        for (WriteBatching w : participants) w.beginBatch();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int lineNo = ids.size() + 1;
+                ids.add(null);
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+                commands++;
+                try {
+                    ids.set(lineNo - 1, execute(line, ids, out));
+                } catch (IllegalArgumentException e) {
+                    errors++;
+                    out.print("Riga ");
+                    out.print(lineNo);
+                    out.print(": ");
+                    out.println(e.getMessage());
+                }
+                if (++sinceCommit == commitEvery) {
+                    for (WriteBatching w : participants) w.flushBatch();
+                    commits++;
+                    sinceCommit = 0;
+                }
+            }
+        } finally {
+            // anche se la lettura si interrompe, i comandi già eseguiti restano scritti
+            RuntimeException failure = null;
+            for (WriteBatching w : participants) {
+                try {
+                    w.endBatch(true);
+                } catch (RuntimeException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+            if (failure != null) throw failure;
+            if (sinceCommit > 0) commits++;
+        }
+        Summary summary = new Summary(commands, errors, participants.isEmpty() ? 0 : commits, System.nanoTime() - t0);
+        out.println("Eseguiti " + summary);
+        out.flush();
+        return summary;
+    }
+
+    // esegue un comando e restituisce l'id prodotto, o null
+    private String execute(String line, List<String> ids, PrintWriter out) {
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        // la ricerca usa il resto della riga così com'è
+        String[] f = space < 0 || command.equals("search") ? new String[0] : fields(line.substring(space + 1), ids);
+        switch (command) {
+            case "add": {
+                require(f, 5, "add Titolo | Autore | Genere | Anno | ISBN");
+                Book.validateIsbnStatic(f[4]);
+                Book b = new Book();
+                b.setId(IdGenerator.generate());
+                b.setTitle(f[0]);
+                b.setAuthor(f[1]);
+                b.setGenre(genre(f[2]));
+                b.setPublicationYear(number(f[3], "Anno"));
+                b.setIsbn(f[4]);
+                books.addBook(b);
+                out.print("Libro aggiunto: ");
+                out.println(b.getId());
+                return b.getId();
+            }
+            case "list": {
+                try (java.util.stream.Stream<Book> all = books.streamAll()) {
+                    java.util.Iterator<Book> it = all.iterator();
+                    if (!it.hasNext()) out.println("Nessun libro presente.");
+                    while (it.hasNext()) out.println(it.next().getFormattedInfo());
+                }
+                return null;
+            }
+            case "search": {
+                String q = space < 0 ? "" : line.substring(space + 1).trim();
+                List<Book> res = books.searchByTitle(q);
+                if (res.isEmpty()) out.println("Nessun risultato.");
+                for (Book b : res) out.println(b.getFormattedInfo());
+                return null;
+            }
+            case "user": {
+                require(f, 2, "user Nome | Email");
+                // i setter validano nome ed email
+                User u = new User();
+                u.setId(IdGenerator.generate());
+                u.setName(f[0]);
+                u.setEmail(f[1]);
+                users.register(u);
+                out.print("Utente registrato: ");
+                out.println(u.getId());
+                return u.getId();
+            }
+            case "loan": {
+                require(f, 2, "loan idLibro | idUtente [| giorni]");
+                if (users.findById(f[1]).isEmpty()) throw new IllegalArgumentException("Utente non trovato: " + f[1]);
+                int days = f.length > 2 ? number(f[2], "Giorni") : 14;
+                Loan loan;
+                // verifica e scrittura sotto il lock del libro, come in BatchService
+                synchronized (books.lockFor(f[0])) {
+                    Optional<Book> found = books.getBookById(f[0]);
+                    if (found.isEmpty()) throw new IllegalArgumentException("Libro non trovato: " + f[0]);
+                    Book book = found.get();
+                    if (!book.isAvailable()) throw new IllegalArgumentException("Libro non disponibile: " + f[0]);
+                    loan = new Loan(IdGenerator.generate(), book.getId(), f[1], LocalDateTime.now().plusDays(days));
+                    loans.createLoan(loan);
+                    book.setAvailable(false);
+                    books.updateBook(book);
+                }
+                out.print("Prestito creato: ");
+                out.println(loan.getId());
+                return loan.getId();
+            }
+            case "return": {
+                require(f, 1, "return idPrestito");
+                Loan l = loans.markReturned(f[0]);
+                books.setAvailable(l.getBookId(), true);
+                out.print("Prestito restituito: ");
+                out.println(l.getId());
+                return null;
+            }
+            default:
+                throw new IllegalArgumentException("Comando sconosciuto: " + command);
+        }
+    }
+
+    // campi separati da '|', senza spazi ai bordi e con i riferimenti "$N" risolti
+    private static String[] fields(String rest, List<String> ids) {
+        List<String> out = new ArrayList<>(5);
+        int start = 0;
+        while (true) {
+            int bar = rest.indexOf('|', start);
+            String f = (bar < 0 ? rest.substring(start) : rest.substring(start, bar)).trim();
+            out.add(resolve(f, ids));
+            if (bar < 0) break;
+            start = bar + 1;
+        }
+        return out.toArray(new String[0]);
+    }
+
+    private static String resolve(String f, List<String> ids) {
+        if (f.length() < 2 || f.charAt(0) != '$') return f;
+        int ref;
+        try {
+            ref = Integer.parseInt(f.substring(1));
+        } catch (NumberFormatException e) {
+            return f;
+        }
+        if (ref < 1 || ref > ids.size() || ids.get(ref - 1) == null) {
+            throw new IllegalArgumentException("Riferimento non risolto: " + f);
+        }
+        return ids.get(ref - 1);
+    }
+
+    private static void require(String[] f, int n, String usage) {
+        if (f.length < n) throw new IllegalArgumentException("Uso: " + usage);
+    }
+
+    private static int number(String s, String name) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " non valido: " + s);
+        }
+    }
+
+    // numero del menù console o nome del genere
+    private static Genre genre(String s) {
+        if (!s.isEmpty() && Character.isDigit(s.charAt(0))) return Genre.fromIndex(number(s, "Genere"));
+        return Genre.fromDisplayName(s);
+    }
+}
@@ -0,0 +1,93 @@
+package com.digitallibrary.codec;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookLoadReport;
+import com.digitallibrary.model.Genre;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * TypeAdapter streaming per Book. In lettura costruisce i libri con un {@link BookLoadReport},
+ * che annota i campi non validi invece di lanciare eccezioni; un oggetto senza id produce null.
+ */
+class BookTypeAdapter extends TypeAdapter<Book> {
+
+    private final JsonCodecs.Style style;
+    // report del caricamento in corso; null = report condiviso che non conta nulla
+    private final BookLoadReport report;
+
+    BookTypeAdapter(JsonCodecs.Style style) {
+        this(style, null);
+    }
+
+    BookTypeAdapter(JsonCodecs.Style style, BookLoadReport report) {
+        this.style = style;
+        this.report = report;
+    }
+
+    @Override
+    public void write(JsonWriter out, Book b) throws IOException {
+        if (b == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(b.getId());
+        out.name("title").value(b.getTitle());
+        out.name("author").value(b.getAuthor());
+        if (b.getGenre() != null) {
+            out.name("genre").value(style == JsonCodecs.Style.FILE ? b.getGenre().getDisplayName() : b.getGenre().name());
+        } else if (style == JsonCodecs.Style.FILE) {
+            out.name("genre").value("");
+        }
+        out.name("publicationYear").value(b.getPublicationYear());
+        out.name("isbn").value(b.getIsbn());
+        out.name("available").value(b.isAvailable());
+        JsonCodecs.writeDate(out, "addedDate", b.getAddedDate(), style);
+        out.endObject();
+    }
+
+    @Override
+    public Book read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String id = null, title = null, author = null, genre = null, isbn = null, year = null, available = null, added = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id": id = JsonCodecs.nextString(in); break;
+                case "title": title = JsonCodecs.nextString(in); break;
+                case "author": author = JsonCodecs.nextString(in); break;
+                case "genre": genre = JsonCodecs.nextString(in); break;
+                case "publicationYear": year = JsonCodecs.nextString(in); break;
+                case "isbn": isbn = JsonCodecs.nextString(in); break;
+                case "available": available = JsonCodecs.nextString(in); break;
+                case "addedDate": added = JsonCodecs.nextString(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        if (id == null || id.trim().isEmpty()) return null;
+
+        BookLoadReport r = report != null ? report : BookLoadReport.untracked();
+        return r.restore(id, title, author != null ? author : "", Genre.fromDisplayName(genre), parseYear(year),
+            isbn != null ? isbn : "", available == null || Boolean.parseBoolean(available), IsoDateTimeCodec.parse(added));
+    }
+
+    private static int parseYear(String s) {
+        if (s == null) return 0;
+        try {
+            // i numeri JSON possono arrivare come "1980.0"
+            int dot = s.indexOf('.');
+            return Integer.parseInt(dot >= 0 ? s.substring(0, dot) : s);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
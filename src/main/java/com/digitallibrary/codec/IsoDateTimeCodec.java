@@ -0,0 +1,89 @@
+package com.digitallibrary.codec;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Codec ISO-8601 per LocalDateTime (formato di {@link LocalDateTime#toString()}).
+ * Il parsing del formato comune {@code yyyy-MM-ddTHH:mm[:ss[.fffffffff]]} è scritto a mano,
+ * senza DateTimeFormatter; i risultati recenti sono tenuti in una piccola cache a mappatura
+ * diretta, utile perché molte date nei file si ripetono (seed, scadenze).
+ */
+public final class IsoDateTimeCodec {
+
+    private static final int CACHE_SIZE = 512;
+    private static final Entry[] CACHE = new Entry[CACHE_SIZE];
+
+    private IsoDateTimeCodec() {}
+
+    /** Data o null se il testo è vuoto o non è una data valida. */
+    public static LocalDateTime parse(String s) {
+        if (s == null || s.isEmpty()) return null;
+        int slot = s.hashCode() & (CACHE_SIZE - 1);
+        Entry e = CACHE[slot];
+        if (e != null && e.text.equals(s)) return e.value;
+        LocalDateTime value = parseUncached(s);
+        if (value != null) CACHE[slot] = new Entry(s, value);
+        return value;
+    }
+
+    /** Forma ISO, o null per una data null. */
+    public static String format(LocalDateTime t) {
+        return t == null ? null : t.toString();
+    }
+
+    private static LocalDateTime parseUncached(String s) {
+        int n = s.length();
+        if (n >= 16 && s.charAt(4) == '-' && s.charAt(7) == '-' && s.charAt(10) == 'T' && s.charAt(13) == ':') {
+            int year = digits(s, 0, 4);
+            int month = digits(s, 5, 7);
+            int day = digits(s, 8, 10);
+            int hour = digits(s, 11, 13);
+            int minute = digits(s, 14, 16);
+            int second = 0;
+            int nano = 0;
+            boolean ok = (year | month | day | hour | minute) >= 0;
+            if (ok && n > 16) {
+                ok = n >= 19 && s.charAt(16) == ':' && (second = digits(s, 17, 19)) >= 0;
+                if (ok && n > 19) {
+                    ok = s.charAt(19) == '.' && n > 20 && n <= 29 && (nano = digits(s, 20, n)) >= 0;
+                    for (int i = n; ok && i < 29; i++) nano *= 10;
+                }
+            }
+            if (ok) {
+                try {
+                    return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+                } catch (DateTimeException ignore) {
+                    return null;
+                }
+            }
+        }
+        // formati meno comuni (anni a più cifre, ecc.): parser standard
+        try {
+            return LocalDateTime.parse(s);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static int digits(String s, int from, int to) {
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    private static final class Entry {
+        final String text;
+        final LocalDateTime value;
+
+        Entry(String text, LocalDateTime value) {
+            this.text = text;
+            this.value = value;
+        }
+    }
+}
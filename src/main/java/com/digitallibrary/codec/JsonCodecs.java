@@ -0,0 +1,194 @@
+package com.digitallibrary.codec;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Loan;
+import com.digitallibrary.model.User;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Codec JSON condivisi da repository e server web: TypeAdapter streaming scritti a mano
+ * per Book, User e Loan, senza reflection e senza mappe intermedie.
+ */
+public final class JsonCodecs {
+
+    /**
+     * FILE: formato dei file in data/ (genere come nome di visualizzazione, date null come "").
+     * API: formato storico della API web (genere come nome della costante, campi null omessi).
+     * In lettura entrambi i formati sono accettati.
+     */
+    public enum Style { FILE, API }
+
+    public static final TypeAdapter<Book> BOOK_FILE = new BookTypeAdapter(Style.FILE);
+    public static final TypeAdapter<Book> BOOK_API = new BookTypeAdapter(Style.API);
+    public static final TypeAdapter<User> USER_FILE = new UserTypeAdapter(Style.FILE);
+    public static final TypeAdapter<User> USER_API = new UserTypeAdapter(Style.API);
+    public static final TypeAdapter<Loan> LOAN_FILE = new LoanTypeAdapter(Style.FILE);
+    public static final TypeAdapter<Loan> LOAN_API = new LoanTypeAdapter(Style.API);
+
+    /**
+     * Codec di lettura per un caricamento in blocco del file dei libri: i libri sono costruiti
+     * senza i setter e i campi non validi finiscono nel report invece di interrompere la lettura.
+     */
+    public static TypeAdapter<Book> bookFileReader(com.digitallibrary.model.BookLoadReport report) {
+        return new BookTypeAdapter(Style.FILE, report);
+    }
+
+    private JsonCodecs() {}
+
+    /** Gson per la API web con i codec registrati. */
+    public static Gson apiGson() {
+        return new GsonBuilder()
+            .setPrettyPrinting()
+            .registerTypeAdapter(Book.class, BOOK_API)
+            .registerTypeAdapter(User.class, USER_API)
+            .registerTypeAdapter(Loan.class, LOAN_API)
+            .registerTypeAdapter(LocalDateTime.class, new TypeAdapter<LocalDateTime>() {
+                @Override
+                public void write(JsonWriter out, LocalDateTime value) throws IOException {
+                    out.value(IsoDateTimeCodec.format(value));
+                }
+
+                @Override
+                public LocalDateTime read(JsonReader in) throws IOException {
+                    return IsoDateTimeCodec.parse(nextString(in));
+                }
+            })
+            .create();
+    }
+
+    /**
+     * Legge un array JSON in streaming; gli elementi per cui il codec restituisce null
+     * (es. senza id) sono saltati. Un file vuoto o "null" produce una lista vuota.
+     */
+    public static <T> List<T> readList(Reader reader, TypeAdapter<T> adapter) throws IOException {
+        List<T> list = new ArrayList<>();
+        JsonReader in = new JsonReader(reader);
+        in.setLenient(true);
+        try {
+            if (in.peek() != JsonToken.BEGIN_ARRAY) return list;
+        } catch (EOFException empty) {
+            return list;
+        }
+        try {
+            in.beginArray();
+            while (in.hasNext()) {
+                T item = adapter.read(in);
+                if (item != null) list.add(item);
+            }
+            in.endArray();
+        } catch (MalformedJsonException e) {
+            // come Gson.fromJson: un file corrotto non deve sembrare un elenco parziale
+            throw new JsonSyntaxException(e);
+        }
+        return list;
+    }
+
+    /**
+     * Come {@link #readList} ma pigro: ogni elemento è letto quando lo stream lo richiede,
+     * quindi la memoria non dipende dalla lunghezza dell'array. Lo stream va chiuso
+     * (try-with-resources) e chiude il reader; gli errori di lettura arrivano come
+     * {@link UncheckedIOException} o {@link JsonSyntaxException}.
+     */
+    public static <T> Stream<T> streamList(Reader reader, TypeAdapter<T> adapter) throws IOException {
+        JsonReader in = new JsonReader(reader);
+        in.setLenient(true);
+        try {
+            if (in.peek() != JsonToken.BEGIN_ARRAY) {
+                in.close();
+                return Stream.empty();
+            }
+            in.beginArray();
+        } catch (EOFException empty) {
+            in.close();
+            return Stream.empty();
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        Spliterator<T> items = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    while (in.hasNext()) {
+                        T item = adapter.read(in);
+                        if (item != null) {
+                            action.accept(item);
+                            return true;
+                        }
+                    }
+                    return false;
+                } catch (MalformedJsonException e) {
+                    throw new JsonSyntaxException(e);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(items, false).onClose(() -> {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    public static <T> void writeList(Writer writer, List<T> items, TypeAdapter<T> adapter, boolean pretty) throws IOException {
+        JsonWriter out = new JsonWriter(writer);
+        out.setSerializeNulls(false);
+        if (pretty) out.setIndent("  ");
+        out.beginArray();
+        for (T item : items) adapter.write(out, item);
+        out.endArray();
+        out.flush();
+    }
+
+    /**
+     * Scrive i campi di un prestito nell'oggetto JSON corrente, senza aprirlo né chiuderlo:
+     * serve a chi arricchisce il prestito con campi propri (es. titolo del libro).
+     */
+    public static void writeLoanFields(JsonWriter out, Loan loan, Style style) throws IOException {
+        ((LoanTypeAdapter) (style == Style.FILE ? LOAN_FILE : LOAN_API)).writeFields(out, loan);
+    }
+
+    // --- helper per i codec ---
+
+    /** Valore corrente come stringa qualunque sia il tipo primitivo; null per JSON null. */
+    static String nextString(JsonReader in) throws IOException {
+        JsonToken t = in.peek();
+        if (t == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (t == JsonToken.BOOLEAN) return Boolean.toString(in.nextBoolean());
+        if (t == JsonToken.STRING || t == JsonToken.NUMBER) return in.nextString();
+        in.skipValue();
+        return null;
+    }
+
+    static void writeDate(JsonWriter out, String name, LocalDateTime value, Style style) throws IOException {
+        if (value == null && style == Style.API) return;
+        out.name(name).value(value != null ? IsoDateTimeCodec.format(value) : "");
+    }
+}
@@ -0,0 +1,76 @@
+package com.digitallibrary.codec;
+
+import com.digitallibrary.model.Loan;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * TypeAdapter streaming per Loan; un oggetto senza id produce null.
+ */
+class LoanTypeAdapter extends TypeAdapter<Loan> {
+
+    private final JsonCodecs.Style style;
+
+    LoanTypeAdapter(JsonCodecs.Style style) {
+        this.style = style;
+    }
+
+    @Override
+    public void write(JsonWriter out, Loan l) throws IOException {
+        if (l == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        writeFields(out, l);
+        out.endObject();
+    }
+
+    /** Campi del prestito senza le parentesi, per chi arricchisce l'oggetto con altri campi. */
+    void writeFields(JsonWriter out, Loan l) throws IOException {
+        out.name("id").value(l.getId());
+        out.name("bookId").value(l.getBookId());
+        out.name("userId").value(l.getUserId());
+        JsonCodecs.writeDate(out, "loanedAt", l.getLoanedAt(), style);
+        JsonCodecs.writeDate(out, "dueAt", l.getDueAt(), style);
+        JsonCodecs.writeDate(out, "returnedAt", l.getReturnedAt(), style);
+    }
+
+    @Override
+    public Loan read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String id = null, bookId = null, userId = null, loanedAt = null, dueAt = null, returnedAt = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id": id = JsonCodecs.nextString(in); break;
+                case "bookId": bookId = JsonCodecs.nextString(in); break;
+                case "userId": userId = JsonCodecs.nextString(in); break;
+                case "loanedAt": loanedAt = JsonCodecs.nextString(in); break;
+                case "dueAt": dueAt = JsonCodecs.nextString(in); break;
+                case "returnedAt": returnedAt = JsonCodecs.nextString(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        if (id == null || id.trim().isEmpty()) return null;
+
+        Loan l = new Loan();
+        l.setId(id);
+        l.setBookId(bookId != null ? bookId : "");
+        l.setUserId(userId != null ? userId : "");
+        LocalDateTime loaned = IsoDateTimeCodec.parse(loanedAt);
+        if (loaned != null) l.setLoanedAt(loaned);
+        l.setDueAt(IsoDateTimeCodec.parse(dueAt));
+        l.setReturnedAt(IsoDateTimeCodec.parse(returnedAt));
+        return l;
+    }
+}
@@ -0,0 +1,65 @@
+package com.digitallibrary.codec;
+
+import com.digitallibrary.model.User;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * TypeAdapter streaming per User; un oggetto senza id produce null.
+ */
+class UserTypeAdapter extends TypeAdapter<User> {
+
+    private final JsonCodecs.Style style;
+
+    UserTypeAdapter(JsonCodecs.Style style) {
+        this.style = style;
+    }
+
+    @Override
+    public void write(JsonWriter out, User u) throws IOException {
+        if (u == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(u.getId());
+        out.name("name").value(u.getName());
+        out.name("email").value(u.getEmail());
+        JsonCodecs.writeDate(out, "registeredAt", u.getRegisteredAt(), style);
+        out.endObject();
+    }
+
+    @Override
+    public User read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String id = null, name = null, email = null, registered = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id": id = JsonCodecs.nextString(in); break;
+                case "name": name = JsonCodecs.nextString(in); break;
+                case "email": email = JsonCodecs.nextString(in); break;
+                case "registeredAt": registered = JsonCodecs.nextString(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        if (id == null || id.isEmpty()) return null;
+
+        User u = new User();
+        u.setId(id);
+        u.setName(name != null ? name : "");
+        u.setEmail(email != null ? email : "");
+        LocalDateTime registeredAt = IsoDateTimeCodec.parse(registered);
+        if (registeredAt != null) u.setRegisteredAt(registeredAt);
+        return u;
+    }
+}
@@ -1,5 +1,7 @@
 package com.digitallibrary.model;
 
+import com.digitallibrary.util.Isbn;
+
 import java.time.LocalDateTime;
 import java.util.Objects;
 
@@ -50,6 +52,33 @@ public class Book {
         this.available = true;
         this.addedDate = LocalDateTime.now();
     }
+
+    private Book(String id, String title, String author, Genre genre, int publicationYear,
+                 String isbn, boolean available, LocalDateTime addedDate) {
+        this.id = id;
+        this.title = title;
+        this.author = author;
+        this.genre = genre;
+        this.publicationYear = publicationYear;
+        this.isbn = isbn;
+        this.available = available;
+        this.addedDate = addedDate;
+    }
+
+    /**
+     * Ricostruisce un libro già salvato assegnando i campi così come sono: niente controlli
+     * dei setter e nessuna lettura dell'orologio. Per i caricamenti in blocco, dove la
+     * validazione avviene una volta per lotto con {@link BookLoadReport}.
+     */
+    public static Book restore(String id, String title, String author, Genre genre, int publicationYear,
+                               String isbn, boolean available, LocalDateTime addedDate) {
+        return new Book(id, title, author, genre, publicationYear, isbn, available, addedDate);
+    }
+
+    /** Copia indipendente: modificarla non tocca l'originale. */
+    public Book copy() {
+        return new Book(id, title, author, genre, publicationYear, isbn, available, addedDate);
+    }
     
     // Getter methods
     public String getId() { return id; }
@@ -103,29 +132,31 @@ public class Book {
         if (isbn == null || isbn.trim().isEmpty()) {
             throw new IllegalArgumentException("ISBN non può essere null o vuoto");
         }
-        String cleaned = isbn.replaceAll("[-\\s]", "");
-        if (!isValidIsbn(cleaned)) {
+        if (!isValidIsbn(isbn)) {
             throw new IllegalArgumentException("ISBN non valido: " + isbn);
         }
         this.isbn = isbn;
     }
 
     private boolean isValidIsbn(String s) {
-        // Accetta ISBN-10 o ISBN-13 basico: 10 o 13 cifre (non esegue checksum per semplicità)
-        if (s == null) return false;
-        return s.matches("\\d{10}") || s.matches("\\d{13}");
+        // Controllo solo strutturale (10 o 13 cifre, '-' e spazi ammessi): i dati già salvati
+        // possono avere cifre di controllo errate e devono restare caricabili
+        return Isbn.hasValidStructure(s);
     }
 
     /**
      * Metodo statico helper per validare un ISBN senza creare un'istanza
-     * Utilizzato dalla UI per controllare l'input prima di costruire l'oggetto
+     * Utilizzato dalla UI per controllare l'input prima di costruire l'oggetto.
+     * A differenza del setter verifica anche la cifra di controllo.
      */
     public static void validateIsbnStatic(String isbn) {
         if (isbn == null || isbn.trim().isEmpty()) throw new IllegalArgumentException("ISBN non può essere vuoto");
-        String cleaned = isbn.replaceAll("[-\\s]", "");
-        if (!(cleaned.matches("\\d{10}") || cleaned.matches("\\d{13}"))) {
+        if (!Isbn.hasValidStructure(isbn)) {
             throw new IllegalArgumentException("ISBN non valido: deve essere 10 o 13 cifre (opzionali '-' o spazi)");
         }
+        if (!Isbn.isValid(isbn)) {
+            throw new IllegalArgumentException("ISBN non valido: cifra di controllo errata");
+        }
     }
     
     public void setAvailable(boolean available) {
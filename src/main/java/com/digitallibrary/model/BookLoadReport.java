@@ -0,0 +1,101 @@
+package com.digitallibrary.model;
+
+import com.digitallibrary.util.Isbn;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validazione differita di un caricamento in blocco di libri (un file, una query).
+ * I libri sono costruiti con {@link Book#restore} e controllati con le stesse regole dei setter,
+ * ma un campo non valido viene annotato qui invece di lanciare un'eccezione per riga:
+ * il caricamento non si interrompe e alla fine si sa quanti record e quali non sono validi.
+ * Orologio e anno corrente sono letti una sola volta per lotto. Non thread-safe: un report per caricamento.
+ * Per le letture isolate (un libro, una ricerca) c'è {@link #untracked()}.
+ */
+public final class BookLoadReport {
+
+    /** Messaggi conservati al massimo; i record non validi sono comunque tutti contati. */
+    public static final int MAX_MESSAGES = 20;
+
+    private static final BookLoadReport UNTRACKED = new BookLoadReport(false);
+
+    private final boolean tracking;
+    // null per il report condiviso: la data di inserimento mancante è letta dall'orologio solo quando serve
+    private final LocalDateTime loadedAt;
+    // nel report condiviso si aggiorna solo se arriva un anno oltre quello memorizzato
+    private volatile int currentYear;
+    private int records;
+    private int invalid;
+    private final List<String> messages = new ArrayList<>();
+
+    public BookLoadReport() {
+        this(true);
+    }
+
+    private BookLoadReport(boolean tracking) {
+        this.tracking = tracking;
+        this.loadedAt = tracking ? LocalDateTime.now() : null;
+        this.currentYear = LocalDateTime.now().getYear();
+    }
+
+    /**
+     * Report condiviso e thread-safe per chi legge pochi libri fuori da un caricamento in blocco:
+     * applica le stesse regole ma non conta né annota nulla, e non legge l'orologio per ogni libro.
+     */
+    public static BookLoadReport untracked() {
+        return UNTRACKED;
+    }
+
+    /**
+     * Libro caricato dai campi salvati. Un anno fuori intervallo diventa 0 come nei loader
+     * precedenti (0 è già "anno sconosciuto" e non viene segnalato); autore vuoto e ISBN
+     * malformato sono segnalati e lasciati come sono. Senza data di inserimento vale
+     * l'istante di inizio del caricamento.
+     */
+    public Book restore(String id, String title, String author, Genre genre, int publicationYear,
+                        String isbn, boolean available, LocalDateTime addedDate) {
+        if (tracking) records++;
+        String problem = null;
+        if (!tracking && publicationYear > currentYear) currentYear = LocalDateTime.now().getYear();
+        if (publicationYear != 0 && (publicationYear < 1450 || publicationYear > currentYear)) {
+            problem = "anno " + publicationYear;
+            publicationYear = 0;
+        }
+        if (author == null || author.trim().isEmpty()) problem = append(problem, "autore vuoto");
+        if (isbn == null || !Isbn.hasValidStructure(isbn)) problem = append(problem, "ISBN non valido '" + isbn + "'");
+        if (problem != null && tracking) {
+            invalid++;
+            if (messages.size() < MAX_MESSAGES) messages.add(id + ": " + problem);
+        }
+        if (addedDate == null) addedDate = loadedAt != null ? loadedAt : LocalDateTime.now();
+        return Book.restore(id, title != null ? title : "", author, genre, publicationYear, isbn, available, addedDate);
+    }
+
+    private static String append(String problem, String more) {
+        return problem == null ? more : problem + ", " + more;
+    }
+
+    public int getRecords() { return records; }
+    public int getInvalid() { return invalid; }
+    public boolean isClean() { return invalid == 0; }
+    public List<String> getMessages() { return Collections.unmodifiableList(messages); }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("loadedAt", String.valueOf(loadedAt));
+        m.put("records", records);
+        m.put("invalid", invalid);
+        m.put("messages", new ArrayList<>(messages));
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return records + " libri, " + invalid + " non validi" + (messages.isEmpty() ? "" : " (" + messages.get(0) + (invalid > 1 ? ", ..." : "") + ")");
+    }
+}
@@ -0,0 +1,36 @@
+package com.digitallibrary.model;
+
+/**
+ * Proiezione leggera di un libro per le liste (id, titolo, autore, anno, disponibilità),
+ * costruita dai repository leggendo solo queste colonne.
+ */
+public final class BookSummary {
+    private final String id;
+    private final String title;
+    private final String author;
+    private final int publicationYear;
+    private final boolean available;
+
+    public BookSummary(String id, String title, String author, int publicationYear, boolean available) {
+        this.id = id;
+        this.title = title;
+        this.author = author;
+        this.publicationYear = publicationYear;
+        this.available = available;
+    }
+
+    public static BookSummary of(Book b) {
+        return new BookSummary(b.getId(), b.getTitle(), b.getAuthor(), b.getPublicationYear(), b.isAvailable());
+    }
+
+    public String getId() { return id; }
+    public String getTitle() { return title; }
+    public String getAuthor() { return author; }
+    public int getPublicationYear() { return publicationYear; }
+    public boolean isAvailable() { return available; }
+
+    @Override
+    public String toString() {
+        return String.format("%s - %s (%d)%s", title, author, publicationYear, available ? "" : " [in prestito]");
+    }
+}
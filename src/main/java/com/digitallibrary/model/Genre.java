@@ -1,5 +1,10 @@
 package com.digitallibrary.model;
 
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
 /**
  * Enumerazione che rappresenta i generi letterari disponibili
  * nella libreria digitale.
@@ -59,26 +64,48 @@ public enum Genre {
         return displayName;
     }
     
+    // Lookup in O(1) per nome di visualizzazione o nome della costante, senza distinzione di maiuscole
+    private static final Map<String, Genre> LOOKUP = new HashMap<>();
+    static {
+        for (Genre genre : values()) {
+            LOOKUP.put(genre.name().toLowerCase(Locale.ROOT), genre);
+        }
+        // i nomi di visualizzazione hanno la precedenza sui nomi delle costanti
+        for (Genre genre : values()) {
+            LOOKUP.put(genre.displayName.toLowerCase(Locale.ROOT), genre);
+        }
+    }
+
     /**
      * Metodo statico per trovare un genere dal nome di visualizzazione
-     * Utile per la conversione da input utente
+     * Utile per la conversione da input utente. Accetta anche il nome
+     * della costante (es. "SCIENCE_FICTION"), come prodotto dalla API web.
      * 
      * @param displayName nome di visualizzazione da cercare
      * @return il genere corrispondente, o OTHER se non trovato
      */
     public static Genre fromDisplayName(String displayName) {
-        if (displayName == null || displayName.trim().isEmpty()) {
+        if (displayName == null) {
             return OTHER;
         }
-        
-        for (Genre genre : Genre.values()) {
-            if (genre.displayName.equalsIgnoreCase(displayName.trim())) {
-                return genre;
-            }
-        }
-        return OTHER;
+        Genre genre = LOOKUP.get(displayName.trim().toLowerCase(Locale.ROOT));
+        return genre != null ? genre : OTHER;
     }
     
+    /**
+     * Come {@link #fromDisplayName}, ma senza ripiegare su OTHER: utile per i filtri,
+     * dove un nome sconosciuto non deve corrispondere ai libri di genere "Altro".
+     *
+     * @param displayName nome di visualizzazione o della costante
+     * @return il genere corrispondente, o vuoto se non trovato
+     */
+    public static Optional<Genre> find(String displayName) {
+        if (displayName == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(LOOKUP.get(displayName.trim().toLowerCase(Locale.ROOT)));
+    }
+
     /**
      * Metodo statico per ottenere tutti i generi come array di stringhe
      * Utile per creare menù di selezione
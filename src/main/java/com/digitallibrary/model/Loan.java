@@ -37,6 +37,14 @@ public class Loan {
     public void setDueAt(LocalDateTime dueAt) { this.dueAt = dueAt; }
     public void setReturnedAt(LocalDateTime returnedAt) { this.returnedAt = returnedAt; }
 
+    /** Copia indipendente: modificarla non tocca l'originale. */
+    public Loan copy() {
+        Loan l = new Loan(id, bookId, userId, dueAt);
+        l.loanedAt = loanedAt;
+        l.returnedAt = returnedAt;
+        return l;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -42,6 +42,13 @@ public class User {
     }
     public void setRegisteredAt(LocalDateTime registeredAt) { this.registeredAt = registeredAt; }
 
+    /** Copia indipendente: modificarla non tocca l'originale. */
+    public User copy() {
+        User u = new User(id, name, email);
+        u.registeredAt = registeredAt;
+        return u;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,29 @@
+package com.digitallibrary.model;
+
+/**
+ * Proiezione leggera di un utente per le liste (id, nome, email), senza la data di registrazione.
+ */
+public final class UserSummary {
+    private final String id;
+    private final String name;
+    private final String email;
+
+    public UserSummary(String id, String name, String email) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+    }
+
+    public static UserSummary of(User u) {
+        return new UserSummary(u.getId(), u.getName(), u.getEmail());
+    }
+
+    public String getId() { return id; }
+    public String getName() { return name; }
+    public String getEmail() { return email; }
+
+    @Override
+    public String toString() {
+        return name + " <" + email + ">";
+    }
+}
@@ -0,0 +1,54 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.util.Isbn;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Indici per id e ISBN sulla lista di libri accumulata da un batch dei repository su file,
+ * costruiti alla prima ricerca: senza, ogni inserimento (controllo ISBN duplicato) e ogni
+ * lettura per id scorrerebbero l'intera lista. In caso di id o ISBN ripetuti vale il primo
+ * libro della lista, come per la ricerca sequenziale.
+ */
+final class BatchIndex {
+
+    private final Map<String, Book> byId;
+    private final Map<Long, Book> byIsbn;
+
+    BatchIndex(List<Book> books) {
+        byId = new HashMap<>(Math.max(16, books.size() * 2));
+        byIsbn = new HashMap<>(Math.max(16, books.size() * 2));
+        for (Book b : books) added(b);
+    }
+
+    void added(Book b) {
+        byId.putIfAbsent(b.getId(), b);
+        byIsbn.putIfAbsent(Isbn.normalize(b.getIsbn()), b);
+    }
+
+    /**
+     * Aggiorna gli indici dopo la sostituzione di {@code old} con {@code b} nella lista.
+     * @return false se l'ISBN è cambiato e l'indice va ricostruito
+     */
+    boolean replaced(Book old, Book b) {
+        long key = Isbn.normalize(old.getIsbn());
+        if (key != Isbn.normalize(b.getIsbn())) return false;
+        byId.replace(old.getId(), old, b);
+        byIsbn.replace(key, old, b);
+        return true;
+    }
+
+    Optional<Book> findById(String id) {
+        return Optional.ofNullable(byId.get(id));
+    }
+
+    Optional<Book> findByIsbn(String isbn) {
+        long key = Isbn.normalize(isbn);
+        if (key == Isbn.INVALID) return Optional.empty();
+        return Optional.ofNullable(byIsbn.get(key));
+    }
+}
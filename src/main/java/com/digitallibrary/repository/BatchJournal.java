@@ -0,0 +1,69 @@
+package com.digitallibrary.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Modifiche fatte da un batch dei repository su file, per id: quando il batch viene scritto
+ * si riapplicano al contenuto corrente del file invece di sostituirlo con la copia letta
+ * all'inizio, così le scritture degli altri thread arrivate nel frattempo non si perdono.
+ * Per ogni id vale l'ultima modifica; null indica una cancellazione.
+ */
+final class BatchJournal<T> {
+
+    private final Function<T, String> idOf;
+    private final Map<String, T> changes = new LinkedHashMap<>();
+    // contenuto sostituito per intero dal batch (saveAll): le modifiche successive si applicano a questo
+    private List<T> replacement;
+
+    BatchJournal(Function<T, String> idOf) {
+        this.idOf = idOf;
+    }
+
+    void saved(T item) {
+        changes.put(idOf.apply(item), item);
+    }
+
+    void deleted(String id) {
+        changes.put(id, null);
+    }
+
+    void replacedAll(List<T> items) {
+        replacement = new ArrayList<>(items);
+        changes.clear();
+    }
+
+    boolean isEmpty() {
+        return replacement == null && changes.isEmpty();
+    }
+
+    /** Modifiche per id, nell'ordine della prima modifica di ciascuno. */
+    Map<String, T> changes() {
+        return Collections.unmodifiableMap(changes);
+    }
+
+    /**
+     * Contenuto da scrivere: {@code current} (o il contenuto sostituito dal batch) con le
+     * modifiche applicate al posto degli elementi con lo stesso id e i nuovi in fondo.
+     */
+    List<T> applyTo(List<T> current) {
+        List<T> base = replacement != null ? replacement : current;
+        Map<String, T> left = new LinkedHashMap<>(changes);
+        List<T> out = new ArrayList<>(base.size() + left.size());
+        for (T item : base) {
+            String id = idOf.apply(item);
+            if (!left.containsKey(id)) {
+                out.add(item);
+                continue;
+            }
+            T changed = left.remove(id);
+            if (changed != null) out.add(changed);
+        }
+        for (T item : left.values()) if (item != null) out.add(item);
+        return out;
+    }
+}
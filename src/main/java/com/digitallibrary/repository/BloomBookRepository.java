@@ -0,0 +1,160 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookSummary;
+import com.digitallibrary.util.BloomFilter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Decoratore con filtro di Bloom sugli id: findById di un id mai salvato restituisce
+ * Optional.empty() senza leggere il file o interrogare il database.
+ * Il filtro è costruito all'avvio; saveAll lo ricostruisce solo fuori da un batch,
+ * per liberarsi degli id che non sono più nello storage.
+ */
+public class BloomBookRepository implements BookRepository, WriteBatching, TextSearching {
+
+    private final BookRepository delegate;
+    private final IdBloomGuard guard;
+
+    public BloomBookRepository(BookRepository delegate, double falsePositiveRate) {
+        this.delegate = delegate;
+        this.guard = new IdBloomGuard(() -> delegate.findAll().stream().map(Book::getId).collect(Collectors.toList()), falsePositiveRate);
+    }
+
+    public IdBloomGuard.Stats stats() {
+        return guard.stats();
+    }
+
+    /** Ricostruisce il filtro dallo storage, es. dopo molte cancellazioni. */
+    public void rebuild() {
+        guard.rebuild();
+    }
+
+    @Override
+    public Book save(Book book) {
+        BloomFilter before = guard.beforeWrite(book.getId());
+        Book saved = delegate.save(book);
+        guard.afterWrite(before, book.getId());
+        return saved;
+    }
+
+    @Override
+    public Optional<Book> findById(String id) {
+        if (!guard.mightContain(id)) return Optional.empty();
+        Optional<Book> found = delegate.findById(id);
+        if (found.isEmpty()) guard.falsePositive();
+        return found;
+    }
+
+    @Override
+    public Optional<Book> findByIsbn(String isbn) {
+        return delegate.findByIsbn(isbn);
+    }
+
+    @Override
+    public List<Book> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Stream<Book> streamAll() {
+        return delegate.streamAll();
+    }
+
+    @Override
+    public <R> R scan(Function<Spliterator<Book>, R> job) {
+        return delegate.scan(job);
+    }
+
+    @Override
+    public Book update(Book book) {
+        return delegate.update(book);
+    }
+
+    @Override
+    public boolean deleteById(String id) {
+        // il filtro non supporta la rimozione: l'id resta "forse presente" fino alla prossima ricostruzione
+        return delegate.deleteById(id);
+    }
+
+    @Override
+    public void saveAll(List<Book> books) {
+        BloomFilter[] before = new BloomFilter[books.size()];
+        for (int i = 0; i < before.length; i++) before[i] = guard.beforeWrite(books.get(i).getId());
+        delegate.saveAll(books);
+        // nel batch lo storage letto è la copia del thread: si aggiungono solo gli id scritti
+        if (guard.inBatch()) {
+            for (int i = 0; i < before.length; i++) guard.afterWrite(before[i], books.get(i).getId());
+        } else {
+            guard.rebuild();
+        }
+    }
+
+    @Override
+    public List<Book> loadAll() {
+        return delegate.loadAll();
+    }
+
+    @Override
+    public List<BookSummary> findSummaries() {
+        return delegate.findSummaries();
+    }
+
+    @Override
+    public Map<String, String> findTitles(Collection<String> ids) {
+        return delegate.findTitles(ids);
+    }
+
+    @Override
+    public List<Book> query(BookQuery q) {
+        return delegate.query(q);
+    }
+
+    @Override
+    public boolean isTextSearchAvailable() {
+        return delegate instanceof TextSearching && ((TextSearching) delegate).isTextSearchAvailable();
+    }
+
+    @Override
+    public List<Book> searchTitle(String query, int limit) {
+        return textSearch().searchTitle(query, limit);
+    }
+
+    @Override
+    public List<Book> searchText(String query, int limit) {
+        return textSearch().searchText(query, limit);
+    }
+
+    private TextSearching textSearch() {
+        if (!isTextSearchAvailable()) throw new IllegalStateException("Ricerca full-text non disponibile");
+        return (TextSearching) delegate;
+    }
+
+    @Override
+    public void beginBatch() {
+        if (delegate instanceof WriteBatching) ((WriteBatching) delegate).beginBatch();
+        guard.batchBegun();
+    }
+
+    @Override
+    public void flushBatch() {
+        if (delegate instanceof WriteBatching) ((WriteBatching) delegate).flushBatch();
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        try {
+            if (delegate instanceof WriteBatching) ((WriteBatching) delegate).endBatch(flush);
+        } finally {
+            guard.batchEnded();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Loan;
+import com.digitallibrary.util.BloomFilter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Decoratore con filtro di Bloom sugli id dei prestiti: restituzioni o cancellazioni
+ * con id errati vengono respinte senza leggere il file dei prestiti.
+ */
+public class BloomLoanRepository implements LoanRepository, WriteBatching {
+
+    private final LoanRepository delegate;
+    private final IdBloomGuard guard;
+
+    public BloomLoanRepository(LoanRepository delegate, double falsePositiveRate) {
+        this.delegate = delegate;
+        this.guard = new IdBloomGuard(() -> delegate.findAll().stream().map(Loan::getId).collect(Collectors.toList()), falsePositiveRate);
+    }
+
+    public IdBloomGuard.Stats stats() {
+        return guard.stats();
+    }
+
+    /** Ricostruisce il filtro dallo storage, es. dopo molte cancellazioni. */
+    public void rebuild() {
+        guard.rebuild();
+    }
+
+    @Override
+    public Loan save(Loan loan) {
+        BloomFilter before = guard.beforeWrite(loan.getId());
+        Loan saved = delegate.save(loan);
+        guard.afterWrite(before, loan.getId());
+        return saved;
+    }
+
+    @Override
+    public Optional<Loan> findById(String id) {
+        if (!guard.mightContain(id)) return Optional.empty();
+        Optional<Loan> found = delegate.findById(id);
+        if (found.isEmpty()) guard.falsePositive();
+        return found;
+    }
+
+    @Override
+    public List<Loan> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Stream<Loan> streamAll() {
+        return delegate.streamAll();
+    }
+
+    @Override
+    public List<Loan> findByUserId(String userId) {
+        return delegate.findByUserId(userId);
+    }
+
+    @Override
+    public List<Loan> findByBookId(String bookId) {
+        return delegate.findByBookId(bookId);
+    }
+
+    @Override
+    public boolean deleteById(String id) {
+        return delegate.deleteById(id);
+    }
+
+    @Override
+    public List<String> deleteIf(Collection<String> ids, Predicate<Loan> condition) {
+        return delegate.deleteIf(ids, condition);
+    }
+
+    @Override
+    public void beginBatch() {
+        if (delegate instanceof WriteBatching) ((WriteBatching) delegate).beginBatch();
+        guard.batchBegun();
+    }
+
+    @Override
+    public void flushBatch() {
+        if (delegate instanceof WriteBatching) ((WriteBatching) delegate).flushBatch();
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        try {
+            if (delegate instanceof WriteBatching) ((WriteBatching) delegate).endBatch(flush);
+        } finally {
+            guard.batchEnded();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.User;
+import com.digitallibrary.model.UserSummary;
+import com.digitallibrary.util.BloomFilter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Decoratore con filtro di Bloom sugli id utente: gli id sconosciuti
+ * (es. prestiti con utente cancellato) non raggiungono lo storage.
+ */
+public class BloomUserRepository implements UserRepository, WriteBatching {
+
+    private final UserRepository delegate;
+    private final IdBloomGuard guard;
+
+    public BloomUserRepository(UserRepository delegate, double falsePositiveRate) {
+        this.delegate = delegate;
+        this.guard = new IdBloomGuard(() -> delegate.findAll().stream().map(User::getId).collect(Collectors.toList()), falsePositiveRate);
+    }
+
+    public IdBloomGuard.Stats stats() {
+        return guard.stats();
+    }
+
+    /** Ricostruisce il filtro dallo storage, es. dopo molte cancellazioni. */
+    public void rebuild() {
+        guard.rebuild();
+    }
+
+    @Override
+    public User save(User user) {
+        BloomFilter before = guard.beforeWrite(user.getId());
+        User saved = delegate.save(user);
+        guard.afterWrite(before, user.getId());
+        return saved;
+    }
+
+    @Override
+    public Optional<User> findById(String id) {
+        if (!guard.mightContain(id)) return Optional.empty();
+        Optional<User> found = delegate.findById(id);
+        if (found.isEmpty()) guard.falsePositive();
+        return found;
+    }
+
+    @Override
+    public Optional<User> findByEmail(String email) {
+        return delegate.findByEmail(email);
+    }
+
+    @Override
+    public List<User> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Stream<User> streamAll() {
+        return delegate.streamAll();
+    }
+
+    @Override
+    public boolean deleteById(String id) {
+        return delegate.deleteById(id);
+    }
+
+    @Override
+    public Map<String, String> findNames(Collection<String> ids) {
+        return delegate.findNames(ids);
+    }
+
+    @Override
+    public List<UserSummary> findSummaries() {
+        return delegate.findSummaries();
+    }
+
+    @Override
+    public void beginBatch() {
+        if (delegate instanceof WriteBatching) ((WriteBatching) delegate).beginBatch();
+        guard.batchBegun();
+    }
+
+    @Override
+    public void flushBatch() {
+        if (delegate instanceof WriteBatching) ((WriteBatching) delegate).flushBatch();
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        try {
+            if (delegate instanceof WriteBatching) ((WriteBatching) delegate).endBatch(flush);
+        } finally {
+            guard.batchEnded();
+        }
+    }
+}
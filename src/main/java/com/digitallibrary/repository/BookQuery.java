@@ -0,0 +1,164 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Specifica di una ricerca nel catalogo: filtri su autore, genere e anno, ordinamento e limite.
+ * I backend che possono la traducono nel proprio linguaggio di query (es. SQL con indici),
+ * gli altri la valutano in memoria con {@link #toPredicate()} e {@link #comparator()}.
+ * <pre>
+ * BookQuery.all().author("Italo Calvino").yearBetween(1960, 1980).sortBy(BookQuery.Sort.YEAR, false).limit(10)
+ * </pre>
+ * I filtri assenti (null) non restringono; i filtri indicati valgono tutti insieme.
+ * Autore e titolo ignorano maiuscole e minuscole solo per le lettere ASCII, come
+ * {@code COLLATE NOCASE} di SQLite: "È" e "è" restano diversi su tutti i backend.
+ */
+public final class BookQuery {
+
+    /** Chiavi di ordinamento; a parità di chiavi l'ordine è per id. */
+    public enum Sort { TITLE, AUTHOR, YEAR, ADDED }
+
+    /** Chiave di ordinamento con verso. */
+    public static final class Order {
+        private final Sort key;
+        private final boolean ascending;
+
+        Order(Sort key, boolean ascending) {
+            this.key = key;
+            this.ascending = ascending;
+        }
+
+        public Sort getKey() { return key; }
+        public boolean isAscending() { return ascending; }
+    }
+
+    private String author;
+    private Genre genre;
+    private Integer yearFrom;
+    private Integer yearTo;
+    private final List<Order> orders = new ArrayList<>(2);
+    private int limit;
+
+    private BookQuery() {}
+
+    /** Nessun filtro, nessun ordinamento, nessun limite. */
+    public static BookQuery all() {
+        return new BookQuery();
+    }
+
+    /** Autore uguale, senza distinzione tra maiuscole e minuscole ASCII. */
+    public BookQuery author(String author) {
+        this.author = author == null || author.trim().isEmpty() ? null : author.trim();
+        return this;
+    }
+
+    public BookQuery genre(Genre genre) {
+        this.genre = genre;
+        return this;
+    }
+
+    public BookQuery year(int year) {
+        return yearBetween(year, year);
+    }
+
+    /** Anno di pubblicazione tra from e to inclusi; null lascia l'estremo aperto. */
+    public BookQuery yearBetween(Integer from, Integer to) {
+        if (from != null && to != null && from > to) {
+            throw new IllegalArgumentException("Intervallo di anni non valido: " + from + "-" + to);
+        }
+        this.yearFrom = from;
+        this.yearTo = to;
+        return this;
+    }
+
+    /** Aggiunge una chiave di ordinamento dopo quelle già indicate. */
+    public BookQuery sortBy(Sort key, boolean ascending) {
+        if (key == null) throw new IllegalArgumentException("Chiave di ordinamento mancante");
+        orders.add(new Order(key, ascending));
+        return this;
+    }
+
+    /** Numero massimo di risultati, 0 per nessun limite. */
+    public BookQuery limit(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Limite non valido: " + limit);
+        this.limit = limit;
+        return this;
+    }
+
+    public String getAuthor() { return author; }
+    public Genre getGenre() { return genre; }
+    public Integer getYearFrom() { return yearFrom; }
+    public Integer getYearTo() { return yearTo; }
+    public List<Order> getOrders() { return Collections.unmodifiableList(orders); }
+    public int getLimit() { return limit; }
+
+    /** I filtri come predicato, per la valutazione in memoria. */
+    public Predicate<Book> toPredicate() {
+        String a = author;
+        Genre g = genre;
+        Integer from = yearFrom, to = yearTo;
+        return b -> {
+            if (a != null && (b.getAuthor() == null || compareNoCase(b.getAuthor(), a) != 0)) return false;
+            if (g != null && b.getGenre() != g) return false;
+            if (from != null && b.getPublicationYear() < from) return false;
+            if (to != null && b.getPublicationYear() > to) return false;
+            return true;
+        };
+    }
+
+    /** L'ordinamento richiesto, seguito dall'id; null se non è richiesto alcun ordinamento. */
+    public Comparator<Book> comparator() {
+        if (orders.isEmpty()) return null;
+        Comparator<Book> cmp = null;
+        for (Order o : orders) {
+            Comparator<Book> c = keyComparator(o.key);
+            if (!o.ascending) c = c.reversed();
+            cmp = cmp == null ? c : cmp.thenComparing(c);
+        }
+        return cmp.thenComparing(Book::getId, Comparator.nullsFirst(Comparator.naturalOrder()));
+    }
+
+    private static Comparator<Book> keyComparator(Sort key) {
+        switch (key) {
+            case TITLE:
+                return Comparator.comparing(Book::getTitle, Comparator.nullsFirst(BookQuery::compareNoCase));
+            case AUTHOR:
+                return Comparator.comparing(Book::getAuthor, Comparator.nullsFirst(BookQuery::compareNoCase));
+            case YEAR:
+                return Comparator.comparingInt(Book::getPublicationYear);
+            default:
+                return Comparator.comparing(Book::getAddedDate, Comparator.nullsFirst(Comparator.naturalOrder()));
+        }
+    }
+
+    /**
+     * Confronto di {@code COLLATE NOCASE}: le lettere ASCII maiuscole valgono come minuscole,
+     * il resto si confronta per punto di codice (l'ordine dei byte UTF-8 usato da SQLite).
+     */
+    static int compareNoCase(String x, String y) {
+        int i = 0, j = 0;
+        while (i < x.length() && j < y.length()) {
+            int a = x.codePointAt(i), b = y.codePointAt(j);
+            if (a >= 'A' && a <= 'Z') a += 'a' - 'A';
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (a != b) return Integer.compare(a, b);
+            i += Character.charCount(a);
+            j += Character.charCount(b);
+        }
+        return Integer.compare(x.length() - i, y.length() - j);
+    }
+
+    /** Applica ordinamento e limite a una lista già filtrata, modificandola. */
+    public List<Book> sortAndLimit(List<Book> matches) {
+        Comparator<Book> cmp = comparator();
+        if (cmp != null) matches.sort(cmp);
+        return limit > 0 && matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+}
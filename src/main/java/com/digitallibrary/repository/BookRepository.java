@@ -1,8 +1,21 @@
 package com.digitallibrary.repository;
 
 import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookSummary;
+import com.digitallibrary.util.Isbn;
+import com.digitallibrary.util.ParallelScan;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public interface BookRepository {
     Book save(Book book);
@@ -12,4 +25,46 @@ public interface BookRepository {
     boolean deleteById(String id);
     void saveAll(List<Book> books);
     List<Book> loadAll();
+
+    // Ricerca per ISBN (forme ISBN-10/13 equivalenti); i repository con indice la sovrascrivono in O(1)
+    default Optional<Book> findByIsbn(String isbn) {
+        long key = Isbn.normalize(isbn);
+        if (key == Isbn.INVALID) return Optional.empty();
+        return findAll().stream().filter(b -> Isbn.normalize(b.getIsbn()) == key).findFirst();
+    }
+
+    // Proiezioni per le liste: i backend le sovrascrivono leggendo solo le colonne necessarie
+    default List<BookSummary> findSummaries() {
+        return findAll().stream().map(BookSummary::of).collect(Collectors.toList());
+    }
+
+    // Titoli dei libri indicati (id -> titolo); gli id inesistenti sono omessi
+    default Map<String, String> findTitles(Collection<String> ids) {
+        Set<String> wanted = new HashSet<>(ids);
+        Map<String, String> titles = new HashMap<>();
+        try (Stream<Book> all = streamAll()) {
+            all.filter(b -> wanted.contains(b.getId())).forEach(b -> titles.put(b.getId(), b.getTitle()));
+        }
+        return titles;
+    }
+
+    // Ricerca con filtri, ordinamento e limite: i backend con indici la traducono nella propria query,
+    // di default i filtri sono valutati in memoria con la scansione parallela
+    default List<Book> query(BookQuery q) {
+        return q.sortAndLimit(scan(s -> ParallelScan.shared().filter(s, q.toPredicate())));
+    }
+
+    // Lettura in streaming: lo stream va chiuso (try-with-resources) perché i backend su file/DB
+    // tengono aperta la sorgente finché non è consumato. Di default è la lista di findAll()
+    default Stream<Book> streamAll() {
+        return findAll().stream();
+    }
+
+    // Scansione completa del catalogo (filtri, aggregazioni): job riceve uno Spliterator valido
+    // solo durante la chiamata. Di default scorre streamAll(), senza materializzare il catalogo
+    default <R> R scan(Function<Spliterator<Book>, R> job) {
+        try (Stream<Book> all = streamAll()) {
+            return job.apply(all.spliterator());
+        }
+    }
 }
@@ -0,0 +1,71 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.util.LruCache;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Batch del thread corrente per i decoratori con cache. Durante un batch il repository sottostante
+ * vede le modifiche non ancora scritte: le letture vanno a lui senza riempire la cache condivisa,
+ * altrimenti gli altri thread leggerebbero dati di un batch che può ancora essere annullato.
+ * Quando il batch viene scritto o chiuso si scartano le voci degli id modificati.
+ */
+final class CacheBatchGuard {
+
+    private static final class Batch {
+        final Set<String> written = new HashSet<>();
+        // saveAll sostituisce tutto il contenuto: anche gli id non elencati possono essere spariti
+        boolean all;
+    }
+
+    private final LruCache<String, ?> cache;
+    private final ThreadLocal<Batch> batch = new ThreadLocal<>();
+
+    CacheBatchGuard(LruCache<String, ?> cache) {
+        this.cache = cache;
+    }
+
+    void begin() {
+        if (batch.get() == null) batch.set(new Batch());
+    }
+
+    /** True se il thread corrente è in un batch: niente letture dalla cache né inserimenti. */
+    boolean active() {
+        return batch.get() != null;
+    }
+
+    void written(String id) {
+        Batch b = batch.get();
+        if (b != null) b.written.add(id);
+    }
+
+    void writtenAll() {
+        Batch b = batch.get();
+        if (b != null) b.all = true;
+    }
+
+    /** Dopo la scrittura del batch, che resta aperto. */
+    void flushed() {
+        Batch b = batch.get();
+        if (b == null) return;
+        invalidate(b);
+        b.written.clear();
+        b.all = false;
+    }
+
+    /** Dopo la chiusura del batch, scritto o scartato. */
+    void ended() {
+        Batch b = batch.get();
+        batch.remove();
+        if (b != null) invalidate(b);
+    }
+
+    private void invalidate(Batch b) {
+        if (b.all) {
+            cache.invalidateAll();
+            return;
+        }
+        for (String id : b.written) cache.invalidate(id);
+    }
+}
@@ -0,0 +1,175 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookSummary;
+import com.digitallibrary.util.LruCache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Decoratore read-through: findById passa dalla cache LRU/TTL e va sul repository
+ * sottostante solo in caso di miss. Le scritture vanno direttamente al repository
+ * e invalidano le voci interessate (write-through con invalidazione).
+ * Un libro letto prima di una scrittura concorrente non entra in cache dopo la sua invalidazione
+ * ({@link LruCache#putIfUnchanged}). La cache tiene copie proprie e restituisce copie.
+ * Durante un batch del thread corrente la cache non è né letta né riempita ({@link CacheBatchGuard}).
+ */
+public class CachingBookRepository implements BookRepository, WriteBatching, TextSearching {
+
+    private final BookRepository delegate;
+    private final LruCache<String, Book> cache;
+    private final CacheBatchGuard batch;
+
+    public CachingBookRepository(BookRepository delegate, LruCache<String, Book> cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.batch = new CacheBatchGuard(cache);
+    }
+
+    /** Stima in byte di un libro in cache, usata come peso. */
+    public static int estimateSize(String id, Book b) {
+        return 160 + 2 * (len(id) + len(b.getTitle()) + len(b.getAuthor()) + len(b.getIsbn()));
+    }
+
+    private static int len(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    public LruCache.Stats stats() {
+        return cache.stats();
+    }
+
+    /** Scarta la voce in cache, ad esempio quando il file sottostante cambia dall'esterno. */
+    public void invalidate(String id) {
+        cache.invalidate(id);
+    }
+
+    @Override
+    public Book save(Book book) {
+        Book saved = delegate.save(book);
+        cache.invalidate(book.getId());
+        batch.written(book.getId());
+        return saved;
+    }
+
+    @Override
+    public Optional<Book> findById(String id) {
+        if (id == null || batch.active()) return delegate.findById(id);
+        Book cached = cache.get(id);
+        if (cached != null) return Optional.of(cached.copy());
+        long stamp = cache.stamp(id);
+        Optional<Book> found = delegate.findById(id);
+        found.ifPresent(b -> cache.putIfUnchanged(id, b.copy(), stamp));
+        return found;
+    }
+
+    @Override
+    public Optional<Book> findByIsbn(String isbn) {
+        return delegate.findByIsbn(isbn);
+    }
+
+    @Override
+    public List<Book> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Stream<Book> streamAll() {
+        return delegate.streamAll();
+    }
+
+    @Override
+    public <R> R scan(Function<Spliterator<Book>, R> job) {
+        return delegate.scan(job);
+    }
+
+    @Override
+    public Book update(Book book) {
+        Book updated = delegate.update(book);
+        cache.invalidate(book.getId());
+        batch.written(book.getId());
+        return updated;
+    }
+
+    @Override
+    public boolean deleteById(String id) {
+        boolean removed = delegate.deleteById(id);
+        cache.invalidate(id);
+        batch.written(id);
+        return removed;
+    }
+
+    @Override
+    public void saveAll(List<Book> books) {
+        delegate.saveAll(books);
+        for (Book b : books) cache.invalidate(b.getId());
+        batch.writtenAll();
+    }
+
+    @Override
+    public List<Book> loadAll() {
+        return delegate.loadAll();
+    }
+
+    @Override
+    public List<BookSummary> findSummaries() {
+        return delegate.findSummaries();
+    }
+
+    @Override
+    public Map<String, String> findTitles(Collection<String> ids) {
+        return delegate.findTitles(ids);
+    }
+
+    @Override
+    public List<Book> query(BookQuery q) {
+        return delegate.query(q);
+    }
+
+    @Override
+    public boolean isTextSearchAvailable() {
+        return delegate instanceof TextSearching && ((TextSearching) delegate).isTextSearchAvailable();
+    }
+
+    @Override
+    public List<Book> searchTitle(String query, int limit) {
+        return textSearch().searchTitle(query, limit);
+    }
+
+    @Override
+    public List<Book> searchText(String query, int limit) {
+        return textSearch().searchText(query, limit);
+    }
+
+    private TextSearching textSearch() {
+        if (!isTextSearchAvailable()) throw new IllegalStateException("Ricerca full-text non disponibile");
+        return (TextSearching) delegate;
+    }
+
+    @Override
+    public void beginBatch() {
+        if (delegate instanceof WriteBatching) ((WriteBatching) delegate).beginBatch();
+        batch.begin();
+    }
+
+    @Override
+    public void flushBatch() {
+        if (delegate instanceof WriteBatching) ((WriteBatching) delegate).flushBatch();
+        batch.flushed();
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        try {
+            if (delegate instanceof WriteBatching) ((WriteBatching) delegate).endBatch(flush);
+        } finally {
+            batch.ended();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.User;
+import com.digitallibrary.model.UserSummary;
+import com.digitallibrary.util.LruCache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Decoratore read-through per gli utenti, analogo a {@link CachingBookRepository}.
+ */
+public class CachingUserRepository implements UserRepository, WriteBatching {
+
+    private final UserRepository delegate;
+    private final LruCache<String, User> cache;
+    // durante un batch del thread corrente la cache non è né letta né riempita
+    private final CacheBatchGuard batch;
+
+    public CachingUserRepository(UserRepository delegate, LruCache<String, User> cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.batch = new CacheBatchGuard(cache);
+    }
+
+    /** Stima in byte di un utente in cache, usata come peso. */
+    public static int estimateSize(String id, User u) {
+        return 128 + 2 * ((id == null ? 0 : id.length())
+            + (u.getName() == null ? 0 : u.getName().length())
+            + (u.getEmail() == null ? 0 : u.getEmail().length()));
+    }
+
+    public LruCache.Stats stats() {
+        return cache.stats();
+    }
+
+    /** Scarta la voce in cache, ad esempio quando il file sottostante cambia dall'esterno. */
+    public void invalidate(String id) {
+        cache.invalidate(id);
+    }
+
+    @Override
+    public User save(User user) {
+        User saved = delegate.save(user);
+        cache.invalidate(user.getId());
+        batch.written(user.getId());
+        return saved;
+    }
+
+    @Override
+    public Optional<User> findById(String id) {
+        if (id == null || batch.active()) return delegate.findById(id);
+        User cached = cache.get(id);
+        if (cached != null) return Optional.of(cached);
+        long stamp = cache.stamp(id);
+        Optional<User> found = delegate.findById(id);
+        found.ifPresent(u -> cache.putIfUnchanged(id, u, stamp));
+        return found;
+    }
+
+    @Override
+    public Optional<User> findByEmail(String email) {
+        return delegate.findByEmail(email);
+    }
+
+    @Override
+    public List<User> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Stream<User> streamAll() {
+        return delegate.streamAll();
+    }
+
+    @Override
+    public boolean deleteById(String id) {
+        boolean removed = delegate.deleteById(id);
+        cache.invalidate(id);
+        batch.written(id);
+        return removed;
+    }
+
+    @Override
+    public Map<String, String> findNames(Collection<String> ids) {
+        return delegate.findNames(ids);
+    }
+
+    @Override
+    public List<UserSummary> findSummaries() {
+        return delegate.findSummaries();
+    }
+
+    @Override
+    public void beginBatch() {
+        if (delegate instanceof WriteBatching) ((WriteBatching) delegate).beginBatch();
+        batch.begin();
+    }
+
+    @Override
+    public void flushBatch() {
+        if (delegate instanceof WriteBatching) ((WriteBatching) delegate).flushBatch();
+        batch.flushed();
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        try {
+            if (delegate instanceof WriteBatching) ((WriteBatching) delegate).endBatch(flush);
+        } finally {
+            batch.ended();
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookSummary;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.util.CompactId;
+import com.digitallibrary.util.Isbn;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Repository in memoria compatto per cataloghi molto grandi.
+ * I libri sono memorizzati per colonne (struct-of-arrays) con tipi primitivi:
+ * id UUID impaccati in due long, titoli in UTF-8, autori internati, ISBN come ISBN-13 canonico in un long,
+ * genere come ordinale byte, anno come short e data di inserimento in secondi epoch (UTC).
+ * Gli oggetti {@link Book} vengono materializzati solo su richiesta: le modifiche
+ * a un libro restituito vanno salvate con {@link #update(Book)}.
+ * L'ISBN è una chiave univoca: salvare un libro con l'ISBN di un altro libro fallisce.
+ */
+public class CompactBookRepository implements BookRepository {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LockedRowSpliterator.Registry streams = new LockedRowSpliterator.Registry();
+
+    private int size;
+    // id: UUID canonico impaccato, altrimenti testo in idText
+    private long[] idHi = new long[INITIAL_CAPACITY];
+    private long[] idLo = new long[INITIAL_CAPACITY];
+    private String[] idText = new String[INITIAL_CAPACITY];
+    // titoli in UTF-8 senza l'involucro String
+    private byte[][] titles = new byte[INITIAL_CAPACITY][];
+    private int[] authorRefs = new int[INITIAL_CAPACITY];
+    // ISBN-13 canonico (Isbn.INVALID se assente); il testo originale solo se diverso dalla forma canonica
+    private long[] isbn13 = new long[INITIAL_CAPACITY];
+    private String[] isbnText = new String[INITIAL_CAPACITY];
+    private byte[] genres = new byte[INITIAL_CAPACITY];
+    private short[] years = new short[INITIAL_CAPACITY];
+    private boolean[] available = new boolean[INITIAL_CAPACITY];
+    private long[] addedSeconds = new long[INITIAL_CAPACITY];
+
+    // autori internati: ogni stringa distinta è memorizzata una sola volta
+    private final List<String> authors = new ArrayList<>();
+    private final Map<String, Integer> authorIndex = new HashMap<>();
+
+    private final RowIndex idIndex = new RowIndex(this::idHashOfRow);
+    private final RowIndex isbnIndex = new RowIndex(row -> mix(Long.hashCode(isbn13[row])));
+
+    @Override
+    public Book save(Book book) {
+        lock.writeLock().lock();
+        try {
+            int row = indexOf(book.getId());
+            long isbn = Isbn.normalize(book.getIsbn());
+            int owner = isbn == Isbn.INVALID ? -1 : rowOfIsbn(isbn);
+            if (owner >= 0 && owner != row) {
+                throw new IllegalArgumentException("ISBN già presente nel catalogo: " + book.getIsbn());
+            }
+            if (row < 0) {
+                ensureCapacity(size + 1);
+                row = size++;
+                writeRow(row, book);
+                idIndex.insert(row);
+            } else {
+                if (isbn13[row] != Isbn.INVALID) isbnIndex.remove(isbnIndex.slotOfRow(row));
+                writeRow(row, book);
+            }
+            if (isbn13[row] != Isbn.INVALID) isbnIndex.insert(row);
+            return book;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Book> findById(String id) {
+        lock.readLock().lock();
+        try {
+            int row = indexOf(id);
+            return row < 0 ? Optional.empty() : Optional.of(materialize(row));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Book> findByIsbn(String isbn) {
+        long key = Isbn.normalize(isbn);
+        if (key == Isbn.INVALID) return Optional.empty();
+        lock.readLock().lock();
+        try {
+            int row = rowOfIsbn(key);
+            return row < 0 ? Optional.empty() : Optional.of(materialize(row));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> findAll() {
+        lock.readLock().lock();
+        try {
+            List<Book> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) list.add(materialize(i));
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // le scritture attendono la fine della scansione: i worker leggono le colonne sotto il read lock del chiamante
+    @Override
+    public <R> R scan(Function<Spliterator<Book>, R> job) {
+        lock.readLock().lock();
+        try {
+            return job.apply(new RowSpliterator(0, size));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Stream<Book> streamAll() {
+        return StreamSupport.stream(new LockedRowSpliterator<>(lock.readLock(), streams, () -> size, this::materialize), false);
+    }
+
+    // proiezioni lette direttamente dalle colonne, senza ISBN, genere e data
+    @Override
+    public List<BookSummary> findSummaries() {
+        lock.readLock().lock();
+        try {
+            List<BookSummary> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(new BookSummary(idAt(i), titleAt(i), authorAt(i), years[i], available[i]));
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, String> findTitles(Collection<String> ids) {
+        Map<String, String> out = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (String id : ids) {
+                int row = id == null ? -1 : indexOf(id);
+                if (row >= 0) out.put(id, titleAt(row));
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Book update(Book book) {
+        return save(book);
+    }
+
+    @Override
+    public boolean deleteById(String id) {
+        lock.writeLock().lock();
+        try {
+            int row = indexOf(id);
+            if (row < 0) return false;
+            idIndex.remove(idIndex.slotOfRow(row));
+            if (isbn13[row] != Isbn.INVALID) isbnIndex.remove(isbnIndex.slotOfRow(row));
+            int last = size - 1;
+            if (row != last) {
+                // sposta l'ultima riga nel buco lasciato da quella eliminata
+                idIndex.relocate(last, row);
+                if (isbn13[last] != Isbn.INVALID) isbnIndex.relocate(last, row);
+                moveRow(last, row);
+            }
+            clearRow(last);
+            size--;
+            streams.deleted(row, last);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveAll(List<Book> books) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(size + books.size());
+            for (Book b : books) save(b);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> loadAll() {
+        return findAll();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- righe ---
+
+    private void writeRow(int row, Book b) {
+        String id = b.getId();
+        if (CompactId.isCanonical(id)) {
+            idHi[row] = CompactId.highBits(id);
+            idLo[row] = CompactId.lowBits(id);
+            idText[row] = null;
+        } else {
+            idHi[row] = 0L;
+            idLo[row] = 0L;
+            idText[row] = id;
+        }
+        titles[row] = b.getTitle() != null ? b.getTitle().getBytes(StandardCharsets.UTF_8) : null;
+        authorRefs[row] = internAuthor(b.getAuthor());
+        long isbn = Isbn.normalize(b.getIsbn());
+        isbn13[row] = isbn;
+        isbnText[row] = isbn != Isbn.INVALID && isCanonicalText(b.getIsbn(), isbn) ? null : b.getIsbn();
+        genres[row] = b.getGenre() != null ? (byte) b.getGenre().ordinal() : -1;
+        years[row] = (short) b.getPublicationYear();
+        available[row] = b.isAvailable();
+        addedSeconds[row] = b.getAddedDate() != null ? b.getAddedDate().toEpochSecond(ZoneOffset.UTC) : NO_DATE;
+    }
+
+    // le righe sono state validate al salvataggio: niente setter né lettura dell'orologio
+    private Book materialize(int row) {
+        byte g = genres[row];
+        long added = addedSeconds[row];
+        return Book.restore(idAt(row), titleAt(row), authorAt(row), g < 0 ? null : GENRES[g], years[row], isbnAt(row),
+                available[row], added == NO_DATE ? null : LocalDateTime.ofEpochSecond(added, 0, ZoneOffset.UTC));
+    }
+
+    private void moveRow(int from, int to) {
+        idHi[to] = idHi[from];
+        idLo[to] = idLo[from];
+        idText[to] = idText[from];
+        titles[to] = titles[from];
+        authorRefs[to] = authorRefs[from];
+        isbn13[to] = isbn13[from];
+        isbnText[to] = isbnText[from];
+        genres[to] = genres[from];
+        years[to] = years[from];
+        available[to] = available[from];
+        addedSeconds[to] = addedSeconds[from];
+    }
+
+    private void clearRow(int row) {
+        idText[row] = null;
+        titles[row] = null;
+        isbnText[row] = null;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= titles.length) {
+            return;
+        }
+        int cap = Math.max(needed, titles.length + (titles.length >> 1));
+        idHi = Arrays.copyOf(idHi, cap);
+        idLo = Arrays.copyOf(idLo, cap);
+        idText = Arrays.copyOf(idText, cap);
+        titles = Arrays.copyOf(titles, cap);
+        authorRefs = Arrays.copyOf(authorRefs, cap);
+        isbn13 = Arrays.copyOf(isbn13, cap);
+        isbnText = Arrays.copyOf(isbnText, cap);
+        genres = Arrays.copyOf(genres, cap);
+        years = Arrays.copyOf(years, cap);
+        available = Arrays.copyOf(available, cap);
+        addedSeconds = Arrays.copyOf(addedSeconds, cap);
+        int slots = Integer.highestOneBit(cap - 1) << 2;
+        idIndex.rehash(slots, row -> true);
+        isbnIndex.rehash(slots, row -> isbn13[row] != Isbn.INVALID);
+    }
+
+    private String idAt(int row) {
+        String text = idText[row];
+        return text != null ? text : CompactId.format(idHi[row], idLo[row]);
+    }
+
+    private String titleAt(int row) {
+        byte[] title = titles[row];
+        return title != null ? new String(title, StandardCharsets.UTF_8) : null;
+    }
+
+    private String authorAt(int row) {
+        int ref = authorRefs[row];
+        return ref < 0 ? null : authors.get(ref);
+    }
+
+    private String isbnAt(int row) {
+        String text = isbnText[row];
+        return text != null ? text : Isbn.format(isbn13[row]);
+    }
+
+    private int internAuthor(String author) {
+        if (author == null) return -1;
+        Integer ref = authorIndex.get(author);
+        if (ref != null) return ref;
+        int next = authors.size();
+        authors.add(author);
+        authorIndex.put(author, next);
+        return next;
+    }
+
+    // --- indici ---
+
+    private int indexOf(String id) {
+        if (id == null) return -1;
+        if (CompactId.isCanonical(id)) {
+            long hi = CompactId.highBits(id);
+            long lo = CompactId.lowBits(id);
+            return idIndex.find(hash(hi, lo), row -> idText[row] == null && idHi[row] == hi && idLo[row] == lo);
+        }
+        return idIndex.find(mix(id.hashCode()), row -> id.equals(idText[row]));
+    }
+
+    private int rowOfIsbn(long isbn) {
+        return isbnIndex.find(mix(Long.hashCode(isbn)), row -> isbn13[row] == isbn);
+    }
+
+    private int idHashOfRow(int row) {
+        String text = idText[row];
+        return text != null ? mix(text.hashCode()) : hash(idHi[row], idLo[row]);
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        return mix((int) (h ^ (h >>> 32)));
+    }
+
+    private static int mix(int h) {
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 16);
+    }
+
+    /** Intervallo di righe [from, to) diviso a metà; i libri sono materializzati durante l'attraversamento. */
+    private final class RowSpliterator implements Spliterator<Book> {
+        private int from;
+        private final int to;
+
+        RowSpliterator(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Book> action) {
+            if (from >= to) return false;
+            action.accept(materialize(from++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Book> action) {
+            for (int row = from; row < to; row++) action.accept(materialize(row));
+            from = to;
+        }
+
+        @Override
+        public Spliterator<Book> trySplit() {
+            int mid = (from + to) >>> 1;
+            if (mid <= from) return null;
+            RowSpliterator prefix = new RowSpliterator(from, mid);
+            from = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /**
+     * Indice hash a indirizzamento aperto (linear probing) da chiave a riga.
+     * Gli slot contengono riga + 1 (0 = vuoto); l'hash di una riga è ricalcolato dalle colonne.
+     */
+    private final class RowIndex {
+        private final IntUnaryOperator hashOfRow;
+        private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+        RowIndex(IntUnaryOperator hashOfRow) {
+            this.hashOfRow = hashOfRow;
+        }
+
+        int find(int hash, IntPredicate matches) {
+            int mask = slots.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                int entry = slots[i];
+                if (entry == 0) return -1;
+                if (matches.test(entry - 1)) return entry - 1;
+            }
+        }
+
+        int slotOfRow(int row) {
+            int mask = slots.length - 1;
+            for (int i = hashOfRow.applyAsInt(row) & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == row + 1) return i;
+            }
+        }
+
+        void insert(int row) {
+            int mask = slots.length - 1;
+            int i = hashOfRow.applyAsInt(row) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = row + 1;
+        }
+
+        /** Punta a {@code to} lo slot della riga {@code from}, prima che le colonne vengano spostate. */
+        void relocate(int from, int to) {
+            slots[slotOfRow(from)] = to + 1;
+        }
+
+        /** Cancellazione con backward shift, senza tombstone. */
+        void remove(int slot) {
+            int mask = slots.length - 1;
+            int hole = slot;
+            for (int i = (slot + 1) & mask; slots[i] != 0; i = (i + 1) & mask) {
+                int home = hashOfRow.applyAsInt(slots[i] - 1) & mask;
+                // l'elemento può riempire il buco solo se il buco sta tra la sua posizione ideale e quella attuale
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    slots[hole] = slots[i];
+                    hole = i;
+                }
+            }
+            slots[hole] = 0;
+        }
+
+        void rehash(int capacity, IntPredicate indexed) {
+            if (capacity <= slots.length) return;
+            slots = new int[capacity];
+            for (int row = 0; row < size; row++) {
+                if (indexed.test(row)) insert(row);
+            }
+        }
+    }
+
+    // --- codifiche ---
+
+    private static final Genre[] GENRES = Genre.values();
+
+    /** Vero se il testo è esattamente la forma canonica a 13 cifre, ricostruibile senza salvarlo. */
+    private static boolean isCanonicalText(String s, long isbn) {
+        if (s.length() != 13) return false;
+        for (int i = 12; i >= 0; i--) {
+            if (s.charAt(i) != (char) ('0' + isbn % 10)) return false;
+            isbn /= 10;
+        }
+        return true;
+    }
+}
@@ -1,39 +1,82 @@
 package com.digitallibrary.repository;
 
+import com.digitallibrary.codec.IsoDateTimeCodec;
 import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookLoadReport;
 import com.digitallibrary.model.Genre;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Implementazione semplice della persistenza su CSV.
  * Formato: id,title,author,genre,year,isbn,available,addedDate
  */
-public class CsvBookRepository implements BookRepository {
+public class CsvBookRepository implements BookRepository, WriteBatching {
 
     private final String filePath;
+    private final DurableFileWriter writer;
     private static final String SEP = ",";
+    // modifiche accumulate dal batch del thread corrente, null fuori da un batch
+    private final ThreadLocal<List<Book>> batch = new ThreadLocal<>();
+    // indici sulla lista accumulata, costruiti alla prima ricerca nel batch
+    private final ThreadLocal<BatchIndex> batchIndex = new ThreadLocal<>();
+    // copia in memoria del file, attiva dopo watch()
+    private volatile FileSnapshot<Book> snapshot;
+    // esito della validazione dell'ultima lettura del file
+    private volatile BookLoadReport lastLoad;
 
+    /** Scritture tramite il {@link DurableFileWriter} predefinito. */
     public CsvBookRepository(String filePath) {
+        this(filePath, DurableFileWriter.getDefault());
+    }
+
+    public CsvBookRepository(String filePath, DurableFileWriter writer) {
         this.filePath = filePath;
+        this.writer = writer;
     }
 
     @Override
     public Book save(Book book) {
+        // durante un batch si aggiunge alla lista accumulata, senza copiarla
+        List<Book> pending = batch.get();
+        if (pending != null) {
+            pending.add(book);
+            BatchIndex index = batchIndex.get();
+            if (index != null) index.added(book);
+            return book;
+        }
         List<Book> books = loadAll();
         books.add(book);
         saveToFile(books);
         return book;
     }
 
+    /**
+     * Tiene in memoria il contenuto del file, aggiornato in background quando il file
+     * cambia dall'esterno: le letture smettono di rianalizzarlo a ogni chiamata.
+     */
+    public synchronized FileSnapshot<Book> watch() {
+        if (snapshot == null) {
+            snapshot = new FileSnapshot<>(Paths.get(filePath), r -> parse(new BufferedReader(r)), Book::getId, this::toLine, Book::copy);
+        }
+        return snapshot;
+    }
+
     @Override
     public Optional<Book> findById(String id) {
-        return loadAll().stream().filter(b -> b.getId().equals(id)).findFirst();
+        List<Book> pending = batch.get();
+        if (pending != null) return index(pending).findById(id);
+        FileSnapshot<Book> snap = snapshot;
+        if (snap != null) return snap.get(id);
+        try (Stream<Book> all = streamAll()) {
+            return all.filter(b -> b.getId().equals(id)).findFirst();
+        }
     }
 
     @Override
@@ -41,8 +84,40 @@ public class CsvBookRepository implements BookRepository {
         return loadAll();
     }
 
+    // righe lette e convertite una alla volta mentre lo stream viene consumato; durante un batch la copia in memoria
+    @Override
+    public Stream<Book> streamAll() {
+        List<Book> pending = batch.get();
+        if (pending != null) return new ArrayList<>(pending).stream();
+        FileSnapshot<Book> snap = snapshot;
+        if (snap != null) return snap.stream();
+        if (!Files.exists(Paths.get(filePath))) return Stream.empty();
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(filePath));
+            BookLoadReport report = new BookLoadReport();
+            Stream<Book> books = br.lines().map(line -> parseLine(line, report)).filter(Objects::nonNull).onClose(() -> {
+                try { br.close(); } catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+            return LoadReportStreams.publishWhenExhausted(books, () -> lastLoad = report);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Stream.empty();
+        }
+    }
+
     @Override
     public Book update(Book book) {
+        List<Book> pending = batch.get();
+        if (pending != null) {
+            BatchIndex index = batchIndex.get();
+            for (int i = 0; i < pending.size(); i++) {
+                Book old = pending.get(i);
+                if (!old.getId().equals(book.getId())) continue;
+                pending.set(i, book);
+                if (index != null && !index.replaced(old, book)) batchIndex.remove();
+            }
+            return book;
+        }
         List<Book> books = loadAll();
         books = books.stream().map(b -> b.getId().equals(book.getId()) ? book : b).collect(Collectors.toList());
         saveToFile(books);
@@ -62,63 +137,130 @@ public class CsvBookRepository implements BookRepository {
         saveToFile(books);
     }
 
+    @Override
+    public Optional<Book> findByIsbn(String isbn) {
+        List<Book> pending = batch.get();
+        if (pending != null) return index(pending).findByIsbn(isbn);
+        return BookRepository.super.findByIsbn(isbn);
+    }
+
+    private BatchIndex index(List<Book> pending) {
+        BatchIndex index = batchIndex.get();
+        if (index == null) {
+            index = new BatchIndex(pending);
+            batchIndex.set(index);
+        }
+        return index;
+    }
+
+    @Override
+    public void beginBatch() {
+        if (batch.get() != null) throw new IllegalStateException("Batch già in corso");
+        batch.set(loadAll());
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        List<Book> pending = batch.get();
+        batch.remove();
+        batchIndex.remove();
+        if (flush && pending != null) saveToFile(pending);
+    }
+
+    // scrive la lista accumulata tenendola come stato del batch, senza rileggere il file
+    @Override
+    public void flushBatch() {
+        List<Book> pending = batch.get();
+        if (pending == null) throw new IllegalStateException("Nessun batch in corso");
+        batch.remove();
+        try {
+            saveToFile(pending);
+        } finally {
+            batch.set(pending);
+        }
+    }
+
     @Override
     public List<Book> loadAll() {
-        List<Book> list = new ArrayList<>();
-        if (!Files.exists(Paths.get(filePath))) return list;
+        List<Book> pending = batch.get();
+        if (pending != null) return new ArrayList<>(pending);
+        FileSnapshot<Book> snap = snapshot;
+        if (snap != null) return snap.items();
+        if (!Files.exists(Paths.get(filePath))) return new ArrayList<>();
 
         try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] parts = line.split(SEP, -1);
-                if (parts.length < 8) continue; // malformed
-                try {
-                    String title = parts[1] != null ? parts[1].trim() : "";
-                    if (title.isEmpty()) {
-                        // skip rows without a valid title
-                        continue;
-                    }
-                    Book b = new Book();
-                    b.setId(parts[0]);
-                    b.setTitle(title);
-                    b.setAuthor(parts[2]);
-                    b.setGenre(Genre.fromDisplayName(parts[3]));
-                    try { b.setPublicationYear(Integer.parseInt(parts[4])); } catch (Exception e) { b.setPublicationYear(0); }
-                    b.setIsbn(parts[5]);
-                    b.setAvailable(Boolean.parseBoolean(parts[6]));
-                    try { b.setAddedDate(LocalDateTime.parse(parts[7])); } catch (Exception e) { /* ignore */ }
-                    list.add(b);
-                } catch (Exception e) {
-                    // skip malformed row but continue processing others
-                    System.out.println("Warning: skipping malformed CSV row: " + Arrays.toString(parts) + " -> " + e.getMessage());
-                }
-            }
+            return parse(br);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return new ArrayList<>();
+    }
+
+    private List<Book> parse(BufferedReader br) throws IOException {
+        BookLoadReport report = new BookLoadReport();
+        List<Book> list = new ArrayList<>();
+        String line;
+        while ((line = br.readLine()) != null) {
+            Book b = parseLine(line, report);
+            if (b != null) list.add(b);
+        }
+        lastLoad = report;
         return list;
     }
 
+    /** Validazione dell'ultima lettura del file (null se non ancora letto). */
+    public BookLoadReport getLastLoadReport() {
+        return lastLoad;
+    }
+
+    // null per righe vuote o malformate (meno di 8 campi, senza id o senza titolo);
+    // gli altri campi non validi sono annotati nel report senza scartare la riga
+    private Book parseLine(String line, BookLoadReport report) {
+        if (line.trim().isEmpty()) return null;
+        String[] parts = line.split(SEP, -1);
+        if (parts.length < 8) return null; // malformed
+        String title = parts[1].trim();
+        if (parts[0].trim().isEmpty() || title.isEmpty()) return null;
+        int year;
+        try { year = Integer.parseInt(parts[4]); } catch (NumberFormatException e) { year = 0; }
+        return report.restore(parts[0], title, parts[2], Genre.fromDisplayName(parts[3]), year, parts[5],
+            Boolean.parseBoolean(parts[6]), IsoDateTimeCodec.parse(parts[7]));
+    }
+
     private void saveToFile(List<Book> books) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            for (Book b : books) {
-                String line = String.join(SEP,
-                    b.getId(),
-                    escapeCsv(b.getTitle()),
-                    escapeCsv(b.getAuthor()),
-                    b.getGenre().getDisplayName(),
-                    String.valueOf(b.getPublicationYear()),
-                    b.getIsbn(),
-                    String.valueOf(b.isAvailable()),
-                    b.getAddedDate() != null ? b.getAddedDate().toString() : ""
-                );
-                bw.write(line);
-                bw.newLine();
-            }
+        if (batch.get() != null) {
+            batch.set(books);
+            batchIndex.remove();
+            return;
+        }
+        // stessa codifica di FileReader usato in lettura
+        DurableFileWriter.Written written;
+        try {
+            written = writer.write(Paths.get(filePath), Charset.defaultCharset(), w -> {
+                for (Book b : books) {
+                    w.write(toLine(b));
+                    w.write(System.lineSeparator());
+                }
+            });
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
+        FileSnapshot<Book> snap = snapshot;
+        if (snap != null) snap.published(books, written);
+    }
+
+    private String toLine(Book b) {
+        return String.join(SEP,
+            b.getId(),
+            escapeCsv(b.getTitle()),
+            escapeCsv(b.getAuthor()),
+            b.getGenre().getDisplayName(),
+            String.valueOf(b.getPublicationYear()),
+            b.getIsbn(),
+            String.valueOf(b.isAvailable()),
+            b.getAddedDate() != null ? b.getAddedDate().toString() : ""
+        );
     }
 
     private String escapeCsv(String s) {
@@ -0,0 +1,21 @@
+package com.digitallibrary.repository;
+
+/**
+ * Salvataggio rifiutato perché l'email (normalizzata) appartiene già a un altro utente.
+ * Estende IllegalArgumentException come gli altri errori di validazione.
+ */
+public class DuplicateEmailException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String email;
+
+    public DuplicateEmailException(String email) {
+        super("Email già registrata: " + email);
+        this.email = email;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+}
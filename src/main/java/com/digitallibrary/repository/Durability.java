@@ -0,0 +1,27 @@
+package com.digitallibrary.repository;
+
+/**
+ * Politica di sincronizzazione su disco (fsync) dei repository su file.
+ * In tutti i modi i file sono riscritti su un file temporaneo e sostituiti con una rinomina
+ * atomica: un processo interrotto o un lettore concorrente non vedono mai un file scritto a metà.
+ * I modi differiscono solo per cosa sopravvive a un crash del sistema operativo.
+ */
+public enum Durability {
+    /** Nessun fsync: il sistema operativo scrive quando vuole. */
+    NONE,
+    /**
+     * fsync di ogni file prima della rinomina e fsync periodico (ogni N ms) delle directory:
+     * si perdono al più le ultime rinomine, che dopo un crash lasciano il contenuto precedente.
+     */
+    BATCH,
+    /** fsync del file e della directory prima che la scrittura ritorni. */
+    ALWAYS;
+
+    /** Nome dell'opzione (none, batch, always), senza distinzione fra maiuscole e minuscole. */
+    public static Durability parse(String value) {
+        for (Durability d : values()) {
+            if (d.name().equalsIgnoreCase(value == null ? "" : value.trim())) return d;
+        }
+        throw new IllegalArgumentException("Durabilità non valida: " + value + " (none, batch, always)");
+    }
+}
@@ -0,0 +1,242 @@
+package com.digitallibrary.repository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Scrittura dei file dati secondo una {@link Durability}: il contenuto va su un file temporaneo
+ * nella stessa directory, che sostituisce il file con una rinomina atomica.
+ * <ul>
+ * <li>ALWAYS: fsync del temporaneo prima della rinomina e della directory dopo;</li>
+ * <li>BATCH: fsync del temporaneo prima della rinomina, mentre l'fsync della directory, che rende
+ * durevole la rinomina, è eseguito da un thread demone ogni {@code intervalMs} una sola volta per
+ * le rinomine avvenute nel frattempo. Dopo un crash il file ha il contenuto nuovo o quello
+ * precedente, mai uno vuoto o parziale;</li>
+ * <li>NONE: solo rinomina atomica.</li>
+ * </ul>
+ */
+public final class DurableFileWriter implements AutoCloseable {
+
+    /** Produce il contenuto del file. */
+    public interface Content {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    /** Produce il contenuto binario del file (es. compresso). */
+    public interface BinaryContent {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** Esito di una scrittura: CRC32 dei byte scritti e stato del file che li contiene. */
+    public static final class Written {
+        private final long crc;
+        private final FileState state;
+
+        Written(long crc, FileState state) {
+            this.crc = crc;
+            this.state = state;
+        }
+
+        public long getCrc() { return crc; }
+
+        // stato del temporaneo prima della rinomina, che lo conserva: se il file ha ancora questo
+        // stato contiene (salvo scritture nello stesso tick, vedi FileState) i byte scritti
+        FileState state() { return state; }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static volatile DurableFileWriter defaultWriter = new DurableFileWriter(Durability.NONE, 0);
+
+    private final Durability mode;
+    private final long intervalMs;
+    // directory con rinomine non ancora sincronizzate (solo BATCH)
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flusher;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAccumulator maxWriteNanos = new LongAccumulator(Math::max, 0);
+
+    public DurableFileWriter(Durability mode, long intervalMs) {
+        if (mode == Durability.BATCH && intervalMs <= 0) throw new IllegalArgumentException("intervalMs deve essere positivo");
+        this.mode = mode;
+        this.intervalMs = intervalMs;
+        if (mode == Durability.BATCH) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "fsync-batch");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /** Writer usato dai repository creati senza indicarne uno (di default NONE). */
+    public static DurableFileWriter getDefault() {
+        return defaultWriter;
+    }
+
+    /** Da chiamare all'avvio, prima di creare i repository. */
+    public static void setDefault(DurableFileWriter writer) {
+        defaultWriter = writer;
+    }
+
+    public Durability getMode() {
+        return mode;
+    }
+
+    /** Sostituisce {@code target} con il contenuto prodotto da {@code content}, in UTF-8. */
+    public Written write(Path target, Content content) throws IOException {
+        return write(target, StandardCharsets.UTF_8, content);
+    }
+
+    public Written write(Path target, Charset charset, Content content) throws IOException {
+        return writeBinary(target, out -> {
+            Writer w = new BufferedWriter(new OutputStreamWriter(out, charset), BUFFER_SIZE);
+            content.writeTo(w);
+            w.flush();
+        });
+    }
+
+    /**
+     * Sostituisce {@code target} con i byte prodotti da {@code content}, con la stessa durabilità.
+     * @return CRC32 e stato del file scritto, per riconoscere in seguito il proprio contenuto nel file
+     */
+    public Written writeBinary(Path target, BinaryContent content) throws IOException {
+        long start = System.nanoTime();
+        Path abs = target.toAbsolutePath();
+        Path dir = abs.getParent();
+        Path tmp = Files.createTempFile(dir, "." + abs.getFileName() + ".", ".tmp");
+        CRC32 crc = new CRC32();
+        FileState state;
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = new CheckedOutputStream(Channels.newOutputStream(ch), crc);
+                content.writeTo(out);
+                out.flush();
+                // il contenuto deve essere su disco prima che la rinomina possa esserlo
+                if (mode != Durability.NONE) {
+                    ch.force(false);
+                    fsyncs.increment();
+                }
+            }
+            keepPermissions(abs, tmp);
+            state = FileState.read(tmp);
+            move(tmp, abs);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (mode == Durability.ALWAYS) {
+            forceDirectory(dir);
+        } else if (mode == Durability.BATCH) {
+            pending.add(dir);
+        }
+        writes.increment();
+        long elapsed = System.nanoTime() - start;
+        writeNanos.add(elapsed);
+        maxWriteNanos.accumulate(elapsed);
+        return new Written(crc.getValue(), state);
+    }
+
+    /** Sincronizza subito le directory con rinomine in attesa (BATCH); negli altri modi non fa nulla. */
+    public void flush() throws IOException {
+        if (pending.isEmpty()) return;
+        for (Path d : pending) {
+            pending.remove(d);
+            forceDirectory(d);
+        }
+        batches.increment();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long n = writes.sum();
+        m.put("mode", mode.name().toLowerCase());
+        if (mode == Durability.BATCH) m.put("intervalMs", intervalMs);
+        m.put("writes", n);
+        m.put("fsyncs", fsyncs.sum());
+        m.put("batches", batches.sum());
+        m.put("pending", pending.size());
+        m.put("avgWriteMicros", n == 0 ? 0 : writeNanos.sum() / n / 1000);
+        m.put("maxWriteMicros", maxWriteNanos.get() / 1000);
+        return m;
+    }
+
+    /** Ferma il thread del modo BATCH dopo un'ultima sincronizzazione. */
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(intervalMs + 1000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void move(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // il temporaneo nasce con permessi 600: il file sostituito mantiene i propri
+    private static void keepPermissions(Path target, Path tmp) {
+        try {
+            if (Files.exists(target)) Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(target));
+        } catch (UnsupportedOperationException | IOException e) {
+            // filesystem non POSIX: restano i permessi predefiniti
+        }
+    }
+
+    // la rinomina è durevole solo dopo l'fsync della directory; non tutti i sistemi lo consentono
+    private void forceDirectory(Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+            fsyncs.increment();
+        } catch (IOException e) {
+            // es. Windows: la directory non si apre come file
+        }
+    }
+}
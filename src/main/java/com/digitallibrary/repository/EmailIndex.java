@@ -0,0 +1,62 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.User;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Indice email normalizzata -> utente per i repository che non tengono già una mappa propria.
+ * In caso di email ripetute nei dati esistenti vale il primo utente, come per la ricerca sequenziale.
+ * Non thread-safe: chi lo usa lo sostituisce o lo modifica sotto il proprio lock.
+ */
+final class EmailIndex {
+
+    private final Map<String, User> byEmail;
+
+    EmailIndex(Iterable<User> users, int expected) {
+        byEmail = new HashMap<>(Math.max(16, expected * 2));
+        for (User u : users) added(u);
+    }
+
+    /** Forma usata come chiave: senza spazi ai bordi e in minuscolo; null per email assente o vuota. */
+    static String normalize(String email) {
+        if (email == null) return null;
+        String key = email.trim().toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+
+    Optional<User> find(String email) {
+        String key = normalize(email);
+        return key == null ? Optional.empty() : Optional.ofNullable(byEmail.get(key));
+    }
+
+    /** Lancia {@link DuplicateEmailException} se l'email di {@code user} appartiene a un altro id. */
+    void checkUnique(User user) {
+        String key = normalize(user.getEmail());
+        if (key == null) return;
+        User owner = byEmail.get(key);
+        if (owner != null && !owner.getId().equals(user.getId())) throw new DuplicateEmailException(user.getEmail());
+    }
+
+    void added(User u) {
+        String key = normalize(u.getEmail());
+        if (key != null) byEmail.putIfAbsent(key, u);
+    }
+
+    /** Aggiorna l'indice dopo che {@code previous} (anche null) è stato sostituito da {@code u}. */
+    void replaced(User previous, User u) {
+        if (previous != null) removed(previous);
+        String key = normalize(u.getEmail());
+        if (key != null) byEmail.put(key, u);
+    }
+
+    void removed(User u) {
+        String key = normalize(u.getEmail());
+        if (key == null) return;
+        User owner = byEmail.get(key);
+        if (owner != null && owner.getId().equals(u.getId())) byEmail.remove(key);
+    }
+}
@@ -0,0 +1,287 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.util.FileWatcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Copia in memoria del contenuto di un file dati, tenuta allineata con le modifiche esterne.
+ * I repository su file leggono da qui invece di rileggere il file a ogni chiamata.
+ * <p>
+ * Quando il file cambia (notifica di {@link FileWatcher}) si confronta prima il suo
+ * {@link FileState} (dimensione, data di modifica al nanosecondo, identità del file) e, se è
+ * diverso o la data di modifica è troppo recente per fidarsene, il CRC32 del contenuto; solo se
+ * il contenuto è diverso il file viene rianalizzato in background. Dopo una scrittura del
+ * repository il file si rilegge solo se il suo stato non è quello prodotto dalla scrittura. Il nuovo stato è confrontato record per record (per id e impronta
+ * del contenuto) con quello precedente e pubblicato in modo atomico; i listener ricevono solo
+ * i record aggiunti, modificati o rimossi.
+ * <p>
+ * I record letti da qui sono copie: chi li modifica deve salvarli tramite il repository,
+ * e lo stato pubblicato non cambia finché il file non viene riscritto.
+ */
+public class FileSnapshot<T> implements AutoCloseable {
+
+    /** Analizza il contenuto del file. */
+    public interface Parser<T> {
+        List<T> parse(Reader reader) throws IOException;
+    }
+
+    /** Riceve le differenze ogni volta che viene pubblicato un nuovo stato. */
+    public interface Listener<T> {
+        void onChange(Change<T> change);
+    }
+
+    /** Record cambiati fra due stati consecutivi. */
+    public static final class Change<T> {
+        private final List<T> added;
+        private final List<T> updated;
+        private final List<String> removedIds;
+        private final boolean external;
+
+        Change(List<T> added, List<T> updated, List<String> removedIds, boolean external) {
+            this.added = added;
+            this.updated = updated;
+            this.removedIds = removedIds;
+            this.external = external;
+        }
+
+        public List<T> getAdded() { return added; }
+        public List<T> getUpdated() { return updated; }
+        public List<String> getRemovedIds() { return removedIds; }
+        /** true se la modifica arriva da fuori (un altro programma ha scritto il file). */
+        public boolean isExternal() { return external; }
+        public boolean isEmpty() { return added.isEmpty() && updated.isEmpty() && removedIds.isEmpty(); }
+
+        @Override
+        public String toString() {
+            return "+" + added.size() + " ~" + updated.size() + " -" + removedIds.size();
+        }
+    }
+
+    // stato immutabile pubblicato tramite un campo volatile
+    private static final class State<T> {
+        final List<T> items;
+        final Map<String, T> byId;
+        final Map<String, Long> fingerprints;
+        // stato del file che contiene i record; UNKNOWN se va riletto
+        final FileState file;
+        final long length;
+        final long crc;
+        // la data di modifica era troppo recente: al prossimo controllo si confronta anche il CRC
+        final boolean verify;
+        final long version;
+
+        State(List<T> items, Map<String, T> byId, Map<String, Long> fingerprints, FileState file, long length, long crc,
+              boolean verify, long version) {
+            this.items = items;
+            this.byId = byId;
+            this.fingerprints = fingerprints;
+            this.file = file;
+            this.length = length;
+            this.crc = crc;
+            this.verify = verify;
+            this.version = version;
+        }
+
+        State<T> withFile(FileState file, boolean verify) {
+            return new State<>(items, byId, fingerprints, file, length, crc, verify, version);
+        }
+    }
+
+    // stato di un file da rileggere al prossimo controllo: non è uguale a nessuno stato letto
+    private static final FileState UNKNOWN = new FileState(-2, -1, null);
+
+    private final Path file;
+    private final Parser<T> parser;
+    private final Function<T, String> idOf;
+    private final Function<T, String> contentOf;
+    private final UnaryOperator<T> copyOf;
+    private final List<Listener<T>> listeners = new CopyOnWriteArrayList<>();
+    private final Runnable unwatch;
+    private volatile State<T> state;
+
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder unchangedByStat = new LongAdder();
+    private final LongAdder unchangedByHash = new LongAdder();
+    private final LongAdder parseErrors = new LongAdder();
+
+    /**
+     * @param idOf id di un record
+     * @param contentOf rappresentazione completa di un record, usata come impronta per il confronto
+     * @param copyOf copia indipendente di un record, restituita al posto di quello pubblicato
+     */
+    public FileSnapshot(Path file, Parser<T> parser, Function<T, String> idOf, Function<T, String> contentOf,
+                        UnaryOperator<T> copyOf) {
+        this.file = file;
+        this.parser = parser;
+        this.idOf = idOf;
+        this.contentOf = contentOf;
+        this.copyOf = copyOf;
+        this.state = new State<>(Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap(), FileState.MISSING,
+            -1, 0, false, 0);
+        refresh();
+        this.unwatch = FileWatcher.shared().watch(file, this::refresh);
+    }
+
+    /** Copie dei record correnti. */
+    public List<T> items() {
+        List<T> items = state.items;
+        List<T> out = new ArrayList<>(items.size());
+        for (T item : items) out.add(copyOf.apply(item));
+        return out;
+    }
+
+    /** Copie dei record correnti, fatte man mano che lo stream le consuma. */
+    public Stream<T> stream() {
+        return state.items.stream().map(copyOf);
+    }
+
+    public Optional<T> get(String id) {
+        return Optional.ofNullable(id == null ? null : state.byId.get(id)).map(copyOf);
+    }
+
+    /** Cresce a ogni stato pubblicato: chi tiene dati derivati dai record sa quando rifarli. */
+    public long version() {
+        return state.version;
+    }
+
+    public void addListener(Listener<T> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Controlla il file e, se il contenuto è cambiato, lo rianalizza e pubblica il nuovo stato.
+     * Se il file è scritto a metà e non si analizza, resta lo stato precedente.
+     */
+    public synchronized void refresh() {
+        State<T> current = state;
+        FileState stat;
+        byte[] bytes;
+        try {
+            // prima lo stato e poi il contenuto: un contenuto più nuovo cambia lo stato e torna qui
+            stat = FileState.read(file);
+            if (stat.equals(current.file) && !current.verify) {
+                unchangedByStat.increment();
+                return;
+            }
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            if (!current.file.isMissing()) publish(Collections.emptyList(), FileState.MISSING, -1, 0, true);
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        long crc = crc(bytes);
+        if (crc == current.crc && bytes.length == current.length) {
+            // stesso contenuto (es. file riscritto identico, solo "toccato" o data troppo recente per fidarsene)
+            unchangedByHash.increment();
+            state = current.withFile(stat, stat.isRecent());
+            return;
+        }
+        List<T> parsed;
+        try (Reader r = new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8)) {
+            parsed = parser.parse(r);
+        } catch (IOException | RuntimeException e) {
+            // file scritto a metà o non valido: resta lo stato precedente
+            parseErrors.increment();
+            return;
+        }
+        // la prima lettura, dal costruttore, non conta come ricarica
+        if (!current.file.isMissing()) reloads.increment();
+        publish(parsed, stat, bytes.length, crc, true);
+    }
+
+    /**
+     * Da chiamare dopo che il repository ha scritto {@code items} nel file. Il file non viene
+     * riletto: basta che il suo stato sia quello prodotto dalla scrittura.
+     * @param written esito della scrittura, come restituito da {@link DurableFileWriter}
+     */
+    public synchronized void published(List<T> items, DurableFileWriter.Written written) {
+        List<T> copies = new ArrayList<>(items.size());
+        for (T item : items) copies.add(copyOf.apply(item));
+        FileState produced = written.state();
+        boolean ours = produced.equals(FileState.readOrMissing(file));
+        publish(copies, ours ? produced : UNKNOWN, produced.size, written.getCrc(), false);
+        // lo stato è già un altro: un'altra scrittura è arrivata dopo la nostra, la si carica subito come esterna
+        if (!ours) refresh();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("records", state.items.size());
+        m.put("reloads", reloads.sum());
+        m.put("unchangedByStat", unchangedByStat.sum());
+        m.put("unchangedByHash", unchangedByHash.sum());
+        m.put("parseErrors", parseErrors.sum());
+        return m;
+    }
+
+    @Override
+    public void close() {
+        unwatch.run();
+    }
+
+    private void publish(List<T> items, FileState stat, long length, long crc, boolean external) {
+        State<T> old = state;
+        Map<String, T> byId = new HashMap<>(items.size() * 2);
+        Map<String, Long> fingerprints = new HashMap<>(items.size() * 2);
+        List<T> added = new ArrayList<>();
+        List<T> updated = new ArrayList<>();
+        for (T item : items) {
+            String id = idOf.apply(item);
+            if (id == null) continue;
+            long fp = fingerprint(contentOf.apply(item));
+            byId.put(id, item);
+            fingerprints.put(id, fp);
+            Long before = old.fingerprints.get(id);
+            if (before == null) added.add(copyOf.apply(item));
+            else if (before != fp) updated.add(copyOf.apply(item));
+        }
+        List<String> removed = new ArrayList<>();
+        for (String id : old.fingerprints.keySet()) {
+            if (!fingerprints.containsKey(id)) removed.add(id);
+        }
+        state = new State<>(Collections.unmodifiableList(items), byId, fingerprints, stat, length, crc,
+            stat.isRecent(), old.version + 1);
+        Change<T> change = new Change<>(added, updated, removed, external);
+        if (change.isEmpty()) return;
+        for (Listener<T> l : listeners) {
+            try {
+                l.onChange(change);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 c = new CRC32();
+        c.update(bytes);
+        return c.getValue();
+    }
+
+    // FNV-1a a 64 bit: basta a distinguere due versioni dello stesso record
+    private static long fingerprint(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,78 @@
+package com.digitallibrary.repository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * Stato di un file per capire se è cambiato senza rileggerlo: dimensione, data di modifica al
+ * nanosecondo e identità del file (una sostituzione con rinomina ne crea uno nuovo).
+ * <p>
+ * Due scritture nello stesso intervallo di risoluzione della data di modifica possono lasciare
+ * lo stesso stato: finché la data è così recente ({@link #isRecent}) chi confronta gli stati
+ * deve confrontare anche il contenuto.
+ */
+final class FileState {
+
+    /** Stato di un file che non esiste (o non ancora letto). */
+    static final FileState MISSING = new FileState(-1, -1, null);
+
+    // date al secondo intero: filesystem con risoluzione di 1 o 2 secondi (es. FAT)
+    private static final long COARSE_WINDOW_NANOS = 2_000_000_000L;
+    // anche con date al nanosecondo il kernel le aggiorna a ogni tick del timer
+    private static final long FINE_WINDOW_NANOS = 20_000_000L;
+
+    final long size;
+    final long modifiedNanos;
+    final Object key;
+
+    FileState(long size, long modifiedNanos, Object key) {
+        this.size = size;
+        this.modifiedNanos = modifiedNanos;
+        this.key = key;
+    }
+
+    /** @throws java.nio.file.NoSuchFileException se il file non esiste */
+    static FileState read(Path file) throws IOException {
+        BasicFileAttributes a = Files.readAttributes(file, BasicFileAttributes.class);
+        return new FileState(a.size(), nanos(a.lastModifiedTime().toInstant()), a.fileKey());
+    }
+
+    /** Come {@link #read}, ma {@link #MISSING} se il file non esiste o non si legge. */
+    static FileState readOrMissing(Path file) {
+        try {
+            return read(file);
+        } catch (IOException e) {
+            return MISSING;
+        }
+    }
+
+    boolean isMissing() {
+        return size == -1;
+    }
+
+    /** True se una nuova scrittura potrebbe ancora lasciare la stessa data di modifica. */
+    boolean isRecent() {
+        long window = modifiedNanos % 1_000_000_000L == 0 ? COARSE_WINDOW_NANOS : FINE_WINDOW_NANOS;
+        return nanos(Instant.now()) - modifiedNanos < window;
+    }
+
+    private static long nanos(Instant t) {
+        return t.getEpochSecond() * 1_000_000_000L + t.getNano();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FileState)) return false;
+        FileState s = (FileState) o;
+        return size == s.size && modifiedNanos == s.modifiedNanos && Objects.equals(key, s.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(size, modifiedNanos, key);
+    }
+}
@@ -0,0 +1,153 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.util.BloomFilter;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Filtro di Bloom sugli id di un repository, condiviso dai decoratori Bloom*Repository.
+ * Un id mai salvato viene scartato senza interrogare lo storage; un "forse presente"
+ * che lo storage smentisce è contato come falso positivo.
+ * Gli id sono registrati prima della scrittura sul delegato, così un lettore concorrente
+ * non vede mai un "sicuramente assente" per un elemento già salvato.
+ * <p>
+ * Durante un batch del thread corrente le letture dello storage vedono la copia del batch:
+ * una ricostruzione richiesta dalle scritture del batch è rimandata alla sua fine.
+ */
+public final class IdBloomGuard {
+
+    private final Supplier<? extends Iterable<String>> ids;
+    private final double falsePositiveRate;
+    private final Object lock = new Object();
+    private volatile BloomFilter filter;
+    private long added;
+    // batch del thread corrente: [0] = ricostruzione rimandata, null fuori da un batch
+    private final ThreadLocal<boolean[]> batch = new ThreadLocal<>();
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder definiteMisses = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+
+    IdBloomGuard(Supplier<? extends Iterable<String>> ids, double falsePositiveRate) {
+        this.ids = ids;
+        this.falsePositiveRate = falsePositiveRate;
+        rebuild();
+    }
+
+    /** Ricostruisce il filtro leggendo tutti gli id dallo storage (anche per liberarsi degli id cancellati). */
+    void rebuild() {
+        synchronized (lock) {
+            java.util.List<String> all = new java.util.ArrayList<>();
+            for (String id : ids.get()) {
+                if (id != null) all.add(id);
+            }
+            // margine 2x: il filtro resta sotto il tasso desiderato finché gli inserimenti non lo raddoppiano
+            BloomFilter f = new BloomFilter(Math.max(1024, 2L * all.size()), falsePositiveRate);
+            for (String id : all) f.add(id);
+            added = all.size();
+            filter = f;
+            rebuilds.increment();
+        }
+    }
+
+    void batchBegun() {
+        batch.set(new boolean[1]);
+    }
+
+    /** Da chiamare a batch chiuso sul delegato: esegue la ricostruzione rimandata, se richiesta. */
+    void batchEnded() {
+        boolean[] pending = batch.get();
+        batch.remove();
+        if (pending != null && pending[0]) rebuild();
+    }
+
+    boolean inBatch() {
+        return batch.get() != null;
+    }
+
+    /** Da chiamare prima di scrivere l'id sul delegato; restituisce il filtro in uso. */
+    BloomFilter beforeWrite(String id) {
+        synchronized (lock) {
+            BloomFilter f = filter;
+            if (id != null) f.add(id);
+            added++;
+            return f;
+        }
+    }
+
+    /**
+     * Da chiamare dopo la scrittura: se nel frattempo il filtro è stato ricostruito
+     * l'id viene aggiunto anche al nuovo. Se il filtro è saturo lo ricostruisce più grande.
+     */
+    void afterWrite(BloomFilter before, String id) {
+        boolean saturated;
+        synchronized (lock) {
+            if (id != null && filter != before) filter.add(id);
+            saturated = added > filter.capacity();
+        }
+        if (!saturated) return;
+        boolean[] pending = batch.get();
+        if (pending != null) pending[0] = true;
+        else rebuild();
+    }
+
+    /** false se l'id è sicuramente assente. */
+    boolean mightContain(String id) {
+        lookups.increment();
+        if (id != null && filter.mightContain(id)) return true;
+        definiteMisses.increment();
+        return false;
+    }
+
+    void falsePositive() {
+        falsePositives.increment();
+    }
+
+    Stats stats() {
+        BloomFilter f = filter;
+        return new Stats(lookups.sum(), definiteMisses.sum(), falsePositives.sum(), rebuilds.sum(),
+            f.bitSize(), f.hashCount(), f.expectedFalsePositiveRate());
+    }
+
+    /** Istantanea delle statistiche del filtro. */
+    public static final class Stats {
+        private final long lookups;
+        private final long definiteMisses;
+        private final long falsePositives;
+        private final long rebuilds;
+        private final long bits;
+        private final int hashes;
+        private final double expectedFalsePositiveRate;
+        private final double observedFalsePositiveRate;
+
+        Stats(long lookups, long definiteMisses, long falsePositives, long rebuilds, long bits, int hashes, double expected) {
+            this.lookups = lookups;
+            this.definiteMisses = definiteMisses;
+            this.falsePositives = falsePositives;
+            this.rebuilds = rebuilds;
+            this.bits = bits;
+            this.hashes = hashes;
+            this.expectedFalsePositiveRate = expected;
+            long absent = definiteMisses + falsePositives;
+            this.observedFalsePositiveRate = absent == 0 ? 0.0 : (double) falsePositives / absent;
+        }
+
+        public long getLookups() { return lookups; }
+        public long getDefiniteMisses() { return definiteMisses; }
+        public long getFalsePositives() { return falsePositives; }
+        public long getRebuilds() { return rebuilds; }
+        public long getBits() { return bits; }
+        public int getHashes() { return hashes; }
+        public double getExpectedFalsePositiveRate() { return expectedFalsePositiveRate; }
+        /** Falsi positivi sul totale delle ricerche di id assenti. */
+        public double getObservedFalsePositiveRate() { return observedFalsePositiveRate; }
+
+        @Override
+        public String toString() {
+            return String.format("ricerche=%d scartate=%d falsi positivi=%d (%.2f%%, atteso %.2f%%) ricostruzioni=%d",
+                lookups, definiteMisses, falsePositives, observedFalsePositiveRate * 100, expectedFalsePositiveRate * 100, rebuilds);
+        }
+    }
+}
@@ -1,23 +1,45 @@
 package com.digitallibrary.repository;
 
 import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookSummary;
+import com.digitallibrary.util.CompactId;
+import com.digitallibrary.util.Isbn;
+
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class InMemoryBookRepository implements BookRepository {
 
-    private final Map<String, Book> store = new ConcurrentHashMap<>();
+    // chiavi a 128 bit: hash e confronto su due long invece che su stringhe UUID
+    private final Map<CompactId, Book> store = new ConcurrentHashMap<>();
+    // indice univoco ISBN-13 canonico -> id, e id -> ISBN indicizzato (il Book è mutabile, serve il valore precedente)
+    private final Map<Long, CompactId> isbnIndex = new ConcurrentHashMap<>();
+    private final Map<CompactId, Long> isbnOf = new ConcurrentHashMap<>();
 
     @Override
     public Book save(Book book) {
-        store.put(book.getId(), book);
+        CompactId id = CompactId.of(book.getId());
+        synchronized (this) {
+            indexIsbn(id, book.getIsbn());
+            store.put(id, book);
+        }
         return book;
     }
 
     @Override
     public Optional<Book> findById(String id) {
-        return Optional.ofNullable(store.get(id));
+        return Optional.ofNullable(store.get(CompactId.of(id)));
+    }
+
+    @Override
+    public Optional<Book> findByIsbn(String isbn) {
+        long key = Isbn.normalize(isbn);
+        if (key == Isbn.INVALID) return Optional.empty();
+        CompactId id = isbnIndex.get(key);
+        return id == null ? Optional.empty() : Optional.ofNullable(store.get(id));
     }
 
     @Override
@@ -25,24 +47,71 @@ public class InMemoryBookRepository implements BookRepository {
         return new ArrayList<>(store.values());
     }
 
+    // vista diretta sulla mappa concorrente, senza copia
+    @Override
+    public Stream<Book> streamAll() {
+        return store.values().stream();
+    }
+
+    // lo spliterator della mappa concorrente si divide senza copiare e tollera scritture concorrenti
+    @Override
+    public <R> R scan(Function<Spliterator<Book>, R> job) {
+        return job.apply(store.values().spliterator());
+    }
+
+    @Override
+    public List<BookSummary> findSummaries() {
+        return store.values().stream().map(BookSummary::of).collect(Collectors.toList());
+    }
+
+    @Override
+    public Map<String, String> findTitles(Collection<String> ids) {
+        Map<String, String> titles = new HashMap<>();
+        for (String id : ids) {
+            Book b = id == null ? null : store.get(CompactId.of(id));
+            if (b != null) titles.put(id, b.getTitle());
+        }
+        return titles;
+    }
+
     @Override
     public Book update(Book book) {
-        store.put(book.getId(), book);
-        return book;
+        return save(book);
     }
 
     @Override
     public boolean deleteById(String id) {
-        return store.remove(id) != null;
+        CompactId key = CompactId.of(id);
+        synchronized (this) {
+            Long isbn = isbnOf.remove(key);
+            if (isbn != null) isbnIndex.remove(isbn, key);
+            return store.remove(key) != null;
+        }
     }
 
     @Override
     public void saveAll(List<Book> books) {
-        for (Book b : books) store.put(b.getId(), b);
+        for (Book b : books) save(b);
     }
 
     @Override
     public List<Book> loadAll() {
         return findAll();
     }
+
+    private void indexIsbn(CompactId id, String isbn) {
+        long key = Isbn.normalize(isbn);
+        Long previous = isbnOf.get(id);
+        if (previous != null && previous == key) return;
+        if (key != Isbn.INVALID) {
+            CompactId owner = isbnIndex.putIfAbsent(key, id);
+            if (owner != null && !owner.equals(id)) {
+                throw new IllegalArgumentException("ISBN già presente nel catalogo: " + isbn);
+            }
+            isbnOf.put(id, key);
+        } else {
+            isbnOf.remove(id);
+        }
+        if (previous != null) isbnIndex.remove(previous, id);
+    }
 }
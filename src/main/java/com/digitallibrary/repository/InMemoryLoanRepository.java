@@ -1,23 +1,26 @@
 package com.digitallibrary.repository;
 
 import com.digitallibrary.model.Loan;
+import com.digitallibrary.util.CompactId;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class InMemoryLoanRepository implements LoanRepository {
-    private final Map<String, Loan> store = new ConcurrentHashMap<>();
+    // chiavi a 128 bit: hash e confronto su due long invece che su stringhe UUID
+    private final Map<CompactId, Loan> store = new ConcurrentHashMap<>();
 
     @Override
     public Loan save(Loan loan) {
-        store.put(loan.getId(), loan);
+        store.put(CompactId.of(loan.getId()), loan);
         return loan;
     }
 
     @Override
     public Optional<Loan> findById(String id) {
-        return Optional.ofNullable(store.get(id));
+        return Optional.ofNullable(store.get(CompactId.of(id)));
     }
 
     @Override
@@ -25,6 +28,12 @@ public class InMemoryLoanRepository implements LoanRepository {
         return new ArrayList<>(store.values());
     }
 
+    // vista diretta sulla mappa concorrente, senza copia
+    @Override
+    public Stream<Loan> streamAll() {
+        return store.values().stream();
+    }
+
     @Override
     public List<Loan> findByUserId(String userId) {
         return store.values().stream().filter(l -> l.getUserId().equals(userId)).collect(Collectors.toList());
@@ -37,6 +46,6 @@ public class InMemoryLoanRepository implements LoanRepository {
 
     @Override
     public boolean deleteById(String id) {
-        return store.remove(id) != null;
+        return store.remove(CompactId.of(id)) != null;
     }
 }
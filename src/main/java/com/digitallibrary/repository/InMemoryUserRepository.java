@@ -1,22 +1,45 @@
 package com.digitallibrary.repository;
 
 import com.digitallibrary.model.User;
+import com.digitallibrary.model.UserSummary;
+import com.digitallibrary.util.CompactId;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 public class InMemoryUserRepository implements UserRepository {
-    private final Map<String, User> store = new ConcurrentHashMap<>();
+    // chiavi a 128 bit: hash e confronto su due long invece che su stringhe UUID
+    private final Map<CompactId, User> store = new ConcurrentHashMap<>();
+    // email normalizzata -> id: letture senza lock, scritture serializzate per il vincolo di unicità
+    private final Map<String, CompactId> byEmail = new ConcurrentHashMap<>();
 
     @Override
-    public User save(User user) {
-        store.put(user.getId(), user);
+    public synchronized User save(User user) {
+        CompactId id = CompactId.of(user.getId());
+        String key = EmailIndex.normalize(user.getEmail());
+        if (key != null) {
+            CompactId owner = byEmail.putIfAbsent(key, id);
+            if (owner != null && !owner.equals(id)) throw new DuplicateEmailException(user.getEmail());
+        }
+        User previous = store.put(id, user);
+        if (previous != null) {
+            String old = EmailIndex.normalize(previous.getEmail());
+            if (old != null && !old.equals(key)) byEmail.remove(old, id);
+        }
         return user;
     }
 
+    @Override
+    public Optional<User> findByEmail(String email) {
+        String key = EmailIndex.normalize(email);
+        CompactId id = key == null ? null : byEmail.get(key);
+        return id == null ? Optional.empty() : Optional.ofNullable(store.get(id));
+    }
+
     @Override
     public Optional<User> findById(String id) {
-        return Optional.ofNullable(store.get(id));
+        return Optional.ofNullable(store.get(CompactId.of(id)));
     }
 
     @Override
@@ -24,8 +47,36 @@ public class InMemoryUserRepository implements UserRepository {
         return new ArrayList<>(store.values());
     }
 
+    // vista diretta sulla mappa concorrente, senza copia
+    @Override
+    public Stream<User> streamAll() {
+        return store.values().stream();
+    }
+
+    @Override
+    public synchronized boolean deleteById(String id) {
+        CompactId key = CompactId.of(id);
+        User removed = store.remove(key);
+        if (removed == null) return false;
+        String email = EmailIndex.normalize(removed.getEmail());
+        if (email != null) byEmail.remove(email, key);
+        return true;
+    }
+
+    @Override
+    public Map<String, String> findNames(Collection<String> ids) {
+        Map<String, String> names = new HashMap<>();
+        for (String id : ids) {
+            User u = id == null ? null : store.get(CompactId.of(id));
+            if (u != null) names.put(id, u.getName());
+        }
+        return names;
+    }
+
     @Override
-    public boolean deleteById(String id) {
-        return store.remove(id) != null;
+    public List<UserSummary> findSummaries() {
+        List<UserSummary> out = new ArrayList<>(store.size());
+        for (User u : store.values()) out.add(UserSummary.of(u));
+        return out;
     }
 }
@@ -1,40 +1,75 @@
 package com.digitallibrary.repository;
 
+import com.digitallibrary.codec.JsonCodecs;
 import com.digitallibrary.model.Book;
-import com.digitallibrary.model.Genre;
+import com.digitallibrary.model.BookLoadReport;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import java.util.stream.Stream;
 
 /**
- * Implementazione semplice della persistenza su JSON (una riga = un oggetto JSON semplice).
- * Questo è un approccio minimale per demo senza dipendenze esterne.
+ * Persistenza su file JSON (array di oggetti), letta e scritta in streaming
+ * con i codec di {@link JsonCodecs}.
  */
-public class JsonBookRepository implements BookRepository {
+public class JsonBookRepository implements BookRepository, WriteBatching {
 
     private final String filePath;
+    private final DurableFileWriter writer;
+    // modifiche accumulate dal batch del thread corrente, null fuori da un batch
+    private final ThreadLocal<List<Book>> batch = new ThreadLocal<>();
+    // modifiche del batch del thread corrente, riapplicate al file quando il batch viene scritto
+    private final ThreadLocal<BatchJournal<Book>> journal = new ThreadLocal<>();
+    // indici sulla lista accumulata, costruiti alla prima ricerca nel batch
+    private final ThreadLocal<BatchIndex> batchIndex = new ThreadLocal<>();
+    // copia in memoria del file, attiva dopo watch()
+    private volatile FileSnapshot<Book> snapshot;
+    // esito della validazione dell'ultima lettura del file
+    private volatile BookLoadReport lastLoad;
 
+    /** Scritture tramite il {@link DurableFileWriter} predefinito. */
     public JsonBookRepository(String filePath) {
+        this(filePath, DurableFileWriter.getDefault());
+    }
+
+    public JsonBookRepository(String filePath, DurableFileWriter writer) {
         this.filePath = filePath;
+        this.writer = writer;
     }
 
+    // le scritture fuori da un batch e quelle dei batch leggono e riscrivono il file sotto il lock del repository
     @Override
     public Book save(Book book) {
-        List<Book> books = loadAll();
-        books.add(book);
-        saveToFile(books);
+        // durante un batch si aggiunge alla lista accumulata, senza copiarla
+        List<Book> pending = batch.get();
+        if (pending != null) {
+            pending.add(book);
+            journal.get().saved(book);
+            BatchIndex index = batchIndex.get();
+            if (index != null) index.added(book);
+            return book;
+        }
+        synchronized (this) {
+            List<Book> books = loadAll();
+            books.add(book);
+            saveToFile(books);
+        }
         return book;
     }
 
     @Override
     public Optional<Book> findById(String id) {
-        return loadAll().stream().filter(b -> b.getId().equals(id)).findFirst();
+        FileSnapshot<Book> snap = snapshot;
+        List<Book> pending = batch.get();
+        if (pending != null) return index(pending).findById(id);
+        if (snap != null) return snap.get(id);
+        try (Stream<Book> all = streamAll()) {
+            return all.filter(b -> b.getId().equals(id)).findFirst();
+        }
     }
 
     @Override
@@ -42,78 +77,191 @@ public class JsonBookRepository implements BookRepository {
         return loadAll();
     }
 
+    /**
+     * Legge il file elemento per elemento: la memoria non cresce con il numero di record.
+     * Durante un batch o con watch() attivo scorre la copia in memoria.
+     */
+    @Override
+    public Stream<Book> streamAll() {
+        List<Book> pending = batch.get();
+        if (pending != null) return new ArrayList<>(pending).stream();
+        FileSnapshot<Book> snap = snapshot;
+        if (snap != null) return snap.stream();
+        if (!Files.exists(Paths.get(filePath))) return Stream.empty();
+        try {
+            BookLoadReport report = new BookLoadReport();
+            Stream<Book> books = JsonCodecs.streamList(Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8),
+                JsonCodecs.bookFileReader(report));
+            return LoadReportStreams.publishWhenExhausted(books, () -> lastLoad = report);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Stream.empty();
+        }
+    }
+
     @Override
     public Book update(Book book) {
-        List<Book> books = loadAll();
-        books = books.stream().map(b -> b.getId().equals(book.getId()) ? book : b).collect(Collectors.toList());
-        saveToFile(books);
+        List<Book> pending = batch.get();
+        if (pending != null) {
+            BatchIndex index = batchIndex.get();
+            for (int i = 0; i < pending.size(); i++) {
+                Book old = pending.get(i);
+                if (!old.getId().equals(book.getId())) continue;
+                pending.set(i, book);
+                journal.get().saved(book);
+                if (index != null && !index.replaced(old, book)) batchIndex.remove();
+            }
+            return book;
+        }
+        synchronized (this) {
+            List<Book> books = loadAll();
+            books = books.stream().map(b -> b.getId().equals(book.getId()) ? book : b).collect(Collectors.toList());
+            saveToFile(books);
+        }
         return book;
     }
 
     @Override
     public boolean deleteById(String id) {
-        List<Book> books = loadAll();
-        boolean removed = books.removeIf(b -> b.getId().equals(id));
-        if (removed) saveToFile(books);
-        return removed;
+        List<Book> pending = batch.get();
+        if (pending != null) {
+            boolean removed = pending.removeIf(b -> b.getId().equals(id));
+            if (removed) {
+                journal.get().deleted(id);
+                batchIndex.remove();
+            }
+            return removed;
+        }
+        synchronized (this) {
+            List<Book> books = loadAll();
+            boolean removed = books.removeIf(b -> b.getId().equals(id));
+            if (removed) saveToFile(books);
+            return removed;
+        }
     }
 
     @Override
     public void saveAll(List<Book> books) {
-        saveToFile(books);
+        if (batch.get() != null) {
+            batch.set(new ArrayList<>(books));
+            journal.get().replacedAll(books);
+            batchIndex.remove();
+            return;
+        }
+        synchronized (this) {
+            saveToFile(books);
+        }
+    }
+
+    /**
+     * Tiene in memoria il contenuto del file, aggiornato in background quando il file
+     * cambia dall'esterno: le letture smettono di rianalizzarlo a ogni chiamata.
+     */
+    public synchronized FileSnapshot<Book> watch() {
+        if (snapshot == null) {
+            snapshot = new FileSnapshot<>(Paths.get(filePath), this::readAll,
+                Book::getId, JsonCodecs.BOOK_FILE::toJson, Book::copy);
+        }
+        return snapshot;
     }
 
     @Override
-    public List<Book> loadAll() {
-        List<Book> list = new ArrayList<>();
-        if (!Files.exists(Paths.get(filePath))) return list;
+    public Optional<Book> findByIsbn(String isbn) {
+        List<Book> pending = batch.get();
+        if (pending != null) return index(pending).findByIsbn(isbn);
+        return BookRepository.super.findByIsbn(isbn);
+    }
+
+    private BatchIndex index(List<Book> pending) {
+        BatchIndex index = batchIndex.get();
+        if (index == null) {
+            index = new BatchIndex(pending);
+            batchIndex.set(index);
+        }
+        return index;
+    }
+
+    @Override
+    public void beginBatch() {
+        if (batch.get() != null) throw new IllegalStateException("Batch già in corso");
+        batch.set(loadAll());
+        journal.set(new BatchJournal<>(Book::getId));
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        BatchJournal<Book> changes = journal.get();
+        batch.remove();
+        journal.remove();
+        batchIndex.remove();
+        if (flush && changes != null) commit(changes);
+    }
 
+    // scrive le modifiche e continua il batch sul contenuto appena scritto, che include quelle degli altri thread
+    @Override
+    public void flushBatch() {
+        List<Book> pending = batch.get();
+        BatchJournal<Book> changes = journal.get();
+        if (pending == null) throw new IllegalStateException("Nessun batch in corso");
+        batch.remove();
+        journal.remove();
         try {
-            String content = new String(Files.readAllBytes(Paths.get(filePath)));
-            Gson gson = new Gson();
-            java.lang.reflect.Type listType = new TypeToken<List<Map<String, Object>>>(){}.getType();
-            List<Map<String, Object>> raw = gson.fromJson(content, listType);
-            if (raw == null) return list;
-            for (Map<String, Object> m : raw) {
-                String id = Objects.toString(m.getOrDefault("id", ""), "");
-                if (id.trim().isEmpty()) continue;
-                Book b = new Book();
-                b.setId(id);
-                b.setTitle(Objects.toString(m.getOrDefault("title", ""), ""));
-                b.setAuthor(Objects.toString(m.getOrDefault("author", ""), ""));
-                b.setGenre(Genre.fromDisplayName(Objects.toString(m.getOrDefault("genre", ""), "")));
-                try { b.setPublicationYear(((Number)m.getOrDefault("publicationYear", 0)).intValue()); } catch (Exception e) { try { b.setPublicationYear(Integer.parseInt(Objects.toString(m.getOrDefault("publicationYear", "0")))); } catch (Exception ex) { b.setPublicationYear(0); } }
-                b.setIsbn(Objects.toString(m.getOrDefault("isbn", ""), ""));
-                b.setAvailable(Boolean.parseBoolean(Objects.toString(m.getOrDefault("available", "true"), "true")));
-                try { b.setAddedDate(LocalDateTime.parse(Objects.toString(m.getOrDefault("addedDate", ""), ""))); } catch (Exception e) { /* ignore */ }
-                list.add(b);
-            }
+            pending = commit(changes);
+            changes = new BatchJournal<>(Book::getId);
+        } finally {
+            batch.set(pending);
+            journal.set(changes);
+            batchIndex.remove();
+        }
+    }
+
+    // riapplica le modifiche del batch al contenuto corrente del file (da chiamare fuori dal batch)
+    private synchronized List<Book> commit(BatchJournal<Book> changes) {
+        List<Book> current = loadAll();
+        if (changes.isEmpty()) return current;
+        List<Book> merged = changes.applyTo(current);
+        saveToFile(merged);
+        return new ArrayList<>(merged);
+    }
 
+    @Override
+    public List<Book> loadAll() {
+        List<Book> pending = batch.get();
+        if (pending != null) return new ArrayList<>(pending);
+        FileSnapshot<Book> snap = snapshot;
+        if (snap != null) return snap.items();
+        if (!Files.exists(Paths.get(filePath))) return new ArrayList<>();
+        try (Reader r = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            return readAll(r);
         } catch (IOException e) {
             e.printStackTrace();
+            return new ArrayList<>();
         }
-        return list;
+    }
+
+    /** Validazione dell'ultima lettura del file (null se non ancora letto). */
+    public BookLoadReport getLastLoadReport() {
+        return lastLoad;
+    }
+
+    // un report nuovo per ogni lettura completa del file, pubblicato solo a lettura finita
+    private List<Book> readAll(Reader r) throws IOException {
+        BookLoadReport report = new BookLoadReport();
+        List<Book> books = JsonCodecs.readList(r, JsonCodecs.bookFileReader(report));
+        lastLoad = report;
+        return books;
     }
 
     private void saveToFile(List<Book> books) {
-        Gson gson = new Gson();
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            String json = gson.toJson(books.stream().map(b -> {
-                Map<String,Object> m = new LinkedHashMap<>();
-                m.put("id", b.getId());
-                m.put("title", b.getTitle());
-                m.put("author", b.getAuthor());
-                m.put("genre", b.getGenre() != null ? b.getGenre().getDisplayName() : "");
-                m.put("publicationYear", b.getPublicationYear());
-                m.put("isbn", b.getIsbn());
-                m.put("available", b.isAvailable());
-                m.put("addedDate", b.getAddedDate() != null ? b.getAddedDate().toString() : "");
-                return m;
-            }).toList());
-            bw.write(json);
+        DurableFileWriter.Written written;
+        try {
+            written = writer.write(Paths.get(filePath), w -> JsonCodecs.writeList(w, books, JsonCodecs.BOOK_FILE, false));
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
+        FileSnapshot<Book> snap = snapshot;
+        if (snap != null) snap.published(books, written);
     }
 
     private String toSimpleJson(Book b) {
@@ -1,52 +1,86 @@
 package com.digitallibrary.repository;
 
+import com.digitallibrary.codec.JsonCodecs;
 import com.digitallibrary.model.Loan;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-
-public class JsonLoanRepository implements com.digitallibrary.repository.LoanRepository {
+public class JsonLoanRepository implements com.digitallibrary.repository.LoanRepository, WriteBatching {
 
     private final String filePath;
-
+    private final DurableFileWriter writer;
+    // modifiche accumulate dal batch del thread corrente, null fuori da un batch
+    private final ThreadLocal<List<Loan>> batch = new ThreadLocal<>();
+    // modifiche del batch del thread corrente, riapplicate al file quando il batch viene scritto
+    private final ThreadLocal<BatchJournal<Loan>> journal = new ThreadLocal<>();
+    // copia in memoria del file, attiva dopo watch()
+    private volatile FileSnapshot<Loan> snapshot;
+
+    /** Scritture tramite il {@link DurableFileWriter} predefinito. */
     public JsonLoanRepository(String filePath) {
+        this(filePath, DurableFileWriter.getDefault());
+    }
+
+    public JsonLoanRepository(String filePath, DurableFileWriter writer) {
         this.filePath = filePath;
+        this.writer = writer;
     }
 
+    // le scritture fuori da un batch e quelle dei batch leggono e riscrivono il file sotto il lock del repository:
+    // l'archiviazione in background riscrive il file insieme alle richieste
     @Override
     public Loan save(Loan loan) {
-        List<Loan> list = loadAll();
-        boolean replaced = false;
+        // durante un batch si modifica la lista accumulata, senza copiarla
+        List<Loan> pending = batch.get();
+        if (pending != null) {
+            upsert(pending, loan);
+            journal.get().saved(loan);
+            return loan;
+        }
+        synchronized (this) {
+            List<Loan> list = loadAll();
+            upsert(list, loan);
+            saveToFile(list);
+        }
+        return loan;
+    }
+
+    private static void upsert(List<Loan> list, Loan loan) {
         for (int i = 0; i < list.size(); i++) {
             if (Objects.equals(list.get(i).getId(), loan.getId())) {
                 list.set(i, loan);
-                replaced = true;
-                break;
+                return;
             }
         }
-        if (!replaced) list.add(loan);
-        saveToFile(list);
-        return loan;
+        list.add(loan);
     }
 
     @Override
     public Optional<Loan> findById(String id) {
-        return loadAll().stream().filter(l -> Objects.equals(l.getId(), id)).findFirst();
+        FileSnapshot<Loan> snap = snapshot;
+        List<Loan> pending = batch.get();
+        if (pending != null) {
+            for (Loan l : pending) if (Objects.equals(l.getId(), id)) return Optional.of(l);
+            return Optional.empty();
+        }
+        if (snap != null) return snap.get(id);
+        try (Stream<Loan> all = streamAll()) {
+            return all.filter(l -> Objects.equals(l.getId(), id)).findFirst();
+        }
     }
 
     @Override
@@ -54,74 +88,149 @@ public class JsonLoanRepository implements com.digitallibrary.repository.LoanRep
         return loadAll();
     }
 
+    /**
+     * Legge il file elemento per elemento: la memoria non cresce con il numero di record.
+     * Durante un batch o con watch() attivo scorre la copia in memoria.
+     */
+    @Override
+    public Stream<Loan> streamAll() {
+        List<Loan> pending = batch.get();
+        if (pending != null) return new ArrayList<>(pending).stream();
+        FileSnapshot<Loan> snap = snapshot;
+        if (snap != null) return snap.stream();
+        if (!Files.exists(Paths.get(filePath))) return Stream.empty();
+        try {
+            return JsonCodecs.streamList(Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8), JsonCodecs.LOAN_FILE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Stream.empty();
+        }
+    }
+
     @Override
     public List<Loan> findByUserId(String userId) {
-        return loadAll().stream().filter(l -> Objects.equals(l.getUserId(), userId)).collect(Collectors.toList());
+        try (Stream<Loan> all = streamAll()) {
+            return all.filter(l -> Objects.equals(l.getUserId(), userId)).collect(Collectors.toList());
+        }
     }
 
     @Override
     public List<Loan> findByBookId(String bookId) {
-        return loadAll().stream().filter(l -> Objects.equals(l.getBookId(), bookId)).collect(Collectors.toList());
+        try (Stream<Loan> all = streamAll()) {
+            return all.filter(l -> Objects.equals(l.getBookId(), bookId)).collect(Collectors.toList());
+        }
     }
 
     @Override
     public boolean deleteById(String id) {
-        List<Loan> list = loadAll();
-        boolean removed = list.removeIf(l -> Objects.equals(l.getId(), id));
-        if (removed) saveToFile(list);
+        return !deleteIf(java.util.Collections.singletonList(id), l -> true).isEmpty();
+    }
+
+    /** Controllo e rimozione sotto il lock delle scritture, con una sola riscrittura del file. */
+    @Override
+    public List<String> deleteIf(Collection<String> ids, Predicate<Loan> condition) {
+        Set<String> candidates = new HashSet<>(ids);
+        List<Loan> pending = batch.get();
+        if (pending != null) {
+            List<String> removed = removeFrom(pending, candidates, condition);
+            for (String id : removed) journal.get().deleted(id);
+            return removed;
+        }
+        synchronized (this) {
+            List<Loan> list = loadAll();
+            List<String> removed = removeFrom(list, candidates, condition);
+            if (!removed.isEmpty()) saveToFile(list);
+            return removed;
+        }
+    }
+
+    private static List<String> removeFrom(List<Loan> list, Set<String> candidates, Predicate<Loan> condition) {
+        List<String> removed = new ArrayList<>();
+        for (java.util.Iterator<Loan> it = list.iterator(); it.hasNext(); ) {
+            Loan l = it.next();
+            if (!candidates.contains(l.getId()) || !condition.test(l)) continue;
+            it.remove();
+            removed.add(l.getId());
+        }
         return removed;
     }
 
-    private List<Loan> loadAll() {
-        List<Loan> result = new ArrayList<>();
-        if (!Files.exists(Paths.get(filePath))) return result;
+    /**
+     * Tiene in memoria il contenuto del file, aggiornato in background quando il file
+     * cambia dall'esterno: le letture smettono di rianalizzarlo a ogni chiamata.
+     */
+    public synchronized FileSnapshot<Loan> watch() {
+        if (snapshot == null) {
+            snapshot = new FileSnapshot<>(Paths.get(filePath), r -> JsonCodecs.readList(r, JsonCodecs.LOAN_FILE),
+                Loan::getId, JsonCodecs.LOAN_FILE::toJson, Loan::copy);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void beginBatch() {
+        if (batch.get() != null) throw new IllegalStateException("Batch già in corso");
+        batch.set(loadAll());
+        journal.set(new BatchJournal<>(Loan::getId));
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        BatchJournal<Loan> changes = journal.get();
+        batch.remove();
+        journal.remove();
+        if (flush && changes != null) commit(changes);
+    }
 
+    // scrive le modifiche e continua il batch sul contenuto appena scritto, che include quelle degli altri thread
+    @Override
+    public void flushBatch() {
+        List<Loan> pending = batch.get();
+        BatchJournal<Loan> changes = journal.get();
+        if (pending == null) throw new IllegalStateException("Nessun batch in corso");
+        batch.remove();
+        journal.remove();
         try {
-            String content = new String(Files.readAllBytes(Paths.get(filePath)));
-            Gson gson = new Gson();
-            java.lang.reflect.Type listType = new TypeToken<List<Map<String, Object>>>(){}.getType();
-            List<Map<String, Object>> raw = gson.fromJson(content, listType);
-            if (raw == null) return result;
-            for (Map<String, Object> m : raw) {
-                String id = Objects.toString(m.getOrDefault("id", ""), "");
-                if (id.trim().isEmpty()) continue;
-                Loan l = new Loan();
-                l.setId(id);
-                l.setBookId(Objects.toString(m.getOrDefault("bookId", ""), ""));
-                l.setUserId(Objects.toString(m.getOrDefault("userId", ""), ""));
-                try { l.setLoanedAt(LocalDateTime.parse(Objects.toString(m.getOrDefault("loanedAt", ""), ""))); } catch (Exception e) { /* ignore */ }
-                try { l.setDueAt(LocalDateTime.parse(Objects.toString(m.getOrDefault("dueAt", ""), ""))); } catch (Exception e) { /* ignore */ }
-                try {
-                    String returned = Objects.toString(m.getOrDefault("returnedAt", ""), "");
-                    if (!returned.trim().isEmpty()) l.setReturnedAt(LocalDateTime.parse(returned));
-                } catch (Exception e) { /* ignore */ }
-                result.add(l);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+            pending = commit(changes);
+            changes = new BatchJournal<>(Loan::getId);
+        } finally {
+            batch.set(pending);
+            journal.set(changes);
         }
+    }
 
-        return result;
+    // riapplica le modifiche del batch al contenuto corrente del file (da chiamare fuori dal batch)
+    private synchronized List<Loan> commit(BatchJournal<Loan> changes) {
+        List<Loan> current = loadAll();
+        if (changes.isEmpty()) return current;
+        List<Loan> merged = changes.applyTo(current);
+        saveToFile(merged);
+        return new ArrayList<>(merged);
     }
 
-    private void saveToFile(List<Loan> loans) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        List<Map<String, Object>> out = new ArrayList<>();
-        for (Loan l : loans) {
-            Map<String, Object> m = new LinkedHashMap<>();
-            m.put("id", l.getId());
-            m.put("bookId", l.getBookId());
-            m.put("userId", l.getUserId());
-            m.put("loanedAt", l.getLoanedAt() != null ? l.getLoanedAt().toString() : "");
-            m.put("dueAt", l.getDueAt() != null ? l.getDueAt().toString() : "");
-            m.put("returnedAt", l.getReturnedAt() != null ? l.getReturnedAt().toString() : "");
-            out.add(m);
+    private List<Loan> loadAll() {
+        List<Loan> pending = batch.get();
+        if (pending != null) return new ArrayList<>(pending);
+        FileSnapshot<Loan> snap = snapshot;
+        if (snap != null) return snap.items();
+        if (!Files.exists(Paths.get(filePath))) return new ArrayList<>();
+        try (Reader r = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            return JsonCodecs.readList(r, JsonCodecs.LOAN_FILE);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        return new ArrayList<>();
+    }
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            bw.write(gson.toJson(out));
+    private void saveToFile(List<Loan> loans) {
+        DurableFileWriter.Written written;
+        try {
+            written = writer.write(Paths.get(filePath), w -> JsonCodecs.writeList(w, loans, JsonCodecs.LOAN_FILE, true));
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
+        FileSnapshot<Loan> snap = snapshot;
+        if (snap != null) snap.published(loans, written);
     }
 }
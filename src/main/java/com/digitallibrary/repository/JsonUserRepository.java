@@ -1,77 +1,306 @@
 package com.digitallibrary.repository;
 
+import com.digitallibrary.codec.JsonCodecs;
 import com.digitallibrary.model.User;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
 import java.util.*;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import java.util.stream.Stream;
 
-public class JsonUserRepository implements com.digitallibrary.repository.UserRepository {
+public class JsonUserRepository implements com.digitallibrary.repository.UserRepository, WriteBatching {
 
     private final String filePath;
+    private final DurableFileWriter writer;
+    // modifiche accumulate dal batch del thread corrente, null fuori da un batch
+    private final ThreadLocal<List<User>> batch = new ThreadLocal<>();
+    // modifiche del batch del thread corrente, riapplicate al file quando il batch viene scritto
+    private final ThreadLocal<BatchJournal<User>> journal = new ThreadLocal<>();
+    // copia in memoria del file, attiva dopo watch()
+    private volatile FileSnapshot<User> snapshot;
+    // indice delle email sul contenuto corrente del file, ricostruito solo quando il file cambia:
+    // per versione della copia in memoria con watch() attivo, altrimenti per stato del file e CRC32
+    private EmailIndex emails;
+    private long emailsVersion = -1;
+    private FileState emailsState;
+    private long emailsCrc;
+    // la data di modifica era troppo recente per fidarsi dello stato: si confronta anche il CRC
+    private boolean emailsVerify;
+    // indice delle email sulla lista accumulata dal batch del thread corrente
+    private final ThreadLocal<EmailIndex> batchEmails = new ThreadLocal<>();
 
-    public JsonUserRepository(String filePath) { this.filePath = filePath; }
+    /** Scritture tramite il {@link DurableFileWriter} predefinito. */
+    public JsonUserRepository(String filePath) { this(filePath, DurableFileWriter.getDefault()); }
+
+    public JsonUserRepository(String filePath, DurableFileWriter writer) {
+        this.filePath = filePath;
+        this.writer = writer;
+    }
 
     @Override
     public User save(User user) {
-        List<User> users = loadAll();
-        users.add(user);
-        saveToFile(users);
+        // durante un batch si modifica la lista accumulata, senza copiarla
+        List<User> pending = batch.get();
+        if (pending != null) {
+            EmailIndex index = batchEmails(pending);
+            index.checkUnique(user);
+            index.replaced(upsert(pending, user), user);
+            journal.get().saved(user);
+            return user;
+        }
+        // controllo dell'email e scrittura sotto lo stesso lock: due registrazioni concorrenti non passano entrambe
+        synchronized (this) {
+            emails().checkUnique(user);
+            List<User> users = loadAll();
+            upsert(users, user);
+            saveToFile(users);
+        }
         return user;
     }
 
+    // sostituisce l'utente con lo stesso id o lo aggiunge in fondo; restituisce quello sostituito
+    private static User upsert(List<User> users, User user) {
+        for (int i = 0; i < users.size(); i++) {
+            if (Objects.equals(users.get(i).getId(), user.getId())) return users.set(i, user);
+        }
+        users.add(user);
+        return null;
+    }
+
+    @Override
+    public Optional<User> findByEmail(String email) {
+        List<User> pending = batch.get();
+        if (pending != null) return batchEmails(pending).find(email);
+        return emails().find(email).map(User::copy);
+    }
+
+    private synchronized EmailIndex emails() {
+        FileSnapshot<User> snap = snapshot;
+        if (snap != null) {
+            long version = snap.version();
+            if (emails == null || emailsVersion != version) {
+                List<User> items = snap.items();
+                emails = new EmailIndex(items, items.size());
+                emailsVersion = version;
+            }
+            return emails;
+        }
+        FileState state = FileState.readOrMissing(Paths.get(filePath));
+        boolean same = emails != null && emailsVersion == -1 && state.equals(emailsState);
+        if (same && !emailsVerify) return emails;
+        // una seconda scrittura nello stesso istante della prima lascia dimensione e data di modifica
+        // uguali: finché la data è recente si confronta il contenuto
+        byte[] content = readBytes();
+        long crc = crc(content);
+        if (!same || crc != emailsCrc) {
+            List<User> users = parse(content);
+            emails = new EmailIndex(users, users.size());
+            emailsVersion = -1;
+            emailsState = state;
+            emailsCrc = crc;
+        }
+        emailsVerify = state.isRecent();
+        return emails;
+    }
+
+    private EmailIndex batchEmails(List<User> pending) {
+        EmailIndex index = batchEmails.get();
+        if (index == null) {
+            index = new EmailIndex(pending, pending.size());
+            batchEmails.set(index);
+        }
+        return index;
+    }
+
+    private byte[] readBytes() {
+        try {
+            return Files.readAllBytes(Paths.get(filePath));
+        } catch (NoSuchFileException e) {
+            return new byte[0];
+        } catch (IOException e) { e.printStackTrace(); }
+        return new byte[0];
+    }
+
+    private static long crc(byte[] content) {
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static List<User> parse(byte[] content) {
+        if (content.length == 0) return new ArrayList<>();
+        try (Reader r = new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)) {
+            return JsonCodecs.readList(r, JsonCodecs.USER_FILE);
+        } catch (IOException e) { e.printStackTrace(); }
+        return new ArrayList<>();
+    }
+
     @Override
     public Optional<User> findById(String id) {
-        return loadAll().stream().filter(u -> u.getId().equals(id)).findFirst();
+        FileSnapshot<User> snap = snapshot;
+        List<User> pending = batch.get();
+        if (pending != null) {
+            for (User u : pending) if (u.getId().equals(id)) return Optional.of(u);
+            return Optional.empty();
+        }
+        if (snap != null) return snap.get(id);
+        try (Stream<User> all = streamAll()) {
+            return all.filter(u -> u.getId().equals(id)).findFirst();
+        }
     }
 
     @Override
     public List<User> findAll() { return loadAll(); }
 
+    /**
+     * Legge il file elemento per elemento: la memoria non cresce con il numero di record.
+     * Durante un batch o con watch() attivo scorre la copia in memoria.
+     */
+    @Override
+    public Stream<User> streamAll() {
+        List<User> pending = batch.get();
+        if (pending != null) return new ArrayList<>(pending).stream();
+        FileSnapshot<User> snap = snapshot;
+        if (snap != null) return snap.stream();
+        if (!Files.exists(Paths.get(filePath))) return Stream.empty();
+        try {
+            return JsonCodecs.streamList(Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8), JsonCodecs.USER_FILE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Stream.empty();
+        }
+    }
+
     @Override
     public boolean deleteById(String id) {
-        List<User> users = loadAll();
-        boolean removed = users.removeIf(u -> u.getId().equals(id));
-        if (removed) saveToFile(users);
-        return removed;
+        List<User> pending = batch.get();
+        if (pending != null) {
+            boolean removed = pending.removeIf(u -> u.getId().equals(id));
+            if (removed) {
+                journal.get().deleted(id);
+                batchEmails.remove();
+            }
+            return removed;
+        }
+        synchronized (this) {
+            List<User> users = loadAll();
+            boolean removed = users.removeIf(u -> u.getId().equals(id));
+            if (removed) saveToFile(users);
+            return removed;
+        }
     }
 
-    private List<User> loadAll() {
-        List<User> list = new ArrayList<>();
-        if (!Files.exists(Paths.get(filePath))) return list;
+    /**
+     * Tiene in memoria il contenuto del file, aggiornato in background quando il file
+     * cambia dall'esterno: le letture smettono di rianalizzarlo a ogni chiamata.
+     */
+    public synchronized FileSnapshot<User> watch() {
+        if (snapshot == null) {
+            snapshot = new FileSnapshot<>(Paths.get(filePath), r -> JsonCodecs.readList(r, JsonCodecs.USER_FILE),
+                User::getId, JsonCodecs.USER_FILE::toJson, User::copy);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void beginBatch() {
+        if (batch.get() != null) throw new IllegalStateException("Batch già in corso");
+        batch.set(loadAll());
+        journal.set(new BatchJournal<>(User::getId));
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        BatchJournal<User> changes = journal.get();
+        batch.remove();
+        journal.remove();
+        batchEmails.remove();
+        if (flush && changes != null) commit(changes);
+    }
+
+    // scrive le modifiche e continua il batch sul contenuto appena scritto, che include quelle degli altri thread
+    @Override
+    public void flushBatch() {
+        List<User> pending = batch.get();
+        BatchJournal<User> changes = journal.get();
+        if (pending == null) throw new IllegalStateException("Nessun batch in corso");
+        batch.remove();
+        journal.remove();
         try {
-            String content = new String(Files.readAllBytes(Paths.get(filePath)));
-            Gson gson = new Gson();
-            java.lang.reflect.Type listType = new com.google.gson.reflect.TypeToken<List<Map<String, Object>>>(){}.getType();
-            List<Map<String, Object>> raw = gson.fromJson(content, listType);
-            if (raw == null) return list;
-            for (Map<String, Object> m : raw) {
-                String id = Objects.toString(m.getOrDefault("id", ""), "");
-                if (id.isEmpty()) continue;
-                User u = new User();
-                u.setId(id);
-                u.setName(Objects.toString(m.getOrDefault("name", ""), ""));
-                u.setEmail(Objects.toString(m.getOrDefault("email", ""), ""));
-                try { u.setRegisteredAt(LocalDateTime.parse(Objects.toString(m.getOrDefault("registeredAt", LocalDateTime.now().toString())))); } catch (Exception e) { /* ignore */ }
-                list.add(u);
+            pending = commit(changes);
+            changes = new BatchJournal<>(User::getId);
+        } finally {
+            batch.set(pending);
+            journal.set(changes);
+            batchEmails.remove();
+        }
+    }
+
+    /**
+     * Riapplica le modifiche del batch al contenuto corrente del file (da chiamare fuori dal batch),
+     * ricontrollando le email: se un altro thread ha registrato la stessa email nel frattempo
+     * non si scrive nulla e si lancia {@link DuplicateEmailException}.
+     */
+    private synchronized List<User> commit(BatchJournal<User> changes) {
+        List<User> users = loadAll();
+        if (changes.isEmpty()) return users;
+        EmailIndex index = new EmailIndex(users, users.size());
+        for (Map.Entry<String, User> e : changes.changes().entrySet()) {
+            User u = e.getValue();
+            if (u == null) {
+                for (Iterator<User> it = users.iterator(); it.hasNext(); ) {
+                    User old = it.next();
+                    if (old.getId().equals(e.getKey())) {
+                        it.remove();
+                        index.removed(old);
+                    }
+                }
+            } else {
+                index.checkUnique(u);
+                index.replaced(upsert(users, u), u);
             }
+        }
+        saveToFile(users);
+        return new ArrayList<>(users);
+    }
+
+    private List<User> loadAll() {
+        List<User> pending = batch.get();
+        if (pending != null) return new ArrayList<>(pending);
+        FileSnapshot<User> snap = snapshot;
+        if (snap != null) return snap.items();
+        if (!Files.exists(Paths.get(filePath))) return new ArrayList<>();
+        try (Reader r = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            return JsonCodecs.readList(r, JsonCodecs.USER_FILE);
         } catch (IOException e) { e.printStackTrace(); }
-        return list;
+        return new ArrayList<>();
     }
 
     private void saveToFile(List<User> users) {
-        Gson gson = new Gson();
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            bw.write(gson.toJson(users.stream().map(u -> {
-                Map<String,Object> m = new LinkedHashMap<>();
-                m.put("id", u.getId()); m.put("name", u.getName()); m.put("email", u.getEmail()); m.put("registeredAt", u.getRegisteredAt() != null ? u.getRegisteredAt().toString() : "");
-                return m;
-            }).toList()));
-        } catch (IOException e) { e.printStackTrace(); }
+        DurableFileWriter.Written written;
+        try {
+            written = writer.write(Paths.get(filePath), w -> JsonCodecs.writeList(w, users, JsonCodecs.USER_FILE, false));
+        } catch (IOException e) { e.printStackTrace(); return; }
+        FileSnapshot<User> snap = snapshot;
+        if (snap != null) snap.published(users, written);
+        // l'indice segue le scritture proprie senza rileggere il file; con watch() attivo
+        // lo si rifà dalla copia in memoria, che può già includere una scrittura esterna
+        synchronized (this) {
+            if (snap != null) {
+                emails = null;
+                return;
+            }
+            // stato prodotto dalla scrittura: una scrittura esterna successiva lo cambia o,
+            // nello stesso tick, viene riconosciuta dal CRC al prossimo confronto
+            emails = new EmailIndex(users, users.size());
+            emailsVersion = -1;
+            emailsState = written.state();
+            emailsCrc = written.getCrc();
+            emailsVerify = true;
+        }
     }
 
     private String escape(String s) { if (s == null) return ""; return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", " "); }
@@ -0,0 +1,40 @@
+package com.digitallibrary.repository;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Pubblicazione del report di validazione per le letture in streaming: il report diventa
+ * "l'ultima lettura" solo quando lo stream arriva in fondo, così uno stream interrotto
+ * (findFirst, limit) non sostituisce il report di una lettura completa con uno parziale.
+ */
+final class LoadReportStreams {
+
+    private LoadReportStreams() {}
+
+    /** Stream con gli stessi elementi che esegue {@code publish} una volta esaurito; chiuderlo chiude {@code items}. */
+    static <T> Stream<T> publishWhenExhausted(Stream<T> items, Runnable publish) {
+        Iterator<T> it = items.iterator();
+        Spliterator<T> sp = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private boolean published;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if (it.hasNext()) {
+                    action.accept(it.next());
+                    return true;
+                }
+                if (!published) {
+                    published = true;
+                    publish.run();
+                }
+                return false;
+            }
+        };
+        return StreamSupport.stream(sp, false).onClose(items::close);
+    }
+}
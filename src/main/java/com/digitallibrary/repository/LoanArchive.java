@@ -0,0 +1,169 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.codec.JsonCodecs;
+import com.digitallibrary.model.Loan;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archivio dei prestiti restituiti, diviso in segmenti mensili compressi
+ * ({@code loans-2024-05.json.gz}) secondo la data di restituzione.
+ * <p>
+ * Un segmento si riscrive solo quando vi si aggiungono prestiti; le ricerche per intervallo di
+ * date aprono soltanto i segmenti dei mesi che lo intersecano. Aggiungere un prestito già
+ * archiviato lo sostituisce, quindi ripetere un'archiviazione interrotta non crea doppioni.
+ */
+public class LoanArchive {
+
+    private static final String PREFIX = "loans-";
+    private static final String SUFFIX = ".json.gz";
+
+    private final Path dir;
+    private final DurableFileWriter writer;
+
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder segmentsRead = new LongAdder();
+    private final LongAdder segmentsPruned = new LongAdder();
+
+    /** Scritture tramite il {@link DurableFileWriter} predefinito. */
+    public LoanArchive(Path dir) {
+        this(dir, DurableFileWriter.getDefault());
+    }
+
+    public LoanArchive(Path dir, DurableFileWriter writer) {
+        this.dir = dir;
+        this.writer = writer;
+    }
+
+    /**
+     * Aggiunge i prestiti ai segmenti dei rispettivi mesi di restituzione.
+     * @throws IllegalArgumentException se un prestito non è stato restituito
+     */
+    public synchronized int append(Collection<Loan> loans) throws IOException {
+        Map<YearMonth, List<Loan>> byMonth = new TreeMap<>();
+        for (Loan l : loans) {
+            if (l.getReturnedAt() == null) throw new IllegalArgumentException("Prestito non restituito: " + l.getId());
+            byMonth.computeIfAbsent(YearMonth.from(l.getReturnedAt()), k -> new ArrayList<>()).add(l);
+        }
+        if (byMonth.isEmpty()) return 0;
+        Files.createDirectories(dir);
+        for (Map.Entry<YearMonth, List<Loan>> e : byMonth.entrySet()) {
+            Path segment = segment(e.getKey());
+            Map<String, Loan> merged = new LinkedHashMap<>();
+            for (Loan l : read(segment)) merged.put(l.getId(), l);
+            for (Loan l : e.getValue()) merged.put(l.getId(), l);
+            List<Loan> items = new ArrayList<>(merged.values());
+            // finish() e non close(): il canale lo chiude il writer, dopo l'eventuale fsync
+            writer.writeBinary(segment, out -> {
+                GZIPOutputStream gz = new GZIPOutputStream(out, 64 * 1024);
+                Writer w = new OutputStreamWriter(gz, StandardCharsets.UTF_8);
+                JsonCodecs.writeList(w, items, JsonCodecs.LOAN_FILE, false);
+                w.flush();
+                gz.finish();
+            });
+        }
+        archived.add(loans.size());
+        return loans.size();
+    }
+
+    /**
+     * Prestiti restituiti nell'intervallo [from, to) che soddisfano il filtro, in ordine di restituzione.
+     * Estremi null: intervallo aperto da quel lato.
+     */
+    public List<Loan> find(LocalDateTime from, LocalDateTime to, Predicate<Loan> filter) throws IOException {
+        queries.increment();
+        List<Loan> out = new ArrayList<>();
+        for (YearMonth month : segments()) {
+            // il segmento copre [primo giorno del mese, primo giorno del mese dopo)
+            boolean overlaps = (from == null || month.plusMonths(1).atDay(1).atStartOfDay().isAfter(from))
+                && (to == null || month.atDay(1).atStartOfDay().isBefore(to));
+            if (!overlaps) {
+                segmentsPruned.increment();
+                continue;
+            }
+            segmentsRead.increment();
+            for (Loan l : read(segment(month))) {
+                LocalDateTime at = l.getReturnedAt();
+                if (from != null && at.isBefore(from)) continue;
+                if (to != null && !at.isBefore(to)) continue;
+                if (filter.test(l)) out.add(l);
+            }
+        }
+        out.sort((a, b) -> a.getReturnedAt().compareTo(b.getReturnedAt()));
+        return out;
+    }
+
+    /** Mesi con un segmento, in ordine. */
+    public List<YearMonth> segments() throws IOException {
+        List<YearMonth> months = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return months;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                try {
+                    months.add(YearMonth.parse(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (DateTimeParseException e) {
+                    // file estraneo con nome simile: ignorato
+                }
+            }
+        }
+        months.sort(null);
+        return months;
+    }
+
+    private Path segment(YearMonth month) {
+        return dir.resolve(PREFIX + month + SUFFIX);
+    }
+
+    private static List<Loan> read(Path segment) throws IOException {
+        if (!Files.exists(segment)) return new ArrayList<>();
+        try (Reader r = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(segment), 64 * 1024), StandardCharsets.UTF_8))) {
+            return JsonCodecs.readList(r, JsonCodecs.LOAN_FILE);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long bytes = 0;
+        int count = 0;
+        try {
+            for (YearMonth month : segments()) {
+                bytes += Files.size(segment(month));
+                count++;
+            }
+        } catch (IOException e) {
+            // directory non leggibile: restano i contatori
+        }
+        m.put("segments", count);
+        m.put("bytes", bytes);
+        m.put("archived", archived.sum());
+        m.put("queries", queries.sum());
+        m.put("segmentsRead", segmentsRead.sum());
+        m.put("segmentsPruned", segmentsPruned.sum());
+        return m;
+    }
+}
@@ -2,8 +2,12 @@ package com.digitallibrary.repository;
 
 import com.digitallibrary.model.Loan;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public interface LoanRepository {
     Loan save(Loan loan);
@@ -12,4 +16,20 @@ public interface LoanRepository {
     List<Loan> findByUserId(String userId);
     List<Loan> findByBookId(String bookId);
     boolean deleteById(String id);
+
+    // Rimuove i prestiti indicati il cui stato salvato soddisfa ancora la condizione e ne restituisce gli id.
+    // Di default uno alla volta e senza atomicità tra controllo e rimozione
+    default List<String> deleteIf(Collection<String> ids, Predicate<Loan> condition) {
+        List<String> removed = new ArrayList<>();
+        for (String id : ids) {
+            Optional<Loan> current = findById(id);
+            if (current.isPresent() && condition.test(current.get()) && deleteById(id)) removed.add(id);
+        }
+        return removed;
+    }
+
+    // Lettura in streaming, da chiudere dopo l'uso; di default è la lista di findAll()
+    default Stream<Loan> streamAll() {
+        return findAll().stream();
+    }
 }
@@ -0,0 +1,103 @@
+package com.digitallibrary.repository;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * Attraversamento in streaming dei repository a righe (compatto, mappato): le righe sono
+ * materializzate a blocchi prendendo il read lock solo per la durata di ciascun blocco,
+ * così uno stream consumato lentamente non blocca le scritture.
+ * <p>
+ * Una cancellazione sposta l'ultima riga nel buco lasciato da quella eliminata: il repository
+ * lo segnala al {@link Registry} e gli stream aperti recuperano la riga spostata se finisce
+ * prima del punto già letto. Ogni riga presente dall'inizio alla fine dello stream è emessa
+ * una sola volta; quelle aggiunte o eliminate nel frattempo possono esserci o no.
+ */
+final class LockedRowSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+    /** Stream aperti su un repository; da avvisare a ogni cancellazione, sotto il write lock. */
+    static final class Registry {
+        // riferimenti deboli: uno stream abbandonato senza arrivare in fondo non resta registrato
+        private final Set<LockedRowSpliterator<?>> open = Collections.newSetFromMap(new WeakHashMap<>());
+
+        /** La riga {@code row} è stata eliminata e l'ultima, {@code last}, spostata al suo posto. */
+        void deleted(int row, int last) {
+            synchronized (open) {
+                for (LockedRowSpliterator<?> s : open) s.deleted(row, last);
+            }
+        }
+
+        private void add(LockedRowSpliterator<?> s) {
+            synchronized (open) {
+                open.add(s);
+            }
+        }
+
+        private void remove(LockedRowSpliterator<?> s) {
+            synchronized (open) {
+                open.remove(s);
+            }
+        }
+    }
+
+    private static final int CHUNK = 256;
+
+    private final Lock readLock;
+    private final Registry registry;
+    private final IntSupplier rowCount;
+    private final IntFunction<T> row;
+    private final ArrayDeque<T> chunk = new ArrayDeque<>(CHUNK);
+    // next e moved cambiano solo sotto il lock del repository (read lock qui, write lock in deleted)
+    private int next;
+    // righe non ancora emesse spostate prima di next: si leggono con il blocco successivo
+    private final Set<Integer> moved = new HashSet<>();
+
+    /** Da chiamare senza il lock: rowCount e row sono invocati solo sotto readLock. */
+    LockedRowSpliterator(Lock readLock, Registry registry, IntSupplier rowCount, IntFunction<T> row) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.readLock = readLock;
+        this.registry = registry;
+        this.rowCount = rowCount;
+        this.row = row;
+        registry.add(this);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (chunk.isEmpty()) {
+            readLock.lock();
+            try {
+                for (int r : moved) chunk.add(row.apply(r));
+                moved.clear();
+                int end = Math.min(rowCount.getAsInt(), next + CHUNK);
+                for (; next < end; next++) chunk.add(row.apply(next));
+            } finally {
+                readLock.unlock();
+            }
+            if (chunk.isEmpty()) {
+                registry.remove(this);
+                return false;
+            }
+        }
+        action.accept(chunk.poll());
+        return true;
+    }
+
+    private void deleted(int row, int last) {
+        // la riga eliminata non va più emessa
+        moved.remove(row);
+        if (row == last) return;
+        // la riga spostata non era ancora stata emessa: se ora sta prima di next la si recupera
+        boolean pending = last >= next || moved.remove(last);
+        if (pending && row < next) moved.add(row);
+    }
+}
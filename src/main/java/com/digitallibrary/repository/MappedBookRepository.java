@@ -0,0 +1,447 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookSummary;
+import com.digitallibrary.model.Genre;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Repository off-heap su file mappati in memoria ({@link FileChannel#map}).
+ * Usa tre file accanto al percorso base:
+ * <ul>
+ *   <li>{@code .rec}: header + record a larghezza fissa (64 byte) densi, senza buchi;</li>
+ *   <li>{@code .str}: area append-only per le stringhe UTF-8 (id, titolo, autore, ISBN);</li>
+ *   <li>{@code .idx}: indice hash a indirizzamento aperto id -> numero di record.</li>
+ * </ul>
+ * L'apertura è solo un mmap: nessun parsing, nessun oggetto sullo heap proporzionale
+ * al catalogo. La persistenza è affidata alla page cache del sistema operativo;
+ * {@link #close()} forza la scrittura su disco. Ogni file è limitato a 2 GB (una mappatura).
+ * Un update riscrive solo le stringhe cambiate, al loro posto se la nuova non è più lunga;
+ * restano come spazio non recuperato solo le stringhe allungate e quelle dei record eliminati.
+ */
+public class MappedBookRepository implements BookRepository, AutoCloseable {
+
+    private static final int MAGIC = 0x424B4D50; // "BKMP"
+    private static final int VERSION = 1;
+
+    // .rec: magic, version, count, reserved
+    private static final int REC_HEADER = 16;
+    private static final int RECORD_SIZE = 64;
+    private static final int R_AVAILABLE = 0;
+    private static final int R_GENRE = 1;
+    private static final int R_YEAR = 4;
+    private static final int R_ADDED = 8;
+    private static final int R_ID = 16;
+    private static final int R_TITLE = 28;
+    private static final int R_AUTHOR = 40;
+    private static final int R_ISBN = 52;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    // .str: lunghezza usata (long), poi i dati
+    private static final int STR_HEADER = 8;
+
+    // .idx: magic, capacity, count, reserved; slot = hash (int) + record + 1 (int)
+    private static final int IDX_HEADER = 16;
+    private static final int SLOT_SIZE = 8;
+    private static final int INITIAL_SLOTS = 1024;
+
+    private static final Genre[] GENRES = Genre.values();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LockedRowSpliterator.Registry streams = new LockedRowSpliterator.Registry();
+    private final FileChannel recChannel;
+    private final FileChannel strChannel;
+    private final FileChannel idxChannel;
+    private MappedByteBuffer rec;
+    private MappedByteBuffer str;
+    private MappedByteBuffer idx;
+
+    public MappedBookRepository(String basePath) {
+        try {
+            recChannel = open(Paths.get(basePath + ".rec"));
+            strChannel = open(Paths.get(basePath + ".str"));
+            idxChannel = open(Paths.get(basePath + ".idx"));
+            boolean fresh = recChannel.size() == 0;
+            rec = recChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(recChannel.size(), REC_HEADER + 1024L * RECORD_SIZE));
+            str = strChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(strChannel.size(), 64 * 1024));
+            idx = idxChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(idxChannel.size(), IDX_HEADER + (long) INITIAL_SLOTS * SLOT_SIZE));
+            if (fresh) {
+                rec.putInt(0, MAGIC);
+                rec.putInt(4, VERSION);
+                rec.putInt(8, 0);
+                str.putLong(0, STR_HEADER);
+                idx.putInt(0, MAGIC);
+                idx.putInt(4, INITIAL_SLOTS);
+                idx.putInt(8, 0);
+            } else if (rec.getInt(0) != MAGIC || idx.getInt(0) != MAGIC) {
+                throw new IllegalStateException("File non riconosciuto come catalogo mappato: " + basePath);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossibile aprire il catalogo mappato " + basePath, e);
+        }
+    }
+
+    private static FileChannel open(Path p) throws IOException {
+        Path dir = p.toAbsolutePath().getParent();
+        if (dir != null) java.nio.file.Files.createDirectories(dir);
+        return FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public Book save(Book book) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(book.getId());
+            if (slot >= 0) {
+                writeRecord(idx.getInt(slotPos(slot) + 4) - 1, book);
+            } else {
+                int recNo = count();
+                ensureRecordCapacity(recNo + 1);
+                // il posto può contenere i riferimenti di un record spostato da deleteById: non vanno riusati
+                clearRecord(recNo);
+                writeRecord(recNo, book);
+                // l'indice va aggiornato prima del contatore: un'eventuale ricostruzione copre solo i record già contati
+                insertSlot(book.getId(), recNo);
+                rec.putInt(8, recNo + 1);
+            }
+            return book;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Book> findById(String id) {
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(id);
+            return slot < 0 ? Optional.empty() : Optional.of(readRecord(idx.getInt(slotPos(slot) + 4) - 1));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> findAll() {
+        lock.readLock().lock();
+        try {
+            int n = count();
+            List<Book> list = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) list.add(readRecord(i));
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Stream<Book> streamAll() {
+        return StreamSupport.stream(new LockedRowSpliterator<>(lock.readLock(), streams, this::count, this::readRecord), false);
+    }
+
+    // le proiezioni decodificano solo le stringhe richieste dal file mappato
+    @Override
+    public List<BookSummary> findSummaries() {
+        lock.readLock().lock();
+        try {
+            int n = count();
+            List<BookSummary> list = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int p = recPos(i);
+                list.add(new BookSummary(readString(p + R_ID), readString(p + R_TITLE), readString(p + R_AUTHOR),
+                        rec.getInt(p + R_YEAR), rec.get(p + R_AVAILABLE) == 1));
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, String> findTitles(Collection<String> ids) {
+        Map<String, String> out = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (String id : ids) {
+                int slot = id == null ? -1 : slotOf(id);
+                if (slot >= 0) out.put(id, readString(recPos(idx.getInt(slotPos(slot) + 4) - 1) + R_TITLE));
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Book update(Book book) {
+        return save(book);
+    }
+
+    @Override
+    public boolean deleteById(String id) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(id);
+            if (slot < 0) return false;
+            int recNo = idx.getInt(slotPos(slot) + 4) - 1;
+            removeSlot(slot);
+            int last = count() - 1;
+            if (recNo != last) {
+                // mantiene i record densi spostando l'ultimo nel posto liberato
+                int lastSlot = slotOf(readString(recPos(last) + R_ID));
+                idx.putInt(slotPos(lastSlot) + 4, recNo + 1);
+                copyRecord(last, recNo);
+            }
+            rec.putInt(8, last);
+            streams.deleted(recNo, last);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveAll(List<Book> books) {
+        lock.writeLock().lock();
+        try {
+            ensureRecordCapacity(count() + books.size());
+            for (Book b : books) save(b);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> loadAll() {
+        return findAll();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Forza su disco le pagine modificate e chiude i file. */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            rec.force();
+            str.force();
+            idx.force();
+            recChannel.close();
+            strChannel.close();
+            idxChannel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --- record ---
+
+    private int count() {
+        return rec.getInt(8);
+    }
+
+    private static int recPos(int recNo) {
+        return REC_HEADER + recNo * RECORD_SIZE;
+    }
+
+    private void writeRecord(int recNo, Book b) {
+        int p = recPos(recNo);
+        rec.put(p + R_AVAILABLE, (byte) (b.isAvailable() ? 1 : 0));
+        rec.put(p + R_GENRE, (byte) (b.getGenre() != null ? b.getGenre().ordinal() : -1));
+        rec.putInt(p + R_YEAR, b.getPublicationYear());
+        rec.putLong(p + R_ADDED, b.getAddedDate() != null ? b.getAddedDate().toEpochSecond(ZoneOffset.UTC) : NO_DATE);
+        writeString(p + R_ID, b.getId());
+        writeString(p + R_TITLE, b.getTitle());
+        writeString(p + R_AUTHOR, b.getAuthor());
+        writeString(p + R_ISBN, b.getIsbn());
+    }
+
+    private Book readRecord(int recNo) {
+        int p = recPos(recNo);
+        byte g = rec.get(p + R_GENRE);
+        long added = rec.getLong(p + R_ADDED);
+        return Book.restore(readString(p + R_ID), readString(p + R_TITLE), readString(p + R_AUTHOR),
+                g < 0 ? null : GENRES[g], rec.getInt(p + R_YEAR), readString(p + R_ISBN),
+                rec.get(p + R_AVAILABLE) == 1, added == NO_DATE ? null : LocalDateTime.ofEpochSecond(added, 0, ZoneOffset.UTC));
+    }
+
+    private void clearRecord(int recNo) {
+        rec.put(recPos(recNo), new byte[RECORD_SIZE]);
+    }
+
+    private void copyRecord(int from, int to) {
+        byte[] tmp = new byte[RECORD_SIZE];
+        rec.get(recPos(from), tmp);
+        rec.put(recPos(to), tmp);
+    }
+
+    private void ensureRecordCapacity(int records) {
+        long needed = (long) REC_HEADER + (long) records * RECORD_SIZE;
+        if (needed <= rec.capacity()) return;
+        rec = remap(recChannel, rec.capacity(), needed);
+    }
+
+    // --- stringhe: riferimento = offset (long) + lunghezza (int), offset 0 = null ---
+
+    private void writeString(int refPos, String s) {
+        if (s == null) {
+            rec.putLong(refPos, 0L);
+            rec.putInt(refPos + 8, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        long offset = rec.getLong(refPos);
+        int length = rec.getInt(refPos + 8);
+        // stringa invariata o più corta: resta dov'è, senza consumare spazio nuovo
+        if (offset != 0L && bytes.length <= length) {
+            if (bytes.length < length || !stringEquals(refPos, bytes)) str.put((int) offset, bytes);
+            rec.putInt(refPos + 8, bytes.length);
+            return;
+        }
+        long used = str.getLong(0);
+        long needed = used + bytes.length;
+        if (needed > str.capacity()) str = remap(strChannel, str.capacity(), needed);
+        str.put((int) used, bytes);
+        str.putLong(0, needed);
+        rec.putLong(refPos, used);
+        rec.putInt(refPos + 8, bytes.length);
+    }
+
+    // byte occupati nell'area delle stringhe (per i test)
+    long stringBytes() {
+        lock.readLock().lock();
+        try {
+            return str.getLong(0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private String readString(int refPos) {
+        long offset = rec.getLong(refPos);
+        if (offset == 0L) return null;
+        byte[] bytes = new byte[rec.getInt(refPos + 8)];
+        str.get((int) offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean stringEquals(int refPos, byte[] expected) {
+        long offset = rec.getLong(refPos);
+        if (offset == 0L || rec.getInt(refPos + 8) != expected.length) return false;
+        int base = (int) offset;
+        for (int i = 0; i < expected.length; i++) {
+            if (str.get(base + i) != expected[i]) return false;
+        }
+        return true;
+    }
+
+    // --- indice hash persistente (linear probing, cancellazione con backward shift) ---
+
+    private int slotCapacity() {
+        return idx.getInt(4);
+    }
+
+    private static int slotPos(int slot) {
+        return IDX_HEADER + slot * SLOT_SIZE;
+    }
+
+    private static int hash(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slotOf(String id) {
+        if (id == null) return -1;
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int h = hash(id);
+        int mask = slotCapacity() - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int p = slotPos(i);
+            int entry = idx.getInt(p + 4);
+            if (entry == 0) return -1;
+            if (idx.getInt(p) == h && stringEquals(recPos(entry - 1) + R_ID, key)) return i;
+        }
+    }
+
+    private void insertSlot(String id, int recNo) {
+        int count = idx.getInt(8) + 1;
+        if (count * 2 > slotCapacity()) growIndex(slotCapacity() * 2);
+        putSlot(hash(id), recNo);
+        idx.putInt(8, count);
+    }
+
+    private void putSlot(int h, int recNo) {
+        int mask = slotCapacity() - 1;
+        int i = h & mask;
+        while (idx.getInt(slotPos(i) + 4) != 0) i = (i + 1) & mask;
+        idx.putInt(slotPos(i), h);
+        idx.putInt(slotPos(i) + 4, recNo + 1);
+    }
+
+    private void removeSlot(int slot) {
+        int mask = slotCapacity() - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; idx.getInt(slotPos(i) + 4) != 0; i = (i + 1) & mask) {
+            int home = idx.getInt(slotPos(i)) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                idx.putLong(slotPos(hole), idx.getLong(slotPos(i)));
+                hole = i;
+            }
+        }
+        idx.putLong(slotPos(hole), 0L);
+        idx.putInt(8, idx.getInt(8) - 1);
+    }
+
+    private void growIndex(int capacity) {
+        long bytes = IDX_HEADER + (long) capacity * SLOT_SIZE;
+        if (bytes > Integer.MAX_VALUE) throw new IllegalStateException("Indice del catalogo mappato pieno");
+        try {
+            idx = idxChannel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int i = 0; i < capacity; i++) idx.putLong(slotPos(i), 0L);
+        idx.putInt(4, capacity);
+        int n = count();
+        for (int recNo = 0; recNo < n; recNo++) putSlot(hash(readString(recPos(recNo) + R_ID)), recNo);
+    }
+
+    private static MappedByteBuffer remap(FileChannel ch, long current, long needed) {
+        long size = Math.max(needed, current * 2);
+        if (needed > Integer.MAX_VALUE) throw new IllegalStateException("File del catalogo mappato oltre 2 GB");
+        size = Math.min(size, Integer.MAX_VALUE);
+        try {
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.digitallibrary.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Legge uno script SQL un'istruzione alla volta, senza caricarlo in memoria.
+ * Il ';' chiude l'istruzione solo fuori da stringhe ('...' con '' per l'apice),
+ * identificatori tra doppi apici e commenti (-- fino a fine riga, /* ... *&#47;), che sono scartati.
+ * Non gestisce i corpi BEGIN ... END dei trigger, che contengono ';' propri.
+ */
+final class SqlScriptReader implements Closeable {
+
+    private final Reader in;
+    private final StringBuilder sb = new StringBuilder(256);
+    // carattere letto in anticipo, -2 se nessuno
+    private int peeked = -2;
+
+    SqlScriptReader(Reader in) {
+        this.in = in;
+    }
+
+    /** Prossima istruzione senza ';' finale e spazi ai bordi, null a fine script. */
+    String next() throws IOException {
+        sb.setLength(0);
+        int c;
+        while ((c = read()) != -1) {
+            if (c == ';') {
+                String stmt = sb.toString().trim();
+                sb.setLength(0);
+                if (!stmt.isEmpty()) return stmt;
+            } else if (c == '\'' || c == '"') {
+                quoted(c);
+            } else if (c == '-' && peek() == '-') {
+                while ((c = read()) != -1 && c != '\n') { }
+                sb.append('\n');
+            } else if (c == '/' && peek() == '*') {
+                read();
+                int prev = 0;
+                while ((c = read()) != -1 && !(prev == '*' && c == '/')) prev = c;
+                sb.append(' ');
+            } else {
+                sb.append((char) c);
+            }
+        }
+        // ultima istruzione senza ';'
+        String stmt = sb.toString().trim();
+        return stmt.isEmpty() ? null : stmt;
+    }
+
+    // copia una stringa o un identificatore tra apici, compresi gli apici raddoppiati
+    private void quoted(int quote) throws IOException {
+        sb.append((char) quote);
+        int c;
+        while ((c = read()) != -1) {
+            sb.append((char) c);
+            if (c == quote) {
+                if (peek() != quote) return;
+                sb.append((char) read());
+            }
+        }
+        throw new IOException("Stringa non chiusa nello script SQL");
+    }
+
+    private int read() throws IOException {
+        if (peeked != -2) {
+            int c = peeked;
+            peeked = -2;
+            return c;
+        }
+        return in.read();
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) peeked = in.read();
+        return peeked;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -1,36 +1,155 @@
 package com.digitallibrary.repository;
 
+import com.digitallibrary.codec.IsoDateTimeCodec;
+import com.digitallibrary.codec.JsonCodecs;
 import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookLoadReport;
+import com.digitallibrary.model.BookSummary;
 import com.digitallibrary.model.Genre;
+import com.digitallibrary.util.Isbn;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.*;
-import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Repository che usa SQLite via JDBC (Xerial).
  * Richiede il driver org.xerial:sqlite-jdbc nel classpath (gestito da Gradle).
+ * <p>
+ * Titolo e autore sono indicizzati in una tabella FTS5 (books_fts) con contenuto esterno,
+ * tenuta allineata a books da trigger: le ricerche di {@link TextSearching} non leggono la tabella.
+ * <p>
+ * Un batch ({@link WriteBatching}) tiene aperta una connessione per thread con una transazione:
+ * tutte le operazioni del thread la usano, e flushBatch/endBatch fanno un solo commit.
+ * Le transazioni interne (saveAll, seed) si fondono in quella del batch.
  */
-public class SqliteBookRepository implements BookRepository {
+public class SqliteBookRepository implements BookRepository, TextSearching, WriteBatching {
+
+    private static final String ISBN_DIGITS = "replace(replace(isbn,'-',''),' ','')";
+    private static final String COLUMNS = "id,title,author,genre,publicationYear,isbn,available,addedDate";
+    // upsert invece di INSERT OR REPLACE: la riga mantiene il rowid e l'indice FTS riceve un solo aggiornamento
+    private static final String UPSERT = "INSERT INTO books(" + COLUMNS + ") VALUES (?,?,?,?,?,?,?,?)"
+        + " ON CONFLICT(id) DO UPDATE SET title=excluded.title,author=excluded.author,genre=excluded.genre,"
+        + "publicationYear=excluded.publicationYear,isbn=excluded.isbn,available=excluded.available,"
+        + "addedDate=excluded.addedDate";
+    // il titolo pesa dieci volte l'autore nel ranking BM25
+    private static final String FTS_RANK = "bm25(books_fts, 10.0, 1.0)";
+    // parametri per query IN (...): SQLite ne ammette al massimo 999 per statement
+    private static final int IN_CHUNK = 500;
+    // istruzioni dello script di seed per executeBatch
+    private static final int SEED_BATCH = 500;
+    // righe lette da ogni query di streamAll()
+    private static final int STREAM_PAGE = 256;
 
     private final String dbUrl;
     private final Path dbFile;
+    // proprietà di connessione: PRAGMA synchronous secondo la durabilità richiesta
+    private final java.util.Properties connectionProps = new java.util.Properties();
+    // esito della validazione dell'ultima lettura completa
+    private volatile BookLoadReport lastLoad;
+    // false se il driver non include FTS5
+    private boolean ftsAvailable;
+    // connessione del batch del thread corrente, null fuori da un batch
+    private final ThreadLocal<Connection> batch = new ThreadLocal<>();
 
     public SqliteBookRepository(String dbFilePath) {
+        this(dbFilePath, null);
+    }
+
+    /**
+     * @param durability NONE = synchronous OFF, BATCH = NORMAL, ALWAYS = FULL;
+     *                   null lascia il valore predefinito di SQLite (FULL)
+     */
+    public SqliteBookRepository(String dbFilePath, Durability durability) {
         this.dbFile = Paths.get(dbFilePath);
         this.dbUrl = "jdbc:sqlite:" + dbFilePath;
+        if (durability != null) {
+            connectionProps.setProperty("synchronous",
+                durability == Durability.NONE ? "OFF" : durability == Durability.BATCH ? "NORMAL" : "FULL");
+        }
+        // anche i REPLACE scritti a mano (es. seed.sql) fanno scattare il trigger di cancellazione dell'indice
+        connectionProps.setProperty("recursive_triggers", "true");
         ensureTable();
     }
 
+    // durante un batch la connessione del thread, che chi la usa non può chiudere né committare
     private Connection connect() throws SQLException {
-        return DriverManager.getConnection(dbUrl);
+        Connection open = batch.get();
+        if (open != null) return inBatch(open);
+        return DriverManager.getConnection(dbUrl, connectionProps);
+    }
+
+    private static Connection inBatch(Connection open) {
+        return (Connection) java.lang.reflect.Proxy.newProxyInstance(Connection.class.getClassLoader(),
+            new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "close":
+                    case "setAutoCommit":
+                    case "commit":
+                    case "rollback":
+                        // il commit o il rollback è quello del batch
+                        return null;
+                    default:
+                        try {
+                            return method.invoke(open, args);
+                        } catch (java.lang.reflect.InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            });
+    }
+
+    @Override
+    public void beginBatch() {
+        if (batch.get() != null) throw new IllegalStateException("Batch già in corso");
+        try {
+            Connection c = DriverManager.getConnection(dbUrl, connectionProps);
+            c.setAutoCommit(false);
+            batch.set(c);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void flushBatch() {
+        Connection c = batch.get();
+        if (c == null) throw new IllegalStateException("Nessun batch in corso");
+        try {
+            c.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        Connection c = batch.get();
+        if (c == null) return;
+        batch.remove();
+        try (c) {
+            if (flush) c.commit();
+            else c.rollback();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private void ensureTable() {
@@ -46,23 +165,89 @@ public class SqliteBookRepository implements BookRepository {
                 + ");";
         try (Connection c = connect(); Statement s = c.createStatement()) {
             s.execute(sql);
+            // indice sull'ISBN normalizzato (senza '-' e spazi) per findByIsbn; non UNIQUE perché
+            // un REPLACE cancellerebbe in silenzio l'altro libro: l'unicità è verificata da BookService
+            s.execute("CREATE INDEX IF NOT EXISTS idx_books_isbn ON books(" + ISBN_DIGITS + ")");
+            // indici per i filtri di query(): autore e genere senza distinzione di maiuscole, come i confronti in Java
+            s.execute("CREATE INDEX IF NOT EXISTS idx_books_author ON books(author COLLATE NOCASE)");
+            s.execute("CREATE INDEX IF NOT EXISTS idx_books_genre ON books(genre COLLATE NOCASE)");
+            s.execute("CREATE INDEX IF NOT EXISTS idx_books_year ON books(publicationYear)");
         } catch (SQLException e) {
             throw new RuntimeException("Impossibile creare la tabella books", e);
         }
+        ftsAvailable = ensureFtsIndex();
+    }
+
+    private boolean ensureFtsIndex() {
+        try (Connection c = connect(); Statement s = c.createStatement()) {
+            boolean exists;
+            try (ResultSet rs = s.executeQuery("SELECT 1 FROM sqlite_master WHERE name = 'books_fts'")) {
+                exists = rs.next();
+            }
+            c.setAutoCommit(false);
+            s.execute("CREATE VIRTUAL TABLE IF NOT EXISTS books_fts USING fts5(title, author,"
+                + " content='books', content_rowid='rowid', tokenize='unicode61 remove_diacritics 2')");
+            s.execute("CREATE TRIGGER IF NOT EXISTS books_fts_ai AFTER INSERT ON books BEGIN"
+                + " INSERT INTO books_fts(rowid,title,author) VALUES (new.rowid,new.title,new.author); END");
+            s.execute("CREATE TRIGGER IF NOT EXISTS books_fts_ad AFTER DELETE ON books BEGIN"
+                + " INSERT INTO books_fts(books_fts,rowid,title,author) VALUES ('delete',old.rowid,old.title,old.author); END");
+            s.execute("CREATE TRIGGER IF NOT EXISTS books_fts_au AFTER UPDATE OF title,author ON books BEGIN"
+                + " INSERT INTO books_fts(books_fts,rowid,title,author) VALUES ('delete',old.rowid,old.title,old.author);"
+                + " INSERT INTO books_fts(rowid,title,author) VALUES (new.rowid,new.title,new.author); END");
+            // database creato prima dell'indice: si indicizzano le righe già presenti
+            if (!exists) s.execute("INSERT INTO books_fts(books_fts) VALUES ('rebuild')");
+            c.commit();
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Ricerca full-text non disponibile: " + e.getMessage());
+            return false;
+        }
     }
 
     @Override
-    public Book save(Book book) {
-        String sql = "INSERT OR REPLACE INTO books(id,title,author,genre,publicationYear,isbn,available,addedDate) VALUES (?,?,?,?,?,?,?,?)";
+    public boolean isTextSearchAvailable() {
+        return ftsAvailable;
+    }
+
+    @Override
+    public List<Book> searchTitle(String query, int limit) {
+        return searchFts(query, "title : ", limit);
+    }
+
+    @Override
+    public List<Book> searchText(String query, int limit) {
+        return searchFts(query, "", limit);
+    }
+
+    // ogni termine diventa una frase con prefisso ("term"*), in AND implicito con le altre
+    private List<Book> searchFts(String query, String column, int limit) {
+        List<String> terms = TextSearching.terms(query);
+        List<Book> list = new ArrayList<>();
+        if (terms.isEmpty()) return list;
+        StringBuilder match = new StringBuilder();
+        for (String t : terms) {
+            if (match.length() > 0) match.append(' ');
+            match.append(column).append('"').append(t).append("\"*");
+        }
+        String sql = "SELECT b.* FROM books_fts JOIN books b ON b.rowid = books_fts.rowid"
+            + " WHERE books_fts MATCH ? ORDER BY " + FTS_RANK + " LIMIT ?";
+        BookLoadReport report = new BookLoadReport();
         try (Connection c = connect(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, book.getId());
-            ps.setString(2, book.getTitle());
-            ps.setString(3, book.getAuthor());
-            ps.setString(4, book.getGenre() != null ? book.getGenre().getDisplayName() : null);
-            ps.setInt(5, book.getPublicationYear());
-            ps.setString(6, book.getIsbn());
-            ps.setInt(7, book.isAvailable() ? 1 : 0);
-            ps.setString(8, book.getAddedDate() != null ? book.getAddedDate().toString() : null);
+            ps.setString(1, match.toString());
+            ps.setInt(2, limit > 0 ? limit : -1);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) list.add(mapRow(rs, report));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    @Override
+    public Book save(Book book) {
+        try (Connection c = connect(); PreparedStatement ps = c.prepareStatement(UPSERT)) {
+            bind(ps, book);
             ps.executeUpdate();
             return book;
         } catch (SQLException e) {
@@ -76,7 +261,27 @@ public class SqliteBookRepository implements BookRepository {
         try (Connection c = connect(); PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setString(1, id);
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return Optional.of(mapRow(rs));
+                if (rs.next()) return Optional.of(mapRow(rs, BookLoadReport.untracked()));
+                return Optional.empty();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Optional<Book> findByIsbn(String isbn) {
+        long key = Isbn.normalize(isbn);
+        if (key == Isbn.INVALID) return Optional.empty();
+        // le righe possono avere l'ISBN salvato in forma 10 o 13: si cercano entrambe sull'indice
+        String isbn13 = Isbn.format(key);
+        String isbn10 = Isbn.formatIsbn10(key);
+        String sql = "SELECT * FROM books WHERE " + ISBN_DIGITS + " IN (?, ?) LIMIT 1";
+        try (Connection c = connect(); PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, isbn13);
+            ps.setString(2, isbn10 != null ? isbn10 : isbn13);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return Optional.of(mapRow(rs, BookLoadReport.untracked()));
                 return Optional.empty();
             }
         } catch (SQLException e) {
@@ -88,14 +293,170 @@ public class SqliteBookRepository implements BookRepository {
     public List<Book> findAll() {
         String sql = "SELECT * FROM books";
         List<Book> list = new ArrayList<>();
+        BookLoadReport report = new BookLoadReport();
         try (Connection c = connect(); Statement s = c.createStatement(); ResultSet rs = s.executeQuery(sql)) {
-            while (rs.next()) list.add(mapRow(rs));
+            while (rs.next()) list.add(mapRow(rs, report));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        lastLoad = report;
+        return list;
+    }
+
+    /**
+     * Libri in ordine di id, letti a pagine con una query breve ciascuna: uno stream consumato
+     * lentamente (es. verso un client HTTP lento) non tiene aperta la transazione di lettura.
+     * Le scritture fatte nel frattempo possono esserci o no; nessun libro è letto due volte.
+     */
+    @Override
+    public Stream<Book> streamAll() {
+        BookLoadReport report = new BookLoadReport();
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<Book>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            private final ArrayDeque<Book> page = new ArrayDeque<>(STREAM_PAGE);
+            private String lastId = "";
+            private boolean done;
+            private boolean published;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Book> action) {
+                if (page.isEmpty() && !done) {
+                    List<Book> next = readPage(lastId, report);
+                    done = next.size() < STREAM_PAGE;
+                    if (!next.isEmpty()) lastId = next.get(next.size() - 1).getId();
+                    page.addAll(next);
+                }
+                Book b = page.poll();
+                if (b == null) {
+                    // report pubblicato solo a lettura completa, non per uno stream interrotto
+                    if (!published) lastLoad = report;
+                    published = true;
+                    return false;
+                }
+                action.accept(b);
+                return true;
+            }
+        }, false);
+    }
+
+    // pagina successiva a afterId secondo la chiave primaria
+    private List<Book> readPage(String afterId, BookLoadReport report) {
+        List<Book> list = new ArrayList<>(STREAM_PAGE);
+        try (Connection c = connect();
+             PreparedStatement ps = c.prepareStatement("SELECT * FROM books WHERE id > ? ORDER BY id LIMIT ?")) {
+            ps.setString(1, afterId);
+            ps.setInt(2, STREAM_PAGE);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) list.add(mapRow(rs, report));
+            }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
         return list;
     }
 
+    // Proiezione: solo le colonne della lista, senza passare dai setter con validazione di Book
+    @Override
+    public List<BookSummary> findSummaries() {
+        String sql = "SELECT id,title,author,publicationYear,available FROM books";
+        List<BookSummary> list = new ArrayList<>();
+        try (Connection c = connect(); Statement s = c.createStatement(); ResultSet rs = s.executeQuery(sql)) {
+            while (rs.next()) {
+                list.add(new BookSummary(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getInt(5) == 1));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    /**
+     * Filtri, ordinamento e limite tradotti in una SELECT parametrica: SQLite sceglie l'indice
+     * più selettivo tra autore, genere e anno e restituisce solo le righe richieste.
+     */
+    @Override
+    public List<Book> query(BookQuery q) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM books");
+        List<Object> params = new ArrayList<>();
+        String and = " WHERE ";
+        if (q.getAuthor() != null) {
+            sql.append(and).append("author = ? COLLATE NOCASE");
+            params.add(q.getAuthor());
+            and = " AND ";
+        }
+        if (q.getGenre() != null) {
+            // la colonna può contenere il nome visualizzato o quello dell'enum, come accetta Genre.fromDisplayName
+            sql.append(and).append("genre COLLATE NOCASE IN (?, ?)");
+            params.add(q.getGenre().getDisplayName());
+            params.add(q.getGenre().name());
+            and = " AND ";
+        }
+        if (q.getYearFrom() != null) {
+            sql.append(and).append("publicationYear >= ?");
+            params.add(q.getYearFrom());
+            and = " AND ";
+        }
+        if (q.getYearTo() != null) {
+            sql.append(and).append("publicationYear <= ?");
+            params.add(q.getYearTo());
+        }
+        if (!q.getOrders().isEmpty()) {
+            String sep = " ORDER BY ";
+            for (BookQuery.Order o : q.getOrders()) {
+                sql.append(sep).append(orderColumn(o.getKey())).append(o.isAscending() ? " ASC" : " DESC");
+                sep = ", ";
+            }
+            sql.append(", id");
+        }
+        if (q.getLimit() > 0) {
+            sql.append(" LIMIT ?");
+            params.add(q.getLimit());
+        }
+        List<Book> list = new ArrayList<>();
+        BookLoadReport report = new BookLoadReport();
+        try (Connection c = connect(); PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            for (int i = 0; i < params.size(); i++) ps.setObject(i + 1, params.get(i));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) list.add(mapRow(rs, report));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    private static String orderColumn(BookQuery.Sort key) {
+        switch (key) {
+            case TITLE: return "title COLLATE NOCASE";
+            case AUTHOR: return "author COLLATE NOCASE";
+            case YEAR: return "publicationYear";
+            default: return "addedDate";
+        }
+    }
+
+    @Override
+    public Map<String, String> findTitles(Collection<String> ids) {
+        Map<String, String> titles = new HashMap<>();
+        List<String> all = new ArrayList<>(ids);
+        try (Connection c = connect()) {
+            for (int from = 0; from < all.size(); from += IN_CHUNK) {
+                List<String> chunk = all.subList(from, Math.min(all.size(), from + IN_CHUNK));
+                StringBuilder sql = new StringBuilder("SELECT id,title FROM books WHERE id IN (");
+                for (int i = 0; i < chunk.size(); i++) sql.append(i == 0 ? "?" : ",?");
+                sql.append(')');
+                try (PreparedStatement ps = c.prepareStatement(sql.toString())) {
+                    for (int i = 0; i < chunk.size(); i++) ps.setString(i + 1, chunk.get(i));
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) titles.put(rs.getString(1), rs.getString(2));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return titles;
+    }
+
     @Override
     public Book update(Book book) {
         return save(book);
@@ -115,71 +476,230 @@ public class SqliteBookRepository implements BookRepository {
 
     @Override
     public void saveAll(List<Book> books) {
-        String sql = "INSERT OR REPLACE INTO books(id,title,author,genre,publicationYear,isbn,available,addedDate) VALUES (?,?,?,?,?,?,?,?)";
-        try (Connection c = connect(); PreparedStatement ps = c.prepareStatement(sql)) {
+        try (Connection c = connect()) {
             c.setAutoCommit(false);
-            for (Book book : books) {
-                ps.setString(1, book.getId());
-                ps.setString(2, book.getTitle());
-                ps.setString(3, book.getAuthor());
-                ps.setString(4, book.getGenre() != null ? book.getGenre().getDisplayName() : null);
-                ps.setInt(5, book.getPublicationYear());
-                ps.setString(6, book.getIsbn());
-                ps.setInt(7, book.isAvailable() ? 1 : 0);
-                ps.setString(8, book.getAddedDate() != null ? book.getAddedDate().toString() : null);
-                ps.addBatch();
-            }
-            ps.executeBatch();
+            upsertAll(c, books);
             c.commit();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static void bind(PreparedStatement ps, Book book) throws SQLException {
+        ps.setString(1, book.getId());
+        ps.setString(2, book.getTitle());
+        ps.setString(3, book.getAuthor());
+        ps.setString(4, book.getGenre() != null ? book.getGenre().getDisplayName() : null);
+        ps.setInt(5, book.getPublicationYear());
+        ps.setString(6, book.getIsbn());
+        ps.setInt(7, book.isAvailable() ? 1 : 0);
+        ps.setString(8, book.getAddedDate() != null ? book.getAddedDate().toString() : null);
+    }
+
     @Override
     public List<Book> loadAll() {
         return findAll();
     }
 
-    private Book mapRow(ResultSet rs) throws SQLException {
-        Book b = new Book();
-        b.setId(rs.getString("id"));
-        b.setTitle(rs.getString("title"));
-        b.setAuthor(rs.getString("author"));
-        b.setGenre(Genre.fromDisplayName(rs.getString("genre")));
-        try { b.setPublicationYear(rs.getInt("publicationYear")); } catch (Exception e) { b.setPublicationYear(0); }
-        b.setIsbn(rs.getString("isbn"));
-        b.setAvailable(rs.getInt("available") == 1);
-        String added = rs.getString("addedDate");
-        if (added != null && !added.isEmpty()) {
-            try { b.setAddedDate(LocalDateTime.parse(added)); } catch (Exception e) { /* ignore */ }
-        }
-        return b;
+    /** Validazione dell'ultima lettura completa della tabella (null se non ancora letta). */
+    public BookLoadReport getLastLoadReport() {
+        return lastLoad;
+    }
+
+    private Book mapRow(ResultSet rs, BookLoadReport report) throws SQLException {
+        return report.restore(rs.getString("id"), rs.getString("title"), rs.getString("author"),
+            Genre.fromDisplayName(rs.getString("genre")), rs.getInt("publicationYear"), rs.getString("isbn"),
+            rs.getInt("available") == 1, IsoDateTimeCodec.parse(rs.getString("addedDate")));
     }
 
     /**
-     * Se il DB non esiste, prova a eseguire il file SQL di seed se presente
+     * Esegue lo script SQL di seed se la tabella è vuota. Lo script è letto un'istruzione alla volta
+     * ed eseguito in un'unica transazione, a blocchi di {@value #SEED_BATCH} istruzioni: o viene
+     * applicato tutto o niente. Il checksum dello script è registrato nella stessa transazione e,
+     * finché il file non cambia, le chiamate successive non rieseguono nulla (nemmeno a tabella vuota).
+     * Se la tabella non era vuota lo script non è eseguito e il checksum non è registrato.
+     * @return true se lo script è stato eseguito
      */
-    public void seedIfEmpty(Path seedSqlPath) {
-        try {
-            if (!Files.exists(dbFile)) {
-                // DB file will be created upon connection
-            }
-            boolean empty = findAll().isEmpty();
-            if (!empty) return;
-
-            if (seedSqlPath != null && Files.exists(seedSqlPath)) {
-                String sql = Files.lines(seedSqlPath).collect(Collectors.joining("\n"));
-                try (Connection c = connect(); Statement s = c.createStatement()) {
-                    String[] parts = sql.split(";\s*\n");
-                    for (String part : parts) {
-                        String stmt = part.trim();
-                        if (!stmt.isEmpty()) s.execute(stmt);
-                    }
+    public boolean seedIfEmpty(Path seedSqlPath) {
+        if (seedSqlPath == null || !Files.exists(seedSqlPath)) return false;
+        return seedIfChanged(seedSqlPath, (c, content) -> {
+            if (!isEmpty(c)) return false;
+            runScript(c, new BufferedReader(content));
+            return true;
+        });
+    }
+
+    /**
+     * Inserisce o aggiorna i libri di un file JSON (es. data/books.json) in un'unica transazione,
+     * solo se il file è cambiato dall'ultima importazione. I libri sono letti in streaming e
+     * scritti a blocchi di {@value #SEED_BATCH}.
+     * @return true se il file è stato importato
+     */
+    public boolean seedFromJson(Path booksJson) {
+        if (booksJson == null || !Files.exists(booksJson)) return false;
+        return seedIfChanged(booksJson, (c, content) -> {
+            try (Stream<Book> books = JsonCodecs.streamList(content, JsonCodecs.BOOK_FILE)) {
+                upsertAll(c, books.iterator());
+            } catch (java.io.UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return true;
+        });
+    }
+
+    private interface SeedAction {
+        /** Applica il contenuto del file sulla connessione, già in transazione; false se non c'era niente da fare. */
+        boolean apply(Connection c, Reader content) throws SQLException, IOException;
+    }
+
+    /**
+     * Confronta il checksum del file con quello registrato per il suo percorso assoluto; se diverso
+     * applica il seed e lo registra nella stessa transazione. Il seed legge il file in streaming
+     * attraverso il digest, e si registra il checksum dei byte effettivamente applicati, anche se
+     * il file è cambiato dopo il confronto.
+     */
+    private boolean seedIfChanged(Path source, SeedAction action) {
+        String key = source.toAbsolutePath().normalize().toString();
+        try (Connection c = connect()) {
+            String checksum = checksum(source);
+            try (Statement s = c.createStatement()) {
+                s.execute("CREATE TABLE IF NOT EXISTS seed_state (source TEXT PRIMARY KEY, checksum TEXT NOT NULL, appliedAt TEXT)");
+            }
+            if (checksum.equals(recordedChecksum(c, key))) return false;
+            // righe scritte quando la chiave era il solo nome del file: se il contenuto è lo stesso
+            // si passa alla chiave per percorso senza rieseguire il seed
+            if (checksum.equals(recordedChecksum(c, source.getFileName().toString()))) {
+                record(c, key, checksum);
+                return false;
+            }
+            c.setAutoCommit(false);
+            java.security.MessageDigest md = sha256();
+            try (java.io.InputStream file = Files.newInputStream(source);
+                 java.security.DigestInputStream in = new java.security.DigestInputStream(file, md)) {
+                // chi legge il contenuto può chiuderlo: il file resta aperto per finire il digest
+                java.io.InputStream shielded = new java.io.FilterInputStream(in) {
+                    @Override public void close() {}
+                };
+                if (!action.apply(c, new InputStreamReader(shielded, java.nio.charset.StandardCharsets.UTF_8))) {
+                    c.rollback();
+                    return false;
                 }
+                // i byte dopo l'ultima istruzione (spazi, commenti) fanno parte del checksum
+                byte[] rest = new byte[8192];
+                while (in.read(rest) >= 0) { }
+                record(c, key, hex(md.digest()));
+                c.commit();
+                return true;
+            } catch (SQLException | IOException | RuntimeException e) {
+                c.rollback();
+                throw e;
             }
         } catch (IOException | SQLException e) {
-            throw new RuntimeException(e);
+            throw new RuntimeException("Seed da " + source + " non riuscito: " + e.getMessage(), e);
+        }
+    }
+
+    private static String recordedChecksum(Connection c, String key) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT checksum FROM seed_state WHERE source = ?")) {
+            ps.setString(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static void record(Connection c, String key, String checksum) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT OR REPLACE INTO seed_state(source,checksum,appliedAt) VALUES (?,?,?)")) {
+            ps.setString(1, key);
+            ps.setString(2, checksum);
+            ps.setString(3, java.time.LocalDateTime.now().toString());
+            ps.executeUpdate();
+        }
+    }
+
+    private void runScript(Connection c, Reader script) throws IOException, SQLException {
+        try (SqlScriptReader in = new SqlScriptReader(script);
+             Statement s = c.createStatement()) {
+            int pending = 0, executed = 0;
+            String stmt;
+            while ((stmt = in.next()) != null) {
+                // la transazione è già aperta qui: quelle dello script sono ignorate
+                if (isTransactionControl(stmt)) continue;
+                s.addBatch(stmt);
+                if (++pending == SEED_BATCH) {
+                    executeBatch(s, executed, pending);
+                    executed += pending;
+                    pending = 0;
+                }
+            }
+            if (pending > 0) executeBatch(s, executed, pending);
+        }
+    }
+
+    private static void executeBatch(Statement s, int executed, int pending) throws SQLException {
+        try {
+            s.executeBatch();
+        } catch (SQLException e) {
+            throw new SQLException("Errore tra le istruzioni " + (executed + 1) + " e " + (executed + pending)
+                + " dello script: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isTransactionControl(String stmt) {
+        String upper = stmt.toUpperCase(java.util.Locale.ROOT);
+        return upper.equals("BEGIN") || upper.startsWith("BEGIN ") || upper.equals("COMMIT") || upper.startsWith("COMMIT ")
+            || upper.equals("END") || upper.startsWith("END ");
+    }
+
+    private boolean isEmpty(Connection c) throws SQLException {
+        try (Statement s = c.createStatement(); ResultSet rs = s.executeQuery("SELECT 1 FROM books LIMIT 1")) {
+            return !rs.next();
+        }
+    }
+
+    private void upsertAll(Connection c, List<Book> books) throws SQLException {
+        upsertAll(c, books.iterator());
+    }
+
+    // a blocchi di SEED_BATCH, così un import in streaming non accumula tutto il batch JDBC
+    private void upsertAll(Connection c, java.util.Iterator<Book> books) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(UPSERT)) {
+            int pending = 0;
+            while (books.hasNext()) {
+                bind(ps, books.next());
+                ps.addBatch();
+                if (++pending == SEED_BATCH) {
+                    ps.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) ps.executeBatch();
+        }
+    }
+
+    // SHA-256 del contenuto, letto a blocchi
+    private static String checksum(Path file) throws IOException {
+        java.security.MessageDigest md = sha256();
+        byte[] buf = new byte[64 * 1024];
+        try (java.io.InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
         }
+        return hex(md.digest());
+    }
+
+    private static java.security.MessageDigest sha256() {
+        try {
+            return java.security.MessageDigest.getInstance("SHA-256");
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest) hex.append(String.format("%02x", b));
+        return hex.toString();
     }
 }
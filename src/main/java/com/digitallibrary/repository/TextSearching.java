@@ -0,0 +1,45 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Repository di libri con un indice full-text proprio (es. FTS5 per SQLite): BookService
+ * vi delega le ricerche invece di scorrere l'intero catalogo in Java.
+ * <p>
+ * La ricerca è per parole: ogni termine della query deve essere il prefisso di una parola
+ * del campo, senza distinzione tra maiuscole, minuscole e accenti; i risultati sono
+ * ordinati per rilevanza.
+ */
+public interface TextSearching {
+
+    /** false se l'indice non è utilizzabile (es. driver senza FTS5): il chiamante ripiega sulla scansione. */
+    boolean isTextSearchAvailable();
+
+    /**
+     * Libri con tutti i termini di {@code query} nel titolo.
+     * @param limit numero massimo di risultati, 0 per nessun limite
+     */
+    List<Book> searchTitle(String query, int limit);
+
+    /** Come {@link #searchTitle}, con i termini cercati in titolo e autore; il titolo pesa di più. */
+    List<Book> searchText(String query, int limit);
+
+    /** Termini di ricerca: sequenze di lettere e cifre, in minuscolo; vuoto se non ce ne sono. */
+    static List<String> terms(String query) {
+        List<String> out = new ArrayList<>();
+        if (query == null) return out;
+        int start = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            boolean word = i < query.length() && Character.isLetterOrDigit(query.charAt(i));
+            if (word && start < 0) start = i;
+            if (!word && start >= 0) {
+                out.add(query.substring(start, i).toLowerCase(java.util.Locale.ROOT));
+                start = -1;
+            }
+        }
+        return out;
+    }
+}
@@ -1,13 +1,50 @@
 package com.digitallibrary.repository;
 
 import com.digitallibrary.model.User;
+import com.digitallibrary.model.UserSummary;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public interface UserRepository {
     User save(User user);
     Optional<User> findById(String id);
     List<User> findAll();
     boolean deleteById(String id);
+
+    /**
+     * Utente con l'email indicata, confrontata senza spazi ai bordi e senza distinzione
+     * tra maiuscole e minuscole. Le implementazioni la risolvono con un indice, e save
+     * rifiuta con {@link DuplicateEmailException} un'email già usata da un altro utente.
+     */
+    Optional<User> findByEmail(String email);
+
+    // Lettura in streaming, da chiudere dopo l'uso; di default è la lista di findAll()
+    default Stream<User> streamAll() {
+        return findAll().stream();
+    }
+
+    // Nomi degli utenti indicati (id -> nome); gli id inesistenti sono omessi
+    default Map<String, String> findNames(Collection<String> ids) {
+        Set<String> wanted = new HashSet<>(ids);
+        Map<String, String> names = new HashMap<>();
+        try (Stream<User> all = streamAll()) {
+            all.filter(u -> wanted.contains(u.getId())).forEach(u -> names.put(u.getId(), u.getName()));
+        }
+        return names;
+    }
+
+    // Id, nome ed email di tutti gli utenti, per le viste elenco
+    default List<UserSummary> findSummaries() {
+        try (Stream<User> all = streamAll()) {
+            return all.map(UserSummary::of).collect(Collectors.toList());
+        }
+    }
 }
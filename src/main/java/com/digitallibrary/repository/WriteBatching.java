@@ -0,0 +1,40 @@
+package com.digitallibrary.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Repository capace di accumulare le scritture del thread corrente e renderle
+ * persistenti con una sola scrittura su disco (es. i repository su file JSON,
+ * che altrimenti riscrivono l'intero file a ogni save).
+ * Durante un batch le letture dello stesso thread vedono le modifiche non ancora scritte.
+ */
+public interface WriteBatching {
+
+    /** Inizia ad accumulare le scritture del thread corrente. */
+    void beginBatch();
+
+    /**
+     * Termina il batch del thread corrente.
+     * @param flush true per scrivere le modifiche accumulate, false per scartarle
+     */
+    void endBatch(boolean flush);
+
+    /**
+     * Scrive le modifiche accumulate e continua il batch, per rendere persistenti
+     * a intervalli i batch lunghi. Di default termina il batch e ne inizia uno nuovo.
+     */
+    default void flushBatch() {
+        endBatch(true);
+        beginBatch();
+    }
+
+    /** I repository tra quelli indicati che supportano le scritture a batch. */
+    static List<WriteBatching> of(Object... repositories) {
+        List<WriteBatching> out = new ArrayList<>();
+        for (Object r : repositories) {
+            if (r instanceof WriteBatching) out.add((WriteBatching) r);
+        }
+        return out;
+    }
+}
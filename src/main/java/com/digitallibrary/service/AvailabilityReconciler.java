@@ -0,0 +1,208 @@
+package com.digitallibrary.service;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Loan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Disponibilità dei libri derivata dai prestiti aperti: un libro è disponibile se e solo se
+ * non ha prestiti senza data di restituzione.
+ * <p>
+ * Il conteggio dei prestiti aperti per libro è costruito con una lettura dei prestiti
+ * ({@link #rebuild}) e poi aggiornato dagli eventi di {@link LoanService} e dalle modifiche
+ * esterne al file dei prestiti. Ogni evento segna il libro da verificare: poco dopo, su un thread
+ * a parte, il flag available salvato viene corretto se non corrisponde al conteggio. Nel caso
+ * comune chi ha creato o chiuso il prestito ha già aggiornato il libro e non si scrive nulla.
+ * <p>
+ * {@link #verify} confronta l'intero catalogo con i conteggi in una scansione parallela,
+ * con costo proporzionale ai libri e non a libri × prestiti.
+ */
+public class AvailabilityReconciler implements LoanService.Listener {
+
+    // attesa prima di verificare i libri segnati, così da raccogliere gli eventi vicini
+    private static final long REPAIR_DELAY_MS = 50;
+
+    private final BookService books;
+    // prestiti aperti: id prestito -> id libro; le due mappe cambiano insieme sotto il lock dell'oggetto
+    private final Map<String, String> openLoans = new HashMap<>();
+    private final Map<String, Integer> openByBook = new ConcurrentHashMap<>();
+    // libri da verificare
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final ScheduledExecutorService repairer;
+    private volatile boolean autoRepair = true;
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder repairs = new LongAdder();
+    private volatile Map<String, Object> lastVerify;
+    // false finché il primo rebuild non è finito: prima i conteggi non dicono nulla
+    private volatile boolean ready;
+
+    public AvailabilityReconciler(BookService books) {
+        this.books = books;
+        this.repairer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "availability-repair");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Con false gli eventi aggiornano solo i conteggi, senza correggere i libri in background
+     * (es. durante uno script --batch, le cui scritture non sono visibili dagli altri thread).
+     */
+    public void setAutoRepair(boolean autoRepair) {
+        this.autoRepair = autoRepair;
+    }
+
+    /** Ricostruisce i conteggi da tutti i prestiti; gli eventi concorrenti attendono la fine. */
+    public synchronized void rebuild(Stream<Loan> loans) {
+        openLoans.clear();
+        openByBook.clear();
+        loans.forEach(this::track);
+        ready = true;
+    }
+
+    /** true dopo il primo {@link #rebuild}: da lì in poi verify e repair sono attendibili. */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /** Prestiti aperti del libro. */
+    public int openLoans(String bookId) {
+        return openByBook.getOrDefault(bookId, 0);
+    }
+
+    /** Disponibilità derivata dai prestiti aperti. */
+    public boolean isAvailable(String bookId) {
+        return openLoans(bookId) == 0;
+    }
+
+    @Override
+    public void loanSaved(Loan loan) {
+        String previousBook;
+        synchronized (this) {
+            previousBook = track(loan);
+        }
+        changed(previousBook, loan.getBookId());
+    }
+
+    @Override
+    public void loanDeleted(String loanId) {
+        String previousBook;
+        synchronized (this) {
+            previousBook = untrack(loanId);
+        }
+        changed(previousBook, null);
+    }
+
+    /** Modifiche esterne al file dei prestiti (--watch): prestiti aggiunti o aggiornati e id rimossi. */
+    public void loansChanged(List<Loan> savedLoans, List<String> removedIds) {
+        for (Loan l : savedLoans) loanSaved(l);
+        for (String id : removedIds) loanDeleted(id);
+    }
+
+    // aggiorna i conteggi con lo stato corrente del prestito; restituisce il libro a cui era legato se aperto
+    private String track(Loan loan) {
+        String previous = untrack(loan.getId());
+        if (loan.getReturnedAt() == null && loan.getBookId() != null) {
+            openLoans.put(loan.getId(), loan.getBookId());
+            openByBook.merge(loan.getBookId(), 1, Integer::sum);
+        }
+        return previous;
+    }
+
+    private String untrack(String loanId) {
+        String bookId = openLoans.remove(loanId);
+        if (bookId != null) openByBook.computeIfPresent(bookId, (k, n) -> n > 1 ? n - 1 : null);
+        return bookId;
+    }
+
+    private void changed(String previousBook, String bookId) {
+        events.increment();
+        if (!autoRepair) return;
+        if (previousBook != null) dirty.add(previousBook);
+        if (bookId != null) dirty.add(bookId);
+        if (!dirty.isEmpty() && scheduled.compareAndSet(false, true)) {
+            repairer.schedule(this::repairPending, REPAIR_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Verifica subito i libri segnati dagli eventi, correggendo quelli non allineati. */
+    public void repairPending() {
+        scheduled.set(false);
+        for (String id : new ArrayList<>(dirty)) {
+            dirty.remove(id);
+            try {
+                repair(id);
+            } catch (RuntimeException e) {
+                System.out.println("Riconciliazione disponibilità non riuscita per " + id + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Allinea il flag available del libro ai prestiti aperti, sotto {@link BookService#lockFor}
+     * come le altre scritture sul libro. Prima del primo rebuild non fa nulla.
+     * @return true se il libro è stato corretto
+     */
+    public boolean repair(String bookId) {
+        if (!ready) return false;
+        synchronized (books.lockFor(bookId)) {
+            Optional<Book> found = books.getBookById(bookId);
+            if (found.isEmpty()) return false;
+            Book b = found.get();
+            boolean available = isAvailable(bookId);
+            if (b.isAvailable() == available) return false;
+            b.setAvailable(available);
+            books.updateBook(b);
+        }
+        repairs.increment();
+        return true;
+    }
+
+    /**
+     * Libri il cui flag available non corrisponde ai prestiti aperti, trovati con una scansione parallela del catalogo.
+     * @param repair true per correggerli
+     */
+    public List<Book> verify(boolean repair) {
+        long t0 = System.nanoTime();
+        List<Book> drift = books.matching(b -> b.isAvailable() != isAvailable(b.getId()));
+        int repaired = 0;
+        if (repair) {
+            for (Book b : drift) if (repair(b.getId())) repaired++;
+        }
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("drifted", drift.size());
+        m.put("repaired", repaired);
+        m.put("ms", (System.nanoTime() - t0) / 1_000_000);
+        lastVerify = m;
+        return drift;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("openLoans", openLoans.size());
+        m.put("booksOnLoan", openByBook.size());
+        m.put("events", events.sum());
+        m.put("repairs", repairs.sum());
+        m.put("pending", dirty.size());
+        m.put("ready", ready);
+        if (lastVerify != null) m.put("lastVerify", lastVerify);
+        return m;
+    }
+}
@@ -0,0 +1,303 @@
+package com.digitallibrary.service;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.model.Loan;
+import com.digitallibrary.model.User;
+import com.digitallibrary.repository.WriteBatching;
+import com.digitallibrary.util.IdGenerator;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Esecuzione di più operazioni (nuovo libro, nuovo utente, prestito, restituzione)
+ * in una sola richiesta. Le scritture sui repository che supportano {@link WriteBatching}
+ * sono rese persistenti con una sola scrittura alla fine del batch.
+ * In modalità atomica il primo errore annulla le operazioni già eseguite
+ * (con operazioni inverse, valide per qualsiasi backend) e salta le successive.
+ *
+ * Un parametro stringa nella forma "$N" è sostituito con l'id prodotto dall'operazione N
+ * (contando da 1, come le righe degli script di {@code ScriptRunner}),
+ * così ad esempio si può prestare un libro creato nello stesso batch.
+ */
+public class BatchService {
+
+    /** Numero massimo di operazioni per batch. */
+    public static final int MAX_OPERATIONS = 500;
+
+    private final BookService bookService;
+    private final UserService userService;
+    private final LoanService loanService;
+    private final List<WriteBatching> participants;
+
+    public BatchService(BookService bookService, UserService userService, LoanService loanService,
+                        List<WriteBatching> participants) {
+        this.bookService = bookService;
+        this.userService = userService;
+        this.loanService = loanService;
+        this.participants = participants;
+    }
+
+    /** Operazione richiesta: tipo (createBook, registerUser, checkout, return) e parametri. */
+    public static final class Operation {
+        private final String op;
+        private final Map<String, Object> params;
+
+        public Operation(String op, Map<String, Object> params) {
+            this.op = op;
+            this.params = params != null ? params : Collections.emptyMap();
+        }
+
+        public String getOp() { return op; }
+        public Map<String, Object> getParams() { return params; }
+    }
+
+    /** Esito di una singola operazione, con codice di stato in stile HTTP. */
+    public static final class Result {
+        // posizione dell'operazione nel batch, da 1 come i riferimenti "$N"
+        private final int index;
+        private final String op;
+        private int status;
+        private Object result;
+        private String error;
+        private boolean rolledBack;
+
+        Result(int index, String op) {
+            this.index = index;
+            this.op = op;
+        }
+
+        public int getIndex() { return index; }
+        public String getOp() { return op; }
+        public int getStatus() { return status; }
+        public Object getResult() { return result; }
+        public String getError() { return error; }
+        public boolean isRolledBack() { return rolledBack; }
+        public boolean isOk() { return status >= 200 && status < 300; }
+    }
+
+    /** Esito dell'intero batch. */
+    public static final class Outcome {
+        private final boolean atomic;
+        private final boolean committed;
+        private final List<Result> results;
+
+        Outcome(boolean atomic, boolean committed, List<Result> results) {
+            this.atomic = atomic;
+            this.committed = committed;
+            this.results = results;
+        }
+
+        public boolean isAtomic() { return atomic; }
+        public boolean isCommitted() { return committed; }
+        public List<Result> getResults() { return results; }
+    }
+
+    /** Errore di un'operazione con il relativo codice di stato. */
+    private static final class OperationException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        OperationException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Esegue le operazioni in ordine. I batch sono serializzati fra loro: ciascuno lavora sulla
+     * propria copia dei dati e non vedrebbe le scritture di un altro batch in corso.
+     */
+    public synchronized Outcome execute(List<Operation> operations, boolean atomic) {
+        if (operations == null || operations.isEmpty()) throw new IllegalArgumentException("Nessuna operazione nel batch");
+        if (operations.size() > MAX_OPERATIONS) {
+            throw new IllegalArgumentException("Troppe operazioni nel batch (massimo " + MAX_OPERATIONS + ")");
+        }
+        List<Result> results = new ArrayList<>(operations.size());
+        List<String> ids = new ArrayList<>(operations.size());
+        Deque<Runnable> undo = new ArrayDeque<>();
+        boolean failed = false;
+
+        for (WriteBatching w : participants) w.beginBatch();
+        boolean flushed = false;
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                Operation op = operations.get(i);
+                Result r = new Result(i + 1, op.getOp());
+                results.add(r);
+                if (failed && atomic) {
+                    r.status = 424;
+                    r.error = "Non eseguita: operazione precedente fallita";
+                    ids.add(null);
+                    continue;
+                }
+                int undoMark = undo.size();
+                try {
+                    r.result = apply(op, ids, undo, r);
+                    ids.add(idOf(r.result));
+                } catch (OperationException e) {
+                    fail(r, e.status, e.getMessage(), ids);
+                    failed = true;
+                } catch (IllegalArgumentException e) {
+                    fail(r, 400, e.getMessage(), ids);
+                    failed = true;
+                }
+                // un'operazione fallita a metà annulla subito la propria parte già eseguita
+                if (!r.isOk()) {
+                    while (undo.size() > undoMark) undo.pop().run();
+                }
+            }
+            if (failed && atomic) {
+                while (!undo.isEmpty()) undo.pop().run();
+                for (Result r : results) {
+                    if (r.isOk()) r.rolledBack = true;
+                }
+            }
+            flushed = true;
+        } finally {
+            // un batch atomico annullato non ha nulla da scrivere
+            boolean flush = flushed && !(failed && atomic);
+            endBatches(flush);
+        }
+        return new Outcome(atomic, !(failed && atomic), results);
+    }
+
+    // chiude il batch di tutti i repository anche se la scrittura di uno fallisce, poi rilancia il primo errore
+    private void endBatches(boolean flush) {
+        RuntimeException failure = null;
+        for (WriteBatching w : participants) {
+            try {
+                w.endBatch(flush);
+            } catch (RuntimeException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private static void fail(Result r, int status, String message, List<String> ids) {
+        r.status = status;
+        r.error = message;
+        r.result = null;
+        ids.add(null);
+    }
+
+    private Object apply(Operation op, List<String> ids, Deque<Runnable> undo, Result r) {
+        Map<String, Object> p = op.getParams();
+        String type = op.getOp() == null ? "" : op.getOp();
+        switch (type) {
+            case "createBook": {
+                // i setter validano i campi come nella console
+                String isbn = text(p, "isbn", ids);
+                Book.validateIsbnStatic(isbn);
+                Book b = new Book();
+                b.setId(IdGenerator.generate());
+                b.setTitle(text(p, "title", ids));
+                b.setAuthor(text(p, "author", ids));
+                b.setGenre(Genre.fromDisplayName(text(p, "genre", ids)));
+                b.setPublicationYear(number(p, "publicationYear", 0));
+                b.setIsbn(isbn);
+                bookService.addBook(b);
+                undo.push(() -> bookService.deleteBook(b.getId()));
+                r.status = 201;
+                return b;
+            }
+            case "registerUser": {
+                String name = text(p, "name", ids);
+                if (name.trim().isEmpty()) throw new IllegalArgumentException("Nome utente non può essere vuoto");
+                User u = new User(IdGenerator.generate(), name, text(p, "email", ids));
+                try {
+                    userService.register(u);
+                } catch (com.digitallibrary.repository.DuplicateEmailException e) {
+                    throw new OperationException(409, e.getMessage());
+                }
+                undo.push(() -> userService.delete(u.getId()));
+                r.status = 201;
+                return u;
+            }
+            case "checkout": {
+                String bookId = text(p, "bookId", ids);
+                String userId = text(p, "userId", ids);
+                if (!userService.findById(userId).isPresent()) throw new OperationException(404, "Utente non trovato: " + userId);
+                int days = number(p, "days", 14);
+                // verifica e scrittura sotto il lock del libro, come le altre scritture sul libro
+                synchronized (bookService.lockFor(bookId)) {
+                    Book b = bookService.getBookById(bookId)
+                        .orElseThrow(() -> new OperationException(404, "Libro non trovato: " + bookId));
+                    // anche i prestiti aperti: il flag del libro letto nel batch può precedere un prestito appena fatto
+                    boolean lent = !b.isAvailable()
+                        || loanService.findByBookId(bookId).stream().anyMatch(l -> l.getReturnedAt() == null);
+                    if (lent) throw new OperationException(409, "Libro già in prestito: " + b.getTitle());
+                    Loan loan = new Loan(IdGenerator.generate(), bookId, userId, LocalDateTime.now().plusDays(days));
+                    loanService.createLoan(loan);
+                    undo.push(() -> loanService.delete(loan.getId()));
+                    b.setAvailable(false);
+                    bookService.updateBook(b);
+                    undo.push(() -> bookService.setAvailable(bookId, true));
+                    r.status = 201;
+                    return loan;
+                }
+            }
+            case "return": {
+                String loanId = text(p, "loanId", ids);
+                String bookId = loanService.findById(loanId)
+                    .orElseThrow(() -> new OperationException(404, "Prestito non trovato: " + loanId)).getBookId();
+                // il prestito si rilegge sotto il lock del libro: una restituzione concorrente lo trova già chiuso
+                synchronized (bookService.lockFor(bookId)) {
+                    Loan loan = loanService.findById(loanId)
+                        .orElseThrow(() -> new OperationException(404, "Prestito non trovato: " + loanId));
+                    if (loan.getReturnedAt() != null) throw new OperationException(409, "Prestito già restituito: " + loanId);
+                    loanService.markReturned(loanId);
+                    undo.push(() -> { loan.setReturnedAt(null); loanService.updateLoan(loan); });
+                    if (bookService.setAvailable(bookId, true)) undo.push(() -> bookService.setAvailable(bookId, false));
+                    r.status = 200;
+                    return loanService.findById(loanId).orElse(loan);
+                }
+            }
+            default:
+                throw new OperationException(400, "Operazione sconosciuta: " + type);
+        }
+    }
+
+    private static String idOf(Object o) {
+        if (o instanceof Book) return ((Book) o).getId();
+        if (o instanceof User) return ((User) o).getId();
+        if (o instanceof Loan) return ((Loan) o).getId();
+        return null;
+    }
+
+    // parametro stringa, con risoluzione dei riferimenti "$N" agli id delle operazioni precedenti
+    private static String text(Map<String, Object> p, String key, List<String> ids) {
+        Object v = p.get(key);
+        if (v == null) return "";
+        String s = v.toString();
+        if (s.length() > 1 && s.charAt(0) == '$') {
+            int ref;
+            try {
+                ref = Integer.parseInt(s.substring(1));
+            } catch (NumberFormatException e) {
+                return s;
+            }
+            if (ref < 1 || ref > ids.size() || ids.get(ref - 1) == null) {
+                throw new OperationException(424, "Riferimento non risolto: " + s);
+            }
+            return ids.get(ref - 1);
+        }
+        return s;
+    }
+
+    private static int number(Map<String, Object> p, String key, int def) {
+        Object v = p.get(key);
+        if (v instanceof Number) return ((Number) v).intValue();
+        if (v instanceof String && !((String) v).isEmpty()) {
+            try {
+                return Integer.parseInt((String) v);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Valore numerico non valido per " + key + ": " + v);
+            }
+        }
+        return def;
+    }
+}
@@ -1,24 +1,57 @@
 package com.digitallibrary.service;
 
 import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookSummary;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.repository.BookQuery;
 import com.digitallibrary.repository.BookRepository;
+import com.digitallibrary.repository.TextSearching;
+import com.digitallibrary.util.ParallelScan;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public class BookService {
 
     private final BookRepository repository;
+    // filtri e aggregazioni sull'intero catalogo passano dal motore di scansione parallela
+    private final ParallelScan scanner;
+    // monitor per le sequenze leggi-modifica-salva su un libro, a strisce per id
+    private final Object[] bookLocks = new Object[64];
 
     public BookService(BookRepository repository) {
+        this(repository, ParallelScan.shared());
+    }
+
+    public BookService(BookRepository repository, ParallelScan scanner) {
         this.repository = repository;
+        this.scanner = scanner;
+        for (int i = 0; i < bookLocks.length; i++) bookLocks[i] = new Object();
+    }
+
+    /**
+     * Monitor da tenere mentre si legge, modifica e salva il libro, così due scritture sullo
+     * stesso libro (API REST, riconciliazione della disponibilità) non si sovrascrivono.
+     * Id diversi possono condividere il monitor: non annidare due lock di libri.
+     */
+    public Object lockFor(String bookId) {
+        return bookLocks[Math.floorMod(Objects.hashCode(bookId), bookLocks.length)];
     }
 
     public Book addBook(Book book) {
         Objects.requireNonNull(book, "book non può essere null");
+        Optional<Book> sameIsbn = repository.findByIsbn(book.getIsbn());
+        if (sameIsbn.isPresent() && !sameIsbn.get().getId().equals(book.getId())) {
+            throw new IllegalArgumentException("ISBN già presente nel catalogo: " + book.getIsbn());
+        }
         return repository.save(book);
     }
 
+    public Optional<Book> findByIsbn(String isbn) {
+        return repository.findByIsbn(isbn);
+    }
+
     public Optional<Book> getBookById(String id) {
         return repository.findById(id);
     }
@@ -27,31 +60,112 @@ public class BookService {
         return repository.findAll();
     }
 
+    // Elenco in streaming, da chiudere dopo l'uso
+    public Stream<Book> streamAll() {
+        return repository.streamAll();
+    }
+
+    // Proiezioni per le viste elenco
+    public List<BookSummary> listSummaries() {
+        return repository.findSummaries();
+    }
+
+    public Map<String, String> titlesById(Collection<String> ids) {
+        return repository.findTitles(ids);
+    }
+
     public Book updateBook(Book book) {
         return repository.update(book);
     }
 
+    /**
+     * Imposta la disponibilità del libro sotto {@link #lockFor}, rileggendolo dentro il lock.
+     * @return false se il libro non esiste
+     */
+    public boolean setAvailable(String bookId, boolean available) {
+        synchronized (lockFor(bookId)) {
+            Optional<Book> found = repository.findById(bookId);
+            if (found.isEmpty()) return false;
+            Book b = found.get();
+            if (b.isAvailable() != available) {
+                b.setAvailable(available);
+                repository.update(b);
+            }
+            return true;
+        }
+    }
+
     public boolean deleteBook(String id) {
         return repository.deleteById(id);
     }
 
-    // Ricerca semplice per titolo (case-insensitive)
+    // Ricerca semplice per titolo (case-insensitive); con un indice full-text nel repository
+    // la ricerca è per prefissi di parola e ordinata per rilevanza
     public List<Book> searchByTitle(String q) {
         if (q == null || q.trim().isEmpty()) return Collections.emptyList();
+        TextSearching index = textIndex();
+        if (index != null) return index.searchTitle(q, 0);
+        String term = q.trim().toLowerCase();
+        return select(b -> b.getTitle() != null && b.getTitle().toLowerCase().contains(term));
+    }
+
+    // Ricerca su titolo e autore, come searchByTitle
+    public List<Book> search(String q) {
+        if (q == null || q.trim().isEmpty()) return Collections.emptyList();
+        TextSearching index = textIndex();
+        if (index != null) return index.searchText(q, 0);
         String term = q.trim().toLowerCase();
-        return repository.findAll().stream()
-            .filter(b -> b.getTitle() != null && b.getTitle().toLowerCase().contains(term))
-            .collect(Collectors.toList());
+        return select(b -> (b.getTitle() != null && b.getTitle().toLowerCase().contains(term))
+            || (b.getAuthor() != null && b.getAuthor().toLowerCase().contains(term)));
+    }
+
+    private TextSearching textIndex() {
+        if (repository instanceof TextSearching && ((TextSearching) repository).isTextSearchAvailable()) {
+            return (TextSearching) repository;
+        }
+        return null;
     }
 
     // Filtri combinati
     public List<Book> filter(Optional<String> author, Optional<String> genre, Optional<Integer> year) {
-        return repository.findAll().stream().filter(b -> {
-            if (author.isPresent() && (b.getAuthor() == null || !b.getAuthor().equalsIgnoreCase(author.get()))) return false;
-            if (genre.isPresent() && (b.getGenre() == null || !b.getGenre().getDisplayName().equalsIgnoreCase(genre.get()))) return false;
-            if (year.isPresent() && b.getPublicationYear() != year.get()) return false;
-            return true;
-        }).collect(Collectors.toList());
+        BookQuery q = BookQuery.all();
+        author.ifPresent(q::author);
+        if (genre.isPresent()) {
+            // un nome sconosciuto non corrisponde ad alcun libro (fromDisplayName ripiegherebbe su "Altro")
+            Optional<Genre> g = Genre.find(genre.get());
+            if (g.isEmpty()) return new ArrayList<>();
+            q.genre(g.get());
+        }
+        year.ifPresent(q::year);
+        return query(q);
+    }
+
+    // Filtri, ordinamento e limite: il repository li esegue con i propri indici se può
+    public List<Book> query(BookQuery q) {
+        return repository.query(q);
+    }
+
+    // Libri che soddisfano un predicato qualsiasi, con la scansione parallela
+    public List<Book> matching(Predicate<Book> predicate) {
+        return select(predicate);
+    }
+
+    // Libri in prestito (non disponibili)
+    public List<Book> listUnavailable() {
+        return select(b -> !b.isAvailable());
+    }
+
+    // Numero di libri per genere (chiave null per i libri senza genere)
+    public Map<Genre, Long> countByGenre() {
+        return repository.scan(s -> scanner.countBy(s, Book::getGenre));
+    }
+
+    public long countAvailable() {
+        return repository.scan(s -> scanner.count(s, Book::isAvailable));
+    }
+
+    private List<Book> select(Predicate<Book> predicate) {
+        return repository.scan(s -> scanner.filter(s, predicate));
     }
 
 }
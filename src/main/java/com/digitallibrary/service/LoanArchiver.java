@@ -0,0 +1,129 @@
+package com.digitallibrary.service;
+
+import com.digitallibrary.model.Loan;
+import com.digitallibrary.repository.LoanArchive;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sposta nell'{@link LoanArchive} i prestiti restituiti da più di {@code maxAge}, così l'archivio
+ * dei prestiti attivi resta piccolo e le sue letture non crescono con lo storico.
+ * <p>
+ * I prestiti sono prima scritti nell'archivio e poi rimossi dall'archivio attivo: un'interruzione
+ * a metà lascia al più dei doppioni, che lo storico scarta e la volta successiva sostituisce.
+ * Lo storico ({@link #history}) unisce i prestiti restituiti ancora attivi e quelli archiviati.
+ */
+public class LoanArchiver {
+
+    private final LoanService loans;
+    private final LoanArchive archive;
+    private final Duration maxAge;
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder moved = new LongAdder();
+    private volatile long lastRunMs = -1;
+    private volatile String lastError;
+
+    public LoanArchiver(LoanService loans, LoanArchive archive, Duration maxAge) {
+        if (maxAge.isNegative()) throw new IllegalArgumentException("maxAge non può essere negativa");
+        this.loans = loans;
+        this.archive = archive;
+        this.maxAge = maxAge;
+    }
+
+    /** Archivia ora e poi ogni {@code periodMs} su un thread demone. */
+    public synchronized void start(long periodMs) {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "loan-archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                archiveNow();
+            } catch (IOException | RuntimeException e) {
+                lastError = e.getMessage();
+                System.out.println("Archiviazione prestiti non riuscita: " + e.getMessage());
+            }
+        }, 0, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Sposta nell'archivio i prestiti restituiti prima di adesso meno {@code maxAge}; restituisce quanti. */
+    public synchronized int archiveNow() throws IOException {
+        long t0 = System.nanoTime();
+        LocalDateTime cutoff = LocalDateTime.now().minus(maxAge);
+        List<Loan> old;
+        try (Stream<Loan> all = loans.streamAll()) {
+            old = all.filter(l -> l.getReturnedAt() != null && l.getReturnedAt().isBefore(cutoff)).collect(Collectors.toList());
+        }
+        int removed = 0;
+        if (!old.isEmpty()) {
+            archive.append(old);
+            Map<String, Loan> archived = new HashMap<>();
+            for (Loan l : old) archived.put(l.getId(), l);
+            // si rimuove solo chi è rimasto uguale alla copia archiviata: un prestito modificato nel frattempo
+            // resta attivo e la prossima archiviazione ne sostituisce la copia
+            removed = loans.deleteIf(archived.keySet(), l -> sameLoan(archived.get(l.getId()), l)).size();
+            moved.add(removed);
+        }
+        runs.increment();
+        lastRunMs = (System.nanoTime() - t0) / 1_000_000;
+        lastError = null;
+        return removed;
+    }
+
+    private static boolean sameLoan(Loan a, Loan b) {
+        return a != null && Objects.equals(a.getBookId(), b.getBookId()) && Objects.equals(a.getUserId(), b.getUserId())
+            && Objects.equals(a.getLoanedAt(), b.getLoanedAt()) && Objects.equals(a.getDueAt(), b.getDueAt())
+            && Objects.equals(a.getReturnedAt(), b.getReturnedAt());
+    }
+
+    /**
+     * Prestiti restituiti nell'intervallo [from, to), attivi e archiviati, filtrati per utente
+     * e libro se indicati, in ordine di restituzione. Si leggono solo i segmenti dei mesi richiesti.
+     */
+    public List<Loan> history(LocalDateTime from, LocalDateTime to, String userId, String bookId) throws IOException {
+        Predicate<Loan> filter = l -> (userId == null || Objects.equals(l.getUserId(), userId))
+            && (bookId == null || Objects.equals(l.getBookId(), bookId));
+        Map<String, Loan> byId = new LinkedHashMap<>();
+        for (Loan l : archive.find(from, to, filter)) byId.put(l.getId(), l);
+        try (Stream<Loan> all = loans.streamAll()) {
+            all.filter(l -> l.getReturnedAt() != null)
+                .filter(l -> from == null || !l.getReturnedAt().isBefore(from))
+                .filter(l -> to == null || l.getReturnedAt().isBefore(to))
+                .filter(filter)
+                .forEach(l -> byId.put(l.getId(), l));
+        }
+        List<Loan> out = new ArrayList<>(byId.values());
+        out.sort((a, b) -> a.getReturnedAt().compareTo(b.getReturnedAt()));
+        return out;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("maxAgeDays", maxAge.toDays());
+        m.put("runs", runs.sum());
+        m.put("moved", moved.sum());
+        m.put("lastRunMs", lastRunMs);
+        if (lastError != null) m.put("lastError", lastError);
+        m.put("archive", archive.stats());
+        return m;
+    }
+}
@@ -4,33 +4,67 @@ import com.digitallibrary.model.Loan;
 import com.digitallibrary.repository.LoanRepository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public class LoanService {
     private final LoanRepository repo;
+    private final List<Listener> listeners = new java.util.concurrent.CopyOnWriteArrayList<>();
+
+    /** Notificato dopo ogni scrittura di un prestito, sul thread che l'ha eseguita. */
+    public interface Listener {
+        void loanSaved(Loan loan);
+        void loanDeleted(String loanId);
+    }
 
     public LoanService(LoanRepository repo) {
         this.repo = repo;
     }
 
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
     public Loan createLoan(Loan loan) {
         loan.setLoanedAt(LocalDateTime.now());
-        return repo.save(loan);
+        return saved(repo.save(loan));
     }
 
     public Optional<Loan> findById(String id) { return repo.findById(id); }
     public List<Loan> listAll() { return repo.findAll(); }
+    // elenco in streaming, da chiudere dopo l'uso
+    public Stream<Loan> streamAll() { return repo.streamAll(); }
     public List<Loan> findByUserId(String userId) { return repo.findByUserId(userId); }
     public List<Loan> findByBookId(String bookId) { return repo.findByBookId(bookId); }
-    public boolean delete(String id) { return repo.deleteById(id); }
+    public boolean delete(String id) {
+        boolean deleted = repo.deleteById(id);
+        if (deleted) for (Listener l : listeners) l.loanDeleted(id);
+        return deleted;
+    }
+
+    /** Rimuove i prestiti indicati che soddisfano ancora la condizione; i listener ricevono gli id rimossi. */
+    public List<String> deleteIf(Collection<String> ids, Predicate<Loan> condition) {
+        List<String> deleted = repo.deleteIf(ids, condition);
+        for (String id : deleted) for (Listener l : listeners) l.loanDeleted(id);
+        return deleted;
+    }
+
+    public Loan updateLoan(Loan loan) { return saved(repo.save(loan)); }
 
     public Loan markReturned(String loanId) {
         Optional<Loan> opt = repo.findById(loanId);
         if (!opt.isPresent()) throw new IllegalArgumentException("Prestito non trovato");
         Loan l = opt.get();
         l.setReturnedAt(LocalDateTime.now());
-        repo.save(l);
+        saved(repo.save(l));
         return l;
     }
+
+    private Loan saved(Loan loan) {
+        for (Listener l : listeners) l.loanSaved(loan);
+        return loan;
+    }
 }
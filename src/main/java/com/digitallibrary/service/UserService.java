@@ -1,10 +1,14 @@
 package com.digitallibrary.service;
 
 import com.digitallibrary.model.User;
+import com.digitallibrary.model.UserSummary;
 import com.digitallibrary.repository.UserRepository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public class UserService {
     private final UserRepository repo;
@@ -17,14 +21,36 @@ public class UserService {
         return repo.save(user);
     }
 
+    public User update(User user) {
+        return repo.save(user);
+    }
+
     public Optional<User> findById(String id) {
         return repo.findById(id);
     }
 
+    public Optional<User> findByEmail(String email) {
+        return repo.findByEmail(email);
+    }
+
     public List<User> listAll() {
         return repo.findAll();
     }
 
+    // Elenco in streaming, da chiudere dopo l'uso
+    public Stream<User> streamAll() {
+        return repo.streamAll();
+    }
+
+    public Map<String, String> namesById(Collection<String> ids) {
+        return repo.findNames(ids);
+    }
+
+    // Proiezione per la vista elenco
+    public List<UserSummary> listSummaries() {
+        return repo.findSummaries();
+    }
+
     public boolean delete(String id) {
         return repo.deleteById(id);
     }
@@ -0,0 +1,98 @@
+package com.digitallibrary.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro di Bloom per stringhe: risponde "sicuramente assente" o "forse presente".
+ * I k indici sono derivati da un solo hash a 64 bit (doppio hashing di Kirsch-Mitzenmacher).
+ * I bit stanno in un AtomicLongArray: add e mightContain sono thread-safe senza lock.
+ * Non supporta la rimozione: le chiavi cancellate restano "forse presenti" fino alla ricostruzione.
+ */
+public final class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashes;
+    private final long capacity;
+
+    /**
+     * @param expectedEntries numero di chiavi previsto
+     * @param falsePositiveRate probabilità di falso positivo desiderata a pieno carico (0 < p < 1)
+     */
+    public BloomFilter(long expectedEntries, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Probabilità di falso positivo non valida: " + falsePositiveRate);
+        }
+        long n = Math.max(1, expectedEntries);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, (m + 63) & ~63L);
+        this.bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, m >>> 6));
+        this.bitCount = (long) bits.length() << 6;
+        this.hashes = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+        this.capacity = n;
+    }
+
+    public void add(String key) {
+        long h = hash(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            long bit = index(h1 + i * h2);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long cur;
+            while (((cur = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, cur, cur | mask)) {
+                // ritenta: un altro thread ha modificato la stessa parola
+            }
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long h = hash(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            long bit = index(h1 + i * h2);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public int hashCount() {
+        return hashes;
+    }
+
+    public long bitSize() {
+        return bitCount;
+    }
+
+    /** Probabilità teorica di falso positivo con il riempimento attuale: (bit a 1 / m)^k. */
+    public double expectedFalsePositiveRate() {
+        long set = 0;
+        for (int i = 0, n = bits.length(); i < n; i++) set += Long.bitCount(bits.get(i));
+        return Math.pow((double) set / bitCount, hashes);
+    }
+
+    private long index(int combined) {
+        return (combined & 0x7fffffffL) % bitCount;
+    }
+
+    // FNV-1a a 64 bit sui caratteri, seguito dal finalizzatore di MurmurHash3 per distribuire i bit
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, n = key.length(); i < n; i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
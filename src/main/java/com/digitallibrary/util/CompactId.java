@@ -0,0 +1,128 @@
+package com.digitallibrary.util;
+
+/**
+ * Chiave compatta a 128 bit per gli indici in memoria.
+ * Gli id in forma UUID canonica (36 caratteri minuscoli) sono impaccati in due long:
+ * confronto e hash lavorano su due primitivi invece che su una stringa di 36 caratteri.
+ * Gli id in altri formati (es. dati legacy) restano come testo nel campo {@code text}.
+ */
+public final class CompactId implements Comparable<CompactId> {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long hi;
+    private final long lo;
+    private final String text;
+
+    private CompactId(long hi, long lo, String text) {
+        this.hi = hi;
+        this.lo = lo;
+        this.text = text;
+    }
+
+    public static CompactId of(long hi, long lo) {
+        return new CompactId(hi, lo, null);
+    }
+
+    /**
+     * Converte un id testuale nella chiave compatta.
+     * @throws IllegalArgumentException se l'id è null
+     */
+    public static CompactId of(String id) {
+        if (id == null) throw new IllegalArgumentException("ID non può essere null");
+        if (isCanonical(id)) return new CompactId(highBits(id), lowBits(id), null);
+        return new CompactId(0L, 0L, id);
+    }
+
+    public long getHi() { return hi; }
+    public long getLo() { return lo; }
+
+    /** Vero se l'id è impaccato nei due long (forma UUID canonica). */
+    public boolean isPacked() { return text == null; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompactId)) return false;
+        CompactId other = (CompactId) o;
+        if (text != null) return text.equals(other.text);
+        return other.text == null && hi == other.hi && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode() {
+        if (text != null) return text.hashCode();
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Ordine per bit senza segno: per gli id generati da {@link IdGenerator} coincide con l'ordine temporale. */
+    @Override
+    public int compareTo(CompactId o) {
+        if (text != null || o.text != null) return toString().compareTo(o.toString());
+        int c = Long.compareUnsigned(hi, o.hi);
+        return c != 0 ? c : Long.compareUnsigned(lo, o.lo);
+    }
+
+    /** Forma testuale, identica alla stringa da cui è stato costruito. */
+    @Override
+    public String toString() {
+        return text != null ? text : format(hi, lo);
+    }
+
+    // --- helper senza allocazioni per chi impacca gli id in colonne proprie ---
+
+    /** Vero solo per UUID in forma canonica minuscola, così la conversione inversa è esatta. */
+    public static boolean isCanonical(String s) {
+        if (s == null || s.length() != 36) return false;
+        for (int i = 0; i < 36; i++) {
+            char c = s.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') return false;
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 64 bit alti di un UUID canonico (vedi {@link #isCanonical(String)}). */
+    public static long highBits(String s) {
+        return parseHex(s, 0, 8) << 32 | parseHex(s, 9, 13) << 16 | parseHex(s, 14, 18);
+    }
+
+    /** 64 bit bassi di un UUID canonico (vedi {@link #isCanonical(String)}). */
+    public static long lowBits(String s) {
+        return parseHex(s, 19, 23) << 48 | parseHex(s, 24, 36);
+    }
+
+    public static String format(long hi, long lo) {
+        char[] out = new char[36];
+        writeHex(out, 0, hi >>> 32, 8);
+        out[8] = '-';
+        writeHex(out, 9, hi >>> 16, 4);
+        out[13] = '-';
+        writeHex(out, 14, hi, 4);
+        out[18] = '-';
+        writeHex(out, 19, lo >>> 48, 4);
+        out[23] = '-';
+        writeHex(out, 24, lo, 12);
+        return new String(out);
+    }
+
+    private static long parseHex(String s, int from, int to) {
+        long v = 0L;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            v = (v << 4) | (c <= '9' ? c - '0' : c - 'a' + 10);
+        }
+        return v;
+    }
+
+    private static void writeHex(char[] out, int offset, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            out[offset + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+}
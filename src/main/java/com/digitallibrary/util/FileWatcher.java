@@ -0,0 +1,125 @@
+package com.digitallibrary.util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Osservatore di file condiviso, basato su {@link WatchService}, con un solo thread demone.
+ * Le callback sono invocate sul thread dell'osservatore quando il file cambia, dopo una breve
+ * attesa per raggruppare le scritture a più riprese; in assenza di eventi ogni callback è
+ * comunque invocata periodicamente, così un evento perso (overflow) non blocca l'aggiornamento.
+ * Le callback devono quindi essere economiche quando il file non è cambiato.
+ */
+public final class FileWatcher {
+
+    private static final long DEBOUNCE_MS = 100;
+    private static final long POLL_SECONDS = 2;
+
+    private static volatile FileWatcher shared;
+
+    private final WatchService service;
+    private final Map<Path, WatchKey> directories = new ConcurrentHashMap<>();
+    private final Map<Path, List<Runnable>> callbacks = new ConcurrentHashMap<>();
+
+    private FileWatcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        Thread t = new Thread(this::run, "file-watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Istanza condivisa, creata al primo utilizzo. */
+    public static FileWatcher shared() {
+        FileWatcher w = shared;
+        if (w == null) {
+            synchronized (FileWatcher.class) {
+                w = shared;
+                if (w == null) {
+                    try {
+                        shared = w = new FileWatcher();
+                    } catch (IOException e) {
+                        throw new RuntimeException("Impossibile avviare l'osservatore dei file", e);
+                    }
+                }
+            }
+        }
+        return w;
+    }
+
+    /** Registra una callback per il file; restituisce l'azione che la rimuove. */
+    public Runnable watch(Path file, Runnable onChange) {
+        Path abs = file.toAbsolutePath().normalize();
+        Path dir = abs.getParent();
+        directories.computeIfAbsent(dir, d -> {
+            try {
+                return d.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            } catch (IOException e) {
+                // directory non osservabile: resta il controllo periodico
+                return null;
+            }
+        });
+        callbacks.computeIfAbsent(abs, p -> new CopyOnWriteArrayList<>()).add(onChange);
+        return () -> {
+            List<Runnable> list = callbacks.get(abs);
+            if (list != null) list.remove(onChange);
+        };
+    }
+
+    private void run() {
+        while (true) {
+            Set<Path> touched = new HashSet<>();
+            try {
+                WatchKey key = service.poll(POLL_SECONDS, TimeUnit.SECONDS);
+                if (key == null) {
+                    touched.addAll(callbacks.keySet());
+                } else {
+                    // raccoglie anche gli eventi che arrivano durante l'attesa
+                    Thread.sleep(DEBOUNCE_MS);
+                    while (key != null) {
+                        collect(key, touched);
+                        key = service.poll();
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            for (Path p : touched) {
+                List<Runnable> list = callbacks.get(p);
+                if (list == null) continue;
+                for (Runnable r : list) {
+                    try {
+                        r.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> touched) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                touched.addAll(callbacks.keySet());
+            } else {
+                touched.add(dir.resolve((Path) event.context()));
+            }
+        }
+        key.reset();
+    }
+}
@@ -1,9 +1,27 @@
 package com.digitallibrary.util;
 
-import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Genera id in formato UUIDv7: 48 bit di timestamp in millisecondi seguiti da bit casuali.
+ * Gli id sono ordinati per tempo (anche come stringhe), il che dà località agli inserimenti
+ * nei B-tree di SQLite, e usano ThreadLocalRandom invece di SecureRandom, senza contesa.
+ * La forma testuale resta quella UUID a 36 caratteri, compatibile con i dati JSON esistenti.
+ */
 public class IdGenerator {
+
     public static String generate() {
-        return UUID.randomUUID().toString();
+        CompactId id = generateCompact();
+        return CompactId.format(id.getHi(), id.getLo());
+    }
+
+    public static CompactId generateCompact() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long millis = System.currentTimeMillis();
+        // timestamp (48) | versione 7 (4) | rand_a (12)
+        long hi = (millis << 16) | 0x7000L | (rnd.nextInt() & 0x0FFFL);
+        // variante IETF 10 (2) | rand_b (62)
+        long lo = (rnd.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return CompactId.of(hi, lo);
     }
 }
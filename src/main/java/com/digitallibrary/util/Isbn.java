@@ -0,0 +1,119 @@
+package com.digitallibrary.util;
+
+/**
+ * Parser ISBN-10/ISBN-13 scritto a mano, senza regex e senza allocazioni.
+ * Trattini e spazi sono ignorati; un ISBN-10 può terminare con 'X'.
+ * La forma canonica è l'ISBN-13 rappresentato come long, usata come chiave degli indici.
+ */
+public final class Isbn {
+
+    /** Valore restituito quando l'input non è un ISBN. */
+    public static final long INVALID = -1L;
+
+    private Isbn() {}
+
+    /**
+     * ISBN-13 canonico se l'input è un ISBN con cifra di controllo corretta, altrimenti {@link #INVALID}.
+     */
+    public static long parse(CharSequence s) {
+        return scan(s, true, true);
+    }
+
+    /**
+     * Chiave di indice: l'ISBN-13 così com'è, anche con cifra di controllo errata (dati storici),
+     * o l'ISBN-13 canonico di un ISBN-10 con cifra di controllo corretta; altrimenti {@link #INVALID}.
+     * Un ISBN-10 con cifra errata non ha chiave: la conversione ricalcola la cifra, quindi due
+     * ISBN-10 diversi solo per la cifra di controllo avrebbero la stessa chiave.
+     */
+    public static long normalize(CharSequence s) {
+        return scan(s, false, true);
+    }
+
+    public static boolean isValid(CharSequence s) {
+        return parse(s) != INVALID;
+    }
+
+    /** true se l'input ha la struttura di un ISBN (10 o 13 cifre), senza verificare la cifra di controllo. */
+    public static boolean hasValidStructure(CharSequence s) {
+        return scan(s, false, false) != INVALID;
+    }
+
+    /** ISBN-13 canonico in forma testuale (13 cifre). */
+    public static String format(long isbn13) {
+        char[] out = new char[13];
+        for (int i = 12; i >= 0; i--) {
+            out[i] = (char) ('0' + isbn13 % 10);
+            isbn13 /= 10;
+        }
+        return new String(out);
+    }
+
+    /** ISBN-10 equivalente (solo prefisso 978), o null se non esiste. */
+    public static String formatIsbn10(long isbn13) {
+        if (isbn13 / 10_000_000_000L != 978) return null;
+        long body = isbn13 / 10 % 1_000_000_000L;
+        char[] out = new char[10];
+        int sum = 0;
+        for (int i = 8; i >= 0; i--) {
+            int d = (int) (body % 10);
+            body /= 10;
+            out[i] = (char) ('0' + d);
+            sum += d * (10 - i);
+        }
+        int check = (11 - sum % 11) % 11;
+        out[9] = check == 10 ? 'X' : (char) ('0' + check);
+        return new String(out);
+    }
+
+    private static long scan(CharSequence s, boolean verify13, boolean verify10) {
+        if (s == null) return INVALID;
+        long value = 0L;
+        int digits = 0;
+        // somme pesate accumulate in un solo passaggio: per ISBN-10 running = somma d_i, weighted10 = somma d_i * (n - i)
+        int running = 0;
+        int weighted10 = 0;
+        int weighted13 = 0;
+        boolean checkX = false;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '-' || c == ' ' || c == '\t') continue;
+            int d;
+            if (c >= '0' && c <= '9') {
+                if (checkX) return INVALID;
+                d = c - '0';
+            } else if ((c == 'X' || c == 'x') && digits == 9) {
+                checkX = true;
+                d = 10;
+            } else {
+                return INVALID;
+            }
+            if (++digits > 13) return INVALID;
+            if (d < 10) value = value * 10 + d;
+            running += d;
+            weighted10 += running;
+            weighted13 += (digits & 1) == 1 ? d : 3 * d;
+        }
+        if (digits == 10) {
+            if (verify10 && weighted10 % 11 != 0) return INVALID;
+            long body = checkX ? value : value / 10;
+            long first12 = 978_000_000_000L + body;
+            return first12 * 10 + checkDigit13(first12);
+        }
+        if (digits == 13 && !checkX) {
+            if (verify13 && weighted13 % 10 != 0) return INVALID;
+            return value;
+        }
+        return INVALID;
+    }
+
+    private static int checkDigit13(long first12) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            int d = (int) (first12 % 10);
+            first12 /= 10;
+            // la cifra più a destra delle 12 ha peso 3
+            sum += (i & 1) == 0 ? 3 * d : d;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
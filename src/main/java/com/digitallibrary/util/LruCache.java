@@ -0,0 +1,212 @@
+package com.digitallibrary.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Cache LRU limitata per peso, con scadenza opzionale (TTL) e statistiche.
+ * Le chiavi sono distribuite su segmenti indipendenti, ciascuno una LinkedHashMap in ordine
+ * di accesso protetta dal proprio lock, così thread diversi raramente si contendono lo stesso lock.
+ * Il peso di ogni voce è stimato da un weigher (es. byte approssimativi), il limite è sul totale.
+ */
+public class LruCache<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final ToIntBiFunction<K, V> weigher;
+    private final long ttlNanos;
+    private final long maxWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maxWeight peso massimo complessivo
+     * @param ttlSeconds durata di una voce in secondi, 0 o negativo = nessuna scadenza
+     * @param weigher stima del peso di una voce (almeno 1)
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(long maxWeight, long ttlSeconds, ToIntBiFunction<K, V> weigher) {
+        if (maxWeight <= 0) throw new IllegalArgumentException("Capacità della cache deve essere positiva");
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.ttlNanos = ttlSeconds > 0 ? ttlSeconds * 1_000_000_000L : 0L;
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENTS];
+        long perSegment = Math.max(1, maxWeight / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment<>(perSegment);
+    }
+
+    /** Cache limitata per numero di voci. */
+    public LruCache(long maxEntries, long ttlSeconds) {
+        this(maxEntries, ttlSeconds, (k, v) -> 1);
+    }
+
+    public V get(K key) {
+        Segment<K, V> seg = segmentFor(key);
+        synchronized (seg) {
+            Entry<V> e = seg.map.get(key);
+            if (e == null) {
+                misses.increment();
+                return null;
+            }
+            if (ttlNanos > 0 && System.nanoTime() - e.createdAt > ttlNanos) {
+                seg.map.remove(key);
+                seg.weight -= e.weight;
+                expirations.increment();
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return e.value;
+        }
+    }
+
+    public void put(K key, V value) {
+        int w = Math.max(1, weigher.applyAsInt(key, value));
+        Segment<K, V> seg = segmentFor(key);
+        synchronized (seg) {
+            Entry<V> old = seg.map.put(key, new Entry<>(value, w, System.nanoTime()));
+            if (old != null) seg.weight -= old.weight;
+            seg.weight += w;
+            // rimuove le voci usate meno di recente finché il segmento rientra nel limite
+            Iterator<Map.Entry<K, Entry<V>>> it = seg.map.entrySet().iterator();
+            while (seg.weight > seg.maxWeight && it.hasNext()) {
+                Map.Entry<K, Entry<V>> eldest = it.next();
+                if (eldest.getKey().equals(key) && seg.map.size() == 1) break;
+                it.remove();
+                seg.weight -= eldest.getValue().weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Contatore delle invalidazioni che possono riguardare {@code key}, da leggere prima di
+     * caricare il valore dalla sorgente e da passare a {@link #putIfUnchanged}.
+     */
+    public long stamp(K key) {
+        Segment<K, V> seg = segmentFor(key);
+        synchronized (seg) {
+            return seg.invalidations;
+        }
+    }
+
+    /**
+     * Come {@link #put}, ma solo se dopo {@code stamp} non c'è stata un'invalidazione che
+     * può riguardare la chiave: un valore letto prima di una scrittura non entra in cache dopo
+     * che la scrittura l'ha invalidato.
+     * @return true se il valore è stato messo in cache
+     */
+    public boolean putIfUnchanged(K key, V value, long stamp) {
+        Segment<K, V> seg = segmentFor(key);
+        synchronized (seg) {
+            if (seg.invalidations != stamp) return false;
+            put(key, value);
+            return true;
+        }
+    }
+
+    public void invalidate(K key) {
+        Segment<K, V> seg = segmentFor(key);
+        synchronized (seg) {
+            Entry<V> old = seg.map.remove(key);
+            if (old != null) seg.weight -= old.weight;
+            seg.invalidations++;
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment<K, V> seg : segments) {
+            synchronized (seg) {
+                seg.map.clear();
+                seg.weight = 0;
+                seg.invalidations++;
+            }
+        }
+    }
+
+    public Stats stats() {
+        long size = 0, weight = 0;
+        for (Segment<K, V> seg : segments) {
+            synchronized (seg) {
+                size += seg.map.size();
+                weight += seg.weight;
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), size, weight, maxWeight);
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments[(h >>> 28) & (SEGMENTS - 1)];
+    }
+
+    private static final class Segment<K, V> {
+        final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+        final long maxWeight;
+        long weight;
+        // cresce a ogni invalidazione nel segmento (per putIfUnchanged)
+        long invalidations;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final int weight;
+        final long createdAt;
+
+        Entry(V value, int weight, long createdAt) {
+            this.value = value;
+            this.weight = weight;
+            this.createdAt = createdAt;
+        }
+    }
+
+    /** Istantanea delle statistiche della cache. */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long expirations;
+        private final long size;
+        private final long weight;
+        private final long maxWeight;
+
+        Stats(long hits, long misses, long evictions, long expirations, long size, long weight, long maxWeight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.size = size;
+            this.weight = weight;
+            this.maxWeight = maxWeight;
+        }
+
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public long getExpirations() { return expirations; }
+        public long getSize() { return size; }
+        public long getWeight() { return weight; }
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hit=%d miss=%d (hit rate %.1f%%) evict=%d scadute=%d voci=%d peso=%d/%d",
+                hits, misses, getHitRate() * 100, evictions, expirations, size, weight, maxWeight);
+        }
+    }
+}
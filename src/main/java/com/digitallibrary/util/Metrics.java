@@ -0,0 +1,28 @@
+package com.digitallibrary.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Registro minimo di metriche: ogni componente registra un valore letto su richiesta
+ * (es. statistiche di una cache). Esposto dal server web su /api/metrics.
+ */
+public final class Metrics {
+
+    private static final Map<String, Supplier<?>> GAUGES = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    public static void register(String name, Supplier<?> gauge) {
+        GAUGES.put(name, gauge);
+    }
+
+    /** Valori correnti di tutte le metriche, in ordine di nome. */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> out = new TreeMap<>();
+        GAUGES.forEach((name, gauge) -> out.put(name, gauge.get()));
+        return out;
+    }
+}
@@ -0,0 +1,177 @@
+package com.digitallibrary.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Motore di scansione parallela per filtri e aggregazioni sul catalogo.
+ * La sorgente è uno {@link Spliterator} che viene diviso ricorsivamente (fork/join) su un
+ * {@link ForkJoinPool} dedicato, separato dal pool comune usato dagli stream paralleli.
+ * <p>
+ * Il parallelismo è scelto in base alla dimensione stimata: sotto {@link #SEQUENTIAL_THRESHOLD}
+ * elementi la scansione resta sul thread chiamante, sopra si usa un worker ogni
+ * {@link #ITEMS_PER_WORKER} elementi fino al parallelismo del pool.
+ * I risultati rispettano l'ordine di incontro della sorgente.
+ */
+public final class ParallelScan {
+
+    /** Sotto questa dimensione dividere il lavoro costa più della scansione stessa. */
+    public static final long SEQUENTIAL_THRESHOLD = 16_384;
+    /** Elementi minimi per ogni worker coinvolto. */
+    public static final long ITEMS_PER_WORKER = 8_192;
+    // ogni worker riceve circa questo numero di pezzi, così il work stealing bilancia i pezzi lenti
+    private static final int SPLITS_PER_WORKER = 4;
+
+    private static volatile ParallelScan shared;
+
+    private final ForkJoinPool pool;
+    private final LongAdder sequentialScans = new LongAdder();
+    private final LongAdder parallelScans = new LongAdder();
+    private final LongAdder tasks = new LongAdder();
+
+    public ParallelScan(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism deve essere almeno 1");
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("catalog-scan-" + t.getPoolIndex());
+            return t;
+        }, null, false);
+    }
+
+    /** Istanza condivisa con un worker per processore. */
+    public static ParallelScan shared() {
+        ParallelScan s = shared;
+        if (s == null) {
+            synchronized (ParallelScan.class) {
+                s = shared;
+                if (s == null) shared = s = new ParallelScan(Runtime.getRuntime().availableProcessors());
+            }
+        }
+        return s;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /** Numero di worker usati per una sorgente di {@code size} elementi (1 = sequenziale). */
+    public int parallelismFor(long size) {
+        if (size < SEQUENTIAL_THRESHOLD || size == Long.MAX_VALUE) return 1;
+        return (int) Math.max(1, Math.min(pool.getParallelism(), size / ITEMS_PER_WORKER));
+    }
+
+    /**
+     * Riduzione generica: ogni pezzo accumula in un contenitore nuovo di {@code supplier},
+     * i contenitori sono poi uniti con {@code combiner} (sinistra, destra).
+     */
+    public <T, A> A aggregate(Spliterator<T> source, Supplier<A> supplier, BiConsumer<A, T> accumulator,
+                              BinaryOperator<A> combiner) {
+        long size = source.estimateSize();
+        int workers = parallelismFor(size);
+        if (workers == 1) {
+            sequentialScans.increment();
+            return scan(source, supplier, accumulator);
+        }
+        parallelScans.increment();
+        long leaf = Math.max(ITEMS_PER_WORKER / SPLITS_PER_WORKER, size / ((long) workers * SPLITS_PER_WORKER));
+        return pool.invoke(new ScanTask<>(source, leaf, supplier, accumulator, combiner));
+    }
+
+    /** Elementi che soddisfano il predicato, nell'ordine della sorgente. */
+    public <T> List<T> filter(Spliterator<T> source, Predicate<? super T> predicate) {
+        return aggregate(source, ArrayList::new, (list, t) -> {
+            if (predicate.test(t)) list.add(t);
+        }, (left, right) -> {
+            left.addAll(right);
+            return left;
+        });
+    }
+
+    public <T> long count(Spliterator<T> source, Predicate<? super T> predicate) {
+        return aggregate(source, () -> new long[1], (n, t) -> {
+            if (predicate.test(t)) n[0]++;
+        }, (left, right) -> {
+            left[0] += right[0];
+            return left;
+        })[0];
+    }
+
+    /** Conteggio per chiave (la chiave può essere null). */
+    public <T, K> Map<K, Long> countBy(Spliterator<T> source, Function<? super T, ? extends K> key) {
+        return aggregate(source, HashMap::new, (Map<K, Long> m, T t) -> m.merge(key.apply(t), 1L, Long::sum),
+            (left, right) -> {
+                right.forEach((k, v) -> left.merge(k, v, Long::sum));
+                return left;
+            });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("parallelism", pool.getParallelism());
+        m.put("sequentialScans", sequentialScans.sum());
+        m.put("parallelScans", parallelScans.sum());
+        m.put("tasks", tasks.sum());
+        m.put("steals", pool.getStealCount());
+        return m;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static <T, A> A scan(Spliterator<T> source, Supplier<A> supplier, BiConsumer<A, T> accumulator) {
+        A acc = supplier.get();
+        source.forEachRemaining(t -> accumulator.accept(acc, t));
+        return acc;
+    }
+
+    /** Divide la sorgente finché i pezzi superano {@code leaf} elementi, poi scansiona in sequenza. */
+    private final class ScanTask<T, A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final Spliterator<T> source;
+        private final long leaf;
+        private final Supplier<A> supplier;
+        private final BiConsumer<A, T> accumulator;
+        private final BinaryOperator<A> combiner;
+
+        ScanTask(Spliterator<T> source, long leaf, Supplier<A> supplier, BiConsumer<A, T> accumulator,
+                 BinaryOperator<A> combiner) {
+            this.source = source;
+            this.leaf = leaf;
+            this.supplier = supplier;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected A compute() {
+            tasks.increment();
+            if (source.estimateSize() > leaf) {
+                // trySplit restituisce il prefisso: resta a sinistra per conservare l'ordine
+                Spliterator<T> prefix = source.trySplit();
+                if (prefix != null) {
+                    ScanTask<T, A> left = new ScanTask<>(prefix, leaf, supplier, accumulator, combiner);
+                    ScanTask<T, A> right = new ScanTask<>(source, leaf, supplier, accumulator, combiner);
+                    left.fork();
+                    A r = right.compute();
+                    return combiner.apply(left.join(), r);
+                }
+            }
+            return scan(source, supplier, accumulator);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.digitallibrary.web;
+
+/**
+ * Concurrency limit that adapts to handler latency (AIMD on a gradient signal).
+ * The latency floor is the minimum over the current and the previous window of samples, so
+ * it forgets old samples: after two windows a permanently slower backend sets the floor.
+ * While requests complete close to that floor the limit grows by about one per round trip,
+ * and when latency exceeds {@code tolerance} times the floor the limit is cut by 10%.
+ * Requests beyond the limit are rejected immediately instead of queueing, which keeps tail
+ * latency bounded.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final int DEFAULT_WINDOW_SAMPLES = 250;
+    // a window also ends after this long, so a quiet server does not keep an old floor
+    private static final long WINDOW_NANOS = 10_000_000_000L;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final int windowSamples;
+
+    private double limit;
+    private int inFlight;
+    private long previousMinNanos = Long.MAX_VALUE;
+    private long windowMinNanos = Long.MAX_VALUE;
+    private int windowCount;
+    private long windowStart = System.nanoTime();
+    private long rejected;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this(initialLimit, minLimit, maxLimit, tolerance, DEFAULT_WINDOW_SAMPLES);
+    }
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, int windowSamples) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid concurrency limits: " + minLimit + " <= " + initialLimit + " <= " + maxLimit);
+        }
+        if (windowSamples < 1) throw new IllegalArgumentException("Invalid window: " + windowSamples);
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.windowSamples = windowSamples;
+    }
+
+    /** @return true if the request may run; the caller must then call {@link #release(long)} */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejected++;
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /** Records the latency of a completed request and adjusts the limit. */
+    public synchronized void release(long latencyNanos) {
+        inFlight--;
+        long now = System.nanoTime();
+        if (windowCount >= windowSamples || now - windowStart >= WINDOW_NANOS) {
+            previousMinNanos = windowMinNanos;
+            windowMinNanos = Long.MAX_VALUE;
+            windowCount = 0;
+            windowStart = now;
+        }
+        windowMinNanos = Math.min(windowMinNanos, Math.max(1, latencyNanos));
+        windowCount++;
+        if (latencyNanos > floorNanos() * tolerance) {
+            limit = Math.max(minLimit, limit * 0.9);
+        } else if (inFlight + 1 >= (int) limit) {
+            // grow only when the limit is actually what bounds concurrency
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public synchronized double getMinLatencyMillis() {
+        long floor = floorNanos();
+        return floor == Long.MAX_VALUE ? 0 : floor / 1e6;
+    }
+
+    private long floorNanos() {
+        return Math.min(previousMinNanos, windowMinNanos);
+    }
+}
@@ -0,0 +1,104 @@
+package com.digitallibrary.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps API handlers with per-client rate limiting (429) and adaptive load shedding (503).
+ * Both answers carry a {@code Retry-After} header. Either limiter may be null (disabled).
+ * Works with both server engines since it is just an {@link HttpHandler} decorator.
+ */
+public class AdmissionControl {
+
+    // unread request body drained before a rejection; a longer body closes the connection instead
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final TokenBucketLimiter rateLimiter;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    public AdmissionControl(TokenBucketLimiter rateLimiter, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.rateLimiter = rateLimiter;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /** Returns a handler that applies admission control for {@code route} before delegating. */
+    public HttpHandler wrap(String route, HttpHandler handler) {
+        return ex -> {
+            if (rateLimiter != null) {
+                long wait = rateLimiter.tryAcquire(clientOf(ex) + " " + route);
+                if (wait > 0) {
+                    rateLimited.increment();
+                    reject(ex, 429, wait, "Too many requests");
+                    return;
+                }
+            }
+            if (concurrencyLimiter != null && !concurrencyLimiter.tryAcquire()) {
+                shed.increment();
+                reject(ex, 503, 1, "Server busy");
+                return;
+            }
+            admitted.increment();
+            long start = System.nanoTime();
+            try {
+                handler.handle(ex);
+            } finally {
+                if (concurrencyLimiter != null) concurrencyLimiter.release(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /** Counters and the current concurrency limit, for /api/metrics. */
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("admitted", admitted.sum());
+        m.put("rateLimited", rateLimited.sum());
+        m.put("shed", shed.sum());
+        if (rateLimiter != null) m.put("trackedClients", rateLimiter.size());
+        if (concurrencyLimiter != null) {
+            m.put("concurrencyLimit", concurrencyLimiter.getLimit());
+            m.put("inFlight", concurrencyLimiter.getInFlight());
+            m.put("limiterRejected", concurrencyLimiter.getRejected());
+            m.put("minLatencyMillis", concurrencyLimiter.getMinLatencyMillis());
+        }
+        return m;
+    }
+
+    private static String clientOf(HttpExchange ex) {
+        if (ex.getRemoteAddress() == null || ex.getRemoteAddress().getAddress() == null) return "?";
+        return ex.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    private static void reject(HttpExchange ex, int status, long retryAfterSeconds, String message) throws IOException {
+        // the request body is not read: drain a short one so a keep-alive connection stays usable,
+        // but do not spend a rejected request's budget reading a large upload
+        if (!drain(ex.getRequestBody())) ex.getResponseHeaders().set("Connection", "close");
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+    }
+
+    // true when the body ended within MAX_DRAIN_BYTES
+    private static boolean drain(InputStream in) throws IOException {
+        byte[] buf = new byte[8192];
+        long left = MAX_DRAIN_BYTES;
+        while (left > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, left));
+            if (n < 0) return true;
+            left -= n;
+        }
+        return in.read() < 0;
+    }
+}
@@ -0,0 +1,839 @@
+package com.digitallibrary.web;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking HTTP/1.1 front end built on NIO selectors, an alternative to the JDK
+ * {@code HttpServer} when many keep-alive connections are open at once.
+ * <p>
+ * One acceptor thread hands new sockets to a few event loops, each owning a {@link Selector}.
+ * Loops only parse and write bytes; handlers run on the worker pool with an {@link HttpExchange}
+ * backed by in-memory request and response buffers, so the same {@link HttpHandler}s serve both
+ * engines. Pipelined requests on a connection are answered in order, one at a time.
+ * Small responses are written from pooled direct buffers, files via {@link FileChannel#transferTo}.
+ * <p>
+ * It is an {@link HttpServer}: contexts support filters, authenticators and attributes as in the JDK engine.
+ */
+public class NioHttpServer extends HttpServer {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int POOLED_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int MAX_BODY_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_PIPELINED = 32;
+    private static final long IDLE_TIMEOUT_MS = 60_000;
+
+    private InetSocketAddress address;
+    private int backlog = 4096;
+    private volatile Executor workers;
+    private final int loopCount;
+    private final Map<String, Context> contexts = new ConcurrentHashMap<>();
+    private final BufferPool pool = new BufferPool(POOLED_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    private ServerSocketChannel serverChannel;
+    private Loop[] loops;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    public NioHttpServer(InetSocketAddress address, Executor workers) {
+        this(address, workers, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    public NioHttpServer(InetSocketAddress address, Executor workers, int loopCount) {
+        this.address = address;
+        this.loopCount = Math.max(1, loopCount);
+        setExecutor(workers);
+    }
+
+    /** Sets the address to listen on; the socket is bound by {@link #start()}. */
+    @Override
+    public synchronized void bind(InetSocketAddress addr, int backlog) throws IOException {
+        if (serverChannel != null) throw new BindException("Server already bound to " + getAddress());
+        this.address = addr;
+        if (backlog > 0) this.backlog = backlog;
+    }
+
+    /** Executor running the handlers; null gives the server its own cached pool of daemon threads. */
+    @Override
+    public void setExecutor(Executor executor) {
+        if (executor == null) {
+            AtomicInteger n = new AtomicInteger();
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "nio-http-worker-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        workers = executor;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return workers;
+    }
+
+    /** Registers a handler for every path starting with {@code path}; the longest prefix wins. */
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        if (path == null || !path.startsWith("/")) throw new IllegalArgumentException("Invalid context path: " + path);
+        Context ctx = new Context(path, handler);
+        if (contexts.putIfAbsent(path, ctx) != null) throw new IllegalArgumentException("Context already exists: " + path);
+        return ctx;
+    }
+
+    /** Context without a handler yet: requests get 404 until {@link HttpContext#setHandler} is called. */
+    @Override
+    public HttpContext createContext(String path) {
+        return createContext(path, null);
+    }
+
+    @Override
+    public void removeContext(String path) {
+        if (contexts.remove(path) == null) throw new IllegalArgumentException("No context for " + path);
+    }
+
+    @Override
+    public void removeContext(HttpContext context) {
+        if (!contexts.remove(context.getPath(), context)) throw new IllegalArgumentException("Context not registered: " + context.getPath());
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        ServerSocketChannel ch = serverChannel;
+        return ch != null ? (InetSocketAddress) ch.socket().getLocalSocketAddress() : address;
+    }
+
+    /** Binds and starts the loops; a bind failure is thrown as {@link UncheckedIOException}. */
+    @Override
+    public synchronized void start() {
+        if (running) throw new IllegalStateException("Server already started");
+        Loop[] created = new Loop[loopCount];
+        try {
+            for (int i = 0; i < loopCount; i++) created[i] = new Loop();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(address, backlog);
+        } catch (IOException e) {
+            for (Loop l : created) {
+                if (l != null) try { l.selector.close(); } catch (IOException ignore) {}
+            }
+            if (serverChannel != null) try { serverChannel.close(); } catch (IOException ignore) {}
+            serverChannel = null;
+            throw new UncheckedIOException(e);
+        }
+        running = true;
+        loops = created;
+        for (int i = 0; i < loopCount; i++) {
+            Thread t = new Thread(loops[i], "nio-http-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        acceptor = new Thread(this::acceptLoop, "nio-http-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** Stops accepting and closes the loops; in-flight exchanges are not awaited. */
+    @Override
+    public void stop(int delay) {
+        stop();
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignore) {}
+        if (loops != null) {
+            for (Loop l : loops) l.selector.wakeup();
+        }
+    }
+
+    /** Port actually bound, useful when started on port 0. */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel ch = serverChannel.accept();
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next++ % loops.length].register(ch);
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    private Context contextFor(String path) {
+        Context best = null;
+        int bestLen = -1;
+        for (Map.Entry<String, Context> e : contexts.entrySet()) {
+            String ctx = e.getKey();
+            if (ctx.length() > bestLen && path.startsWith(ctx)) {
+                best = e.getValue();
+                bestLen = ctx.length();
+            }
+        }
+        return best;
+    }
+
+    // runs on a worker thread: one request at a time per connection
+    private void serve(Connection conn, Request req) {
+        Exchange ex = new Exchange(conn, req);
+        try {
+            if (req.errorStatus != 0) {
+                ex.sendText(req.errorStatus, req.errorMessage);
+            } else {
+                Context ctx = contextFor(req.uri.getPath() == null ? "/" : req.uri.getPath());
+                HttpHandler h = ctx == null ? null : ctx.getHandler();
+                if (h == null) {
+                    ex.sendText(404, "Not found");
+                } else {
+                    ex.context = ctx;
+                    if (authenticate(ctx, ex)) new Filter.Chain(ctx.getFilters(), h).doFilter(ex);
+                }
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+        } finally {
+            ex.finish();
+        }
+    }
+
+    // as in the JDK engine: a failed or retried authentication answers with the authenticator's status
+    private static boolean authenticate(Context ctx, Exchange ex) throws IOException {
+        Authenticator auth = ctx.getAuthenticator();
+        if (auth == null) return true;
+        Authenticator.Result r = auth.authenticate(ex);
+        if (r instanceof Authenticator.Success) {
+            ex.principal = ((Authenticator.Success) r).getPrincipal();
+            return true;
+        }
+        int code = r instanceof Authenticator.Failure ? ((Authenticator.Failure) r).getResponseCode()
+            : ((Authenticator.Retry) r).getResponseCode();
+        ex.sendResponseHeaders(code, -1);
+        return false;
+    }
+
+    /** Handler, filters, authenticator and attributes registered for a path prefix. */
+    private final class Context extends HttpContext {
+        private final String path;
+        private volatile HttpHandler handler;
+        private volatile Authenticator authenticator;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final List<Filter> filters = new CopyOnWriteArrayList<>();
+
+        Context(String path, HttpHandler handler) {
+            this.path = path;
+            this.handler = handler;
+        }
+
+        @Override public HttpHandler getHandler() { return handler; }
+        @Override public String getPath() { return path; }
+        @Override public HttpServer getServer() { return NioHttpServer.this; }
+        @Override public Map<String, Object> getAttributes() { return attributes; }
+        @Override public List<Filter> getFilters() { return filters; }
+        @Override public Authenticator getAuthenticator() { return authenticator; }
+
+        @Override
+        public void setHandler(HttpHandler handler) {
+            if (handler == null) throw new NullPointerException("handler");
+            if (this.handler != null) throw new IllegalArgumentException("Handler already set for " + path);
+            this.handler = handler;
+        }
+
+        @Override
+        public Authenticator setAuthenticator(Authenticator auth) {
+            Authenticator previous = authenticator;
+            authenticator = auth;
+            return previous;
+        }
+    }
+
+    /** Event loop: owns a selector and all the connections registered with it. */
+    private final class Loop implements Runnable {
+        final Selector selector;
+        final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+        // the loop reads one socket at a time, so a single direct buffer serves all its connections
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        final Set<Connection> connections = new HashSet<>();
+
+        Loop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel ch) {
+            accepted.add(ch);
+            selector.wakeup();
+        }
+
+        void responseReady(Connection c) {
+            ready.add(c);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            try {
+                while (running) {
+                    selector.select(1000);
+                    SocketChannel ch;
+                    while ((ch = accepted.poll()) != null) {
+                        try {
+                            Connection c = new Connection(this, ch);
+                            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                            connections.add(c);
+                        } catch (IOException e) {
+                            try { ch.close(); } catch (IOException ignore) {}
+                        }
+                    }
+                    Connection c;
+                    while ((c = ready.poll()) != null) {
+                        if (!c.closed) c.flush();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection conn = (Connection) key.attachment();
+                        if (!key.isValid()) continue;
+                        if (key.isReadable()) conn.onReadable();
+                        if (key.isValid() && key.isWritable()) conn.flush();
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= 1000) {
+                        lastSweep = now;
+                        for (Connection conn : connections.toArray(new Connection[0])) {
+                            if (!conn.inFlight && now - conn.lastActive > IDLE_TIMEOUT_MS) conn.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (Connection conn : connections.toArray(new Connection[0])) conn.close();
+                try { selector.close(); } catch (IOException ignore) {}
+            }
+        }
+    }
+
+    /** Per-socket state. Everything except the outbox is touched only by the owning loop. */
+    private final class Connection {
+        final Loop loop;
+        final SocketChannel channel;
+        final InetSocketAddress remote;
+        SelectionKey key;
+        byte[] in = new byte[1024];
+        int inLen;
+        int headerScan;
+        final ArrayDeque<Request> pending = new ArrayDeque<>();
+        final Queue<Response> outbox = new ConcurrentLinkedQueue<>();
+        Response writing;
+        boolean inFlight;
+        boolean inputClosed;
+        boolean parseStopped;
+        boolean closed;
+        long lastActive = System.currentTimeMillis();
+
+        Connection(Loop loop, SocketChannel channel) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            this.remote = (InetSocketAddress) channel.getRemoteAddress();
+        }
+
+        void onReadable() {
+            ByteBuffer buf = loop.readBuffer;
+            buf.clear();
+            int n;
+            try {
+                n = channel.read(buf);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (n < 0) {
+                inputClosed = true;
+                if (!inFlight && pending.isEmpty()) close();
+                else updateInterest();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            buf.flip();
+            if (inLen + n > in.length) {
+                byte[] grown = new byte[Math.max(in.length * 2, inLen + n)];
+                System.arraycopy(in, 0, grown, 0, inLen);
+                in = grown;
+            }
+            buf.get(in, inLen, n);
+            inLen += n;
+            parseRequests();
+            dispatchNext();
+            updateInterest();
+        }
+
+        private void parseRequests() {
+            while (!parseStopped && pending.size() < MAX_PIPELINED) {
+                int headerEnd = indexOfHeaderEnd();
+                if (headerEnd < 0) {
+                    if (inLen > MAX_HEADER_BYTES) reject(431, "Request header too large");
+                    return;
+                }
+                Request req = Request.parse(in, headerEnd);
+                int bodyStart = headerEnd + 4;
+                if (req.errorStatus == 0 && req.contentLength > MAX_BODY_BYTES) {
+                    reject(413, "Request body too large");
+                    return;
+                }
+                if (req.errorStatus != 0) {
+                    reject(req.errorStatus, req.errorMessage);
+                    return;
+                }
+                int total = bodyStart + req.contentLength;
+                if (inLen < total) return;
+                req.body = new byte[req.contentLength];
+                System.arraycopy(in, bodyStart, req.body, 0, req.contentLength);
+                System.arraycopy(in, total, in, 0, inLen - total);
+                inLen -= total;
+                headerScan = 0;
+                pending.add(req);
+                if (req.closeAfter) {
+                    parseStopped = true;
+                    inputClosed = true;
+                }
+            }
+        }
+
+        private int indexOfHeaderEnd() {
+            int limit = Math.min(inLen, MAX_HEADER_BYTES + 4);
+            for (int i = Math.max(0, headerScan - 3); i + 3 < limit; i++) {
+                if (in[i] == '\r' && in[i + 1] == '\n' && in[i + 2] == '\r' && in[i + 3] == '\n') return i;
+            }
+            headerScan = limit;
+            return -1;
+        }
+
+        // protocol error: answer in order after earlier pipelined requests, then close
+        private void reject(int status, String message) {
+            Request err = new Request();
+            err.errorStatus = status;
+            err.errorMessage = message;
+            err.closeAfter = true;
+            pending.add(err);
+            parseStopped = true;
+            inputClosed = true;
+            inLen = 0;
+        }
+
+        void dispatchNext() {
+            if (inFlight || closed || pending.isEmpty()) return;
+            Request req = pending.poll();
+            inFlight = true;
+            try {
+                workers.execute(() -> serve(this, req));
+            } catch (RejectedExecutionException e) {
+                req.closeAfter = true;
+                Exchange ex = new Exchange(this, req);
+                try { ex.sendText(503, "Service unavailable"); } catch (IOException ignore) {}
+                ex.finish();
+            }
+        }
+
+        // called by a worker once the response is complete
+        void submit(Response r) {
+            outbox.add(r);
+            loop.responseReady(this);
+        }
+
+        void flush() {
+            try {
+                while (true) {
+                    if (writing == null) {
+                        writing = outbox.poll();
+                        if (writing == null) break;
+                    }
+                    if (!writing.writeTo(channel)) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    Response done = writing;
+                    writing = null;
+                    done.release(pool);
+                    inFlight = false;
+                    lastActive = System.currentTimeMillis();
+                    // requests that arrived while this one was served
+                    parseRequests();
+                    if (done.close || (inputClosed && pending.isEmpty())) {
+                        close();
+                        return;
+                    }
+                    dispatchNext();
+                }
+                updateInterest();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void updateInterest() {
+            if (closed || !key.isValid()) return;
+            int ops = 0;
+            if (!inputClosed && pending.size() < MAX_PIPELINED) ops |= SelectionKey.OP_READ;
+            if (writing != null) ops |= SelectionKey.OP_WRITE;
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            loop.connections.remove(this);
+            if (key != null) key.cancel();
+            try { channel.close(); } catch (IOException ignore) {}
+            if (writing != null) writing.release(pool);
+            Response r;
+            while ((r = outbox.poll()) != null) r.release(pool);
+        }
+    }
+
+    /** A parsed request, or a protocol error to report. */
+    private static final class Request {
+        String method;
+        URI uri;
+        String protocol;
+        final Headers headers = new Headers();
+        int contentLength;
+        byte[] body = new byte[0];
+        boolean closeAfter;
+        int errorStatus;
+        String errorMessage;
+
+        static Request parse(byte[] buf, int headerEnd) {
+            Request r = new Request();
+            String head = new String(buf, 0, headerEnd, StandardCharsets.ISO_8859_1);
+            int eol = head.indexOf("\r\n");
+            String line = eol < 0 ? head : head.substring(0, eol);
+            int sp1 = line.indexOf(' ');
+            int sp2 = line.lastIndexOf(' ');
+            if (sp1 <= 0 || sp2 <= sp1) return r.fail(400, "Malformed request line");
+            r.method = line.substring(0, sp1);
+            r.protocol = line.substring(sp2 + 1);
+            try {
+                r.uri = URI.create(line.substring(sp1 + 1, sp2));
+            } catch (IllegalArgumentException e) {
+                return r.fail(400, "Malformed request URI");
+            }
+            int pos = eol < 0 ? head.length() : eol + 2;
+            while (pos < head.length()) {
+                int end = head.indexOf("\r\n", pos);
+                if (end < 0) end = head.length();
+                int colon = head.indexOf(':', pos);
+                if (colon > pos && colon < end) {
+                    r.headers.add(head.substring(pos, colon).trim(), head.substring(colon + 1, end).trim());
+                }
+                pos = end + 2;
+            }
+            if (r.headers.containsKey("Transfer-Encoding")) return r.fail(501, "Chunked request bodies are not supported");
+            String cl = r.headers.getFirst("Content-Length");
+            if (cl != null) {
+                try {
+                    r.contentLength = Integer.parseInt(cl.trim());
+                } catch (NumberFormatException e) {
+                    return r.fail(400, "Invalid Content-Length");
+                }
+                if (r.contentLength < 0) return r.fail(400, "Invalid Content-Length");
+            }
+            String connection = r.headers.getFirst("Connection");
+            boolean http10 = "HTTP/1.0".equals(r.protocol);
+            r.closeAfter = connection != null ? connection.equalsIgnoreCase("close") : http10;
+            return r;
+        }
+
+        private Request fail(int status, String message) {
+            errorStatus = status;
+            errorMessage = message;
+            closeAfter = true;
+            return this;
+        }
+    }
+
+    /** Bytes ready to go out: head (+ body) from a buffer, optionally followed by a file region. */
+    private static final class Response {
+        ByteBuffer head;
+        ByteBuffer body;
+        boolean pooled;
+        FileChannel file;
+        long filePos;
+        long fileEnd;
+        boolean close;
+
+        boolean writeTo(SocketChannel ch) throws IOException {
+            if (head.hasRemaining() || (body != null && body.hasRemaining())) {
+                if (body == null) ch.write(head);
+                else ch.write(new ByteBuffer[] { head, body });
+                if (head.hasRemaining() || (body != null && body.hasRemaining())) return false;
+            }
+            while (file != null && filePos < fileEnd) {
+                long n = file.transferTo(filePos, fileEnd - filePos, ch);
+                if (n <= 0) {
+                    // file truncated while being sent: nothing more to send
+                    if (filePos >= file.size()) break;
+                    return false;
+                }
+                filePos += n;
+            }
+            return true;
+        }
+
+        void release(BufferPool pool) {
+            if (pooled && head != null) pool.release(head);
+            head = null;
+            body = null;
+            if (file != null) {
+                try { file.close(); } catch (IOException ignore) {}
+                file = null;
+            }
+        }
+    }
+
+    /** Direct buffers reused across responses; falls back to heap buffers when exhausted. */
+    private static final class BufferPool {
+        private final int size;
+        private final int max;
+        private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger created = new AtomicInteger();
+
+        BufferPool(int size, int max) {
+            this.size = size;
+            this.max = max;
+        }
+
+        ByteBuffer acquire() {
+            ByteBuffer b = free.poll();
+            if (b != null) return b;
+            if (created.incrementAndGet() <= max) return ByteBuffer.allocateDirect(size);
+            created.decrementAndGet();
+            return null;
+        }
+
+        void release(ByteBuffer b) {
+            b.clear();
+            free.offer(b);
+        }
+    }
+
+    /** Output stream that exposes its buffer, so the body is not copied once more. */
+    private static final class BodyStream extends ByteArrayOutputStream {
+        private final Exchange owner;
+
+        BodyStream(Exchange owner) {
+            super(256);
+            this.owner = owner;
+        }
+
+        byte[] buffer() { return buf; }
+
+        @Override
+        public void close() {
+            owner.finish();
+        }
+    }
+
+    /** HttpExchange over a buffered request; the response is handed to the loop when the body is closed. */
+    final class Exchange extends HttpExchange {
+        private final Connection conn;
+        private final Request req;
+        private final Headers responseHeaders = new Headers();
+        private final BodyStream out = new BodyStream(this);
+        private final Map<String, Object> attributes = new HashMap<>();
+        // streams a filter may have replaced with setStreams
+        private InputStream requestBody;
+        private OutputStream responseBody = out;
+        private Context context;
+        private HttpPrincipal principal;
+        private int status = -1;
+        private boolean noBody;
+        private boolean completed;
+        private FileChannel file;
+
+        Exchange(Connection conn, Request req) {
+            this.conn = conn;
+            this.req = req;
+            this.requestBody = new ByteArrayInputStream(req.body);
+        }
+
+        /** Sends a file as the response body with FileChannel.transferTo (zero copy). */
+        void sendFile(int code, Path path) throws IOException {
+            FileChannel fc = FileChannel.open(path, StandardOpenOption.READ);
+            file = fc;
+            sendResponseHeaders(code, fc.size());
+            finish();
+        }
+
+        void sendText(int code, String text) throws IOException {
+            byte[] bytes = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+            responseHeaders.set("Content-Type", "text/plain; charset=utf-8");
+            sendResponseHeaders(code, bytes.length);
+            out.write(bytes);
+            finish();
+        }
+
+        @Override public Headers getRequestHeaders() { return req.headers; }
+        @Override public Headers getResponseHeaders() { return responseHeaders; }
+        @Override public URI getRequestURI() { return req.uri; }
+        @Override public String getRequestMethod() { return req.method; }
+        @Override public HttpContext getHttpContext() { return context; }
+        @Override public void close() { finish(); }
+        @Override public InputStream getRequestBody() { return requestBody; }
+        @Override public OutputStream getResponseBody() { return responseBody; }
+        @Override public InetSocketAddress getRemoteAddress() { return conn.remote; }
+        @Override public int getResponseCode() { return status; }
+        @Override public InetSocketAddress getLocalAddress() { return getAddress(); }
+        @Override public String getProtocol() { return req.protocol; }
+        @Override public Object getAttribute(String name) { return attributes.get(name); }
+        @Override public void setAttribute(String name, Object value) { attributes.put(name, value); }
+        @Override public HttpPrincipal getPrincipal() { return principal; }
+
+        /** Lets a filter wrap the body streams; a wrapped response stream must close the one it wraps. */
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+            if (i != null) requestBody = i;
+            if (o != null) responseBody = o;
+        }
+
+        @Override
+        public void sendResponseHeaders(int code, long length) throws IOException {
+            if (status != -1) throw new IOException("Response headers already sent");
+            status = code;
+            noBody = length == -1 || code == 204 || code == 304 || "HEAD".equalsIgnoreCase(req.method);
+        }
+
+        /** Completes the exchange once; a handler that sent nothing gets a 500. */
+        synchronized void finish() {
+            if (completed) return;
+            completed = true;
+            if (status == -1) {
+                status = 500;
+                out.reset();
+                byte[] msg = "Internal Server Error".getBytes(StandardCharsets.UTF_8);
+                out.write(msg, 0, msg.length);
+                responseHeaders.set("Content-Type", "text/plain; charset=utf-8");
+            }
+            Response r = new Response();
+            // like the JDK engine, a handler may end the connection with a Connection: close response header
+            r.close = req.closeAfter || !running || "close".equalsIgnoreCase(responseHeaders.getFirst("Connection"));
+            long bodyLength = file != null ? fileSize() : out.size();
+            StringBuilder sb = new StringBuilder(128);
+            sb.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+            for (Map.Entry<String, List<String>> h : responseHeaders.entrySet()) {
+                if (h.getKey().equalsIgnoreCase("Content-Length") || h.getKey().equalsIgnoreCase("Connection")) continue;
+                for (String v : h.getValue()) sb.append(h.getKey()).append(": ").append(v).append("\r\n");
+            }
+            // HEAD announces the length the body would have had
+            long declared = noBody && !"HEAD".equalsIgnoreCase(req.method) ? 0 : bodyLength;
+            if (status != 204 && status != 304) sb.append("Content-Length: ").append(declared).append("\r\n");
+            if (r.close) sb.append("Connection: close\r\n");
+            else if ("HTTP/1.0".equals(req.protocol)) sb.append("Connection: keep-alive\r\n");
+            sb.append("\r\n");
+            byte[] head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+            int bodyBytes = noBody || file != null ? 0 : out.size();
+
+            ByteBuffer pooled = head.length + bodyBytes <= POOLED_BUFFER_SIZE ? pool.acquire() : null;
+            if (pooled != null) {
+                pooled.put(head).put(out.buffer(), 0, bodyBytes).flip();
+                r.head = pooled;
+                r.pooled = true;
+            } else {
+                r.head = ByteBuffer.wrap(head);
+                if (bodyBytes > 0) r.body = ByteBuffer.wrap(out.buffer(), 0, bodyBytes);
+            }
+            if (file != null) {
+                if (noBody) {
+                    try { file.close(); } catch (IOException ignore) {}
+                } else {
+                    r.file = file;
+                    r.fileEnd = bodyLength;
+                }
+            }
+            conn.submit(r);
+        }
+
+        private long fileSize() {
+            try {
+                return file.size();
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 412: return "Precondition Failed";
+            case 413: return "Payload Too Large";
+            case 424: return "Failed Dependency";
+            case 428: return "Precondition Required";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+}
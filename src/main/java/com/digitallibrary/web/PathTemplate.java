@@ -0,0 +1,62 @@
+package com.digitallibrary.web;
+
+/**
+ * Path pattern such as "/api/loans/{id}/return", compiled once into its segments.
+ * Matching walks the path with indexOf and compares literal segments, with no regular
+ * expression and no allocation besides the captured values. A variable matches exactly
+ * one non-empty segment; a single trailing slash on the path is ignored.
+ */
+final class PathTemplate {
+
+    // literal segment text, or null where the template has a {variable}
+    private final String[] literals;
+    private final int variables;
+
+    private PathTemplate(String[] literals, int variables) {
+        this.literals = literals;
+        this.variables = variables;
+    }
+
+    static PathTemplate compile(String template) {
+        if (!template.startsWith("/")) throw new IllegalArgumentException("Template must start with '/': " + template);
+        String[] parts = template.substring(1).split("/", -1);
+        String[] literals = new String[parts.length];
+        int variables = 0;
+        for (int i = 0; i < parts.length; i++) {
+            String p = parts[i];
+            if (p.isEmpty()) throw new IllegalArgumentException("Empty segment in template: " + template);
+            if (p.startsWith("{") && p.endsWith("}")) {
+                variables++;
+            } else {
+                literals[i] = p;
+            }
+        }
+        return new PathTemplate(literals, variables);
+    }
+
+    /** Values of the variables in template order, or null when the path does not match. */
+    String[] match(String path) {
+        if (path == null || path.isEmpty() || path.charAt(0) != '/') return null;
+        int end = path.length();
+        if (end > 1 && path.charAt(end - 1) == '/') end--;
+        String[] values = new String[variables];
+        int v = 0;
+        int pos = 1;
+        for (int i = 0; i < literals.length; i++) {
+            if (pos > end) return null;
+            int slash = path.indexOf('/', pos);
+            int segEnd = slash < 0 || slash > end ? end : slash;
+            int len = segEnd - pos;
+            if (len == 0) return null;
+            String literal = literals[i];
+            if (literal == null) {
+                values[v++] = path.substring(pos, segEnd);
+            } else if (literal.length() != len || !path.startsWith(literal, pos)) {
+                return null;
+            }
+            pos = segEnd + 1;
+        }
+        // the whole path must have been consumed
+        return pos > end ? values : null;
+    }
+}
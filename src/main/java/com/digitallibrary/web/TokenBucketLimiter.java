@@ -0,0 +1,74 @@
+package com.digitallibrary.web;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token buckets keyed by an arbitrary string (client IP + route). Each bucket holds up to
+ * {@code burst} tokens and refills at {@code ratePerSecond}; a request takes one token.
+ * Idle buckets are dropped once they would be full again, so the map stays bounded by the
+ * number of recently active clients.
+ */
+public class TokenBucketLimiter {
+
+    private static final int SWEEP_THRESHOLD = 10_000;
+
+    private final double ratePerSecond;
+    private final double burst;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public TokenBucketLimiter(double ratePerSecond, double burst) {
+        if (ratePerSecond <= 0 || burst < 1) throw new IllegalArgumentException("Invalid rate limit: " + ratePerSecond + "/s, burst " + burst);
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * Takes a token for {@code key}.
+     * @return 0 if the request may proceed, otherwise the seconds until a token is available
+     */
+    public long tryAcquire(String key) {
+        long now = System.nanoTime();
+        if (buckets.size() > SWEEP_THRESHOLD) sweep(now);
+        Bucket b = buckets.computeIfAbsent(key, k -> new Bucket(burst, now));
+        synchronized (b) {
+            b.refill(now, ratePerSecond, burst);
+            if (b.tokens >= 1) {
+                b.tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - b.tokens) / ratePerSecond));
+        }
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    private void sweep(long now) {
+        Iterator<Bucket> it = buckets.values().iterator();
+        while (it.hasNext()) {
+            Bucket b = it.next();
+            synchronized (b) {
+                b.refill(now, ratePerSecond, burst);
+                if (b.tokens >= burst) it.remove();
+            }
+        }
+    }
+
+    private static final class Bucket {
+        double tokens;
+        long updatedAt;
+
+        Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.updatedAt = now;
+        }
+
+        void refill(long now, double rate, double burst) {
+            tokens = Math.min(burst, tokens + (now - updatedAt) / 1e9 * rate);
+            updatedAt = now;
+        }
+    }
+}
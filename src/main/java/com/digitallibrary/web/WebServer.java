@@ -1,17 +1,20 @@
 package com.digitallibrary.web;
 
+import com.digitallibrary.codec.JsonCodecs;
 import com.digitallibrary.model.Book;
 import com.digitallibrary.model.Loan;
 import com.digitallibrary.model.User;
+import com.digitallibrary.service.BatchService;
 import com.digitallibrary.service.BookService;
 import com.digitallibrary.service.LoanService;
 import com.digitallibrary.service.UserService;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.Headers;
 
 import java.io.*;
@@ -32,29 +35,27 @@ public class WebServer {
     private final BookService bookService;
     private final UserService userService;
     private final LoanService loanService;
+    private BatchService batchService;
+    private com.digitallibrary.service.AvailabilityReconciler reconciler;
+    private com.digitallibrary.service.LoanArchiver archiver;
     private final int port;
     private HttpServer server;
-    private final Gson gson = createGson();
-
-    private static Gson createGson() {
-        com.google.gson.GsonBuilder gb = new com.google.gson.GsonBuilder().setPrettyPrinting();
-        // LocalDateTime adapter
-        gb.registerTypeAdapter(java.time.LocalDateTime.class, (com.google.gson.JsonSerializer<java.time.LocalDateTime>) (src, typeOfSrc, context) ->
-                new com.google.gson.JsonPrimitive(src == null ? "" : src.toString())
-        );
-        gb.registerTypeAdapter(java.time.LocalDateTime.class, (com.google.gson.JsonDeserializer<java.time.LocalDateTime>) (json, typeOfT, context) -> {
-            try { String s = json.getAsString(); return s == null || s.isEmpty() ? null : java.time.LocalDateTime.parse(s); } catch (Exception e) { return null; }
-        });
-        // LocalDate adapter
-        gb.registerTypeAdapter(java.time.LocalDate.class, (com.google.gson.JsonSerializer<java.time.LocalDate>) (src, typeOfSrc, context) ->
-                new com.google.gson.JsonPrimitive(src == null ? "" : src.toString())
-        );
-        gb.registerTypeAdapter(java.time.LocalDate.class, (com.google.gson.JsonDeserializer<java.time.LocalDate>) (json, typeOfT, context) -> {
-            try { String s = json.getAsString(); return s == null || s.isEmpty() ? null : java.time.LocalDate.parse(s); } catch (Exception e) { return null; }
-        });
-        return gb.create();
-    }
+    private boolean useNio;
+    private AdmissionControl admission;
+    // codec streaming condivisi con i repository JSON, senza reflection sui modelli
+    private final Gson gson = JsonCodecs.apiGson();
+
     private final CountDownLatch latch = new CountDownLatch(1);
+    // loans enriched per chunk when listing
+    private static final int ENRICH_CHUNK = 500;
+
+    private static final PathTemplate BOOK_BY_ID = PathTemplate.compile("/api/books/{id}");
+    private static final PathTemplate USER_BY_ID = PathTemplate.compile("/api/users/{id}");
+    private static final PathTemplate LOAN_BY_ID = PathTemplate.compile("/api/loans/{id}");
+    private static final PathTemplate LOAN_RETURN = PathTemplate.compile("/api/loans/{id}/return");
+    // conditional writes compare the ETag and write under a lock, so two PUTs with the same If-Match cannot both win:
+    // BookService.lockFor(id) for books (shared with the availability repair), this one for users and loans
+    private final Object writeLock = new Object();
 
     public WebServer(int port, BookService bookService, UserService userService, LoanService loanService) {
         this.port = port;
@@ -63,15 +64,48 @@ public class WebServer {
         this.loanService = loanService;
     }
 
+    /** Enables POST /api/batch; without it the endpoint answers 404. */
+    public void setBatchService(BatchService batchService) {
+        this.batchService = batchService;
+    }
+
+    /** Enables /api/books/availability; without it the endpoint answers 404. */
+    public void setAvailabilityReconciler(com.digitallibrary.service.AvailabilityReconciler reconciler) {
+        this.reconciler = reconciler;
+    }
+
+    /** Enables GET /api/loans/history; without it the endpoint answers 404. */
+    public void setLoanArchiver(com.digitallibrary.service.LoanArchiver archiver) {
+        this.archiver = archiver;
+    }
+
+    /** Serves requests with {@link NioHttpServer} instead of the JDK HttpServer; call before start. */
+    public void setUseNio(boolean useNio) {
+        this.useNio = useNio;
+    }
+
+    /** Applies rate limiting and load shedding to the /api routes; call before start. */
+    public void setAdmissionControl(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
     public void start() throws IOException {
-        server = HttpServer.create(new InetSocketAddress(port), 0);
-        server.createContext("/", this::handleIndex);
-        server.createContext("/api/books", this::handleBooks);
-        server.createContext("/api/users", this::handleUsers);
-        server.createContext("/api/loans", this::handleLoans);
+        Map<String, HttpHandler> routes = new java.util.LinkedHashMap<>();
+        routes.put("/", this::handleIndex);
+        routes.put("/api/books", this::handleBooks);
+        routes.put("/api/users", this::handleUsers);
+        routes.put("/api/loans", this::handleLoans);
+        routes.put("/api/metrics", this::handleMetrics);
+        routes.put("/api/batch", this::handleBatch);
+        if (admission != null) {
+            routes.replaceAll((route, handler) -> route.startsWith("/api/") ? admission.wrap(route, handler) : handler);
+            com.digitallibrary.util.Metrics.register("admission", admission::stats);
+        }
+        server = useNio ? new NioHttpServer(new InetSocketAddress(port), null) : HttpServer.create(new InetSocketAddress(port), 0);
+        routes.forEach(server::createContext);
         server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
         server.start();
-        System.out.println("Web UI available at http://localhost:" + port + "/");
+        System.out.println("Web UI available at http://localhost:" + port + "/" + (useNio ? " (NIO)" : ""));
     }
 
     public void stop() {
@@ -96,7 +130,6 @@ public class WebServer {
                 writeResponse(ex, 404, "Not found");
                 return;
             }
-            byte[] content = Files.readAllBytes(p);
             Headers h = ex.getResponseHeaders();
             String ct = "application/octet-stream";
             if (rawPath.endsWith(".html")) ct = "text/html; charset=utf-8";
@@ -104,6 +137,12 @@ public class WebServer {
             else if (rawPath.endsWith(".css")) ct = "text/css; charset=utf-8";
             else if (rawPath.endsWith(".json")) ct = "application/json; charset=utf-8";
             h.set("Content-Type", ct);
+            // the NIO engine streams the file straight from the page cache to the socket
+            if (ex instanceof NioHttpServer.Exchange) {
+                ((NioHttpServer.Exchange) ex).sendFile(200, p);
+                return;
+            }
+            byte[] content = Files.readAllBytes(p);
             ex.sendResponseHeaders(200, content.length);
             try (OutputStream os = ex.getResponseBody()) { os.write(content); }
         } catch (Throwable t) {
@@ -116,9 +155,84 @@ public class WebServer {
         try {
             String method = ex.getRequestMethod();
             System.out.println("HTTP " + method + " " + ex.getRequestURI());
+            String path = ex.getRequestURI().getPath();
+            // lookup per ISBN: /api/books/isbn/{isbn}
+            if ("GET".equalsIgnoreCase(method) && path.startsWith("/api/books/isbn/")) {
+                String isbn = path.substring("/api/books/isbn/".length());
+                if (!com.digitallibrary.util.Isbn.hasValidStructure(isbn)) {
+                    writeResponse(ex, 400, "ISBN non valido: " + isbn);
+                    return;
+                }
+                java.util.Optional<Book> found = bookService.findByIsbn(isbn);
+                if (found.isPresent()) writeJson(ex, 200, found.get());
+                else writeResponse(ex, 404, "Libro non trovato");
+                return;
+            }
+            // catalog statistics computed with one parallel scan each
+            if ("GET".equalsIgnoreCase(method) && path.equals("/api/books/stats")) {
+                Map<String, Object> stats = new java.util.LinkedHashMap<>();
+                Map<String, Long> byGenre = new java.util.TreeMap<>();
+                long total = 0;
+                for (Map.Entry<com.digitallibrary.model.Genre, Long> e : bookService.countByGenre().entrySet()) {
+                    byGenre.put(e.getKey() == null ? "-" : e.getKey().getDisplayName(), e.getValue());
+                    total += e.getValue();
+                }
+                stats.put("total", total);
+                stats.put("available", bookService.countAvailable());
+                stats.put("byGenre", byGenre);
+                writeJson(ex, 200, stats);
+                return;
+            }
+            if (path.equals("/api/books/availability") && reconciler != null) {
+                // GET lists books whose available flag disagrees with their open loans, POST also fixes them
+                boolean repair = "POST".equalsIgnoreCase(method);
+                if (!repair && !"GET".equalsIgnoreCase(method)) {
+                    writeResponse(ex, 405, "Method not allowed");
+                    return;
+                }
+                // before the first rebuild every book would look drifted
+                if (!reconciler.isReady()) {
+                    ex.getResponseHeaders().set("Retry-After", "1");
+                    writeResponse(ex, 503, "Availability counts are still being built");
+                    return;
+                }
+                java.util.List<String> drifted = new java.util.ArrayList<>();
+                for (Book b : reconciler.verify(repair)) drifted.add(b.getId());
+                Map<String, Object> out = new java.util.LinkedHashMap<>(reconciler.stats());
+                out.put("drifted", drifted);
+                writeJson(ex, 200, out);
+                return;
+            }
+            String[] byId = BOOK_BY_ID.match(path);
+            if (byId != null) {
+                handleBook(ex, method, byId[0]);
+                return;
+            }
             if ("GET".equalsIgnoreCase(method)) {
-                List<Book> books = bookService.listAll();
-                writeJson(ex, 200, books);
+                // ?view=summary returns only the columns the list view shows
+                if ("summary".equals(queryParam(ex, "view"))) {
+                    writeJson(ex, 200, bookService.listSummaries());
+                    return;
+                }
+                // ?q= searches title and author, through the full-text index when the backend has one
+                String q = queryParam(ex, "q");
+                if (q != null) {
+                    writeJson(ex, 200, bookService.search(q));
+                    return;
+                }
+                // ?author=&genre=&yearFrom=&yearTo=&sort=year,-title&limit= runs as one backend query
+                com.digitallibrary.repository.BookQuery spec;
+                try {
+                    spec = bookQuery(ex);
+                } catch (IllegalArgumentException e) {
+                    writeResponse(ex, 400, e.getMessage());
+                    return;
+                }
+                if (spec != null) {
+                    writeJson(ex, 200, bookService.query(spec));
+                    return;
+                }
+                writeJsonStream(ex, 200, bookService.streamAll(), Book.class);
                 return;
             }
             if ("POST".equalsIgnoreCase(method)) {
@@ -148,9 +262,26 @@ public class WebServer {
         try {
             String method = ex.getRequestMethod();
             System.out.println("HTTP " + method + " " + ex.getRequestURI());
+            String[] byId = USER_BY_ID.match(ex.getRequestURI().getPath());
+            if (byId != null) {
+                handleUser(ex, method, byId[0]);
+                return;
+            }
             if ("GET".equalsIgnoreCase(method)) {
-                List<User> users = userService.listAll();
-                writeJson(ex, 200, users);
+                // ?email= is an indexed lookup returning the single user, not a filtered list
+                String email = queryParam(ex, "email");
+                if (email != null) {
+                    java.util.Optional<User> found = userService.findByEmail(email);
+                    if (found.isPresent()) writeResource(ex, found.get());
+                    else writeResponse(ex, 404, "Utente non trovato");
+                    return;
+                }
+                // ?view=summary leaves out the fields the list view does not show
+                if ("summary".equals(queryParam(ex, "view"))) {
+                    writeJson(ex, 200, userService.listSummaries());
+                    return;
+                }
+                writeJsonStream(ex, 200, userService.streamAll(), User.class);
                 return;
             }
             if ("POST".equalsIgnoreCase(method)) {
@@ -159,7 +290,12 @@ public class WebServer {
                 String email = (String) body.getOrDefault("email", "");
                 String id = com.digitallibrary.util.IdGenerator.generate();
                 User u = new User(id, name, email);
-                userService.register(u);
+                try {
+                    userService.register(u);
+                } catch (com.digitallibrary.repository.DuplicateEmailException e) {
+                    writeResponse(ex, 409, e.getMessage());
+                    return;
+                }
                 writeJson(ex, 201, u);
                 return;
             }
@@ -175,28 +311,45 @@ public class WebServer {
             String method = ex.getRequestMethod();
             String path = ex.getRequestURI().getPath();
             System.out.println("HTTP " + method + " " + ex.getRequestURI());
+            // handle return: /api/loans/{id}/return
+            String[] returnOf = LOAN_RETURN.match(path);
+            if (returnOf != null) {
+                if (!"POST".equalsIgnoreCase(method)) {
+                    writeResponse(ex, 405, "Method not allowed");
+                    return;
+                }
+                try {
+                    Loan l = loanService.markReturned(returnOf[0]);
+                    // mark book available, under the book's lock like every other book write
+                    bookService.setAvailable(l.getBookId(), true);
+                    writeJson(ex, 200, l);
+                } catch (IllegalArgumentException e) {
+                    writeResponse(ex, 404, e.getMessage());
+                }
+                return;
+            }
+            if (path.equals("/api/loans/history") && archiver != null) {
+                if (!"GET".equalsIgnoreCase(method)) {
+                    writeResponse(ex, 405, "Method not allowed");
+                    return;
+                }
+                writeLoanHistory(ex);
+                return;
+            }
+            String[] byId = LOAN_BY_ID.match(path);
+            if (byId != null) {
+                handleLoan(ex, method, byId[0]);
+                return;
+            }
+            if (!path.equals("/api/loans") && !path.equals("/api/loans/")) {
+                writeResponse(ex, 404, "Not found");
+                return;
+            }
             if ("GET".equalsIgnoreCase(method)) {
-                List<Loan> loans = loanService.listAll();
-                // enrich loans with book title and user name for easier UI rendering
-                List<java.util.Map<String,Object>> enriched = loans.stream().map(l -> {
-                    java.util.Map<String,Object> m = new java.util.LinkedHashMap<>();
-                    m.put("id", l.getId());
-                    m.put("bookId", l.getBookId());
-                    m.put("userId", l.getUserId());
-                    m.put("loanedAt", l.getLoanedAt() != null ? l.getLoanedAt().toString() : "");
-                    m.put("dueAt", l.getDueAt() != null ? l.getDueAt().toString() : "");
-                    m.put("returnedAt", l.getReturnedAt() != null ? l.getReturnedAt().toString() : "");
-                    String bookTitle = bookService.getBookById(l.getBookId()).map(b -> b.getTitle()).orElse("[sconosciuto]");
-                    String userName = userService.findById(l.getUserId()).map(u -> u.getName()).orElse("[sconosciuto]");
-                    m.put("bookTitle", bookTitle);
-                    m.put("userName", userName);
-                    return m;
-                }).collect(java.util.stream.Collectors.toList());
-                writeJson(ex, 200, enriched);
+                writeEnrichedLoans(ex);
                 return;
             }
-            if ("POST".equalsIgnoreCase(method) && !path.endsWith("/return")) {
-                // Create loan (guard: don't treat POST /.../return as create)
+            if ("POST".equalsIgnoreCase(method)) {
                 Map<String,Object> body = parseBody(ex);
                 if (body == null) body = new java.util.HashMap<>();
                 String bookId = (String) body.getOrDefault("bookId", "");
@@ -204,34 +357,280 @@ public class WebServer {
                 Number daysN = body.containsKey("days") ? (Number) body.get("days") : 14;
                 int days = daysN.intValue();
                 java.time.LocalDateTime due = java.time.LocalDateTime.now().plusDays(days);
-                String id = com.digitallibrary.util.IdGenerator.generate();
-                Loan loan = new Loan(id, bookId, userId, due);
-                loanService.createLoan(loan);
-                // mark book not available
-                bookService.getBookById(bookId).ifPresent(b -> { b.setAvailable(false); bookService.updateBook(b); });
-                writeJson(ex, 201, loan);
+                if (userService.findById(userId).isEmpty()) { writeResponse(ex, 404, "Utente non trovato: " + userId); return; }
+                // check and write under the book's lock, so two requests cannot lend the same copy
+                synchronized (bookService.lockFor(bookId)) {
+                    java.util.Optional<Book> book = bookService.getBookById(bookId);
+                    if (book.isEmpty()) { writeResponse(ex, 404, "Libro non trovato: " + bookId); return; }
+                    if (!book.get().isAvailable() || hasActiveLoan(loanService.findByBookId(bookId))) {
+                        writeResponse(ex, 409, "Libro già in prestito: " + book.get().getTitle());
+                        return;
+                    }
+                    String id = com.digitallibrary.util.IdGenerator.generate();
+                    Loan loan = new Loan(id, bookId, userId, due);
+                    loanService.createLoan(loan);
+                    // mark book not available
+                    bookService.setAvailable(bookId, false);
+                    writeJson(ex, 201, loan);
+                }
                 return;
             }
-            if ("POST".equalsIgnoreCase(method) && path.endsWith("/return")) {
-                // handled below
+
+            writeResponse(ex, 405, "Method not allowed");
+        } catch (Throwable t) {
+            t.printStackTrace();
+            try { writeResponse(ex, 500, "Internal Server Error: " + t.getMessage()); } catch (IOException ignore) {}
+        }
+    }
+
+    /**
+     * GET, PUT and DELETE on /api/books/{id}. PUT is a partial update of the fields present
+     * in the body; PUT and DELETE honour If-Match against the book's ETag.
+     * {@code available} is derived from the open loans and cannot be set: a PUT carrying it gets 400,
+     * lend and return through /api/loans instead.
+     */
+    private void handleBook(HttpExchange ex, String method, String id) throws IOException {
+        if ("GET".equalsIgnoreCase(method)) {
+            java.util.Optional<Book> found = bookService.getBookById(id);
+            if (found.isPresent()) writeResource(ex, found.get());
+            else writeResponse(ex, 404, "Libro non trovato");
+            return;
+        }
+        if ("PUT".equalsIgnoreCase(method)) {
+            Map<String,Object> body = parseBody(ex);
+            if (body == null) { writeResponse(ex, 400, "Empty body"); return; }
+            if (body.containsKey("available")) {
+                writeResponse(ex, 400, "available non è modificabile: dipende dai prestiti aperti");
+                return;
+            }
+            synchronized (bookService.lockFor(id)) {
+                java.util.Optional<Book> found = bookService.getBookById(id);
+                if (found.isEmpty()) { writeResponse(ex, 404, "Libro non trovato"); return; }
+                Book current = found.get();
+                if (!ifMatch(ex, etagOf(gson.toJson(current)))) return;
+                // changes go to a copy so a rejected field leaves the stored book untouched
+                Book b = new Book(current.getId(), current.getTitle(), current.getAuthor(), current.getGenre(),
+                        current.getPublicationYear(), current.getIsbn());
+                b.setAvailable(current.isAvailable());
+                b.setAddedDate(current.getAddedDate());
+                try {
+                    if (body.containsKey("title")) b.setTitle((String) body.get("title"));
+                    if (body.containsKey("author")) b.setAuthor((String) body.get("author"));
+                    if (body.containsKey("genre")) b.setGenre(com.digitallibrary.model.Genre.fromDisplayName((String) body.get("genre")));
+                    if (body.containsKey("publicationYear")) b.setPublicationYear(((Number) body.get("publicationYear")).intValue());
+                    if (body.containsKey("isbn")) b.setIsbn((String) body.get("isbn"));
+                } catch (IllegalArgumentException | ClassCastException e) {
+                    writeResponse(ex, 400, e.getMessage());
+                    return;
+                }
+                if (!java.util.Objects.equals(b.getIsbn(), current.getIsbn())) {
+                    java.util.Optional<Book> other = bookService.findByIsbn(b.getIsbn());
+                    if (other.isPresent() && !other.get().getId().equals(id)) {
+                        writeResponse(ex, 409, "ISBN già presente: " + b.getIsbn());
+                        return;
+                    }
+                }
+                bookService.updateBook(b);
+                writeResource(ex, b);
+            }
+            return;
+        }
+        if ("DELETE".equalsIgnoreCase(method)) {
+            synchronized (bookService.lockFor(id)) {
+                java.util.Optional<Book> found = bookService.getBookById(id);
+                if (found.isEmpty()) { writeResponse(ex, 404, "Libro non trovato"); return; }
+                if (!ifMatch(ex, etagOf(gson.toJson(found.get())))) return;
+                if (hasActiveLoan(loanService.findByBookId(id))) {
+                    writeResponse(ex, 409, "Libro in prestito");
+                    return;
+                }
+                bookService.deleteBook(id);
+                noContent(ex);
             }
+            return;
+        }
+        writeResponse(ex, 405, "Method not allowed");
+    }
 
-            // handle return: /api/loans/{id}/return
-            if ("POST".equalsIgnoreCase(method) && path.matches("/api/loans/[^/]+/return")) {
-                String[] seg = path.split("/");
-                String id = seg[seg.length-2];
+    /** GET, PUT (name, email) and DELETE on /api/users/{id}, with If-Match on writes. */
+    private void handleUser(HttpExchange ex, String method, String id) throws IOException {
+        if ("GET".equalsIgnoreCase(method)) {
+            java.util.Optional<User> found = userService.findById(id);
+            if (found.isPresent()) writeResource(ex, found.get());
+            else writeResponse(ex, 404, "Utente non trovato");
+            return;
+        }
+        if ("PUT".equalsIgnoreCase(method)) {
+            Map<String,Object> body = parseBody(ex);
+            if (body == null) { writeResponse(ex, 400, "Empty body"); return; }
+            synchronized (writeLock) {
+                java.util.Optional<User> found = userService.findById(id);
+                if (found.isEmpty()) { writeResponse(ex, 404, "Utente non trovato"); return; }
+                User current = found.get();
+                if (!ifMatch(ex, etagOf(gson.toJson(current)))) return;
+                User u = new User(current.getId(), current.getName(), current.getEmail());
+                u.setRegisteredAt(current.getRegisteredAt());
                 try {
-                    Loan l = loanService.markReturned(id);
-                    // mark book available
-                    bookService.getBookById(l.getBookId()).ifPresent(b -> { b.setAvailable(true); bookService.updateBook(b); });
-                    writeJson(ex, 200, l);
-                } catch (IllegalArgumentException e) {
-                    writeResponse(ex, 404, e.getMessage());
+                    if (body.containsKey("name")) u.setName((String) body.get("name"));
+                    if (body.containsKey("email")) u.setEmail((String) body.get("email"));
+                } catch (IllegalArgumentException | ClassCastException e) {
+                    writeResponse(ex, 400, e.getMessage());
+                    return;
                 }
+                try {
+                    userService.update(u);
+                } catch (com.digitallibrary.repository.DuplicateEmailException e) {
+                    writeResponse(ex, 409, e.getMessage());
+                    return;
+                }
+                writeResource(ex, u);
+            }
+            return;
+        }
+        if ("DELETE".equalsIgnoreCase(method)) {
+            synchronized (writeLock) {
+                java.util.Optional<User> found = userService.findById(id);
+                if (found.isEmpty()) { writeResponse(ex, 404, "Utente non trovato"); return; }
+                if (!ifMatch(ex, etagOf(gson.toJson(found.get())))) return;
+                if (hasActiveLoan(loanService.findByUserId(id))) {
+                    writeResponse(ex, 409, "L'utente ha prestiti attivi");
+                    return;
+                }
+                userService.delete(id);
+                noContent(ex);
+            }
+            return;
+        }
+        writeResponse(ex, 405, "Method not allowed");
+    }
+
+    /**
+     * GET, PUT (dueAt as ISO date-time) and DELETE on /api/loans/{id}, with If-Match on writes.
+     * Deleting a loan that is still active makes its book available again.
+     */
+    private void handleLoan(HttpExchange ex, String method, String id) throws IOException {
+        if ("GET".equalsIgnoreCase(method)) {
+            java.util.Optional<Loan> found = loanService.findById(id);
+            if (found.isPresent()) writeResource(ex, found.get());
+            else writeResponse(ex, 404, "Prestito non trovato");
+            return;
+        }
+        if ("PUT".equalsIgnoreCase(method)) {
+            Map<String,Object> body = parseBody(ex);
+            if (body == null) { writeResponse(ex, 400, "Empty body"); return; }
+            synchronized (writeLock) {
+                java.util.Optional<Loan> found = loanService.findById(id);
+                if (found.isEmpty()) { writeResponse(ex, 404, "Prestito non trovato"); return; }
+                Loan current = found.get();
+                if (!ifMatch(ex, etagOf(gson.toJson(current)))) return;
+                Loan l = new Loan();
+                l.setId(current.getId());
+                l.setBookId(current.getBookId());
+                l.setUserId(current.getUserId());
+                l.setLoanedAt(current.getLoanedAt());
+                l.setDueAt(current.getDueAt());
+                l.setReturnedAt(current.getReturnedAt());
+                if (body.containsKey("dueAt")) {
+                    try {
+                        l.setDueAt(java.time.LocalDateTime.parse((String) body.get("dueAt")));
+                    } catch (java.time.format.DateTimeParseException | ClassCastException e) {
+                        writeResponse(ex, 400, "Invalid dueAt: " + body.get("dueAt"));
+                        return;
+                    }
+                }
+                loanService.updateLoan(l);
+                writeResource(ex, l);
+            }
+            return;
+        }
+        if ("DELETE".equalsIgnoreCase(method)) {
+            synchronized (writeLock) {
+                java.util.Optional<Loan> found = loanService.findById(id);
+                if (found.isEmpty()) { writeResponse(ex, 404, "Prestito non trovato"); return; }
+                Loan l = found.get();
+                if (!ifMatch(ex, etagOf(gson.toJson(l)))) return;
+                loanService.delete(id);
+                if (l.getReturnedAt() == null) {
+                    bookService.setAvailable(l.getBookId(), true);
+                }
+                noContent(ex);
+            }
+            return;
+        }
+        writeResponse(ex, 405, "Method not allowed");
+    }
+
+    private static boolean hasActiveLoan(List<Loan> loans) {
+        for (Loan l : loans) if (l.getReturnedAt() == null) return true;
+        return false;
+    }
+
+    private void handleMetrics(HttpExchange ex) throws IOException {
+        try {
+            if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
+                writeResponse(ex, 405, "Method not allowed");
                 return;
             }
+            writeJson(ex, 200, com.digitallibrary.util.Metrics.snapshot());
+        } catch (Throwable t) {
+            t.printStackTrace();
+            try { writeResponse(ex, 500, "Internal Server Error: " + t.getMessage()); } catch (IOException ignore) {}
+        }
+    }
 
-            writeResponse(ex, 405, "Method not allowed");
+    /**
+     * POST /api/batch: either a JSON array of operations or
+     * {"atomic": true, "operations": [...]}. Each operation is an object with an "op" field
+     * (createBook, registerUser, checkout, return) and that operation's fields; "$N" refers
+     * to the id produced by operation N, counting from 1 like the lines of a --batch script. Answers 200 with per-operation results, or 409 when
+     * an atomic batch was rolled back.
+     */
+    private void handleBatch(HttpExchange ex) throws IOException {
+        try {
+            System.out.println("HTTP " + ex.getRequestMethod() + " " + ex.getRequestURI());
+            if (batchService == null) {
+                writeResponse(ex, 404, "Not found");
+                return;
+            }
+            if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
+                writeResponse(ex, 405, "Method not allowed");
+                return;
+            }
+            com.google.gson.JsonElement body;
+            try (InputStream is = ex.getRequestBody(); InputStreamReader r = new InputStreamReader(is, "UTF-8")) {
+                body = com.google.gson.JsonParser.parseReader(r);
+            } catch (com.google.gson.JsonParseException e) {
+                writeResponse(ex, 400, "Invalid JSON: " + e.getMessage());
+                return;
+            }
+            boolean atomic = false;
+            com.google.gson.JsonArray ops;
+            if (body.isJsonArray()) {
+                ops = body.getAsJsonArray();
+            } else if (body.isJsonObject() && body.getAsJsonObject().has("operations")
+                    && body.getAsJsonObject().get("operations").isJsonArray()) {
+                com.google.gson.JsonObject o = body.getAsJsonObject();
+                ops = o.getAsJsonArray("operations");
+                atomic = o.has("atomic") && o.get("atomic").getAsBoolean();
+            } else {
+                writeResponse(ex, 400, "Expected an array of operations");
+                return;
+            }
+            java.lang.reflect.Type type = new TypeToken<Map<String,Object>>(){}.getType();
+            List<BatchService.Operation> operations = new java.util.ArrayList<>(ops.size());
+            for (com.google.gson.JsonElement e : ops) {
+                Map<String,Object> params = e.isJsonObject() ? gson.fromJson(e, type) : new java.util.HashMap<>();
+                Object op = params.remove("op");
+                operations.add(new BatchService.Operation(op == null ? null : op.toString(), params));
+            }
+            BatchService.Outcome outcome;
+            try {
+                outcome = batchService.execute(operations, atomic);
+            } catch (IllegalArgumentException e) {
+                writeResponse(ex, 400, e.getMessage());
+                return;
+            }
+            writeJson(ex, outcome.isCommitted() ? 200 : 409, outcome);
         } catch (Throwable t) {
             t.printStackTrace();
             try { writeResponse(ex, 500, "Internal Server Error: " + t.getMessage()); } catch (IOException ignore) {}
@@ -245,8 +644,217 @@ public class WebServer {
         }
     }
 
-    private void writeJson(HttpExchange ex, int status, Object obj) throws IOException {
+    /**
+     * Returned loans in ?from=YYYY-MM-DD&to=YYYY-MM-DD (both inclusive, either optional), optionally
+     * narrowed by userId and bookId. Only the archive segments of the requested months are read.
+     */
+    private void writeLoanHistory(HttpExchange ex) throws IOException {
+        java.time.LocalDateTime from, to;
+        try {
+            String f = queryParam(ex, "from");
+            String t = queryParam(ex, "to");
+            from = f == null ? null : java.time.LocalDate.parse(f).atStartOfDay();
+            to = t == null ? null : java.time.LocalDate.parse(t).plusDays(1).atStartOfDay();
+        } catch (java.time.format.DateTimeParseException e) {
+            writeResponse(ex, 400, "Invalid date, expected YYYY-MM-DD: " + e.getParsedString());
+            return;
+        }
+        if (from != null && to != null && !from.isBefore(to)) {
+            writeResponse(ex, 400, "from must not be after to");
+            return;
+        }
+        writeJson(ex, 200, archiver.history(from, to, queryParam(ex, "userId"), queryParam(ex, "bookId")));
+    }
+
+    /**
+     * Writes loans enriched with book title and user name, streaming them in chunks:
+     * one projection query per repository and chunk instead of a full lookup per loan,
+     * and memory bounded by the chunk size rather than the number of loans.
+     */
+    private void writeEnrichedLoans(HttpExchange ex) throws IOException {
+        try (java.util.stream.Stream<Loan> loans = loanService.streamAll()) {
+            java.util.Iterator<Loan> it = loans.iterator();
+            // read the first element before the headers go out, so an unreadable source still gets a 500
+            it.hasNext();
+            try (JsonWriter out = startJsonStream(ex, 200)) {
+                out.beginArray();
+                List<Loan> chunk = new java.util.ArrayList<>(ENRICH_CHUNK);
+                while (it.hasNext()) {
+                    chunk.add(it.next());
+                    if (chunk.size() < ENRICH_CHUNK && it.hasNext()) continue;
+                    java.util.Set<String> bookIds = new java.util.HashSet<>();
+                    java.util.Set<String> userIds = new java.util.HashSet<>();
+                    for (Loan l : chunk) {
+                        if (l.getBookId() != null) bookIds.add(l.getBookId());
+                        if (l.getUserId() != null) userIds.add(l.getUserId());
+                    }
+                    Map<String, String> titles = bookService.titlesById(bookIds);
+                    Map<String, String> names = userService.namesById(userIds);
+                    for (Loan l : chunk) {
+                        out.beginObject();
+                        JsonCodecs.writeLoanFields(out, l, JsonCodecs.Style.FILE);
+                        out.name("bookTitle").value(titles.getOrDefault(l.getBookId(), "[sconosciuto]"));
+                        out.name("userName").value(names.getOrDefault(l.getUserId(), "[sconosciuto]"));
+                        out.endObject();
+                    }
+                    chunk.clear();
+                }
+                out.endArray();
+            }
+        }
+    }
+
+    /**
+     * Writes a JSON array element by element while the stream is consumed, without building
+     * the list. The JDK engine sends it with chunked encoding; the NIO engine buffers the
+     * encoded bytes to set Content-Length. The stream is closed here. Database-backed sources
+     * read in short pages, so a slow client does not hold a read transaction open.
+     */
+    private <T> void writeJsonStream(HttpExchange ex, int status, java.util.stream.Stream<T> items, Class<T> type) throws IOException {
+        try (java.util.stream.Stream<T> s = items) {
+            java.util.Iterator<T> it = s.iterator();
+            // read the first element before the headers go out, so an unreadable source still gets a 500
+            it.hasNext();
+            com.google.gson.TypeAdapter<T> adapter = gson.getAdapter(type);
+            try (JsonWriter out = startJsonStream(ex, status)) {
+                out.beginArray();
+                while (it.hasNext()) adapter.write(out, it.next());
+                out.endArray();
+            }
+        }
+    }
+
+    // closing the writer completes the response
+    private JsonWriter startJsonStream(HttpExchange ex, int status) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, 0);
+        return gson.newJsonWriter(new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), "UTF-8"), 8192));
+    }
+
+    /**
+     * Writes a single resource with its ETag. A GET whose If-None-Match already names
+     * the current ETag gets 304 without a body.
+     */
+    private void writeResource(HttpExchange ex, Object obj) throws IOException {
         String json = gson.toJson(obj);
+        String etag = etagOf(json);
+        ex.getResponseHeaders().set("ETag", etag);
+        if ("GET".equalsIgnoreCase(ex.getRequestMethod())
+                && etagListContains(ex.getRequestHeaders().getFirst("If-None-Match"), etag, false)) {
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
+            return;
+        }
+        writeJsonText(ex, 200, json);
+    }
+
+    /**
+     * True when the write may go ahead; otherwise a 412 has already been sent.
+     * If-Match uses the strong comparison (RFC 9110 13.1.1): a weak tag never matches.
+     */
+    private boolean ifMatch(HttpExchange ex, String etag) throws IOException {
+        String header = ex.getRequestHeaders().getFirst("If-Match");
+        if (header == null || etagListContains(header, etag, true)) return true;
+        ex.getResponseHeaders().set("ETag", etag);
+        writeResponse(ex, 412, "Precondition Failed");
+        return false;
+    }
+
+    // "*" or a comma-separated list of entity tags; with weak comparison W/ tags compare by their opaque value
+    private static boolean etagListContains(String header, String etag, boolean strong) {
+        if (header == null) return false;
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                if (strong) continue;
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    // 64-bit FNV-1a of the representation: equal JSON gives an equal tag on every engine and restart
+    static String etagOf(String json) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < json.length(); i++) {
+            h ^= json.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return "\"" + Long.toHexString(h) + "\"";
+    }
+
+    private void noContent(HttpExchange ex) throws IOException {
+        ex.sendResponseHeaders(204, -1);
+        ex.close();
+    }
+
+    /**
+     * Book query from the filter, sort and limit parameters, or null when none is present.
+     * Sort keys are comma separated, a leading '-' meaning descending.
+     */
+    private static com.digitallibrary.repository.BookQuery bookQuery(HttpExchange ex) {
+        String author = queryParam(ex, "author"), genre = queryParam(ex, "genre");
+        String from = queryParam(ex, "yearFrom"), to = queryParam(ex, "yearTo");
+        String sort = queryParam(ex, "sort"), limit = queryParam(ex, "limit");
+        if (author == null && genre == null && from == null && to == null && sort == null && limit == null) return null;
+        com.digitallibrary.repository.BookQuery q = com.digitallibrary.repository.BookQuery.all().author(author);
+        if (genre != null) {
+            // no fallback to OTHER: an unknown genre is a bad request, not a filter on "Altro"
+            q.genre(com.digitallibrary.model.Genre.find(genre)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown genre: " + genre)));
+        }
+        q.yearBetween(intParam("yearFrom", from), intParam("yearTo", to));
+        if (sort != null) {
+            for (String raw : sort.split(",")) {
+                String key = raw.trim();
+                boolean descending = key.startsWith("-");
+                String name = (descending ? key.substring(1) : key).trim().toUpperCase(java.util.Locale.ROOT);
+                try {
+                    q.sortBy(com.digitallibrary.repository.BookQuery.Sort.valueOf(name), !descending);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown sort key: " + key);
+                }
+            }
+        }
+        Integer max = intParam("limit", limit);
+        if (max != null) q.limit(max);
+        return q;
+    }
+
+    private static Integer intParam(String name, String value) {
+        if (value == null) return null;
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    /** Decoded value of the first {@code name=} query parameter, or null when absent. */
+    // splits the raw query first, so an encoded '&' or '=' inside a value cannot cut it short
+    private static String queryParam(HttpExchange ex, String name) {
+        String query = ex.getRequestURI().getRawQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            try {
+                if (java.net.URLDecoder.decode(pair.substring(0, eq), java.nio.charset.StandardCharsets.UTF_8).equals(name)) {
+                    return java.net.URLDecoder.decode(pair.substring(eq + 1), java.nio.charset.StandardCharsets.UTF_8);
+                }
+            } catch (IllegalArgumentException e) {
+                // malformed escape: treat the pair as absent
+            }
+        }
+        return null;
+    }
+
+    private void writeJson(HttpExchange ex, int status, Object obj) throws IOException {
+        writeJsonText(ex, status, gson.toJson(obj));
+    }
+
+    private void writeJsonText(HttpExchange ex, int status, String json) throws IOException {
         byte[] bytes = json.getBytes("UTF-8");
         Headers h = ex.getResponseHeaders();
         h.set("Content-Type", "application/json; charset=utf-8");
@@ -0,0 +1,65 @@
+package com.digitallibrary;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Loan;
+import com.digitallibrary.repository.JsonBookRepository;
+import com.digitallibrary.repository.JsonLoanRepository;
+import com.digitallibrary.repository.JsonUserRepository;
+import com.digitallibrary.repository.WriteBatching;
+import com.digitallibrary.service.BookService;
+import com.digitallibrary.service.LoanService;
+import com.digitallibrary.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScriptRunnerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testScriptRunsWithReferencesAndGroupCommits() throws Exception {
+        JsonBookRepository bookRepo = new JsonBookRepository(dir.resolve("books.json").toString());
+        JsonUserRepository userRepo = new JsonUserRepository(dir.resolve("users.json").toString());
+        JsonLoanRepository loanRepo = new JsonLoanRepository(dir.resolve("loans.json").toString());
+        ScriptRunner runner = new ScriptRunner(new BookService(bookRepo), new UserService(userRepo), new LoanService(loanRepo),
+            WriteBatching.of(bookRepo, userRepo, loanRepo), 2);
+        String script = String.join("\n",
+            "# catalogo di prova",
+            "add Primo | Autore | 1 | 2001 | 9780306406157",
+            "add Doppione | Autore | Narrativa | 2002 | 978-0-306-40615-7",
+            "user Lettore | lettore@example.com",
+            "loan $2 | $4 | 7",
+            "loan $2 | $4",
+            "search primo",
+            "return $5",
+            "comando");
+        StringWriter out = new StringWriter();
+        ScriptRunner.Summary summary = runner.run(new BufferedReader(new StringReader(script)), new PrintWriter(out));
+
+        assertEquals(8, summary.getCommands());
+        // ISBN duplicato, libro già in prestito, comando sconosciuto
+        assertEquals(3, summary.getErrors());
+        assertEquals(4, summary.getCommits());
+        assertTrue(out.toString().contains("Riga 3: ISBN già presente"));
+        assertTrue(out.toString().contains("Riga 9: Comando sconosciuto: comando"));
+
+        // tutto scritto su disco alla fine
+        List<Book> books = new JsonBookRepository(dir.resolve("books.json").toString()).loadAll();
+        assertEquals(1, books.size());
+        assertTrue(books.get(0).isAvailable());
+        List<Loan> loans = new JsonLoanRepository(dir.resolve("loans.json").toString()).findAll();
+        assertEquals(1, loans.size());
+        assertNotNull(loans.get(0).getReturnedAt());
+        assertEquals(1, new JsonUserRepository(dir.resolve("users.json").toString()).findAll().size());
+    }
+}
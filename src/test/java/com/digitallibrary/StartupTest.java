@@ -0,0 +1,54 @@
+package com.digitallibrary;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StartupTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testIndependentPhasesRunInParallelAndBackgroundDoesNotBlockReady() throws Exception {
+        Startup startup = new Startup();
+        // le due fasi si aspettano a vicenda: terminano solo se girano in parallelo
+        CountDownLatch both = new CountDownLatch(2);
+        Startup.Phase<String> a = startup.phase("a", () -> {
+            both.countDown();
+            assertTrue(both.await(5, TimeUnit.SECONDS));
+            return "A";
+        });
+        Startup.Phase<String> b = startup.phase("b", () -> {
+            both.countDown();
+            assertTrue(both.await(5, TimeUnit.SECONDS));
+            return "B";
+        });
+        Startup.Phase<String> ab = startup.phase("ab", () -> a.get() + b.get(), a, b);
+        CountDownLatch release = new CountDownLatch(1);
+        startup.background("slow", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, ab);
+        Startup.Phase<Void> failing = startup.background("failing", () -> { throw new IllegalStateException("rotto"); });
+
+        startup.ready();
+        assertEquals("AB", ab.get());
+        assertTrue(startup.readyMillis() >= 0);
+        assertTrue(startup.summary().contains("slow in corso"), startup.summary());
+
+        release.countDown();
+        startup.awaitAll();
+        assertThrows(IllegalStateException.class, failing::get);
+        Map<String, Object> phases = (Map<String, Object>) startup.stats().get("phases");
+        assertEquals(5, phases.size());
+        assertEquals("rotto", ((Map<String, Object>) phases.get("failing")).get("error"));
+        assertEquals(true, ((Map<String, Object>) phases.get("slow")).get("background"));
+        assertTrue(startup.summary().contains("(errore)"));
+    }
+}
@@ -0,0 +1,111 @@
+package com.digitallibrary.bench;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookLoadReport;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.repository.BookRepository;
+import com.digitallibrary.repository.CsvBookRepository;
+import com.digitallibrary.repository.JsonBookRepository;
+import com.digitallibrary.repository.SqliteBookRepository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tempo di loadAll() dei backend su file e SQLite e costo della sola costruzione dei libri:
+ * costruttore vuoto + setter con validazione per riga (come i loader precedenti) contro
+ * {@link BookLoadReport#restore} con validazione per lotto.
+ * Uso: java -cp out:libs/* com.digitallibrary.bench.BookLoadBench [numeroLibri] [directory]
+ */
+public class BookLoadBench {
+
+    private static final int ROUNDS = 7;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Path dir = args.length > 1 ? Files.createDirectories(Path.of(args[1])) : Files.createTempDirectory("load-bench");
+        List<Book> books = catalog(n);
+        System.out.printf("libri: %,d, directory %s%n", n, dir);
+
+        // campi già estratti e date già convertite: si misura solo la costruzione
+        String[][] rows = new String[n][];
+        LocalDateTime[] dates = new LocalDateTime[n];
+        for (int i = 0; i < n; i++) {
+            Book b = books.get(i);
+            rows[i] = new String[]{b.getId(), b.getTitle(), b.getAuthor(), b.getGenre().getDisplayName(),
+                String.valueOf(b.getPublicationYear()), b.getIsbn(), "true"};
+            dates[i] = b.getAddedDate();
+        }
+        double setters = time(() -> {
+            int sink = 0;
+            for (int i = 0; i < n; i++) sink += withSetters(rows[i], dates[i]).getPublicationYear();
+            return sink;
+        });
+        double restore = time(() -> {
+            BookLoadReport report = new BookLoadReport();
+            int sink = 0;
+            for (int i = 0; i < n; i++) {
+                String[] r = rows[i];
+                sink += report.restore(r[0], r[1], r[2], Genre.fromDisplayName(r[3]), Integer.parseInt(r[4]), r[5],
+                    Boolean.parseBoolean(r[6]), dates[i]).getPublicationYear();
+            }
+            return sink;
+        });
+        System.out.printf("costruzione: setter %8.1f ms, restore %8.1f ms (%.2fx)%n", setters, restore, setters / restore);
+
+        load("JsonBookRepository", new JsonBookRepository(dir.resolve("bench.json").toString()), books);
+        load("CsvBookRepository", new CsvBookRepository(dir.resolve("bench.csv").toString()), books);
+        Files.deleteIfExists(dir.resolve("bench.db"));
+        load("SqliteBookRepository", new SqliteBookRepository(dir.resolve("bench.db").toString()), books);
+    }
+
+    private static List<Book> catalog(int n) {
+        List<Book> books = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Book b = new Book(String.format("%08d-bench", i), "Titolo " + i, "Autore " + i % 500,
+                Genre.fromIndex(i % 26 + 1), 1900 + i % 120, String.valueOf(9780000000000L + i));
+            b.setAddedDate(LocalDateTime.of(2024, 1, 1, 0, 0).plusMinutes(i));
+            books.add(b);
+        }
+        return books;
+    }
+
+    // percorso dei loader prima di BookLoadReport: costruttore vuoto e setter con validazione
+    private static Book withSetters(String[] r, LocalDateTime added) {
+        Book b = new Book();
+        b.setId(r[0]);
+        b.setTitle(r[1]);
+        b.setAuthor(r[2]);
+        b.setGenre(Genre.fromDisplayName(r[3]));
+        b.setPublicationYear(Integer.parseInt(r[4]));
+        b.setIsbn(r[5]);
+        b.setAvailable(Boolean.parseBoolean(r[6]));
+        b.setAddedDate(added);
+        return b;
+    }
+
+    private static void load(String label, BookRepository repo, List<Book> books) {
+        repo.saveAll(books);
+        double ms = time(() -> repo.loadAll().size());
+        System.out.printf("%-22s loadAll %8.1f ms%n", label, ms);
+    }
+
+    // mediana dei tempi dopo due giri di riscaldamento
+    private static double time(java.util.function.IntSupplier job) {
+        long sink = 0;
+        for (int i = 0; i < 2; i++) sink += job.getAsInt();
+        double[] samples = new double[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            sink += job.getAsInt();
+            samples[i] = (System.nanoTime() - t0) / 1e6;
+        }
+        if (sink == 42) System.out.println();
+        Arrays.sort(samples);
+        return samples[ROUNDS / 2];
+    }
+}
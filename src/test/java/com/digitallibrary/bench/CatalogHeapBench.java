@@ -0,0 +1,50 @@
+package com.digitallibrary.bench;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.repository.BookRepository;
+import com.digitallibrary.repository.CompactBookRepository;
+import com.digitallibrary.repository.InMemoryBookRepository;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Confronta l'occupazione di heap di InMemoryBookRepository e CompactBookRepository.
+ * Uso: java -Xmx4g -cp out com.digitallibrary.bench.CatalogHeapBench [numeroLibri]
+ */
+public class CatalogHeapBench {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long map = measure(new InMemoryBookRepository(), n);
+        long compact = measure(new CompactBookRepository(), n);
+        System.out.printf("libri: %d%n", n);
+        System.out.printf("InMemoryBookRepository:  %,d byte (%d byte/libro)%n", map, map / n);
+        System.out.printf("CompactBookRepository:   %,d byte (%d byte/libro)%n", compact, compact / n);
+        System.out.printf("riduzione: %.2fx%n", (double) map / compact);
+    }
+
+    private static long measure(BookRepository repo, int n) {
+        long before = usedHeap();
+        String[] authors = new String[500];
+        for (int i = 0; i < authors.length; i++) authors[i] = "Autore " + i;
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < n; i++) {
+            // autore e ISBN come nuove stringhe, come dopo il parsing di un file
+            Book b = new Book(UUID.randomUUID().toString(), "Titolo " + i, new String(authors[i % authors.length]),
+                    Genre.fromIndex(i % 26 + 1), 1900 + i % 120, String.valueOf(9780000000000L + i));
+            b.setAddedDate(base.plusSeconds(i));
+            repo.save(b);
+        }
+        long after = usedHeap();
+        if (repo.findById("x").isPresent()) System.out.println();
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,87 @@
+package com.digitallibrary.bench;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.repository.BookRepository;
+import com.digitallibrary.repository.CompactBookRepository;
+import com.digitallibrary.repository.InMemoryBookRepository;
+import com.digitallibrary.service.BookService;
+import com.digitallibrary.util.ParallelScan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Misura la scalabilità delle scansioni del catalogo (ricerca per titolo, filtro combinato,
+ * conteggio per genere) passando da 1 a N worker del motore fork/join.
+ * Uso: java -Xmx4g -cp out com.digitallibrary.bench.CatalogScanBench [numeroLibri] [maxWorker]
+ */
+public class CatalogScanBench {
+
+    private static final int ROUNDS = 7;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxWorkers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        List<Book> books = catalog(n);
+        System.out.printf("libri: %,d, processori: %d%n", n, Runtime.getRuntime().availableProcessors());
+        run("InMemoryBookRepository", new InMemoryBookRepository(), books, maxWorkers);
+        run("CompactBookRepository", new CompactBookRepository(), books, maxWorkers);
+    }
+
+    private static List<Book> catalog(int n) {
+        List<Book> books = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Book b = new Book(UUID.randomUUID().toString(), "Titolo " + i, "Autore " + i % 500,
+                    Genre.fromIndex(i % 26 + 1), 1900 + i % 120, String.valueOf(9780000000000L + i));
+            b.setAvailable(i % 5 != 0);
+            books.add(b);
+        }
+        return books;
+    }
+
+    private static void run(String label, BookRepository repo, List<Book> books, int maxWorkers) {
+        repo.saveAll(books);
+        System.out.println(label);
+        double[] base = null;
+        for (int workers : workerCounts(maxWorkers)) {
+            ParallelScan scanner = new ParallelScan(workers);
+            BookService service = new BookService(repo, scanner);
+            double[] ms = {
+                time(() -> service.searchByTitle("99").size()),
+                time(() -> service.filter(Optional.of("Autore 42"), Optional.empty(), Optional.of(1950)).size()),
+                time(() -> service.countByGenre().size()),
+            };
+            if (base == null) base = ms;
+            System.out.printf("  worker %2d: titolo %8.1f ms (%.2fx)  filtro %8.1f ms (%.2fx)  per genere %8.1f ms (%.2fx)%n",
+                workers, ms[0], base[0] / ms[0], ms[1], base[1] / ms[1], ms[2], base[2] / ms[2]);
+            scanner.shutdown();
+        }
+    }
+
+    // potenze di due fino a maxWorkers, più maxWorkers stesso se non lo è
+    static List<Integer> workerCounts(int maxWorkers) {
+        List<Integer> counts = new ArrayList<>();
+        for (int w = 1; w <= maxWorkers; w *= 2) counts.add(w);
+        if (counts.get(counts.size() - 1) != maxWorkers) counts.add(maxWorkers);
+        return counts;
+    }
+
+    // mediana dei tempi dopo due giri di riscaldamento
+    private static double time(java.util.function.IntSupplier job) {
+        long sink = 0;
+        for (int i = 0; i < 2; i++) sink += job.getAsInt();
+        double[] samples = new double[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            sink += job.getAsInt();
+            samples[i] = (System.nanoTime() - t0) / 1e6;
+        }
+        if (sink == 42) System.out.println();
+        Arrays.sort(samples);
+        return samples[ROUNDS / 2];
+    }
+}
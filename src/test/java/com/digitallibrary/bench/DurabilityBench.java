@@ -0,0 +1,63 @@
+package com.digitallibrary.bench;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.repository.Durability;
+import com.digitallibrary.repository.DurableFileWriter;
+import com.digitallibrary.repository.JsonBookRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Throughput e latenza delle scritture di JsonBookRepository nei tre modi di durabilità.
+ * Ogni operazione è un update, che riscrive l'intero file come in produzione.
+ * Uso: java -cp out com.digitallibrary.bench.DurabilityBench [libriNelFile] [operazioni] [directory]
+ */
+public class DurabilityBench {
+
+    public static void main(String[] args) throws IOException {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        Path dir = args.length > 2 ? Files.createDirectories(Path.of(args[2])) : Files.createTempDirectory("durability-bench");
+        System.out.printf("file con %d libri, %d update per modo, directory %s%n", books, ops, dir);
+        // giro di riscaldamento del JIT, non stampato
+        run(Durability.NONE, books, ops, dir, false);
+        for (Durability mode : Durability.values()) run(mode, books, ops, dir, true);
+    }
+
+    private static void run(Durability mode, int books, int ops, Path dir, boolean print) throws IOException {
+        Path file = dir.resolve("bench-" + mode.name().toLowerCase() + ".json");
+        Files.deleteIfExists(file);
+        try (DurableFileWriter writer = new DurableFileWriter(mode, 100)) {
+            JsonBookRepository repo = new JsonBookRepository(file.toString(), writer);
+            List<Book> catalog = new ArrayList<>();
+            for (int i = 0; i < books; i++) {
+                catalog.add(new Book("b" + i, "Titolo " + i, "Autore " + i % 20, Genre.FICTION, 1950 + i % 70,
+                        String.valueOf(9780000000000L + i)));
+            }
+            repo.saveAll(catalog);
+            long[] latencies = new long[ops];
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                Book b = catalog.get(i % books);
+                b.setAvailable(!b.isAvailable());
+                long t0 = System.nanoTime();
+                repo.update(b);
+                latencies[i] = System.nanoTime() - t0;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latencies);
+            Map<String, Object> stats = writer.stats();
+            if (print) System.out.printf("%-6s %,8.0f scritture/s  p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms  fsync %s%n",
+                mode.name().toLowerCase(), ops / seconds, latencies[ops / 2] / 1e6,
+                latencies[Math.min(ops - 1, (int) (ops * 0.99))] / 1e6, latencies[ops - 1] / 1e6, stats.get("fsyncs"));
+        }
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,236 @@
+package com.digitallibrary.bench;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.repository.InMemoryBookRepository;
+import com.digitallibrary.repository.InMemoryLoanRepository;
+import com.digitallibrary.repository.InMemoryUserRepository;
+import com.digitallibrary.service.BookService;
+import com.digitallibrary.service.LoanService;
+import com.digitallibrary.service.UserService;
+import com.digitallibrary.util.Isbn;
+import com.digitallibrary.web.WebServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Confronta il server JDK e il front end NIO con molte connessioni keep-alive contemporanee.
+ * Ogni connessione ripete GET /api/books/isbn/{isbn} appena riceve la risposta precedente.
+ * <p>
+ * Uso, server e carico nello stesso processo (servono ~2 descrittori per connessione):
+ * <pre>java -cp out com.digitallibrary.bench.HttpServerBench [connessioni] [secondi] [jdk|nio|both]</pre>
+ * oppure in due processi separati:
+ * <pre>java -cp out com.digitallibrary.bench.HttpServerBench serve jdk|nio [porta]
+ * java -cp out com.digitallibrary.bench.HttpServerBench load host:porta [connessioni] [secondi]</pre>
+ */
+public class HttpServerBench {
+
+    private static final String ISBN = "9780306406157";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("serve")) {
+            String engine = args.length > 1 ? args[1] : "nio";
+            int port = args.length > 2 ? Integer.parseInt(args[2]) : 18080;
+            start(engine, port);
+            System.err.println("server " + engine + " in ascolto sulla porta " + port);
+            Thread.currentThread().join();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("load")) {
+            String[] hp = args[1].split(":");
+            int connections = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+            int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            run(hp[0].isEmpty() ? "localhost" : hp[0], Integer.parseInt(hp[1]), connections, seconds).print(args[1]);
+            return;
+        }
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String which = args.length > 2 ? args[2] : "both";
+        int port = 18080;
+        for (String engine : which.equals("both") ? new String[] { "jdk", "nio" } : new String[] { which }) {
+            WebServer ws = start(engine, port);
+            run("localhost", port, connections, seconds).print(engine);
+            ws.stop();
+            port++;
+        }
+    }
+
+    private static WebServer start(String engine, int port) throws IOException {
+        // i handler stampano ogni richiesta: in un benchmark misurerebbero solo la console
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        InMemoryBookRepository books = new InMemoryBookRepository();
+        for (int i = 0; i < 100; i++) {
+            String isbn = i == 0 ? ISBN : Isbn.format(9780000000000L + i * 10L);
+            books.save(new Book("book-" + i, "Titolo " + i, "Autore " + i % 10, Genre.FICTION, 1950 + i, isbn));
+        }
+        WebServer ws = new WebServer(port, new BookService(books),
+            new UserService(new InMemoryUserRepository()), new LoanService(new InMemoryLoanRepository()));
+        ws.setUseNio(engine.equals("nio"));
+        ws.start();
+        return ws;
+    }
+
+    /** Risultato di un'esecuzione del carico. */
+    private static final class Result {
+        int connected;
+        int failed;
+        long requests;
+        long errors;
+        double seconds;
+        long[] latencies = new long[1 << 16];
+        int samples;
+
+        void record(long nanos) {
+            if (samples == latencies.length) latencies = Arrays.copyOf(latencies, samples * 2);
+            latencies[samples++] = nanos;
+        }
+
+        void print(String label) {
+            Arrays.sort(latencies, 0, samples);
+            System.err.printf("%s: connessioni %d (fallite %d), richieste %,d in %.1f s = %,.0f req/s, errori %d, "
+                    + "latenza p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                label, connected, failed, requests, seconds, requests / seconds, errors,
+                percentile(0.50), percentile(0.99), percentile(1.0));
+        }
+
+        private double percentile(double p) {
+            if (samples == 0) return 0;
+            int i = Math.min(samples - 1, (int) Math.ceil(p * samples) - 1);
+            return latencies[Math.max(0, i)] / 1e6;
+        }
+    }
+
+    /** Stato di una connessione del generatore di carico. */
+    private static final class Client {
+        final SocketChannel channel;
+        final ByteBuffer request;
+        final ByteBuffer in = ByteBuffer.allocate(4096);
+        long sentAt;
+        boolean connected;
+
+        Client(SocketChannel channel, ByteBuffer request) {
+            this.channel = channel;
+            this.request = request;
+        }
+    }
+
+    // generatore di carico a selettore singolo: mantiene esattamente una richiesta in volo per connessione
+    private static Result run(String host, int port, int connections, int seconds) throws IOException {
+        byte[] req = ("GET /api/books/isbn/" + ISBN + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        Result result = new Result();
+        InetSocketAddress addr = new InetSocketAddress(host, port);
+        try (Selector selector = Selector.open()) {
+            long connectDeadline = System.nanoTime() + 60_000_000_000L;
+            for (int i = 0; i < connections; i++) {
+                SocketChannel ch = SocketChannel.open();
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Client c = new Client(ch, ByteBuffer.wrap(req));
+                ch.connect(addr);
+                ch.register(selector, SelectionKey.OP_CONNECT, c);
+                // apre le connessioni a blocchi, così la coda di accept del server non trabocca
+                if (i % 500 == 499) pump(selector, result, 50, false);
+            }
+            while (result.connected + result.failed < connections && System.nanoTime() < connectDeadline) {
+                pump(selector, result, 100, false);
+            }
+            result.failed = connections - result.connected;
+            result.requests = 0;
+            result.errors = 0;
+            result.samples = 0;
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            while (System.nanoTime() < end) pump(selector, result, 100, true);
+            result.seconds = (System.nanoTime() - start) / 1e9;
+            for (SelectionKey k : selector.keys()) {
+                try { k.channel().close(); } catch (IOException ignore) {}
+            }
+        }
+        return result;
+    }
+
+    private static void pump(Selector selector, Result result, long timeoutMs, boolean measure) throws IOException {
+        selector.select(timeoutMs);
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Client c = (Client) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    if (c.channel.finishConnect()) {
+                        c.connected = true;
+                        result.connected++;
+                        send(c, key);
+                    }
+                    continue;
+                }
+                if (key.isWritable()) {
+                    c.channel.write(c.request);
+                    if (!c.request.hasRemaining()) key.interestOps(SelectionKey.OP_READ);
+                }
+                if (key.isReadable()) {
+                    int n = c.channel.read(c.in);
+                    if (n < 0) throw new IOException("connessione chiusa dal server");
+                    int complete = responseLength(c.in);
+                    if (complete > 0) {
+                        if (measure) {
+                            result.requests++;
+                            result.record(System.nanoTime() - c.sentAt);
+                            if (c.in.get(9) != '2') result.errors++;
+                        }
+                        // sposta eventuali byte già arrivati oltre la risposta
+                        c.in.flip();
+                        c.in.position(complete);
+                        c.in.compact();
+                        send(c, key);
+                    }
+                }
+            } catch (IOException e) {
+                if (c.connected) {
+                    result.connected--;
+                    if (measure) result.errors++;
+                }
+                result.failed++;
+                key.cancel();
+                try { c.channel.close(); } catch (IOException ignore) {}
+            }
+        }
+    }
+
+    private static void send(Client c, SelectionKey key) throws IOException {
+        c.request.rewind();
+        c.sentAt = System.nanoTime();
+        c.channel.write(c.request);
+        key.interestOps(c.request.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    // lunghezza della prima risposta completa nel buffer, o 0 se non è ancora arrivata tutta
+    private static int responseLength(ByteBuffer in) {
+        int len = in.position();
+        for (int i = 3; i < len; i++) {
+            if (in.get(i - 3) == '\r' && in.get(i - 2) == '\n' && in.get(i - 1) == '\r' && in.get(i) == '\n') {
+                String head = new String(in.array(), 0, i, StandardCharsets.ISO_8859_1).toLowerCase();
+                int p = head.indexOf("content-length:");
+                int body = 0;
+                if (p >= 0) {
+                    int e = head.indexOf('\r', p);
+                    body = Integer.parseInt(head.substring(p + 15, e < 0 ? head.length() : e).trim());
+                }
+                return i + 1 + body <= len ? i + 1 + body : 0;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,80 @@
+package com.digitallibrary.codec;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.model.Loan;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonCodecsTest {
+
+    @Test
+    public void testBookFileFormatRoundTrip() throws Exception {
+        Book b = new Book("b1", "Il nome della rosa", "Umberto Eco", Genre.SCIENCE_FICTION, 1980, "9780306406157");
+        b.setAddedDate(LocalDateTime.of(2024, 8, 1, 10, 0));
+        StringWriter sw = new StringWriter();
+        JsonCodecs.writeList(sw, List.of(b), JsonCodecs.BOOK_FILE, false);
+        assertEquals("[{\"id\":\"b1\",\"title\":\"Il nome della rosa\",\"author\":\"Umberto Eco\",\"genre\":\"Fantascienza\","
+            + "\"publicationYear\":1980,\"isbn\":\"9780306406157\",\"available\":true,\"addedDate\":\"2024-08-01T10:00\"}]", sw.toString());
+
+        Book read = JsonCodecs.readList(new StringReader(sw.toString()), JsonCodecs.BOOK_FILE).get(0);
+        assertEquals(Genre.SCIENCE_FICTION, read.getGenre());
+        assertEquals(1980, read.getPublicationYear());
+        assertEquals(LocalDateTime.of(2024, 8, 1, 10, 0), read.getAddedDate());
+    }
+
+    @Test
+    public void testReadSkipsRowsWithoutIdAndAcceptsApiGenreNames() throws Exception {
+        String json = "[{\"title\":\"x\"},{\"id\":\"b2\",\"title\":\"T\",\"author\":\"A\",\"genre\":\"SCIENCE_FICTION\","
+            + "\"publicationYear\":2001.0,\"isbn\":\"0306406152\",\"available\":\"false\",\"extra\":[1,2]}]";
+        List<Book> books = JsonCodecs.readList(new StringReader(json), JsonCodecs.BOOK_FILE);
+        assertEquals(1, books.size());
+        assertEquals(Genre.SCIENCE_FICTION, books.get(0).getGenre());
+        assertEquals(2001, books.get(0).getPublicationYear());
+        assertFalse(books.get(0).isAvailable());
+        assertTrue(JsonCodecs.readList(new StringReader(""), JsonCodecs.BOOK_FILE).isEmpty());
+    }
+
+    @Test
+    public void testLoanDatesWithFractionsAndEmptyReturn() throws Exception {
+        String json = "[{\"id\":\"l1\",\"bookId\":\"b\",\"userId\":\"u\",\"loanedAt\":\"2025-09-01T11:34:53.148420200\","
+            + "\"dueAt\":\"2025-09-15T11:34\",\"returnedAt\":\"\"}]";
+        Loan l = JsonCodecs.readList(new StringReader(json), JsonCodecs.LOAN_FILE).get(0);
+        assertEquals(LocalDateTime.of(2025, 9, 1, 11, 34, 53, 148420200), l.getLoanedAt());
+        assertEquals(LocalDateTime.of(2025, 9, 15, 11, 34), l.getDueAt());
+        assertNull(l.getReturnedAt());
+        assertNull(IsoDateTimeCodec.parse("2025-13-01T00:00"));
+    }
+
+    @Test
+    public void testStreamListIsLazyAndClosesReader() throws Exception {
+        // il secondo elemento è troncato: chi si ferma al primo non deve accorgersene
+        String json = "[{\"id\":\"b1\",\"title\":\"Uno\",\"author\":\"A\",\"isbn\":\"0306406152\"},{\"id\":\"b2\",\"title\":";
+        boolean[] closed = { false };
+        StringReader reader = new StringReader(json) {
+            @Override
+            public void close() {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        try (Stream<Book> books = JsonCodecs.streamList(reader, JsonCodecs.BOOK_FILE)) {
+            assertEquals("Uno", books.findFirst().get().getTitle());
+        }
+        assertTrue(closed[0]);
+
+        try (Stream<Book> books = JsonCodecs.streamList(new StringReader(json), JsonCodecs.BOOK_FILE)) {
+            assertThrows(RuntimeException.class, () -> books.count());
+        }
+        try (Stream<Book> books = JsonCodecs.streamList(new StringReader(""), JsonCodecs.BOOK_FILE)) {
+            assertEquals(0, books.count());
+        }
+    }
+}
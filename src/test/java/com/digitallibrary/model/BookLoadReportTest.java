@@ -0,0 +1,54 @@
+package com.digitallibrary.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BookLoadReportTest {
+
+    @Test
+    public void testInvalidFieldsAreCollectedInsteadOfThrown() {
+        BookLoadReport report = new BookLoadReport();
+        LocalDateTime added = LocalDateTime.of(2024, 1, 1, 10, 0);
+        Book ok = report.restore("b1", "Titolo", "Autore", Genre.FICTION, 1980, "9780306406157", false, added);
+        Book bad = report.restore("b2", "Titolo", "", Genre.FICTION, 3000, "12345", true, null);
+
+        assertEquals(2, report.getRecords());
+        assertEquals(1, report.getInvalid());
+        assertFalse(report.isClean());
+        assertEquals(1, report.getMessages().size());
+        assertTrue(report.getMessages().get(0).startsWith("b2: anno 3000"));
+
+        assertEquals(1980, ok.getPublicationYear());
+        assertFalse(ok.isAvailable());
+        assertEquals(added, ok.getAddedDate());
+        // anno fuori intervallo azzerato come nei loader con i setter, il resto lasciato com'è
+        assertEquals(0, bad.getPublicationYear());
+        assertEquals("12345", bad.getIsbn());
+        assertNotNull(bad.getAddedDate());
+    }
+
+    @Test
+    public void testUntrackedReportAppliesRulesWithoutCounting() {
+        BookLoadReport shared = BookLoadReport.untracked();
+        assertSame(shared, BookLoadReport.untracked());
+        Book bad = shared.restore("b1", "Titolo", "", Genre.FICTION, 3000, "12345", true, null);
+        assertEquals(0, bad.getPublicationYear());
+        assertNotNull(bad.getAddedDate());
+        assertEquals(0, shared.getRecords());
+        assertEquals(0, shared.getInvalid());
+        assertTrue(shared.getMessages().isEmpty());
+    }
+
+    @Test
+    public void testMessagesAreCappedButAllCounted() {
+        BookLoadReport report = new BookLoadReport();
+        for (int i = 0; i < BookLoadReport.MAX_MESSAGES + 5; i++) {
+            report.restore("b" + i, "Titolo", "Autore", Genre.OTHER, 0, "", true, null);
+        }
+        assertEquals(BookLoadReport.MAX_MESSAGES + 5, report.getInvalid());
+        assertEquals(BookLoadReport.MAX_MESSAGES, report.getMessages().size());
+    }
+}
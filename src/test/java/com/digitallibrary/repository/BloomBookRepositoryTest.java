@@ -0,0 +1,71 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomBookRepositoryTest {
+
+    /** Conta le letture per id che raggiungono lo storage. */
+    private static class CountingRepository extends InMemoryBookRepository {
+        final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public Optional<Book> findById(String id) {
+            lookups.incrementAndGet();
+            return super.findById(id);
+        }
+    }
+
+    @Test
+    public void testUnknownIdsSkipStorage() {
+        CountingRepository storage = new CountingRepository();
+        storage.save(new Book("b1", "Titolo", "Autore", Genre.FICTION, 2001, "9780306406157"));
+        BloomBookRepository repo = new BloomBookRepository(storage, 0.01);
+
+        assertTrue(repo.findById("b1").isPresent());
+        assertEquals(1, storage.lookups.get());
+
+        for (int i = 0; i < 1000; i++) assertTrue(repo.findById("missing-" + i).isEmpty());
+        IdBloomGuard.Stats stats = repo.stats();
+        assertEquals(1001, stats.getLookups());
+        // ogni ricerca arrivata allo storage per un id assente è un falso positivo contato
+        assertEquals(stats.getFalsePositives(), storage.lookups.get() - 1);
+        assertTrue(stats.getDefiniteMisses() > 950);
+    }
+
+    @Test
+    public void testSaveMakesIdVisible() {
+        BloomBookRepository repo = new BloomBookRepository(new InMemoryBookRepository(), 0.01);
+        assertTrue(repo.findById("b2").isEmpty());
+        repo.save(new Book("b2", "Altro", "Autore", Genre.FICTION, 1999, "0306406152"));
+        assertTrue(repo.findById("b2").isPresent());
+        repo.saveAll(List.of(new Book("b3", "Terzo", "Autore", Genre.FICTION, 1998, "9780131103627")));
+        assertTrue(repo.findById("b3").isPresent());
+    }
+
+    @Test
+    public void testRebuildOnlyOutsideBatch() {
+        BloomBookRepository repo = new BloomBookRepository(new InMemoryBookRepository(), 0.01);
+        long rebuilds = repo.stats().getRebuilds();
+        repo.loadAll();
+        assertEquals(rebuilds, repo.stats().getRebuilds());
+
+        repo.beginBatch();
+        repo.saveAll(List.of(new Book("b4", "Quarto", "Autore", Genre.FICTION, 1997, "9780306406157")));
+        // nel batch gli id sono aggiunti al filtro senza ricostruirlo
+        assertEquals(rebuilds, repo.stats().getRebuilds());
+        assertTrue(repo.findById("b4").isPresent());
+        repo.endBatch(true);
+
+        repo.saveAll(List.of(new Book("b5", "Quinto", "Autore", Genre.FICTION, 1996, "9780131103627")));
+        assertEquals(rebuilds + 1, repo.stats().getRebuilds());
+        assertTrue(repo.findById("b5").isPresent());
+    }
+}
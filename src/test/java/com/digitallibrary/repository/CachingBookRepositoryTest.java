@@ -0,0 +1,59 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.util.LruCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingBookRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    // legge il titolo su un altro thread, fuori dal batch del thread del test
+    private static String titleElsewhere(BookRepository repo, String id) throws InterruptedException {
+        AtomicReference<String> title = new AtomicReference<>();
+        Thread t = new Thread(() -> title.set(repo.findById(id).map(Book::getTitle).orElse(null)));
+        t.start();
+        t.join();
+        return title.get();
+    }
+
+    @Test
+    public void testBatchReadsDoNotReachOtherThreads() throws Exception {
+        CachingBookRepository repo = new CachingBookRepository(
+            new JsonBookRepository(dir.resolve("books.json").toString()), new LruCache<>(100, 0));
+        repo.save(new Book("b1", "Originale", "A", Genre.OTHER, 2000, null));
+
+        repo.beginBatch();
+        Book edited = repo.findById("b1").get();
+        edited.setTitle("Nel batch");
+        repo.update(edited);
+        repo.save(new Book("b2", "Nuovo", "A", Genre.OTHER, 2000, null));
+        // il thread del batch vede le proprie modifiche, gli altri no
+        assertEquals("Nel batch", repo.findById("b1").get().getTitle());
+        assertEquals("Nuovo", repo.findById("b2").get().getTitle());
+        assertEquals("Originale", titleElsewhere(repo, "b1"));
+        assertNull(titleElsewhere(repo, "b2"));
+        repo.endBatch(false);
+
+        assertEquals("Originale", titleElsewhere(repo, "b1"));
+        assertTrue(repo.findById("b2").isEmpty());
+
+        // dopo la scrittura del batch la voce letta prima dagli altri thread non resta in cache
+        repo.beginBatch();
+        edited = repo.findById("b1").get();
+        edited.setTitle("Scritto");
+        repo.update(edited);
+        assertEquals("Originale", titleElsewhere(repo, "b1"));
+        repo.endBatch(true);
+        assertEquals("Scritto", titleElsewhere(repo, "b1"));
+        assertEquals("Scritto", repo.findById("b1").get().getTitle());
+    }
+}
@@ -0,0 +1,126 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactBookRepositoryTest {
+
+    @Test
+    public void testRoundTripPreservesFields() {
+        CompactBookRepository repo = new CompactBookRepository();
+        String id = UUID.randomUUID().toString();
+        Book b = new Book(id, "Il nome della rosa", "Umberto Eco", Genre.FICTION, 1980, "0306406152");
+        b.setAvailable(false);
+        b.setAddedDate(LocalDateTime.of(2024, 8, 1, 10, 0));
+        repo.save(b);
+
+        Book read = repo.findById(id).orElseThrow();
+        assertEquals(id, read.getId());
+        assertEquals("Il nome della rosa", read.getTitle());
+        assertEquals("Umberto Eco", read.getAuthor());
+        assertEquals(Genre.FICTION, read.getGenre());
+        assertEquals(1980, read.getPublicationYear());
+        assertEquals("0306406152", read.getIsbn());
+        assertFalse(read.isAvailable());
+        assertEquals(LocalDateTime.of(2024, 8, 1, 10, 0), read.getAddedDate());
+    }
+
+    @Test
+    public void testNonUuidIdsAndFormattedIsbnAreKept() {
+        CompactBookRepository repo = new CompactBookRepository();
+        repo.save(new Book("book-1", "T", "A", Genre.OTHER, 2000, "978-88-07-89456-3"));
+        Book read = repo.findById("book-1").orElseThrow();
+        assertEquals("978-88-07-89456-3", read.getIsbn());
+        assertFalse(repo.findById("book-2").isPresent());
+    }
+
+    @Test
+    public void testStreamSurvivesConcurrentDeletes() {
+        CompactBookRepository repo = new CompactBookRepository();
+        for (int i = 0; i < 1000; i++) repo.save(new Book("b" + i, "T" + i, "A", Genre.OTHER, 2000, null));
+        List<String> seen = new ArrayList<>();
+        try (Stream<Book> all = repo.streamAll()) {
+            Iterator<Book> it = all.iterator();
+            for (int i = 0; i < 300; i++) seen.add(it.next().getId());
+            // righe già lette e non ancora lette: le ultime finiscono prima del punto di lettura
+            for (int i = 0; i < 20; i++) repo.deleteById("b" + (i * 7));
+            repo.deleteById("b900");
+            it.forEachRemaining(b -> seen.add(b.getId()));
+        }
+        Set<String> unique = new HashSet<>(seen);
+        assertEquals(seen.size(), unique.size());
+        for (int i = 0; i < 1000; i++) {
+            boolean deleted = i == 900 || (i % 7 == 0 && i / 7 < 20);
+            if (!deleted) assertTrue(unique.contains("b" + i), "b" + i);
+        }
+        assertFalse(unique.contains("b900"));
+    }
+
+    @Test
+    public void testDeleteKeepsIndexConsistent() {
+        CompactBookRepository repo = new CompactBookRepository();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            repo.save(new Book(id, "T" + i, "A" + (i % 7), Genre.FICTION, 2000, String.valueOf(9780000000000L + i)));
+        }
+        for (int i = 0; i < ids.size(); i += 2) assertTrue(repo.deleteById(ids.get(i)));
+        assertFalse(repo.deleteById(ids.get(0)));
+        assertEquals(500, repo.size());
+        for (int i = 1; i < ids.size(); i += 2) {
+            assertEquals("T" + i, repo.findById(ids.get(i)).orElseThrow().getTitle());
+            assertEquals(ids.get(i), repo.findByIsbn(String.valueOf(9780000000000L + i)).orElseThrow().getId());
+        }
+        assertFalse(repo.findByIsbn("9780000000000").isPresent());
+    }
+
+    @Test
+    public void testIsbnIsUnique() {
+        CompactBookRepository repo = new CompactBookRepository();
+        repo.save(new Book("a", "T", "A", Genre.OTHER, 2000, "0-306-40615-2"));
+        // stesso libro in forma ISBN-13
+        assertEquals("a", repo.findByIsbn("978-0-306-40615-7").orElseThrow().getId());
+        assertThrows(IllegalArgumentException.class,
+            () -> repo.save(new Book("b", "T", "A", Genre.OTHER, 2000, "9780306406157")));
+        // aggiornare il libro stesso non viola il vincolo
+        repo.update(new Book("a", "T2", "A", Genre.OTHER, 2000, "9780306406157"));
+        assertEquals("T2", repo.findByIsbn("0306406152").orElseThrow().getTitle());
+    }
+
+    @Test
+    public void testParallelScanMatchesSequentialFilter() {
+        CompactBookRepository repo = new CompactBookRepository();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) {
+            Book b = new Book("b" + i, "Titolo " + i, "Autore " + i % 7, Genre.fromIndex(i % 26 + 1), 1900 + i % 120,
+                    String.valueOf(9780000000000L + i));
+            b.setAvailable(i % 3 != 0);
+            books.add(b);
+        }
+        repo.saveAll(books);
+        com.digitallibrary.util.ParallelScan scanner = new com.digitallibrary.util.ParallelScan(4);
+        try {
+            List<Book> unavailable = repo.scan(s -> scanner.filter(s, b -> !b.isAvailable()));
+            List<Book> expected = new ArrayList<>();
+            for (Book b : repo.findAll()) if (!b.isAvailable()) expected.add(b);
+            assertEquals(expected.size(), unavailable.size());
+            for (int i = 0; i < expected.size(); i++) assertEquals(expected.get(i).getId(), unavailable.get(i).getId());
+            assertEquals(1L, scanner.stats().get("parallelScans"));
+        } finally {
+            scanner.shutdown();
+        }
+    }
+}
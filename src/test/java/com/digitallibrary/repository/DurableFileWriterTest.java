@@ -0,0 +1,81 @@
+package com.digitallibrary.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DurableFileWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private long filesIn(Path d) throws IOException {
+        try (Stream<Path> s = Files.list(d)) {
+            return s.count();
+        }
+    }
+
+    @Test
+    public void testFailedWriteKeepsPreviousContent() throws Exception {
+        Path file = dir.resolve("books.json");
+        try (DurableFileWriter writer = new DurableFileWriter(Durability.ALWAYS, 0)) {
+            writer.write(file, w -> w.write("[1]"));
+            assertThrows(IOException.class, () -> writer.write(file, w -> {
+                w.write("[2, ");
+                throw new IOException("disco pieno");
+            }));
+            assertEquals("[1]", Files.readString(file, StandardCharsets.UTF_8));
+            // nessun file temporaneo rimasto
+            assertEquals(1, filesIn(dir));
+            assertTrue((Long) writer.stats().get("fsyncs") >= 2);
+        }
+    }
+
+    @Test
+    public void testBatchModeSyncsContentAndGroupsDirectoryFsyncs() throws Exception {
+        Path file = dir.resolve("users.json");
+        try (DurableFileWriter writer = new DurableFileWriter(Durability.BATCH, 60_000)) {
+            for (int i = 0; i < 10; i++) {
+                int n = i;
+                writer.write(file, w -> w.write("[" + n + "]"));
+            }
+            assertEquals("[9]", Files.readString(file));
+            // il contenuto di ogni scrittura è sincronizzato prima della rinomina
+            assertEquals(10L, writer.stats().get("fsyncs"));
+            assertEquals(1, writer.stats().get("pending"));
+            writer.flush();
+            // le dieci rinomine sono rese durevoli da un solo fsync della directory
+            assertTrue((Long) writer.stats().get("fsyncs") <= 11);
+            assertEquals(0, writer.stats().get("pending"));
+        }
+    }
+
+    @Test
+    public void testReplacedFileKeepsPermissions() throws Exception {
+        Path file = dir.resolve("loans.json");
+        Files.writeString(file, "[]");
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r--r--"));
+        } catch (UnsupportedOperationException e) {
+            return;
+        }
+        try (DurableFileWriter writer = new DurableFileWriter(Durability.NONE, 0)) {
+            writer.write(file, w -> w.write("[1]"));
+        }
+        assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+    }
+
+    @Test
+    public void testParseModes() {
+        assertEquals(Durability.BATCH, Durability.parse("Batch"));
+        assertThrows(IllegalArgumentException.class, () -> Durability.parse("sometimes"));
+    }
+}
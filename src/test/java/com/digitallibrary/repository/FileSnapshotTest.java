@@ -0,0 +1,192 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// il thread di FileWatcher può chiamare refresh() insieme al test: i listener raccolgono
+// in liste thread-safe e i contatori che dipendono da chi arriva prima non sono confrontati esattamente
+public class FileSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<Book> catalog() {
+        List<Book> books = new ArrayList<>();
+        books.add(new Book("b1", "Primo", "Autore", Genre.FICTION, 2001, "9780306406157"));
+        books.add(new Book("b2", "Secondo", "Autore", Genre.FICTION, 2002, "0306406152"));
+        books.add(new Book("b3", "Terzo", "Autore", Genre.FICTION, 2003, "9780131103627"));
+        return books;
+    }
+
+    @Test
+    public void testExternalChangeReportsOnlyChangedRecords() throws Exception {
+        Path file = dir.resolve("books.json");
+        JsonBookRepository repo = new JsonBookRepository(file.toString());
+        repo.saveAll(catalog());
+        FileSnapshot<Book> snapshot = repo.watch();
+        List<FileSnapshot.Change<Book>> changes = new CopyOnWriteArrayList<>();
+        snapshot.addListener(changes::add);
+        try {
+            // un altro programma riscrive il file: b2 modificato, b3 rimosso, b4 aggiunto
+            JsonBookRepository other = new JsonBookRepository(file.toString());
+            List<Book> edited = other.loadAll();
+            edited.get(1).setTitle("Secondo (riveduto)");
+            edited.remove(2);
+            edited.add(new Book("b4", "Quarto", "Autore", Genre.FICTION, 2004, "9780262033848"));
+            other.saveAll(edited);
+            snapshot.refresh();
+
+            assertEquals(1, changes.size());
+            FileSnapshot.Change<Book> change = changes.get(0);
+            assertTrue(change.isExternal());
+            assertEquals(List.of("b4"), ids(change.getAdded()));
+            assertEquals(List.of("b2"), ids(change.getUpdated()));
+            assertEquals(List.of("b3"), change.getRemovedIds());
+            assertEquals("Secondo (riveduto)", repo.findById("b2").get().getTitle());
+            assertTrue(repo.findById("b3").isEmpty());
+            assertEquals(3, repo.loadAll().size());
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void testSameContentIsNotReparsed() throws Exception {
+        Path file = dir.resolve("books.json");
+        JsonBookRepository repo = new JsonBookRepository(file.toString());
+        repo.saveAll(catalog());
+        FileSnapshot<Book> snapshot = repo.watch();
+        List<FileSnapshot.Change<Book>> changes = new CopyOnWriteArrayList<>();
+        snapshot.addListener(changes::add);
+        try {
+            // stesso contenuto con data di modifica diversa (e non recente): si ferma al confronto del CRC
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 5000));
+            snapshot.refresh();
+            snapshot.refresh();
+
+            assertTrue(changes.isEmpty());
+            Map<String, Object> stats = snapshot.stats();
+            assertEquals(0L, stats.get("reloads"));
+            assertEquals(1L, stats.get("unchangedByHash"));
+            assertTrue((Long) stats.get("unchangedByStat") >= 1);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void testOwnWritesAreNotExternal() {
+        Path file = dir.resolve("books.json");
+        JsonBookRepository repo = new JsonBookRepository(file.toString());
+        repo.saveAll(catalog());
+        FileSnapshot<Book> snapshot = repo.watch();
+        List<FileSnapshot.Change<Book>> changes = new CopyOnWriteArrayList<>();
+        snapshot.addListener(changes::add);
+        try {
+            repo.deleteById("b1");
+            snapshot.refresh();
+
+            assertEquals(1, changes.size());
+            assertFalse(changes.get(0).isExternal());
+            assertEquals(List.of("b1"), changes.get(0).getRemovedIds());
+            assertEquals(0L, snapshot.stats().get("reloads"));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void testReturnedRecordsAreCopies() {
+        Path file = dir.resolve("books.json");
+        JsonBookRepository repo = new JsonBookRepository(file.toString());
+        repo.saveAll(catalog());
+        FileSnapshot<Book> snapshot = repo.watch();
+        try {
+            repo.findById("b1").get().setAvailable(false);
+            snapshot.items().get(1).setAvailable(false);
+            try (java.util.stream.Stream<Book> all = repo.streamAll()) {
+                all.forEach(b -> b.setTitle("Cambiato"));
+            }
+            assertTrue(repo.findAll().stream().allMatch(Book::isAvailable));
+            assertEquals("Primo", repo.findById("b1").get().getTitle());
+
+            // un libro salvato e poi modificato senza salvarlo non cambia la copia pubblicata
+            Book b4 = new Book("b4", "Quarto", "Autore", Genre.FICTION, 2004, "9780262033848");
+            repo.save(b4);
+            b4.setTitle("Mai salvato");
+            assertEquals("Quarto", repo.findById("b4").get().getTitle());
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void testWriteOverwrittenBeforePublishIsLoaded() throws Exception {
+        Path file = dir.resolve("lines.txt");
+        Files.write(file, List.of("a=1"), StandardCharsets.UTF_8);
+        FileSnapshot<String> snapshot = new FileSnapshot<>(file,
+            r -> new BufferedReader(r).lines().collect(Collectors.toList()), s -> s.split("=")[0], s -> s, s -> s);
+        List<FileSnapshot.Change<String>> changes = new CopyOnWriteArrayList<>();
+        snapshot.addListener(changes::add);
+        try {
+            // scriviamo a=2, ma un altro programma riscrive il file prima della pubblicazione
+            DurableFileWriter.Written written;
+            try (DurableFileWriter writer = new DurableFileWriter(Durability.NONE, 0)) {
+                written = writer.write(file, w -> w.write("a=2\n"));
+            }
+            Files.write(file, List.of("a=3", "b=1"), StandardCharsets.UTF_8);
+            snapshot.published(List.of("a=2"), written);
+
+            assertEquals(List.of("a=3", "b=1"), snapshot.items());
+            assertTrue(changes.stream().anyMatch(FileSnapshot.Change::isExternal));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void testSameLengthRewriteInSameTickIsLoaded() throws Exception {
+        Path file = dir.resolve("books.json");
+        JsonBookRepository repo = new JsonBookRepository(file.toString());
+        repo.saveAll(catalog());
+        FileSnapshot<Book> snapshot = repo.watch();
+        try {
+            // due riscritture sul posto della stessa lunghezza con la stessa data di modifica, come
+            // nello stesso tick; una data nel futuro non è mai abbastanza vecchia per fidarsene
+            FileTime tick = FileTime.fromMillis(System.currentTimeMillis() + 3_600_000);
+            String json = Files.readString(file);
+            Files.writeString(file, json.replace("2001", "2008"));
+            Files.setLastModifiedTime(file, tick);
+            snapshot.refresh();
+            assertEquals(2008, repo.findById("b1").get().getPublicationYear());
+
+            Files.writeString(file, json.replace("2001", "2009"));
+            Files.setLastModifiedTime(file, tick);
+            snapshot.refresh();
+            assertEquals(2009, repo.findById("b1").get().getPublicationYear());
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static List<String> ids(List<Book> books) {
+        List<String> ids = new ArrayList<>();
+        for (Book b : books) ids.add(b.getId());
+        return ids;
+    }
+}
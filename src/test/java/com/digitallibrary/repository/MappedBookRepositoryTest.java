@@ -0,0 +1,76 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedBookRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testDataSurvivesReopen() {
+        String base = dir.resolve("books").toString();
+        List<String> ids = new ArrayList<>();
+        try (MappedBookRepository repo = new MappedBookRepository(base)) {
+            for (int i = 0; i < 3000; i++) {
+                String id = UUID.randomUUID().toString();
+                ids.add(id);
+                repo.save(new Book(id, "Titolo " + i, "Autore", Genre.HISTORY, 1990, "1234567890"));
+            }
+            for (int i = 0; i < 1000; i++) assertTrue(repo.deleteById(ids.get(i)));
+            Book b = repo.findById(ids.get(1500)).orElseThrow();
+            b.setAvailable(false);
+            repo.update(b);
+        }
+        try (MappedBookRepository repo = new MappedBookRepository(base)) {
+            assertEquals(2000, repo.size());
+            assertFalse(repo.findById(ids.get(0)).isPresent());
+            Book b = repo.findById(ids.get(1500)).orElseThrow();
+            assertEquals("Titolo 1500", b.getTitle());
+            assertEquals(Genre.HISTORY, b.getGenre());
+            assertFalse(b.isAvailable());
+            assertEquals(2000, repo.findAll().size());
+        }
+    }
+
+    @Test
+    public void testUpdatesReuseStringSpace() {
+        try (MappedBookRepository repo = new MappedBookRepository(dir.resolve("upd").toString())) {
+            Book b = new Book("book-1", "Il nome della rosa", "Umberto Eco", Genre.FICTION, 1980, "0306406152");
+            repo.save(b);
+            long used = repo.stringBytes();
+            for (int i = 0; i < 100; i++) {
+                b.setAvailable(i % 2 == 0);
+                repo.update(b);
+            }
+            b.setTitle("Il nome");
+            repo.update(b);
+            assertEquals(used, repo.stringBytes());
+            assertEquals("Il nome", repo.findById("book-1").orElseThrow().getTitle());
+
+            // un titolo più lungo va in fondo all'area
+            b.setTitle("Il nome della rosa, edizione annotata");
+            repo.update(b);
+            assertTrue(repo.stringBytes() > used);
+            assertEquals("Il nome della rosa, edizione annotata", repo.findById("book-1").orElseThrow().getTitle());
+
+            // un libro aggiunto nel posto lasciato da un record spostato non ne tocca le stringhe
+            repo.save(new Book("book-2", "Secondo", "Autore", Genre.FICTION, 1990, null));
+            repo.save(new Book("book-3", "Terzo", "Autore", Genre.FICTION, 1991, null));
+            assertTrue(repo.deleteById("book-2"));
+            repo.save(new Book("book-4", "Q", "A", Genre.FICTION, 1992, null));
+            assertEquals("Terzo", repo.findById("book-3").orElseThrow().getTitle());
+            assertEquals("Q", repo.findById("book-4").orElseThrow().getTitle());
+        }
+    }
+}
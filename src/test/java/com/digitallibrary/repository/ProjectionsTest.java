@@ -0,0 +1,97 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.BookSummary;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.model.User;
+import com.digitallibrary.model.UserSummary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// le proiezioni danno lo stesso risultato su ogni backend, qualunque colonna leggano
+public class ProjectionsTest {
+
+    @TempDir
+    Path dir;
+
+    private void checkBooks(BookRepository repo) {
+        repo.save(new Book("book-1", "Il nome della rosa", "Umberto Eco", Genre.FICTION, 1980, "0306406152"));
+        Book b = new Book("book-2", "Se una notte d'inverno", "Italo Calvino", Genre.FICTION, 1979, "9780131103627");
+        b.setAvailable(false);
+        repo.save(b);
+
+        Map<String, String> titles = repo.findTitles(Arrays.asList("book-2", "manca"));
+        assertEquals(Map.of("book-2", "Se una notte d'inverno"), titles);
+        List<BookSummary> summaries = repo.findSummaries();
+        assertEquals(2, summaries.size());
+        BookSummary s = summaries.stream().filter(x -> x.getId().equals("book-2")).findFirst().orElseThrow();
+        assertEquals("Se una notte d'inverno", s.getTitle());
+        assertEquals("Italo Calvino", s.getAuthor());
+        assertEquals(1979, s.getPublicationYear());
+        assertFalse(s.isAvailable());
+
+        // un aggiornamento si vede nelle proiezioni, una cancellazione le toglie
+        b.setTitle("Lezioni americane");
+        repo.update(b);
+        assertEquals("Lezioni americane", repo.findTitles(List.of("book-2")).get("book-2"));
+        assertTrue(repo.deleteById("book-1"));
+        assertEquals(Map.of("book-2", "Lezioni americane"), repo.findTitles(List.of("book-1", "book-2")));
+        assertEquals(1, repo.findSummaries().size());
+    }
+
+    @Test
+    public void testInMemoryBooks() {
+        checkBooks(new InMemoryBookRepository());
+    }
+
+    @Test
+    public void testCompactBooks() {
+        checkBooks(new CompactBookRepository());
+    }
+
+    @Test
+    public void testMappedBooks() {
+        try (MappedBookRepository repo = new MappedBookRepository(dir.resolve("books").toString())) {
+            checkBooks(repo);
+        }
+    }
+
+    @Test
+    public void testSqliteBooks() {
+        checkBooks(new SqliteBookRepository(dir.resolve("books.db").toString()));
+    }
+
+    @Test
+    public void testJsonBooks() {
+        checkBooks(new JsonBookRepository(dir.resolve("books.json").toString()));
+    }
+
+    private void checkUsers(UserRepository repo) {
+        repo.save(new User("u1", "Mario", "mario@example.com"));
+        repo.save(new User("u2", "Anna", "anna@example.com"));
+
+        assertEquals(Map.of("u2", "Anna"), repo.findNames(Arrays.asList("u2", "manca")));
+        List<UserSummary> summaries = repo.findSummaries();
+        assertEquals(2, summaries.size());
+        UserSummary s = summaries.stream().filter(x -> x.getId().equals("u1")).findFirst().orElseThrow();
+        assertEquals("Mario", s.getName());
+        assertEquals("mario@example.com", s.getEmail());
+    }
+
+    @Test
+    public void testInMemoryUsers() {
+        checkUsers(new InMemoryUserRepository());
+    }
+
+    @Test
+    public void testJsonUsers() {
+        checkUsers(new JsonUserRepository(dir.resolve("users.json").toString()));
+    }
+}
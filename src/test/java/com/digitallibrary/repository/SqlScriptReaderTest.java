@@ -0,0 +1,36 @@
+package com.digitallibrary.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SqlScriptReaderTest {
+
+    private static List<String> statements(String script) throws IOException {
+        List<String> out = new ArrayList<>();
+        try (SqlScriptReader in = new SqlScriptReader(new StringReader(script))) {
+            String s;
+            while ((s = in.next()) != null) out.add(s);
+        }
+        return out;
+    }
+
+    @Test
+    public void testSplitsOutsideStringsAndComments() throws IOException {
+        String script = "-- intestazione; con punto e virgola\n"
+            + "CREATE TABLE t (a TEXT, \"b;c\" TEXT);\n\n"
+            + "INSERT INTO t VALUES ('L''era; di Bitcoin', 'x'); /* commento; */ ;\n"
+            + "INSERT INTO t VALUES ('--non è un commento', 'y')";
+        assertEquals(List.of(
+            "CREATE TABLE t (a TEXT, \"b;c\" TEXT)",
+            "INSERT INTO t VALUES ('L''era; di Bitcoin', 'x')",
+            "INSERT INTO t VALUES ('--non è un commento', 'y')"), statements(script));
+        assertTrue(statements(" \n-- solo commenti\n;").isEmpty());
+        assertThrows(IOException.class, () -> statements("INSERT INTO t VALUES ('aperta);"));
+    }
+}
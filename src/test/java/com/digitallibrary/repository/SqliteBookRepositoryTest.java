@@ -0,0 +1,235 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SqliteBookRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testStreamReadsPagesAndReleasesConnection() {
+        SqliteBookRepository repo = new SqliteBookRepository(dir.resolve("books.db").toString());
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            books.add(new Book("b" + i, "Titolo " + i, "Autore", Genre.FICTION, 2000, String.valueOf(9780000000000L + i)));
+        }
+        repo.saveAll(books);
+
+        try (Stream<Book> all = repo.streamAll()) {
+            assertEquals(1000, all.count());
+        }
+        try (Stream<Book> all = repo.streamAll()) {
+            assertEquals(List.of("Titolo 7"), all.filter(b -> b.getId().equals("b7")).map(Book::getTitle).collect(Collectors.toList()));
+        }
+        // le scritture funzionano dopo la chiusura degli stream
+        assertTrue(repo.deleteById("b7"));
+        assertEquals(999, repo.findAll().size());
+
+        // ...e anche mentre uno stream è a metà: tra una pagina e l'altra non resta aperta nessuna lettura
+        try (Stream<Book> all = repo.streamAll()) {
+            java.util.Iterator<Book> it = all.iterator();
+            assertEquals("b0", it.next().getId());
+            assertTrue(repo.deleteById("b999"));
+            int rest = 0;
+            while (it.hasNext()) {
+                it.next();
+                rest++;
+            }
+            assertEquals(997, rest);
+        }
+    }
+
+    @Test
+    public void testFullTextSearchFollowsWrites() throws Exception {
+        SqliteBookRepository repo = new SqliteBookRepository(dir.resolve("books.db").toString());
+        assertTrue(repo.isTextSearchAvailable());
+        repo.save(new Book("b1", "Il nome della rosa", "Umberto Eco", Genre.FICTION, 1980, "9788845292613"));
+        repo.save(new Book("b2", "La rosa purpurea", "Anna Rosati", Genre.FICTION, 1990, "9780000000002"));
+        repo.save(new Book("b3", "Città invisibili", "Italo Calvino", Genre.FICTION, 1972, "9780000000019"));
+
+        // prefissi di parola, senza distinzione di maiuscole e accenti
+        assertEquals(List.of("b3"), ids(repo.searchTitle("citta INVIS", 0)));
+        assertEquals(List.of("b1", "b2"), ids(repo.searchTitle("ros", 0)).stream().sorted().collect(Collectors.toList()));
+        // il titolo pesa più dell'autore
+        repo.save(new Book("b4", "Ricordi di Italo", "Mario Rossi", Genre.FICTION, 2001, "9780000000033"));
+        assertEquals(List.of("b4", "b3"), ids(repo.searchText("italo", 0)));
+        assertEquals(List.of("b2"), ids(repo.searchText("rosati", 0)));
+        assertEquals(1, repo.searchTitle("rosa", 1).size());
+        assertTrue(repo.searchTitle("\"*:(", 0).isEmpty());
+
+        // aggiornamenti e cancellazioni arrivano all'indice
+        repo.update(new Book("b1", "Il pendolo di Foucault", "Umberto Eco", Genre.FICTION, 1988, "9788845292613"));
+        assertEquals(List.of("b2"), ids(repo.searchTitle("rosa", 0)));
+        assertTrue(repo.deleteById("b2"));
+        assertTrue(repo.searchTitle("rosa", 0).isEmpty());
+        assertEquals(List.of("b1"), ids(repo.searchText("eco pendolo", 0)));
+
+        // un database creato prima dell'indice viene indicizzato all'apertura
+        java.nio.file.Path old = dir.resolve("old.db");
+        try (java.sql.Connection c = java.sql.DriverManager.getConnection("jdbc:sqlite:" + old);
+             java.sql.Statement s = c.createStatement()) {
+            s.execute("CREATE TABLE books (id TEXT PRIMARY KEY, title TEXT NOT NULL, author TEXT NOT NULL, genre TEXT,"
+                + " publicationYear INTEGER, isbn TEXT, available INTEGER, addedDate TEXT)");
+            s.execute("INSERT INTO books VALUES ('x','Lessico famigliare','Natalia Ginzburg','Narrativa',1963,'9780000000026',1,NULL)");
+        }
+        assertEquals(List.of("x"), ids(new SqliteBookRepository(old.toString()).searchText("ginz", 0)));
+    }
+
+    @Test
+    public void testQueryPushdownMatchesInMemoryEvaluation() throws Exception {
+        SqliteBookRepository sqlite = new SqliteBookRepository(dir.resolve("books.db").toString());
+        InMemoryBookRepository memory = new InMemoryBookRepository();
+        Genre[] genres = {Genre.FICTION, Genre.HISTORY, Genre.POETRY};
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String author = (i % 2 == 0 ? "Autore " : "AUTORE ") + (i % 5);
+            books.add(new Book("b" + i, "Titolo " + (i % 7) + " " + i, author, genres[i % 3], 1950 + i % 40,
+                String.valueOf(9780000000000L + i)));
+        }
+        // lettere non ASCII e '_' tra maiuscole e minuscole: entrambi i backend seguono COLLATE NOCASE
+        String[] odd = {"Élite", "élite", "Zeta", "_zeta", "Ölz", "olz"};
+        for (int i = 0; i < odd.length; i++) books.add(new Book("n" + i, odd[i], odd[i], Genre.DRAMA, 1900, null));
+        sqlite.saveAll(books);
+        memory.saveAll(books);
+
+        List<BookQuery> queries = List.of(
+            BookQuery.all().author("autore 3").sortBy(BookQuery.Sort.YEAR, false).sortBy(BookQuery.Sort.TITLE, true),
+            BookQuery.all().genre(Genre.HISTORY).yearBetween(1960, 1970).sortBy(BookQuery.Sort.TITLE, true).limit(7),
+            BookQuery.all().yearBetween(null, 1955).sortBy(BookQuery.Sort.AUTHOR, true),
+            BookQuery.all().author("Autore 1").genre(Genre.POETRY).year(1951).sortBy(BookQuery.Sort.YEAR, true),
+            BookQuery.all().year(1900).sortBy(BookQuery.Sort.TITLE, true),
+            BookQuery.all().author("ÉLITE"),
+            BookQuery.all().author("Élite").sortBy(BookQuery.Sort.AUTHOR, false));
+        for (BookQuery q : queries) {
+            List<String> expected = ids(memory.query(q));
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, ids(sqlite.query(q)));
+        }
+        assertEquals(10, sqlite.query(BookQuery.all().limit(10)).size());
+
+        // i filtri usano gli indici invece di scorrere la tabella
+        try (java.sql.Connection c = java.sql.DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("books.db"));
+             java.sql.Statement st = c.createStatement();
+             java.sql.ResultSet rs = st.executeQuery("EXPLAIN QUERY PLAN SELECT * FROM books WHERE author = 'x' COLLATE NOCASE")) {
+            assertTrue(rs.next());
+            assertTrue(rs.getString("detail").contains("idx_books_author"), rs.getString("detail"));
+        }
+    }
+
+    @Test
+    public void testSeedRunsInOneTransactionAndOnlyWhenChanged() throws Exception {
+        SqliteBookRepository repo = new SqliteBookRepository(dir.resolve("books.db").toString());
+        Path script = dir.resolve("seed.sql");
+        StringBuilder sql = new StringBuilder("BEGIN TRANSACTION;\n");
+        for (int i = 0; i < 1200; i++) {
+            sql.append("INSERT INTO books (id,title,author,genre,publicationYear,isbn,available) VALUES ('s").append(i)
+               .append("', 'L''era ").append(i).append("', 'Autore', 'Narrativa', 2000, '").append(9780000000000L + i).append("', 1);\n");
+        }
+        sql.append("COMMIT;\n");
+        java.nio.file.Files.writeString(script, sql);
+
+        assertTrue(repo.seedIfEmpty(script));
+        assertEquals(1200, repo.findAll().size());
+        assertEquals("L'era 7", repo.findById("s7").get().getTitle());
+        assertEquals(List.of("s7"), ids(repo.searchTitle("era 7", 0)).subList(0, 1));
+        // stesso file: niente da fare anche se la tabella torna vuota
+        for (int i = 0; i < 1200; i++) repo.deleteById("s" + i);
+        assertFalse(repo.seedIfEmpty(script));
+        assertTrue(repo.findAll().isEmpty());
+
+        // un errore a metà script annulla tutto, checksum compreso
+        java.nio.file.Files.writeString(script, "INSERT INTO books (id,title,author) VALUES ('a','A','X');\nINSERT INTO nessuna VALUES (1);");
+        assertThrows(RuntimeException.class, () -> repo.seedIfEmpty(script));
+        assertTrue(repo.findAll().isEmpty());
+        java.nio.file.Files.writeString(script, "INSERT INTO books (id,title,author) VALUES ('a','A','X');");
+        assertTrue(repo.seedIfEmpty(script));
+        assertEquals(1, repo.findAll().size());
+
+        // import JSON: saltato finché il file non cambia
+        Path json = dir.resolve("books.json");
+        JsonBookRepository source = new JsonBookRepository(json.toString());
+        source.save(new Book("j1", "Primo", "Autore", Genre.FICTION, 2000, "9788845292613"));
+        assertTrue(repo.seedFromJson(json));
+        repo.deleteById("j1");
+        assertFalse(repo.seedFromJson(json));
+        assertTrue(repo.findById("j1").isEmpty());
+        source.save(new Book("j2", "Secondo", "Autore", Genre.FICTION, 2000, "9780000000002"));
+        assertTrue(repo.seedFromJson(json));
+        assertEquals(3, repo.findAll().size());
+
+        // stesso nome in un'altra cartella: è un'altra sorgente
+        Path other = dir.resolve("altro");
+        java.nio.file.Files.createDirectories(other);
+        new JsonBookRepository(other.resolve("books.json").toString())
+            .save(new Book("k1", "Terzo", "Autore", Genre.FICTION, 2000, "9780000000003"));
+        assertTrue(repo.seedFromJson(other.resolve("books.json")));
+        assertTrue(repo.findById("k1").isPresent());
+    }
+
+    @Test
+    public void testSeedSkippedOnFullTableIsNotRecorded() throws Exception {
+        SqliteBookRepository repo = new SqliteBookRepository(dir.resolve("books.db").toString());
+        repo.save(new Book("x", "Esistente", "Autore", Genre.FICTION, 2000, "9788845292613"));
+        Path script = dir.resolve("seed.sql");
+        java.nio.file.Files.writeString(script, "INSERT INTO books (id,title,author) VALUES ('a','A','X');\n-- fine\n\n");
+
+        assertFalse(repo.seedIfEmpty(script));
+        assertTrue(repo.findById("a").isEmpty());
+        // tabella svuotata in seguito: lo script non era stato registrato e ora viene eseguito
+        repo.deleteById("x");
+        assertTrue(repo.seedIfEmpty(script));
+        assertTrue(repo.findById("a").isPresent());
+        // il checksum registrato copre anche i byte dopo l'ultima istruzione
+        repo.deleteById("a");
+        assertFalse(repo.seedIfEmpty(script));
+    }
+
+    // legge il titolo su un altro thread, con una connessione propria fuori dal batch
+    private static String titleElsewhere(BookRepository repo, String id) throws InterruptedException {
+        java.util.concurrent.atomic.AtomicReference<String> title = new java.util.concurrent.atomic.AtomicReference<>();
+        Thread t = new Thread(() -> title.set(repo.findById(id).map(Book::getTitle).orElse(null)));
+        t.start();
+        t.join();
+        return title.get();
+    }
+
+    @Test
+    public void testBatchCommitsOnFlushAndDiscardsOnRollback() throws Exception {
+        SqliteBookRepository repo = new SqliteBookRepository(dir.resolve("books.db").toString());
+        repo.save(new Book("b1", "Originale", "A", Genre.OTHER, 2000, null));
+
+        repo.beginBatch();
+        Book b = repo.findById("b1").get();
+        b.setTitle("Nel batch");
+        repo.update(b);
+        repo.saveAll(List.of(new Book("b2", "Nuovo", "A", Genre.OTHER, 2000, null)));
+        // il thread del batch vede le proprie scritture, gli altri solo dopo il flush
+        assertEquals("Nel batch", repo.findById("b1").get().getTitle());
+        assertEquals("Nuovo", repo.findById("b2").get().getTitle());
+        assertEquals("Originale", titleElsewhere(repo, "b1"));
+        assertNull(titleElsewhere(repo, "b2"));
+        repo.flushBatch();
+        assertEquals("Nuovo", titleElsewhere(repo, "b2"));
+
+        assertTrue(repo.deleteById("b2"));
+        repo.endBatch(false);
+        assertEquals("Nel batch", repo.findById("b1").get().getTitle());
+        assertTrue(repo.findById("b2").isPresent());
+    }
+
+    private static List<String> ids(List<Book> books) {
+        return books.stream().map(Book::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,103 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserEmailIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private void checkUniqueness(UserRepository repo) {
+        repo.save(new User("u1", "Mario", "mario@example.com"));
+        repo.save(new User("u2", "Anna", "anna@example.com"));
+
+        // ricerca senza distinzione tra maiuscole e minuscole né spazi ai bordi
+        assertEquals("u1", repo.findByEmail(" Mario@Example.COM ").get().getId());
+        assertTrue(repo.findByEmail("nessuno@example.com").isEmpty());
+
+        DuplicateEmailException e = assertThrows(DuplicateEmailException.class,
+            () -> repo.save(new User("u3", "Altro", "MARIO@example.com")));
+        assertEquals("MARIO@example.com", e.getEmail());
+        assertTrue(repo.findById("u3").isEmpty());
+
+        // lo stesso utente può risalvare la propria email e cambiarla: la vecchia si libera
+        repo.save(new User("u1", "Mario Rossi", "mario@example.com"));
+        repo.save(new User("u1", "Mario Rossi", "rossi@example.com"));
+        assertTrue(repo.findByEmail("mario@example.com").isEmpty());
+        assertEquals("u1", repo.findByEmail("rossi@example.com").get().getId());
+        repo.save(new User("u3", "Altro", "mario@example.com"));
+
+        assertThrows(DuplicateEmailException.class, () -> repo.save(new User("u2", "Anna", "rossi@example.com")));
+        assertEquals("anna@example.com", repo.findById("u2").get().getEmail());
+
+        assertTrue(repo.deleteById("u2"));
+        assertTrue(repo.findByEmail("anna@example.com").isEmpty());
+        repo.save(new User("u4", "Anna Bis", "anna@example.com"));
+    }
+
+    @Test
+    public void testInMemoryRepository() {
+        checkUniqueness(new InMemoryUserRepository());
+    }
+
+    @Test
+    public void testJsonRepository() {
+        checkUniqueness(new JsonUserRepository(dir.resolve("users.json").toString()));
+    }
+
+    @Test
+    public void testJsonIndexFollowsExternalChanges() throws Exception {
+        Path file = dir.resolve("users.json");
+        JsonUserRepository repo = new JsonUserRepository(file.toString());
+        repo.save(new User("u1", "Mario", "mario@example.com"));
+        assertTrue(repo.findByEmail("mario@example.com").isPresent());
+
+        // un altro processo riscrive il file: l'indice va ricostruito
+        new JsonUserRepository(file.toString()).save(new User("u2", "Anna", "anna@example.com"));
+        Files.setLastModifiedTime(file, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        assertEquals("u2", repo.findByEmail("anna@example.com").get().getId());
+        assertThrows(DuplicateEmailException.class, () -> repo.save(new User("u3", "Altro", "anna@example.com")));
+    }
+
+    @Test
+    public void testJsonIndexSeesSameSizeRewrite() throws Exception {
+        Path file = dir.resolve("users.json");
+        JsonUserRepository repo = new JsonUserRepository(file.toString());
+        repo.save(new User("u1", "Mario", "mario@example.com"));
+        // data nel futuro, come una scrittura nello stesso tick: non è mai abbastanza vecchia per fidarsene
+        java.nio.file.attribute.FileTime tick = java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() + 3_600_000);
+        Files.setLastModifiedTime(file, tick);
+        assertTrue(repo.findByEmail("mario@example.com").isPresent());
+
+        // riscrittura sul posto, stessa lunghezza e stessa data di modifica
+        String json = Files.readString(file);
+        Files.writeString(file, json.replace("mario@example.com", "dario@example.com"));
+        Files.setLastModifiedTime(file, tick);
+        assertTrue(repo.findByEmail("mario@example.com").isEmpty());
+        assertEquals("u1", repo.findByEmail("dario@example.com").get().getId());
+    }
+
+    @Test
+    public void testJsonBatchChecksPendingUsers() {
+        JsonUserRepository repo = new JsonUserRepository(dir.resolve("users.json").toString());
+        repo.save(new User("u1", "Mario", "mario@example.com"));
+        repo.beginBatch();
+        try {
+            repo.save(new User("u2", "Anna", "anna@example.com"));
+            assertEquals("u2", repo.findByEmail("ANNA@example.com").get().getId());
+            assertThrows(DuplicateEmailException.class, () -> repo.save(new User("u3", "Altro", "anna@example.com")));
+            assertThrows(DuplicateEmailException.class, () -> repo.save(new User("u3", "Altro", "mario@example.com")));
+        } finally {
+            repo.endBatch(true);
+        }
+        assertEquals(2, repo.findAll().size());
+        assertEquals("u2", repo.findByEmail("anna@example.com").get().getId());
+    }
+}
@@ -0,0 +1,88 @@
+package com.digitallibrary.repository;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.model.Loan;
+import com.digitallibrary.model.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBatchingTest {
+
+    @TempDir
+    Path dir;
+
+    // esegue la scrittura su un altro thread, fuori dal batch del thread del test
+    private static void elsewhere(Runnable write) throws InterruptedException {
+        Thread t = new Thread(write);
+        t.start();
+        t.join();
+    }
+
+    private static Book book(String id) {
+        return new Book(id, "T" + id, "A", Genre.OTHER, 2000, null);
+    }
+
+    @Test
+    public void testBatchFlushKeepsWritesOfOtherThreads() throws Exception {
+        JsonBookRepository repo = new JsonBookRepository(dir.resolve("books.json").toString());
+        repo.save(book("b1"));
+        repo.save(book("b2"));
+
+        repo.beginBatch();
+        repo.save(book("b3"));
+        assertTrue(repo.deleteById("b1"));
+        elsewhere(() -> repo.save(book("x1")));
+        repo.flushBatch();
+        // dopo il flush il batch vede anche le scritture degli altri thread
+        assertTrue(repo.findById("x1").isPresent());
+
+        Book renamed = book("b2");
+        renamed.setTitle("Nuovo titolo");
+        repo.update(renamed);
+        elsewhere(() -> {
+            Book b = book("x1");
+            b.setTitle("Modificato");
+            repo.update(b);
+        });
+        repo.endBatch(true);
+
+        List<Book> all = repo.findAll();
+        assertEquals(List.of("b2", "x1", "b3"), all.stream().map(Book::getId).collect(Collectors.toList()));
+        assertEquals("Nuovo titolo", repo.findById("b2").get().getTitle());
+        assertEquals("Modificato", repo.findById("x1").get().getTitle());
+    }
+
+    @Test
+    public void testDiscardedBatchAndConcurrentLoanAndUserWrites() throws Exception {
+        JsonLoanRepository loans = new JsonLoanRepository(dir.resolve("loans.json").toString());
+        loans.save(new Loan("l1", "b1", "u1", LocalDateTime.now()));
+        loans.beginBatch();
+        loans.save(new Loan("l2", "b2", "u1", LocalDateTime.now()));
+        elsewhere(() -> loans.deleteById("l1"));
+        elsewhere(() -> loans.save(new Loan("l3", "b3", "u1", LocalDateTime.now())));
+        loans.endBatch(true);
+        assertEquals(List.of("l3", "l2"), loans.findAll().stream().map(Loan::getId).collect(Collectors.toList()));
+
+        loans.beginBatch();
+        loans.deleteById("l2");
+        loans.endBatch(false);
+        assertTrue(loans.findById("l2").isPresent());
+
+        // l'email registrata da un altro thread durante il batch blocca la scrittura del batch
+        JsonUserRepository users = new JsonUserRepository(dir.resolve("users.json").toString());
+        users.beginBatch();
+        users.save(new User("u1", "Mario", "mario@example.com"));
+        elsewhere(() -> users.save(new User("u2", "Altro", "mario@example.com")));
+        assertThrows(DuplicateEmailException.class, () -> users.endBatch(true));
+        assertEquals("u2", users.findByEmail("mario@example.com").get().getId());
+        assertTrue(users.findById("u1").isEmpty());
+    }
+}
@@ -0,0 +1,88 @@
+package com.digitallibrary.service;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Genre;
+import com.digitallibrary.model.Loan;
+import com.digitallibrary.repository.InMemoryBookRepository;
+import com.digitallibrary.repository.InMemoryLoanRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AvailabilityReconcilerTest {
+
+    private static Book book(String id, boolean available) {
+        Book b = new Book(id, "T" + id, "A", Genre.OTHER, 2000, null);
+        b.setAvailable(available);
+        return b;
+    }
+
+    private static Loan loan(String id, String bookId) {
+        return new Loan(id, bookId, "u1", LocalDateTime.now().plusDays(14));
+    }
+
+    @Test
+    public void testEventsKeepCountsAndRepairDrift() {
+        BookService books = new BookService(new InMemoryBookRepository());
+        books.addBook(book("b1", false));
+        books.addBook(book("b2", true));
+        LoanService loans = new LoanService(new InMemoryLoanRepository());
+        loans.createLoan(loan("l1", "b1"));
+
+        AvailabilityReconciler r = new AvailabilityReconciler(books);
+        r.setAutoRepair(false);
+        try (Stream<Loan> all = loans.streamAll()) {
+            r.rebuild(all);
+        }
+        loans.addListener(r);
+        assertEquals(1, r.openLoans("b1"));
+        assertTrue(r.verify(false).isEmpty());
+
+        // due prestiti aperti: chiuderne uno lascia il libro non disponibile
+        loans.createLoan(loan("l2", "b1"));
+        loans.markReturned("l1");
+        assertEquals(1, r.openLoans("b1"));
+        assertFalse(r.isAvailable("b1"));
+        loans.delete("l2");
+        assertTrue(r.isAvailable("b1"));
+
+        // il flag salvato è rimasto false: verify lo trova e lo corregge
+        List<Book> drift = r.verify(false);
+        assertEquals(1, drift.size());
+        assertEquals("b1", drift.get(0).getId());
+        r.verify(true);
+        assertTrue(books.getBookById("b1").get().isAvailable());
+        assertTrue(r.verify(false).isEmpty());
+    }
+
+    @Test
+    public void testRepairPendingFixesOnlyMarkedBooks() {
+        BookService books = new BookService(new InMemoryBookRepository());
+        books.addBook(book("b1", true));
+        books.addBook(book("b2", true));
+        AvailabilityReconciler r = new AvailabilityReconciler(books);
+        // prima del primo rebuild i conteggi non sono attendibili: nessuna correzione
+        r.setAutoRepair(false);
+        r.loansChanged(List.of(loan("l0", "b2")), List.of());
+        assertFalse(r.isReady());
+        assertFalse(r.repair("b2"));
+        r.rebuild(Stream.empty());
+        r.setAutoRepair(true);
+
+        // prestito arrivato da una modifica esterna, senza aggiornare il libro
+        r.loansChanged(List.of(loan("l1", "b1")), List.of());
+        r.repairPending();
+        assertFalse(books.getBookById("b1").get().isAvailable());
+        assertTrue(books.getBookById("b2").get().isAvailable());
+        assertEquals(1L, r.stats().get("repairs"));
+
+        r.loansChanged(List.of(), List.of("l1"));
+        r.repairPending();
+        assertTrue(books.getBookById("b1").get().isAvailable());
+        assertEquals(0, r.stats().get("openLoans"));
+    }
+}
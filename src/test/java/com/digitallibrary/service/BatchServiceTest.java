@@ -0,0 +1,129 @@
+package com.digitallibrary.service;
+
+import com.digitallibrary.model.Book;
+import com.digitallibrary.model.Loan;
+import com.digitallibrary.repository.InMemoryLoanRepository;
+import com.digitallibrary.repository.InMemoryUserRepository;
+import com.digitallibrary.repository.JsonBookRepository;
+import com.digitallibrary.repository.WriteBatching;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private Path booksFile;
+    private BookService books;
+    private UserService users;
+    private LoanService loans;
+    private BatchService batch;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        booksFile = dir.resolve("books.json");
+        Files.write(booksFile, "[]".getBytes());
+        JsonBookRepository bookRepo = new JsonBookRepository(booksFile.toString());
+        books = new BookService(bookRepo);
+        users = new UserService(new InMemoryUserRepository());
+        loans = new LoanService(new InMemoryLoanRepository());
+        batch = new BatchService(books, users, loans, WriteBatching.of(bookRepo));
+    }
+
+    private static BatchService.Operation op(String type, Object... kv) {
+        Map<String, Object> p = new HashMap<>();
+        for (int i = 0; i < kv.length; i += 2) p.put((String) kv[i], kv[i + 1]);
+        return new BatchService.Operation(type, p);
+    }
+
+    private static BatchService.Operation newBook(String isbn) {
+        return op("createBook", "title", "Il barone rampante", "author", "Italo Calvino",
+            "genre", "Narrativa", "publicationYear", 1957, "isbn", isbn);
+    }
+
+    @Test
+    public void testCheckoutAndReturnWithReferences() {
+        BatchService.Outcome out = batch.execute(Arrays.asList(
+            newBook("9780306406157"),
+            op("registerUser", "name", "Anna", "email", "anna@example.com"),
+            op("checkout", "bookId", "$1", "userId", "$2", "days", 7)), false);
+
+        assertTrue(out.isCommitted());
+        out.getResults().forEach(r -> assertTrue(r.isOk(), r.getError()));
+        Loan loan = (Loan) out.getResults().get(2).getResult();
+        Book saved = books.listAll().get(0);
+        assertFalse(saved.isAvailable());
+        assertEquals(saved.getId(), loan.getBookId());
+
+        BatchService.Outcome ret = batch.execute(List.of(op("return", "loanId", loan.getId())), false);
+        assertEquals(200, ret.getResults().get(0).getStatus());
+        assertTrue(books.listAll().get(0).isAvailable());
+        assertNotNull(loans.findById(loan.getId()).get().getReturnedAt());
+    }
+
+    @Test
+    public void testCheckoutWaitsForBookLock() throws Exception {
+        Book b = new Book("b1", "Il barone rampante", "Italo Calvino", com.digitallibrary.model.Genre.FICTION, 1957, "9780306406157");
+        books.addBook(b);
+        users.register(new com.digitallibrary.model.User("u1", "Anna", "anna@example.com"));
+
+        java.util.concurrent.atomic.AtomicReference<BatchService.Outcome> out = new java.util.concurrent.atomic.AtomicReference<>();
+        Thread t = new Thread(() -> out.set(batch.execute(List.of(op("checkout", "bookId", "b1", "userId", "u1")), false)));
+        synchronized (books.lockFor("b1")) {
+            t.start();
+            while (t.getState() != Thread.State.BLOCKED && t.isAlive()) Thread.sleep(1);
+            // finché un altro thread tiene il lock del libro il prestito non parte
+            assertTrue(t.isAlive());
+            assertTrue(loans.findByBookId("b1").isEmpty());
+            // chi tiene il lock presta il libro per primo
+            loans.createLoan(new Loan("l0", "b1", "u1", java.time.LocalDateTime.now().plusDays(7)));
+            books.setAvailable("b1", false);
+        }
+        t.join();
+        assertEquals(409, out.get().getResults().get(0).getStatus());
+        assertEquals(1, loans.findByBookId("b1").size());
+    }
+
+    @Test
+    public void testAtomicBatchRollsBackOnFailure() throws Exception {
+        BatchService.Outcome out = batch.execute(Arrays.asList(
+            newBook("9780306406157"),
+            op("registerUser", "name", "Anna"),
+            op("checkout", "bookId", "$1", "userId", "nessuno"),
+            op("registerUser", "name", "Bruno")), true);
+
+        assertFalse(out.isCommitted());
+        List<BatchService.Result> r = out.getResults();
+        assertTrue(r.get(0).isRolledBack());
+        assertEquals(404, r.get(2).getStatus());
+        assertEquals(424, r.get(3).getStatus());
+        assertTrue(books.listAll().isEmpty());
+        assertTrue(users.listAll().isEmpty());
+        assertEquals("[]", new String(Files.readAllBytes(booksFile)).trim());
+    }
+
+    @Test
+    public void testNonAtomicBatchKeepsSuccessfulOperations() {
+        BatchService.Outcome out = batch.execute(Arrays.asList(
+            newBook("9780306406157"),
+            newBook("9780306406157"),
+            op("return", "loanId", "manca")), false);
+
+        assertTrue(out.isCommitted());
+        assertEquals(201, out.getResults().get(0).getStatus());
+        assertEquals(400, out.getResults().get(1).getStatus());
+        assertEquals(404, out.getResults().get(2).getStatus());
+        assertEquals(1, books.listAll().size());
+    }
+}
@@ -32,7 +32,7 @@ public class BookServiceTest {
         BookService service = new BookService(repo);
 
         Book b1 = new Book(UUID.randomUUID().toString(), "Java Programming", "X", Genre.TECHNOLOGY, 2020, "1234567890");
-        Book b2 = new Book(UUID.randomUUID().toString(), "Cooking 101", "Y", Genre.COOKING, 2018, "1234567890");
+        Book b2 = new Book(UUID.randomUUID().toString(), "Cooking 101", "Y", Genre.COOKING, 2018, "0987654321");
         service.addBook(b1);
         service.addBook(b2);
 
@@ -40,4 +40,15 @@ public class BookServiceTest {
         assertEquals(1, res.size());
         assertTrue(res.get(0).getTitle().contains("Java"));
     }
+
+    @Test
+    public void testAddRejectsDuplicateIsbn() {
+        InMemoryBookRepository repo = new InMemoryBookRepository();
+        BookService service = new BookService(repo);
+
+        service.addBook(new Book(UUID.randomUUID().toString(), "A", "X", Genre.OTHER, 2000, "0306406152"));
+        assertThrows(IllegalArgumentException.class,
+            () -> service.addBook(new Book(UUID.randomUUID().toString(), "B", "Y", Genre.OTHER, 2001, "978-0-306-40615-7")));
+        assertTrue(service.findByIsbn("9780306406157").isPresent());
+    }
 }
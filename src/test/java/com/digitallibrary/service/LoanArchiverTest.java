@@ -0,0 +1,99 @@
+package com.digitallibrary.service;
+
+import com.digitallibrary.model.Loan;
+import com.digitallibrary.repository.JsonLoanRepository;
+import com.digitallibrary.repository.LoanArchive;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoanArchiverTest {
+
+    @TempDir
+    Path dir;
+
+    private static Loan loan(String id, String userId, LocalDateTime returnedAt) {
+        Loan l = new Loan(id, "b-" + id, userId, LocalDateTime.now().plusDays(14));
+        l.setLoanedAt(returnedAt == null ? LocalDateTime.now() : returnedAt.minusDays(10));
+        l.setReturnedAt(returnedAt);
+        return l;
+    }
+
+    private static List<String> ids(List<Loan> loans) {
+        return loans.stream().map(Loan::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testOldReturnedLoansMoveToMonthlySegments() throws Exception {
+        JsonLoanRepository hot = new JsonLoanRepository(dir.resolve("loans.json").toString());
+        LoanService loans = new LoanService(hot);
+        LocalDateTime jan = LocalDate.of(2024, 1, 20).atTime(10, 0);
+        LocalDateTime mar = LocalDate.of(2024, 3, 5).atTime(9, 0);
+        LocalDateTime recent = LocalDateTime.now().minusDays(2);
+        hot.save(loan("l1", "u1", jan));
+        hot.save(loan("l2", "u2", mar));
+        hot.save(loan("l3", "u1", recent));
+        hot.save(loan("l4", "u1", null));
+
+        LoanArchive archive = new LoanArchive(dir.resolve("archive"));
+        LoanArchiver archiver = new LoanArchiver(loans, archive, Duration.ofDays(30));
+        assertEquals(2, archiver.archiveNow());
+        assertEquals(List.of("l3", "l4"), ids(hot.findAll()));
+        assertEquals(List.of(YearMonth.of(2024, 1), YearMonth.of(2024, 3)), archive.segments());
+        assertTrue(Files.exists(dir.resolve("archive").resolve("loans-2024-01.json.gz")));
+        assertEquals(0, archiver.archiveNow());
+
+        // solo il segmento di marzo è letto; to è escluso
+        List<Loan> march = archive.find(LocalDate.of(2024, 3, 1).atStartOfDay(), LocalDate.of(2024, 4, 1).atStartOfDay(), l -> true);
+        assertEquals(List.of("l2"), ids(march));
+        assertEquals(mar, march.get(0).getReturnedAt());
+        assertEquals(1L, archive.stats().get("segmentsPruned"));
+
+        // lo storico unisce archivio e prestiti restituiti ancora attivi, filtrando per utente
+        assertEquals(List.of("l1", "l3"), ids(archiver.history(null, null, "u1", null)));
+        assertEquals(List.of("l1", "l2"), ids(archiver.history(null, LocalDate.of(2024, 12, 31).atStartOfDay(), null, null)));
+
+        // una nuova archiviazione dello stesso prestito lo sostituisce senza doppioni
+        archive.append(List.of(loan("l1", "u9", jan)));
+        List<Loan> again = archive.find(null, null, l -> true);
+        assertEquals(List.of("l1", "l2"), ids(again));
+        assertEquals("u9", again.get(0).getUserId());
+        assertThrows(IllegalArgumentException.class, () -> archive.append(List.of(loan("l5", "u1", null))));
+    }
+
+    @Test
+    public void testLoanEditedDuringArchivingStaysActive() throws Exception {
+        LocalDateTime jan = LocalDate.of(2024, 1, 20).atTime(10, 0);
+        // modifica concorrente simulata tra la lettura dei prestiti e la loro rimozione
+        JsonLoanRepository hot = new JsonLoanRepository(dir.resolve("loans.json").toString()) {
+            @Override
+            public List<String> deleteIf(Collection<String> ids, Predicate<Loan> condition) {
+                Loan edited = loan("l1", "u1", jan);
+                edited.setDueAt(jan.plusDays(30));
+                save(edited);
+                return super.deleteIf(ids, condition);
+            }
+        };
+        hot.save(loan("l1", "u1", jan));
+        hot.save(loan("l2", "u1", jan));
+        LoanArchiver archiver = new LoanArchiver(new LoanService(hot), new LoanArchive(dir.resolve("archive")), Duration.ofDays(30));
+
+        assertEquals(1, archiver.archiveNow());
+        assertEquals(List.of("l1"), ids(hot.findAll()));
+        assertEquals(jan.plusDays(30), hot.findById("l1").get().getDueAt());
+        // lo storico preferisce la versione ancora attiva alla copia archiviata
+        assertEquals(jan.plusDays(30), archiver.history(null, null, null, null).get(0).getDueAt());
+    }
+}
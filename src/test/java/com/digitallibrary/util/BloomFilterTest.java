@@ -0,0 +1,33 @@
+package com.digitallibrary.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter f = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) f.add(IdGenerator.generate() + i);
+        f.add("book-1");
+        assertTrue(f.mightContain("book-1"));
+    }
+
+    @Test
+    public void testFalsePositiveRateNearTarget() {
+        BloomFilter f = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) f.add("id-" + i);
+        for (int i = 0; i < 10_000; i++) assertTrue(f.mightContain("id-" + i));
+        int fp = 0;
+        for (int i = 0; i < 100_000; i++) if (f.mightContain("absent-" + i)) fp++;
+        assertTrue(fp < 2_000, "troppi falsi positivi: " + fp);
+        assertTrue(f.expectedFalsePositiveRate() < 0.02);
+    }
+
+    @Test
+    public void testRejectsInvalidRate() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 1));
+    }
+}
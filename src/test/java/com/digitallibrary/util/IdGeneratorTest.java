@@ -0,0 +1,44 @@
+package com.digitallibrary.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdGeneratorTest {
+
+    @Test
+    public void testGeneratedIdsAreVersion7UuidStrings() {
+        String id = IdGenerator.generate();
+        UUID parsed = UUID.fromString(id);
+        assertEquals(7, parsed.version());
+        assertEquals(2, parsed.variant());
+        assertEquals(id, parsed.toString());
+    }
+
+    @Test
+    public void testIdsAreTimeOrdered() throws InterruptedException {
+        String first = IdGenerator.generate();
+        Thread.sleep(2);
+        String second = IdGenerator.generate();
+        assertTrue(first.compareTo(second) < 0);
+        assertTrue(CompactId.of(first).compareTo(CompactId.of(second)) < 0);
+    }
+
+    @Test
+    public void testCompactIdRoundTrip() {
+        String uuid = UUID.randomUUID().toString();
+        CompactId packed = CompactId.of(uuid);
+        assertTrue(packed.isPacked());
+        assertEquals(uuid, packed.toString());
+        assertEquals(CompactId.of(uuid), packed);
+
+        CompactId legacy = CompactId.of("book-1");
+        assertFalse(legacy.isPacked());
+        assertEquals("book-1", legacy.toString());
+        assertNotEquals(packed, legacy);
+        // maiuscole: non canonico, conservato come testo
+        assertEquals(uuid.toUpperCase(), CompactId.of(uuid.toUpperCase()).toString());
+    }
+}
@@ -0,0 +1,45 @@
+package com.digitallibrary.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IsbnTest {
+
+    @Test
+    public void testIsbn10IsConvertedToCanonicalIsbn13() {
+        assertEquals(9780306406157L, Isbn.parse("0-306-40615-2"));
+        assertEquals(9780804429573L, Isbn.parse("080442957X"));
+        assertEquals("9780306406157", Isbn.format(Isbn.parse("0306406152")));
+        assertEquals("0306406152", Isbn.formatIsbn10(9780306406157L));
+        assertEquals("080442957X", Isbn.formatIsbn10(9780804429573L));
+    }
+
+    @Test
+    public void testIsbn13ChecksumIsVerifiedOnlyByParse() {
+        assertEquals(Isbn.INVALID, Isbn.parse("9780306406158"));
+        assertEquals(9780306406158L, Isbn.normalize("9780306406158"));
+        assertTrue(Isbn.hasValidStructure("9780306406158"));
+    }
+
+    @Test
+    public void testIsbn10WithWrongCheckDigitHasNoKey() {
+        assertEquals(Isbn.INVALID, Isbn.parse("0306406153"));
+        // la conversione ricalcolerebbe la cifra: 0306406153 e 0306406154 avrebbero la chiave di 0306406152
+        assertEquals(Isbn.INVALID, Isbn.normalize("0306406153"));
+        assertEquals(Isbn.INVALID, Isbn.normalize("0306406154"));
+        assertEquals(9780306406157L, Isbn.normalize("0306406152"));
+        assertTrue(Isbn.hasValidStructure("0306406153"));
+    }
+
+    @Test
+    public void testMalformedInputIsRejected() {
+        assertEquals(Isbn.INVALID, Isbn.normalize(null));
+        assertEquals(Isbn.INVALID, Isbn.normalize(""));
+        assertEquals(Isbn.INVALID, Isbn.normalize("12345"));
+        assertEquals(Isbn.INVALID, Isbn.normalize("97803064061570"));
+        assertEquals(Isbn.INVALID, Isbn.normalize("978030640615X"));
+        assertEquals(Isbn.INVALID, Isbn.normalize("03064X6152"));
+        assertEquals(Isbn.INVALID, Isbn.normalize("abc"));
+    }
+}
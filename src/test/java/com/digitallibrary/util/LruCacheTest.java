@@ -0,0 +1,53 @@
+package com.digitallibrary.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LruCacheTest {
+
+    @Test
+    public void testHitsMissesAndInvalidation() {
+        LruCache<String, String> cache = new LruCache<>(100, 0);
+        assertNull(cache.get("a"));
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        LruCache.Stats stats = cache.stats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+    }
+
+    @Test
+    public void testValueReadBeforeInvalidationIsNotCached() {
+        LruCache<String, String> cache = new LruCache<>(100, 0);
+        // lettore: stamp, poi lettura lenta dalla sorgente; nel frattempo una scrittura invalida
+        long stamp = cache.stamp("a");
+        cache.invalidate("a");
+        assertFalse(cache.putIfUnchanged("a", "vecchio", stamp));
+        assertNull(cache.get("a"));
+        assertTrue(cache.putIfUnchanged("a", "nuovo", cache.stamp("a")));
+        assertEquals("nuovo", cache.get("a"));
+    }
+
+    @Test
+    public void testWeightBoundEvictsLeastRecentlyUsed() {
+        LruCache<Integer, String> cache = new LruCache<>(16 * 10, 0, (k, v) -> v.length());
+        for (int i = 0; i < 1000; i++) cache.put(i, "xxxxx");
+        LruCache.Stats stats = cache.stats();
+        assertTrue(stats.getWeight() <= 160, "peso oltre il limite: " + stats.getWeight());
+        assertTrue(stats.getEvictions() > 0);
+        // l'ultima voce inserita è la più recente e resta in cache
+        assertEquals("xxxxx", cache.get(999));
+    }
+
+    @Test
+    public void testTtlExpiresEntries() throws InterruptedException {
+        LruCache<String, String> cache = new LruCache<>(10, 1);
+        cache.put("a", "A");
+        Thread.sleep(1100);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.stats().getExpirations());
+    }
+}
@@ -0,0 +1,77 @@
+package com.digitallibrary.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelScanTest {
+
+    private final ParallelScan scanner = new ParallelScan(4);
+
+    @AfterEach
+    public void shutdown() {
+        scanner.shutdown();
+    }
+
+    private static List<Integer> numbers(int n) {
+        return IntStream.range(0, n).boxed().collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    @Test
+    public void testParallelismDependsOnSize() {
+        assertEquals(1, scanner.parallelismFor(1_000));
+        assertEquals(1, scanner.parallelismFor(ParallelScan.SEQUENTIAL_THRESHOLD - 1));
+        assertEquals(2, scanner.parallelismFor(ParallelScan.ITEMS_PER_WORKER * 2 + 1));
+        assertEquals(4, scanner.parallelismFor(1_000_000));
+        // dimensione sconosciuta: non si divide
+        assertEquals(1, scanner.parallelismFor(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testFilterKeepsEncounterOrder() {
+        List<Integer> source = numbers(200_000);
+        List<Integer> even = scanner.filter(source.spliterator(), n -> n % 2 == 0);
+        assertEquals(100_000, even.size());
+        for (int i = 0; i < even.size(); i++) assertEquals(2 * i, even.get(i));
+        assertEquals(1L, scanner.stats().get("parallelScans"));
+        assertTrue((Long) scanner.stats().get("tasks") > 4);
+    }
+
+    @Test
+    public void testAggregations() {
+        List<Integer> source = numbers(100_000);
+        assertEquals(33_334, scanner.count(source.spliterator(), n -> n % 3 == 0));
+        Map<Integer, Long> byDigit = scanner.countBy(source.spliterator(), n -> n % 10);
+        assertEquals(10, byDigit.size());
+        for (long c : byDigit.values()) assertEquals(10_000L, c);
+        long sum = scanner.aggregate(source.spliterator(), () -> new long[1], (acc, n) -> acc[0] += n,
+            (a, b) -> { a[0] += b[0]; return a; })[0];
+        assertEquals(99_999L * 100_000L / 2, sum);
+    }
+
+    @Test
+    public void testSmallOrUnsizedSourcesStaySequential() {
+        assertEquals(List.of(2, 4), scanner.filter(List.of(1, 2, 3, 4).spliterator(), n -> n % 2 == 0));
+        List<Integer> big = numbers(50_000);
+        assertEquals(50_000, scanner.count(Spliterators.spliteratorUnknownSize(big.iterator(), 0), n -> true));
+        assertEquals(2L, scanner.stats().get("sequentialScans"));
+        assertEquals(0L, scanner.stats().get("parallelScans"));
+    }
+
+    @Test
+    public void testExceptionsReachTheCaller() {
+        List<Integer> source = numbers(100_000);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+            () -> scanner.count(source.spliterator(), n -> { if (n == 77_777) throw new IllegalStateException("boom"); return true; }));
+        // ForkJoinPool può riavvolgere l'eccezione per conservare lo stack del chiamante, ma il tipo resta lo stesso
+        assertTrue(e.getMessage().contains("boom"));
+    }
+}
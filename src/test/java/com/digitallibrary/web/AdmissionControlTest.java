@@ -0,0 +1,66 @@
+package com.digitallibrary.web;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControlTest {
+
+    @Test
+    public void testTokenBucketAllowsBurstThenAsksToRetry() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1, 3);
+        for (int i = 0; i < 3; i++) assertEquals(0, limiter.tryAcquire("10.0.0.1 /api/loans"));
+        assertEquals(1, limiter.tryAcquire("10.0.0.1 /api/loans"));
+        // bucket separati per client e per rotta
+        assertEquals(0, limiter.tryAcquire("10.0.0.2 /api/loans"));
+        assertEquals(0, limiter.tryAcquire("10.0.0.1 /api/books"));
+    }
+
+    @Test
+    public void testConcurrencyLimitRejectsBeyondLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, 2.0);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.getRejected());
+        limiter.release(1_000_000);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 2.0);
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire();
+            limiter.release(1_000_000);
+        }
+        int before = limiter.getLimit();
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire();
+            limiter.release(50_000_000);
+        }
+        assertTrue(limiter.getLimit() < before, "limite non ridotto: " + limiter.getLimit());
+    }
+
+    @Test
+    public void testLatencyFloorFollowsSlowerBackend() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 2.0, 20);
+        for (int i = 0; i < 20; i++) {
+            limiter.tryAcquire();
+            limiter.release(1_000_000);
+        }
+        // il backend diventa stabilmente più lento: il limite scende finché il vecchio minimo resta nella finestra
+        for (int i = 0; i < 40; i++) {
+            limiter.tryAcquire();
+            limiter.release(5_000_000);
+        }
+        assertEquals(5.0, limiter.getMinLatencyMillis(), 1e-9);
+        int settled = limiter.getLimit();
+        // poi smette di scendere: la nuova latenza è quella normale
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.release(5_000_000);
+        }
+        assertTrue(limiter.getLimit() >= settled, "limite ridotto: " + limiter.getLimit() + " < " + settled);
+    }
+}
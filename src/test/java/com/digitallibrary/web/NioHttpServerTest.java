@@ -0,0 +1,130 @@
+package com.digitallibrary.web;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioHttpServerTest {
+
+    private ExecutorService workers;
+    private NioHttpServer server;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        workers = Executors.newFixedThreadPool(2);
+        server = new NioHttpServer(new InetSocketAddress("localhost", 0), workers, 1);
+        server.createContext("/", ex -> {
+            byte[] body = ("root " + ex.getRequestURI().getPath()).getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        });
+        server.createContext("/echo", ex -> {
+            byte[] body = ex.getRequestBody().readAllBytes();
+            ex.sendResponseHeaders(201, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop();
+        workers.shutdownNow();
+    }
+
+    private String exchange(String rawRequests) throws Exception {
+        try (Socket s = new Socket("localhost", server.getPort())) {
+            s.setSoTimeout(5000);
+            s.getOutputStream().write(rawRequests.getBytes(StandardCharsets.ISO_8859_1));
+            InputStream in = s.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+            return out.toString(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    @Test
+    public void testPipelinedRequestsAnsweredInOrder() throws Exception {
+        String response = exchange(
+            "GET /a HTTP/1.1\r\nHost: x\r\n\r\n"
+            + "POST /echo HTTP/1.1\r\nHost: x\r\nContent-Length: 5\r\n\r\nhello"
+            + "GET /b HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+        int a = response.indexOf("root /a");
+        int echo = response.indexOf("HTTP/1.1 201 Created");
+        int b = response.indexOf("root /b");
+        assertTrue(a > 0 && echo > a && b > echo, response);
+        assertTrue(response.contains("\r\n\r\nhello"));
+        assertTrue(response.contains("Connection: close"));
+    }
+
+    @Test
+    public void testContextFiltersAndAuthenticatorRunAsInTheJdkEngine() throws Exception {
+        HttpContext ctx = server.createContext("/upper", ex -> {
+            byte[] body = (ex.getHttpContext().getPath() + " " + ex.getPrincipal().getUsername()).getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        });
+        assertSame(server, ctx.getServer());
+        // filtro che sostituisce lo stream della risposta con setStreams
+        ctx.getFilters().add(new Filter() {
+            @Override
+            public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+                OutputStream raw = ex.getResponseBody();
+                ex.setStreams(null, new FilterOutputStream(raw) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(Character.toUpperCase(b));
+                    }
+                });
+                chain.doFilter(ex);
+            }
+
+            @Override
+            public String description() {
+                return "maiuscole";
+            }
+        });
+        ctx.setAuthenticator(new Authenticator() {
+            @Override
+            public Result authenticate(HttpExchange ex) {
+                return ex.getRequestHeaders().containsKey("X-User")
+                    ? new Success(new HttpPrincipal(ex.getRequestHeaders().getFirst("X-User"), "test"))
+                    : new Failure(401);
+            }
+        });
+
+        String ok = exchange("GET /upper HTTP/1.1\r\nHost: x\r\nX-User: anna\r\nConnection: close\r\n\r\n");
+        assertTrue(ok.startsWith("HTTP/1.1 200") && ok.endsWith("/UPPER ANNA"), ok);
+        String denied = exchange("GET /upper HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+        assertTrue(denied.startsWith("HTTP/1.1 401"), denied);
+
+        server.removeContext(ctx);
+        assertTrue(exchange("GET /upper HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n").contains("root /upper"));
+    }
+
+    @Test
+    public void testMalformedRequestGets400AndClose() throws Exception {
+        String response = exchange("NONSENSE\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 400"), response);
+    }
+}
@@ -0,0 +1,33 @@
+package com.digitallibrary.web;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PathTemplateTest {
+
+    @Test
+    public void testCapturesVariables() {
+        PathTemplate t = PathTemplate.compile("/api/loans/{id}/return");
+        assertArrayEquals(new String[]{"abc"}, t.match("/api/loans/abc/return"));
+        assertArrayEquals(new String[]{"abc"}, t.match("/api/loans/abc/return/"));
+    }
+
+    @Test
+    public void testRejectsOtherShapes() {
+        PathTemplate t = PathTemplate.compile("/api/books/{id}");
+        assertNull(t.match("/api/books"));
+        assertNull(t.match("/api/books/"));
+        assertNull(t.match("/api/books//"));
+        assertNull(t.match("/api/books/1/2"));
+        assertNull(t.match("/api/bookss/1"));
+        assertNull(t.match("/api/book/1"));
+        assertArrayEquals(new String[]{"1"}, t.match("/api/books/1"));
+    }
+
+    @Test
+    public void testInvalidTemplate() {
+        assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("api/books"));
+        assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("/api//books"));
+    }
+}
@@ -8,7 +8,7 @@ async function loadBooks() {
   const list = document.getElementById('books');
   list.innerHTML = 'Loading...';
   try {
-    const books = await fetchJson('/api/books');
+    const books = await fetchJson('/api/books?view=summary');
     if (!books || books.length === 0) {
       list.innerHTML = '<div>(nessun libro)</div>';
       populateBookSelects([]);
@@ -32,7 +32,7 @@ async function loadBooks() {
 async function loadUsers() {
   const el = document.getElementById('users'); el.innerHTML = 'Loading...';
   try {
-    const users = await fetchJson('/api/users');
+    const users = await fetchJson('/api/users?view=summary');
     if (!users || users.length === 0) { el.innerHTML = '<div>(nessun utente)</div>'; populateUserSelect([]); return; }
     el.innerHTML = users.map(u => `
       <div class="card-item">